@@ -1,9 +1,14 @@
 package bdv;
 
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import mpicbg.spim.data.generic.AbstractSpimData;
 import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
@@ -22,16 +27,161 @@ import net.imglib2.type.numeric.NumericType;
 import net.imglib2.view.Views;
 import bdv.viewer.Interpolation;
 import bdv.viewer.Source;
+import bdv.viewer.render.PrepareTimepoint;
 
-public abstract class AbstractSpimSource< T extends NumericType< T > > implements Source< T >
+/**
+ * Base class for sources that show one setup of a {@link AbstractSpimData}
+ * dataset.
+ *
+ * <p>
+ * Images and interpolated images are created lazily, for each (timepoint,
+ * level) when they are first requested. Source transforms are computed when
+ * a timepoint is first requested, without touching the images. Created
+ * sources of recently used timepoints are kept in a small bounded map.
+ * Created sources are immutable and published through atomic references, so
+ * the accessors are not synchronized: a rendering thread asking for a level
+ * that is available never waits for another thread creating a different
+ * level or timepoint (which may involve metadata I/O). The renderer does not
+ * create them at all: it {@link PrepareTimepoint prepares} a new timepoint in
+ * the background before rendering it.
+ */
+public abstract class AbstractSpimSource< T extends NumericType< T > > implements Source< T >, PrepareTimepoint
 {
-	protected int currentTimePointIndex;
+	/**
+	 * Maximum number of timepoints for which created sources are kept.
+	 */
+	protected static final int MAX_NUM_CACHED_TIMEPOINTS = 8;
 
-	protected RandomAccessibleInterval< T >[] currentSources;
+	/**
+	 * Creates the images of timepoints in the background, see
+	 * {@link #prepareTimepoint(int, Runnable)}. Shared by all sources, because
+	 * they usually read from the same file.
+	 */
+	private static final ExecutorService preparer = Executors.newSingleThreadExecutor( new ThreadFactory()
+	{
+		@Override
+		public Thread newThread( final Runnable r )
+		{
+			final Thread t = new Thread( r, "AbstractSpimSource-prepare" );
+			t.setDaemon( true );
+			return t;
+		}
+	} );
+
+	/**
+	 * Image and interpolated images of one (timepoint, level).
+	 */
+	protected static final class LevelSources< T >
+	{
+		final RandomAccessibleInterval< T > source;
+
+		final RealRandomAccessible< T >[] interpolatedSources;
+
+		LevelSources( final RandomAccessibleInterval< T > source, final RealRandomAccessible< T >[] interpolatedSources )
+		{
+			this.source = source;
+			this.interpolatedSources = interpolatedSources;
+		}
+	}
+
+	/**
+	 * Source transforms and lazily created {@link LevelSources} of one
+	 * timepoint.
+	 */
+	protected final class TimepointSources
+	{
+		final int timepointIndex;
+
+		final ViewId viewId;
+
+		final AffineTransform3D[] sourceTransforms;
 
-	protected RealRandomAccessible< T >[][] currentInterpolatedSources;
+		final AtomicReferenceArray< LevelSources< T > > levels;
+
+		TimepointSources( final int timepointIndex )
+		{
+			this.timepointIndex = timepointIndex;
+			sourceTransforms = new AffineTransform3D[ numMipmapLevels ];
+			levels = new AtomicReferenceArray< LevelSources< T > >( numMipmapLevels );
+			if ( isPresent( timepointIndex ) )
+			{
+				final int timepointId = timePointsOrdered.get( timepointIndex ).getId();
+				viewId = new ViewId( timepointId, setupId );
+				final AffineTransform3D reg = viewRegistrations.get( viewId ).getModel();
+				final AffineTransform3D[] mipmapTransforms = getMipmapTransforms();
+				for ( int level = 0; level < numMipmapLevels; level++ )
+				{
+					sourceTransforms[ level ] = reg.copy();
+					sourceTransforms[ level ].concatenate( mipmapTransforms[ level ] );
+				}
+			}
+			else
+			{
+				viewId = null;
+				for ( int level = 0; level < numMipmapLevels; level++ )
+					sourceTransforms[ level ] = new AffineTransform3D();
+			}
+		}
+
+		/**
+		 * Get the sources for the given level, creating them if necessary.
+		 *
+		 * @return sources of the level, or null if the timepoint is not
+		 *         present.
+		 */
+		LevelSources< T > getLevel( final int level )
+		{
+			if ( viewId == null )
+				return null;
+			final LevelSources< T > existing = levels.get( level );
+			if ( existing != null )
+				return existing;
+
+			// Create outside of any lock. If several threads race, the first
+			// one to finish wins and the others use its result.
+			final T zero = getType().createVariable();
+			zero.setZero();
+			final RandomAccessibleInterval< T > source = getImage( viewId, level );
+			@SuppressWarnings( "unchecked" )
+			final RealRandomAccessible< T >[] interpolatedSources = new RealRandomAccessible[ numInterpolationMethods ];
+			for ( int method = 0; method < numInterpolationMethods; ++method )
+				interpolatedSources[ method ] = Views.interpolate( Views.extendValue( source, zero ), interpolatorFactories[ method ] );
+			levels.compareAndSet( level, null, new LevelSources< T >( source, interpolatedSources ) );
+			return levels.get( level );
+		}
 
-	protected final AffineTransform3D[] currentSourceTransforms;
+		/**
+		 * Set if creating the sources in the background failed. The renderer
+		 * then creates them itself, as if they were prepared, such that the
+		 * failure surfaces there instead of being retried forever.
+		 */
+		volatile boolean preparationFailed;
+
+		/**
+		 * Whether the sources of all levels are created.
+		 */
+		boolean isPrepared()
+		{
+			if ( viewId == null || preparationFailed )
+				return true;
+			for ( int level = 0; level < numMipmapLevels; ++level )
+				if ( levels.get( level ) == null )
+					return false;
+			return true;
+		}
+	}
+
+	/**
+	 * The most recently requested timepoint. Accessing it again does not
+	 * require any locking.
+	 */
+	protected volatile TimepointSources currentTimepoint;
+
+	/**
+	 * Recently used timepoints, in access order. Guarded by synchronizing on
+	 * the map.
+	 */
+	private final LinkedHashMap< Integer, TimepointSources > cachedTimepoints;
 
 	protected final int setupId;
 
@@ -68,46 +218,92 @@ public abstract class AbstractSpimSource< T extends NumericType< T > > implement
 				: seq.getMissingViews().getMissingViews();
 		voxelDimensions = seq.getViewSetups().get( setupId ).getVoxelSize();
 		numMipmapLevels = ( ( ViewerImgLoader< ?, ? > ) seq.getImgLoader() ).numMipmapLevels( setupId );
-		currentSources = new RandomAccessibleInterval[ numMipmapLevels ];
-		currentInterpolatedSources = new RealRandomAccessible[ numMipmapLevels ][ numInterpolationMethods ];
-		currentSourceTransforms = new AffineTransform3D[ numMipmapLevels ];
-		for ( int level = 0; level < numMipmapLevels; level++ )
-			currentSourceTransforms[ level ] = new AffineTransform3D();
+		cachedTimepoints = new LinkedHashMap< Integer, TimepointSources >( 16, 0.75f, true )
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry( final Map.Entry< Integer, TimepointSources > eldest )
+			{
+				return size() > MAX_NUM_CACHED_TIMEPOINTS;
+			}
+		};
 		interpolatorFactories = new InterpolatorFactory[ numInterpolationMethods ];
 		interpolatorFactories[ iNearestNeighborMethod ] = new NearestNeighborInterpolatorFactory< T >();
 		interpolatorFactories[ iNLinearMethod ] = new NLinearInterpolatorFactory< T >();
 	}
 
+	/**
+	 * Make {@code timepointIndex} the current timepoint. This only computes
+	 * source transforms, images are created when they are first requested.
+	 */
 	protected void loadTimepoint( final int timepointIndex )
 	{
-		currentTimePointIndex = timepointIndex;
-		if ( isPresent( timepointIndex ) )
+		getTimepoint( timepointIndex );
+	}
+
+	/**
+	 * Get the {@link TimepointSources} for a timepoint, from the current
+	 * timepoint or the map of recently used timepoints if possible.
+	 */
+	protected TimepointSources getTimepoint( final int timepointIndex )
+	{
+		final TimepointSources current = currentTimepoint;
+		if ( current != null && current.timepointIndex == timepointIndex )
+			return current;
+		TimepointSources sources;
+		synchronized ( cachedTimepoints )
 		{
-			final T zero = getType().createVariable();
-			zero.setZero();
-			final int timepointId = timePointsOrdered.get( timepointIndex ).getId();
-			final ViewId viewId = new ViewId( timepointId, setupId );
-			final AffineTransform3D reg = viewRegistrations.get( viewId ).getModel();
-			for ( int level = 0; level < currentSources.length; level++ )
+			sources = cachedTimepoints.get( timepointIndex );
+		}
+		if ( sources == null )
+		{
+			sources = new TimepointSources( timepointIndex );
+			synchronized ( cachedTimepoints )
 			{
-				final AffineTransform3D mipmapTransform = getMipmapTransforms()[ level ];
-				currentSourceTransforms[ level ].set( reg );
-				currentSourceTransforms[ level ].concatenate( mipmapTransform );
-				currentSources[ level ] = getImage( viewId, level );
-				for ( int method = 0; method < numInterpolationMethods; ++method )
-					currentInterpolatedSources[ level ][ method ] = Views.interpolate( Views.extendValue( currentSources[ level ], zero ), interpolatorFactories[ method ] );
+				final TimepointSources existing = cachedTimepoints.get( timepointIndex );
+				if ( existing != null )
+					sources = existing;
+				else
+					cachedTimepoints.put( timepointIndex, sources );
 			}
 		}
-		else
+		currentTimepoint = sources;
+		return sources;
+	}
+
+	@Override
+	public boolean isTimepointPrepared( final int t )
+	{
+		return getTimepoint( t ).isPrepared();
+	}
+
+	/**
+	 * Create the sources of all levels of timepoint {@code t} on a background
+	 * thread, coarsest level first.
+	 */
+	@Override
+	public void prepareTimepoint( final int t, final Runnable whenPrepared )
+	{
+		final TimepointSources sources = getTimepoint( t );
+		preparer.execute( new Runnable()
 		{
-			for ( int level = 0; level < currentSources.length; level++ )
+			@Override
+			public void run()
 			{
-				currentSourceTransforms[ level ].identity();
-				currentSources[ level ] = null;
-				for ( int method = 0; method < numInterpolationMethods; ++method )
-					currentInterpolatedSources[ level ][ method ] = null;
+				try
+				{
+					for ( int level = numMipmapLevels - 1; level >= 0; --level )
+						sources.getLevel( level );
+				}
+				catch ( final RuntimeException e )
+				{
+					e.printStackTrace();
+					sources.preparationFailed = true;
+				}
+				whenPrepared.run();
 			}
-		}
+		} );
 	}
 
 	protected abstract AffineTransform3D[] getMipmapTransforms();
@@ -121,27 +317,23 @@ public abstract class AbstractSpimSource< T extends NumericType< T > > implement
 	}
 
 	@Override
-	public synchronized RandomAccessibleInterval< T > getSource( final int t, final int level )
+	public RandomAccessibleInterval< T > getSource( final int t, final int level )
 	{
-		if ( t != currentTimePointIndex )
-			loadTimepoint( t );
-		return currentSources[ level ];
+		final LevelSources< T > sources = getTimepoint( t ).getLevel( level );
+		return sources == null ? null : sources.source;
 	}
 
 	@Override
-	public synchronized RealRandomAccessible< T > getInterpolatedSource( final int t, final int level, final Interpolation method )
+	public RealRandomAccessible< T > getInterpolatedSource( final int t, final int level, final Interpolation method )
 	{
-		if ( t != currentTimePointIndex )
-			loadTimepoint( t );
-		return currentInterpolatedSources[ level ][ method == Interpolation.NLINEAR ? iNLinearMethod : iNearestNeighborMethod ];
+		final LevelSources< T > sources = getTimepoint( t ).getLevel( level );
+		return sources == null ? null : sources.interpolatedSources[ method == Interpolation.NLINEAR ? iNLinearMethod : iNearestNeighborMethod ];
 	}
 
 	@Override
-	public synchronized void getSourceTransform( final int t, final int level, final AffineTransform3D transform )
+	public void getSourceTransform( final int t, final int level, final AffineTransform3D transform )
 	{
-		if ( t != currentTimePointIndex )
-			loadTimepoint( t );
-		transform.set( currentSourceTransforms[ level ] );
+		transform.set( getTimepoint( t ).sourceTransforms[ level ] );
 	}
 
 	@Override
@@ -1,5 +1,7 @@
 package bdv;
 
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
@@ -44,6 +46,7 @@ import bdv.tools.HelpDialog;
 import bdv.tools.InitializeViewerState;
 import bdv.tools.RecordMovieDialog;
 import bdv.tools.VisibilityAndGroupingDialog;
+import bdv.tools.WarmStartSnapshot;
 import bdv.tools.bookmarks.Bookmarks;
 import bdv.tools.bookmarks.BookmarksEditor;
 import bdv.tools.brightness.BrightnessDialog;
@@ -63,6 +66,8 @@ import bdv.viewer.ViewerPanel;
 
 public class BigDataViewer
 {
+	protected final SpimDataMinimal spimData;
+
 	protected final ViewerFrame viewerFrame;
 
 	protected final ViewerPanel viewer;
@@ -252,13 +257,22 @@ public class BigDataViewer
 		final int width = 800;
 		final int height = 600;
 
-		final SpimDataMinimal spimData = new XmlIoSpimDataMinimal().load( xmlFilename );
+		spimData = new XmlIoSpimDataMinimal().load( xmlFilename );
 		if ( WrapBasicImgLoader.wrapImgLoaderIfNecessary( spimData ) )
 		{
 			System.err.println( "WARNING:\nOpening <SpimData> dataset that is not suited for interactive browsing.\nConsider resaving as HDF5 for better performance." );
 		}
 		final AbstractSequenceDescription< ?, ?, ? > seq = spimData.getSequenceDescription();
 
+		// restore metadata and start loading the cells of the last session
+		// while the viewer is set up
+		final WarmStartSnapshot snapshot = WarmStartSnapshot.isEnabled() ? WarmStartSnapshot.load( xmlFilename ) : null;
+		if ( snapshot != null )
+		{
+			snapshot.restoreMetadata( seq );
+			snapshot.prefetchCells( seq );
+		}
+
 		final ArrayList< ConverterSetup > converterSetups = new ArrayList< ConverterSetup >();
 		final ArrayList< SourceAndConverter< ? > > sources = new ArrayList< SourceAndConverter< ? > >();
 		initSetups( spimData, converterSetups, sources );
@@ -387,9 +401,38 @@ public class BigDataViewer
 		if ( !tryLoadSettings( xmlFilename ) )
 			InitializeViewerState.initBrightness( 0.001, 0.999, viewer, setupAssignments );
 
+		if ( snapshot != null )
+		{
+			snapshot.restoreViewerState( viewer );
+			activeSourcesDialog.update();
+		}
+		if ( WarmStartSnapshot.isEnabled() )
+		{
+			viewerFrame.addWindowListener( new WindowAdapter()
+			{
+				@Override
+				public void windowClosing( final WindowEvent e )
+				{
+					try
+					{
+						WarmStartSnapshot.create( xmlFilename, viewer, seq ).save( WarmStartSnapshot.getSnapshotFile( xmlFilename ) );
+					}
+					catch ( final IOException ex )
+					{
+						ex.printStackTrace();
+					}
+				}
+			} );
+		}
+
 //		( ( Hdf5ImageLoader ) seq.imgLoader ).initCachedDimensionsFromHdf5( false );
 	}
 
+	public SpimDataMinimal getSpimData()
+	{
+		return spimData;
+	}
+
 	public ViewerPanel getViewer()
 	{
 		return viewer;
@@ -0,0 +1,186 @@
+package bdv;
+
+import java.awt.GraphicsEnvironment;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import mpicbg.spim.data.SpimDataException;
+import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
+import mpicbg.spim.data.sequence.TimePoint;
+import bdv.export.ProgressWriterConsole;
+import bdv.img.cache.Cache;
+import bdv.img.cache.VolatileGlobalCellCache;
+import bdv.img.hdf5.Hdf5ImageLoader;
+import bdv.img.remote.RemoteImageLoader;
+import bdv.spimdata.SpimDataMinimal;
+import bdv.spimdata.WrapBasicImgLoader;
+import bdv.spimdata.XmlIoSpimDataMinimal;
+import bdv.tools.WarmStartSnapshot;
+import bdv.tools.brightness.ConverterSetup;
+import bdv.viewer.SourceAndConverter;
+import bdv.viewer.ViewerFrame;
+
+/**
+ * Measure the time spent in the phases of opening a dataset in
+ * {@link BigDataViewer}:
+ * <ul>
+ * <li><em>xml</em>: parsing the dataset XML (this also creates the image
+ * loader),
+ * <li><em>open</em>: opening the image loader and its cache,
+ * <li><em>warmstart</em>: loading a {@link WarmStartSnapshot}, restoring
+ * metadata from it, and enqueueing its cells (only if warm start is enabled),
+ * <li><em>sources</em>: creating sources for all setups
+ * ({@link BigDataViewer#initSetups(mpicbg.spim.data.generic.AbstractSpimData, List, List)}),
+ * <li><em>frame</em>: creating the {@link ViewerFrame},
+ * <li><em>total</em>: the complete {@link BigDataViewer} constructor,
+ * including dialogs, measured in a separate run.
+ * </ul>
+ * Every repetition opens the dataset from scratch, with a new image loader
+ * that is closed at the end of the repetition. The frame phases are skipped in
+ * a headless environment. Note that after the first repetition, the files are
+ * likely to be in the operating system's file cache.
+ *
+ * <p>
+ * Usage: StartupBenchmark dataset.xml [repetitions]. Run with
+ * {@code -Dbdv.warmStart=true} to include warm start.
+ */
+public class StartupBenchmark
+{
+	private final LinkedHashMap< String, ArrayList< Long > > phaseNanos = new LinkedHashMap< String, ArrayList< Long > >();
+
+	private long t0;
+
+	private void start()
+	{
+		t0 = System.nanoTime();
+	}
+
+	private void stop( final String phase )
+	{
+		final long t = System.nanoTime() - t0;
+		ArrayList< Long > times = phaseNanos.get( phase );
+		if ( times == null )
+		{
+			times = new ArrayList< Long >();
+			phaseNanos.put( phase, times );
+		}
+		times.add( t );
+		t0 = System.nanoTime();
+	}
+
+	/**
+	 * Open the dataset once, timing each phase.
+	 */
+	public void run( final String xmlFilename ) throws SpimDataException
+	{
+		final boolean headless = GraphicsEnvironment.isHeadless();
+
+		start();
+		final SpimDataMinimal spimData = new XmlIoSpimDataMinimal().load( xmlFilename );
+		WrapBasicImgLoader.wrapImgLoaderIfNecessary( spimData );
+		final AbstractSequenceDescription< ?, ?, ? > seq = spimData.getSequenceDescription();
+		stop( "xml" );
+
+		try
+		{
+			final Cache cache = ( ( ViewerImgLoader< ?, ? > ) seq.getImgLoader() ).getCache();
+			stop( "open" );
+
+			if ( WarmStartSnapshot.isEnabled() )
+			{
+				final WarmStartSnapshot snapshot = WarmStartSnapshot.load( xmlFilename );
+				if ( snapshot != null )
+				{
+					snapshot.restoreMetadata( seq );
+					snapshot.prefetchCells( seq );
+				}
+				stop( "warmstart" );
+			}
+
+			final ArrayList< ConverterSetup > converterSetups = new ArrayList< ConverterSetup >();
+			final ArrayList< SourceAndConverter< ? > > sources = new ArrayList< SourceAndConverter< ? > >();
+			BigDataViewer.initSetups( spimData, converterSetups, sources );
+			stop( "sources" );
+
+			if ( headless )
+				return;
+
+			final List< TimePoint > timepoints = seq.getTimePoints().getTimePointsOrdered();
+			final ViewerFrame frame = new ViewerFrame( 800, 600, sources, timepoints.size(), cache );
+			stop( "frame" );
+			frame.getViewerPanel().stop();
+			frame.dispose();
+		}
+		finally
+		{
+			close( seq );
+		}
+
+		start();
+		final BigDataViewer bdv = new BigDataViewer( xmlFilename, xmlFilename, new ProgressWriterConsole() );
+		stop( "total" );
+		bdv.getViewer().stop();
+		bdv.getViewerFrame().dispose();
+		close( bdv.getSpimData().getSequenceDescription() );
+	}
+
+	/**
+	 * Stop the fetcher threads of the image loader of {@code seq} and close its
+	 * files, such that repetitions do not pile up threads, open files, and
+	 * cached data.
+	 */
+	private static void close( final AbstractSequenceDescription< ?, ?, ? > seq )
+	{
+		final Object imgLoader = seq.getImgLoader();
+		if ( imgLoader instanceof Hdf5ImageLoader )
+			( ( Hdf5ImageLoader ) imgLoader ).close();
+		else if ( imgLoader instanceof RemoteImageLoader )
+			( ( RemoteImageLoader ) imgLoader ).close();
+		else if ( imgLoader instanceof ViewerImgLoader )
+		{
+			final Cache cache = ( ( ViewerImgLoader< ?, ? > ) imgLoader ).getCache();
+			if ( cache instanceof VolatileGlobalCellCache )
+				( ( VolatileGlobalCellCache< ? > ) cache ).shutdown();
+		}
+	}
+
+	/**
+	 * Print min, median, and max time for each phase.
+	 */
+	public void print( final PrintStream out )
+	{
+		out.println( String.format( "%-10s %10s %10s %10s", "phase", "min ms", "median ms", "max ms" ) );
+		for ( final Map.Entry< String, ArrayList< Long > > entry : phaseNanos.entrySet() )
+		{
+			final long[] times = new long[ entry.getValue().size() ];
+			for ( int i = 0; i < times.length; ++i )
+				times[ i ] = entry.getValue().get( i );
+			Arrays.sort( times );
+			out.println( String.format( "%-10s %10.1f %10.1f %10.1f", entry.getKey(),
+					times[ 0 ] / 1e6, times[ times.length / 2 ] / 1e6, times[ times.length - 1 ] / 1e6 ) );
+		}
+	}
+
+	public static void main( final String[] args ) throws SpimDataException
+	{
+		if ( args.length < 1 )
+		{
+			System.err.println( "usage: StartupBenchmark <dataset.xml> [repetitions]" );
+			return;
+		}
+		final String xmlFilename = args[ 0 ];
+		final int repetitions = args.length > 1 ? Integer.parseInt( args[ 1 ] ) : 5;
+		final StartupBenchmark benchmark = new StartupBenchmark();
+		for ( int i = 0; i < repetitions; ++i )
+		{
+			System.out.println( "run " + ( i + 1 ) + " / " + repetitions );
+			benchmark.run( xmlFilename );
+		}
+		benchmark.print( System.out );
+		System.exit( 0 );
+	}
+}
@@ -69,9 +69,11 @@ public class VolatileSpimSource< T extends NumericType< T >, V extends Volatile<
 	@Override
 	public void setCacheHints( final int level, final CacheHints cacheHints )
 	{
-		if ( cacheHints != null )
+		final TimepointSources timepoint = currentTimepoint;
+		if ( cacheHints != null && timepoint != null )
 		{
-			final RandomAccessibleInterval< V > source = currentSources[ level ];
+			final LevelSources< V > sources = timepoint.getLevel( level );
+			final RandomAccessibleInterval< V > source = sources == null ? null : sources.source;
 			// The type check is currently necessary because it might be a
 			// constant RandomAccessibleInterval (for missing images, see
 			// Hdf5ImageLoader#getMissingDataImage)
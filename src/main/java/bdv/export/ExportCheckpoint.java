@@ -0,0 +1,126 @@
+package bdv.export;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashSet;
+
+import bdv.img.hdf5.Partition;
+import bdv.img.hdf5.ViewLevelId;
+
+/**
+ * Manifest of the (timepoint, setup, level) datasets that have been completely
+ * written to a hdf5 partition file. The manifest is a plain text file next to
+ * the hdf5 file, with one "timepoint setup level" line per completed dataset
+ * (ids are wrt. the partition). Lines are appended as datasets are finished,
+ * so an interrupted export can be resumed by
+ * {@link WriteSequenceToHdf5#writeHdf5PartitionFile(mpicbg.spim.data.generic.sequence.AbstractSequenceDescription, java.util.Map, boolean, Partition, boolean, ProgressWriter)
+ * writeHdf5PartitionFile} with {@code resume = true}.
+ */
+public class ExportCheckpoint
+{
+	private final File file;
+
+	private final HashSet< ViewLevelId > completed;
+
+	public ExportCheckpoint( final File file )
+	{
+		this.file = file;
+		completed = new HashSet< ViewLevelId >();
+	}
+
+	/**
+	 * Get the checkpoint manifest file for a partition. This is the partition
+	 * path with ".checkpoint" appended.
+	 */
+	public static File getCheckpointFile( final Partition partition )
+	{
+		return new File( partition.getPath() + ".checkpoint" );
+	}
+
+	public File getFile()
+	{
+		return file;
+	}
+
+	/**
+	 * Read the completed datasets from the manifest file, if it exists.
+	 */
+	public synchronized void load() throws IOException
+	{
+		completed.clear();
+		if ( !file.exists() )
+			return;
+		final BufferedReader reader = new BufferedReader( new FileReader( file ) );
+		try
+		{
+			for ( String line = reader.readLine(); line != null; line = reader.readLine() )
+			{
+				line = line.trim();
+				if ( line.isEmpty() || line.startsWith( "#" ) )
+					continue;
+				final String[] fields = line.split( "\\s+" );
+				if ( fields.length != 3 )
+					continue;
+				try
+				{
+					completed.add( new ViewLevelId(
+							Integer.parseInt( fields[ 0 ] ),
+							Integer.parseInt( fields[ 1 ] ),
+							Integer.parseInt( fields[ 2 ] ) ) );
+				}
+				catch ( final NumberFormatException e )
+				{
+					// ignore truncated last line of an interrupted write
+				}
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	public synchronized boolean isCompleted( final ViewLevelId id )
+	{
+		return completed.contains( id );
+	}
+
+	public synchronized int numCompleted()
+	{
+		return completed.size();
+	}
+
+	/**
+	 * Record that the given dataset has been completely written. The manifest
+	 * line is appended to the file immediately.
+	 */
+	public synchronized void markCompleted( final ViewLevelId id )
+	{
+		if ( !completed.add( id ) )
+			return;
+		try
+		{
+			final PrintWriter writer = new PrintWriter( new FileWriter( file, true ) );
+			writer.printf( "%d %d %d\n", id.getTimePointId(), id.getViewSetupId(), id.getLevel() );
+			writer.close();
+		}
+		catch ( final IOException e )
+		{
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Forget all completed datasets and delete the manifest file.
+	 */
+	public synchronized void clear()
+	{
+		completed.clear();
+		if ( file.exists() )
+			file.delete();
+	}
+}
@@ -0,0 +1,113 @@
+package bdv.export;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Accumulates bytes and time spent in the individual stages of writing a
+ * sequence to hdf5, such that per-stage throughput can be reported.
+ *
+ * <p>
+ * Times are summed over all threads working on a stage. The reported MB/s are
+ * therefore per-thread rates. Bytes are counted as the (uncompressed) size of
+ * the cell data produced or consumed by a stage.
+ */
+public class ExportThroughput
+{
+	public static enum Stage
+	{
+		/**
+		 * Reading full resolution cells from the source {@link mpicbg.spim.data.generic.sequence.BasicImgLoader}.
+		 */
+		READ( "read" ),
+
+		/**
+		 * Reading source data and computing downsampled cells.
+		 */
+		DOWNSAMPLE( "downsample" ),
+
+		/**
+		 * Compressing (if enabled) and writing cells in the hdf5 writer thread.
+		 */
+		WRITE( "compress+write" );
+
+		private final String name;
+
+		private Stage( final String name )
+		{
+			this.name = name;
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+	}
+
+	private final AtomicLongArray bytes;
+
+	private final AtomicLongArray nanos;
+
+	private final long startNanos;
+
+	public ExportThroughput()
+	{
+		bytes = new AtomicLongArray( Stage.values().length );
+		nanos = new AtomicLongArray( Stage.values().length );
+		startNanos = System.nanoTime();
+	}
+
+	/**
+	 * Record that {@code numBytes} were processed in {@code nanoTime}
+	 * nanoseconds in the given stage.
+	 */
+	public void add( final Stage stage, final long numBytes, final long nanoTime )
+	{
+		bytes.addAndGet( stage.ordinal(), numBytes );
+		nanos.addAndGet( stage.ordinal(), nanoTime );
+	}
+
+	public long getBytes( final Stage stage )
+	{
+		return bytes.get( stage.ordinal() );
+	}
+
+	public long getNanoTime( final Stage stage )
+	{
+		return nanos.get( stage.ordinal() );
+	}
+
+	/**
+	 * Get the per-thread throughput of a stage in megabytes per second.
+	 */
+	public double getMegaBytesPerSecond( final Stage stage )
+	{
+		final long t = getNanoTime( stage );
+		if ( t == 0 )
+			return 0;
+		return getBytes( stage ) * 1000.0 / ( 1024.0 * 1024.0 * ( t / 1000000.0 ) );
+	}
+
+	/**
+	 * Print throughput of all stages that processed any data, and the overall
+	 * wall-clock rate of written data.
+	 */
+	public void print( final PrintStream out )
+	{
+		for ( final Stage stage : Stage.values() )
+		{
+			final long b = getBytes( stage );
+			if ( b == 0 )
+				continue;
+			out.printf( "  %-15s %10.1f MB in %8.1f s  (%.1f MB/s per thread)\n",
+					stage.getName(),
+					b / ( 1024.0 * 1024.0 ),
+					getNanoTime( stage ) / 1e9,
+					getMegaBytesPerSecond( stage ) );
+		}
+		final double seconds = ( System.nanoTime() - startNanos ) / 1e9;
+		if ( seconds > 0 )
+			out.printf( "  %-15s %10.1f MB/s\n", "overall",
+					getBytes( Stage.WRITE ) / ( 1024.0 * 1024.0 * seconds ) );
+	}
+}
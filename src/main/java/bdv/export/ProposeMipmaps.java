@@ -17,6 +17,8 @@ import mpicbg.spim.data.sequence.VoxelDimensions;
  * currently. Chunksize is set as either 16x16x16 or 32x32x4 depending on which
  * one is closer to isotropic. It is very likely that more efficient choices can
  * be found by manual tuning, depending on hardware and use case.
+ * {@link ProposeMipmapsBenchmark} chooses chunk sizes by benchmarking candidate
+ * shapes on a sample of the actual data.
  *
  * @author Tobias Pietzsch <tobias.pietzsch@gmail.com>
  */
@@ -0,0 +1,491 @@
+package bdv.export;
+
+import static bdv.img.hdf5.Util.reorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import mpicbg.spim.data.SpimDataException;
+import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
+import mpicbg.spim.data.generic.sequence.BasicImgLoader;
+import mpicbg.spim.data.generic.sequence.BasicViewSetup;
+import mpicbg.spim.data.sequence.TimePoint;
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.FinalDimensions;
+import net.imglib2.Point;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.util.LinAlgHelpers;
+import net.imglib2.view.Views;
+import bdv.img.hdf5.HDF5AccessHack;
+import bdv.img.hdf5.Util;
+import bdv.spimdata.SequenceDescriptionMinimal;
+import bdv.spimdata.SpimDataMinimal;
+import bdv.spimdata.XmlIoSpimDataMinimal;
+import bdv.viewer.Interpolation;
+import bdv.viewer.render.Prefetcher;
+import ch.systemsx.cisd.base.mdarray.MDShortArray;
+import ch.systemsx.cisd.hdf5.HDF5Factory;
+import ch.systemsx.cisd.hdf5.HDF5IntStorageFeatures;
+import ch.systemsx.cisd.hdf5.IHDF5Reader;
+import ch.systemsx.cisd.hdf5.IHDF5Writer;
+
+/**
+ * Propose mipmap levels and chunk sizes, choosing the chunk size for each
+ * level by benchmarking candidate chunk shapes on a sample of the actual image
+ * data.
+ *
+ * <p>
+ * The subsampling factors are proposed by {@link ProposeMipmaps}. For every
+ * mipmap level, each of a list of candidate chunk shapes (cubic and 2D slabs
+ * in all three orientations) is evaluated as follows:
+ * <ul>
+ * <li>The expected number of cells needed to render one frame is estimated by
+ * running the {@link Prefetcher} for axis-aligned and randomly oriented
+ * slicing planes through the center of the level image, at a zoom where one
+ * level voxel maps to about one screen pixel.
+ * <li>A sample block from the center of the level image is written to a
+ * temporary hdf5 file with the candidate chunking. Then the mean time to read
+ * (and decode) one chunk, and the mean DEFLATE compressed chunk size are
+ * measured.
+ * </ul>
+ * The candidate with the smallest expected cost per frame (cells per frame
+ * times read time per cell) is chosen. Note that the sample file is likely to
+ * be in the operating system's file cache, so the measured read time mostly
+ * reflects hdf5 and decompression overhead, not disk latency.
+ */
+public class ProposeMipmapsBenchmark
+{
+	/**
+	 * Candidate chunk shapes evaluated by default.
+	 */
+	public static int[][] defaultCandidates()
+	{
+		return new int[][] {
+				{ 16, 16, 16 },
+				{ 32, 32, 32 },
+				{ 32, 32, 4 },
+				{ 32, 4, 32 },
+				{ 4, 32, 32 },
+				{ 64, 64, 2 },
+				{ 64, 2, 64 },
+				{ 2, 64, 64 },
+				{ 64, 64, 1 }
+		};
+	}
+
+	/**
+	 * Size of the simulated screen.
+	 */
+	private static final int screenWidth = 800;
+
+	private static final int screenHeight = 600;
+
+	/**
+	 * Number of randomly oriented slicing planes (in addition to the three
+	 * axis-aligned ones).
+	 */
+	private static final int numRandomOrientations = 20;
+
+	/**
+	 * Maximum size of the sample block (in each dimension, in pixels of the
+	 * respective mipmap level).
+	 */
+	private static final int maxSampleSize = 128;
+
+	/**
+	 * Benchmark results for one candidate chunk shape on one mipmap level.
+	 */
+	public static class Result
+	{
+		public final int[] chunkShape;
+
+		public final double cellsPerFrame;
+
+		public final double nanosPerCell;
+
+		public final double compressedBytesPerCell;
+
+		public final double uncompressedBytesPerCell;
+
+		public Result( final int[] chunkShape, final double cellsPerFrame, final double nanosPerCell, final double compressedBytesPerCell, final double uncompressedBytesPerCell )
+		{
+			this.chunkShape = chunkShape;
+			this.cellsPerFrame = cellsPerFrame;
+			this.nanosPerCell = nanosPerCell;
+			this.compressedBytesPerCell = compressedBytesPerCell;
+			this.uncompressedBytesPerCell = uncompressedBytesPerCell;
+		}
+
+		/**
+		 * Expected time (in nanoseconds) for loading the cells of one frame.
+		 */
+		public double getCostPerFrame()
+		{
+			return cellsPerFrame * nanosPerCell;
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format( "{%d,%d,%d}: %6.1f cells/frame, %8.1f us/cell, %8.0f / %8.0f bytes/cell, %8.2f ms/frame",
+					chunkShape[ 0 ], chunkShape[ 1 ], chunkShape[ 2 ],
+					cellsPerFrame,
+					nanosPerCell / 1000.0,
+					compressedBytesPerCell,
+					uncompressedBytesPerCell,
+					getCostPerFrame() / 1000000.0 );
+		}
+	}
+
+	/**
+	 * Propose mipmap levels and chunk sizes for each setup of the given
+	 * sequence. Benchmarks use the image of the first timepoint in which the
+	 * respective setup is present.
+	 *
+	 * @param seq
+	 *            the sequence. Its {@link BasicImgLoader} must provide
+	 *            {@link UnsignedShortType} images.
+	 * @param deflate
+	 *            whether the data will be compressed with the HDF5 DEFLATE
+	 *            filter.
+	 * @param progressWriter
+	 *            benchmark results will be printed here.
+	 * @return map from setup id to proposed mipmap settings
+	 */
+	public static Map< Integer, ExportMipmapInfo > proposeMipmaps( final AbstractSequenceDescription< ?, ?, ? > seq, final boolean deflate, ProgressWriter progressWriter )
+	{
+		if ( progressWriter == null )
+			progressWriter = new ProgressWriterConsole();
+
+		if ( ! ( seq.getImgLoader().getImageType() instanceof UnsignedShortType ) )
+			throw new IllegalArgumentException( "Expected BasicImgLoader<UnsignedShortType> but your dataset has BasicImgLoader<"
+					+ seq.getImgLoader().getImageType().getClass().getSimpleName() + ">.\nCurrently benchmarking is only supported for UnsignedShortType." );
+
+		@SuppressWarnings( "unchecked" )
+		final BasicImgLoader< UnsignedShortType > imgLoader = ( BasicImgLoader< UnsignedShortType > ) seq.getImgLoader();
+
+		final HashMap< Integer, ExportMipmapInfo > perSetupExportMipmapInfo = new HashMap< Integer, ExportMipmapInfo >();
+		for ( final BasicViewSetup setup : seq.getViewSetupsOrdered() )
+		{
+			final int setupId = setup.getId();
+			ViewId viewId = null;
+			for ( final TimePoint timepoint : seq.getTimePoints().getTimePointsOrdered() )
+			{
+				final ViewId v = new ViewId( timepoint.getId(), setupId );
+				if ( seq.getViewDescriptions().get( v ).isPresent() )
+				{
+					viewId = v;
+					break;
+				}
+			}
+			if ( viewId == null )
+				perSetupExportMipmapInfo.put( setupId, ProposeMipmaps.proposeMipmaps( setup ) );
+			else
+			{
+				progressWriter.out().println( "benchmarking setup " + setupId );
+				perSetupExportMipmapInfo.put( setupId, proposeMipmaps( setup, imgLoader.getImage( viewId ), deflate, defaultCandidates(), progressWriter ) );
+			}
+		}
+		return perSetupExportMipmapInfo;
+	}
+
+	/**
+	 * Propose mipmap levels and chunk sizes for the given setup, benchmarking
+	 * candidate chunk shapes on the given image.
+	 *
+	 * @param setup
+	 *            the setup (provides voxel size).
+	 * @param img
+	 *            full resolution image of the setup.
+	 * @param deflate
+	 *            whether the data will be compressed with the HDF5 DEFLATE
+	 *            filter.
+	 * @param candidates
+	 *            candidate chunk shapes.
+	 * @param progressWriter
+	 *            benchmark results will be printed here.
+	 * @return proposed mipmap settings
+	 */
+	public static ExportMipmapInfo proposeMipmaps(
+			final BasicViewSetup setup,
+			final RandomAccessibleInterval< UnsignedShortType > img,
+			final boolean deflate,
+			final int[][] candidates,
+			final ProgressWriter progressWriter )
+	{
+		final int[][] resolutions = ProposeMipmaps.proposeMipmaps( setup ).getExportResolutions();
+		final int numLevels = resolutions.length;
+		final int[][] subdivisions = new int[ numLevels ][];
+
+		final double[] voxelSize = new double[ 3 ];
+		setup.getVoxelSize().dimensions( voxelSize );
+
+		File tmpFile = null;
+		try
+		{
+			tmpFile = File.createTempFile( "bdv-chunk-benchmark", ".h5" );
+			for ( int level = 0; level < numLevels; ++level )
+			{
+				final int[] factor = resolutions[ level ];
+				final long[] levelDims = new long[ 3 ];
+				final double[] levelVoxelSize = new double[ 3 ];
+				for ( int d = 0; d < 3; ++d )
+				{
+					levelDims[ d ] = Math.max( img.dimension( d ) / factor[ d ], 1 );
+					levelVoxelSize[ d ] = voxelSize[ d ] * factor[ d ];
+				}
+				ProposeMipmaps.normalizeVoxelSize( levelVoxelSize );
+
+				final long[] sampleDims = new long[ 3 ];
+				final long[] sampleMin = new long[ 3 ];
+				for ( int d = 0; d < 3; ++d )
+				{
+					sampleDims[ d ] = Math.min( levelDims[ d ], maxSampleSize );
+					sampleMin[ d ] = ( levelDims[ d ] - sampleDims[ d ] ) / 2;
+				}
+				final ArrayImg< UnsignedShortType, ShortArray > sample = ArrayImgs.unsignedShorts( sampleDims );
+				Downsample.downsample( Views.extendBorder( img ), Views.translate( sample, sampleMin ), factor );
+				final short[] sampleData = sample.update( null ).getCurrentStorageArray();
+
+				progressWriter.out().println( "  level " + level + ", resolution " + net.imglib2.util.Util.printCoordinates( factor ) );
+				Result best = null;
+				for ( final int[] candidate : candidates )
+				{
+					final int[] chunkShape = new int[ 3 ];
+					for ( int d = 0; d < 3; ++d )
+						chunkShape[ d ] = ( int ) Math.min( candidate[ d ], sampleDims[ d ] );
+					final double cellsPerFrame = estimateCellsPerFrame( chunkShape, levelDims, levelVoxelSize );
+					final Result result = benchmarkReads( tmpFile, chunkShape, sampleData, sampleDims, deflate, cellsPerFrame );
+					progressWriter.out().println( "    " + result );
+					if ( best == null || result.getCostPerFrame() < best.getCostPerFrame() )
+						best = result;
+				}
+				subdivisions[ level ] = best.chunkShape;
+				progressWriter.out().println( "    chosen: " + net.imglib2.util.Util.printCoordinates( best.chunkShape ) );
+			}
+		}
+		catch ( final IOException e )
+		{
+			throw new RuntimeException( e );
+		}
+		finally
+		{
+			if ( tmpFile != null )
+				tmpFile.delete();
+		}
+		return new ExportMipmapInfo( resolutions, subdivisions );
+	}
+
+	/**
+	 * Estimate the number of cells needed to render one frame, averaged over
+	 * axis-aligned and random slicing planes through the center of the image.
+	 *
+	 * @param cellDimensions
+	 *            cell size.
+	 * @param dimensions
+	 *            image dimensions.
+	 * @param voxelSize
+	 *            normalized voxel size (smallest dimension is 1).
+	 */
+	public static double estimateCellsPerFrame( final int[] cellDimensions, final long[] dimensions, final double[] voxelSize )
+	{
+		final ArrayList< double[] > orientations = new ArrayList< double[] >();
+		final double c = Math.sqrt( 0.5 );
+		orientations.add( new double[] { 1, 0, 0, 0 } ); // XY
+		orientations.add( new double[] { c, c, 0, 0 } ); // XZ
+		orientations.add( new double[] { c, 0, c, 0 } ); // YZ
+		final Random random = new Random( 1 );
+		for ( int i = 0; i < numRandomOrientations; ++i )
+		{
+			final double[] q = new double[ 4 ];
+			for ( int j = 0; j < 4; ++j )
+				q[ j ] = random.nextGaussian();
+			LinAlgHelpers.normalize( q );
+			orientations.add( q );
+		}
+
+		final FinalDimensions screen = new FinalDimensions( new long[] { screenWidth, screenHeight } );
+		long sum = 0;
+		for ( final double[] q : orientations )
+		{
+			final AffineTransform3D sourceToScreen = new AffineTransform3D();
+			sourceToScreen.set(
+					voxelSize[ 0 ], 0, 0, -0.5 * dimensions[ 0 ] * voxelSize[ 0 ],
+					0, voxelSize[ 1 ], 0, -0.5 * dimensions[ 1 ] * voxelSize[ 1 ],
+					0, 0, voxelSize[ 2 ], -0.5 * dimensions[ 2 ] * voxelSize[ 2 ] );
+			final double[][] m = new double[ 3 ][ 4 ];
+			LinAlgHelpers.quaternionToR( q, m );
+			final AffineTransform3D rotation = new AffineTransform3D();
+			rotation.set( m );
+			sourceToScreen.preConcatenate( rotation );
+			sourceToScreen.set( sourceToScreen.get( 0, 3 ) + 0.5 * screenWidth, 0, 3 );
+			sourceToScreen.set( sourceToScreen.get( 1, 3 ) + 0.5 * screenHeight, 1, 3 );
+
+			final CellCounter counter = new CellCounter( 3 );
+			Prefetcher.fetchCells( sourceToScreen, cellDimensions, dimensions, screen, Interpolation.NEARESTNEIGHBOR, counter );
+			sum += counter.getCount();
+		}
+		return ( double ) sum / orientations.size();
+	}
+
+	/**
+	 * Write the sample to a hdf5 file with the given chunking, then measure
+	 * the time for reading each chunk and the DEFLATE compressed size of each
+	 * chunk.
+	 */
+	private static Result benchmarkReads( final File tmpFile, final int[] chunkShape, final short[] sampleData, final long[] sampleDims, final boolean deflate, final double cellsPerFrame )
+	{
+		final String path = Util.getCellsPath( 0, 0, 0 );
+		final HDF5IntStorageFeatures storage = deflate ? HDF5IntStorageFeatures.INT_AUTO_SCALING_DEFLATE : HDF5IntStorageFeatures.INT_AUTO_SCALING;
+
+		if ( tmpFile.exists() )
+			tmpFile.delete();
+		final IHDF5Writer hdf5Writer = HDF5Factory.open( tmpFile );
+		hdf5Writer.int16().createMDArray( path, reorder( sampleDims ), reorder( chunkShape ), storage );
+		hdf5Writer.int16().writeMDArrayBlockWithOffset( path, new MDShortArray( sampleData, reorder( sampleDims ) ), new long[ 3 ] );
+		hdf5Writer.close();
+
+		final IHDF5Reader hdf5Reader = HDF5Factory.openForReading( tmpFile );
+		final HDF5AccessHack hdf5Access;
+		try
+		{
+			hdf5Access = new HDF5AccessHack( hdf5Reader );
+		}
+		catch ( final Exception e )
+		{
+			hdf5Reader.close();
+			throw new RuntimeException( e );
+		}
+
+		final long[] numCells = new long[ 3 ];
+		for ( int d = 0; d < 3; ++d )
+			numCells[ d ] = ( sampleDims[ d ] - 1 ) / chunkShape[ d ] + 1;
+
+		final Deflater deflater = new Deflater();
+		final byte[] deflateBuffer = new byte[ 65536 ];
+		final int[] cellDims = new int[ 3 ];
+		final long[] cellMin = new long[ 3 ];
+		long readNanos = 0;
+		long compressedBytes = 0;
+		long uncompressedBytes = 0;
+		int numRead = 0;
+		try
+		{
+			for ( long z = 0; z < numCells[ 2 ]; ++z )
+				for ( long y = 0; y < numCells[ 1 ]; ++y )
+					for ( long x = 0; x < numCells[ 0 ]; ++x )
+					{
+						final long[] cellPos = new long[] { x, y, z };
+						for ( int d = 0; d < 3; ++d )
+						{
+							cellMin[ d ] = cellPos[ d ] * chunkShape[ d ];
+							cellDims[ d ] = ( int ) Math.min( chunkShape[ d ], sampleDims[ d ] - cellMin[ d ] );
+						}
+						final long t0 = System.nanoTime();
+						final short[] data = hdf5Access.readShortMDArrayBlockWithOffset( 0, 0, 0, cellDims, cellMin );
+						readNanos += System.nanoTime() - t0;
+						++numRead;
+
+						final byte[] bytes = new byte[ 2 * data.length ];
+						for ( int i = 0; i < data.length; ++i )
+						{
+							bytes[ 2 * i ] = ( byte ) ( data[ i ] >> 8 );
+							bytes[ 2 * i + 1 ] = ( byte ) data[ i ];
+						}
+						deflater.reset();
+						deflater.setInput( bytes );
+						deflater.finish();
+						while ( !deflater.finished() )
+							compressedBytes += deflater.deflate( deflateBuffer );
+						uncompressedBytes += bytes.length;
+					}
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			deflater.end();
+			hdf5Access.close();
+		}
+
+		final int n = Math.max( numRead, 1 );
+		return new Result( chunkShape, cellsPerFrame, ( double ) readNanos / n, ( double ) compressedBytes / n, ( double ) uncompressedBytes / n );
+	}
+
+	/**
+	 * A {@link RandomAccess} on a cell grid that only counts how often
+	 * {@link #get()} is called. Used to count the cells touched by the
+	 * {@link Prefetcher}.
+	 */
+	private static class CellCounter extends Point implements RandomAccess< Object >
+	{
+		private long count = 0;
+
+		public CellCounter( final int n )
+		{
+			super( n );
+		}
+
+		public long getCount()
+		{
+			return count;
+		}
+
+		@Override
+		public Object get()
+		{
+			++count;
+			return null;
+		}
+
+		@Override
+		public CellCounter copy()
+		{
+			return copyRandomAccess();
+		}
+
+		@Override
+		public CellCounter copyRandomAccess()
+		{
+			final CellCounter c = new CellCounter( n );
+			c.setPosition( this );
+			c.count = count;
+			return c;
+		}
+	}
+
+	public static void main( final String[] args ) throws SpimDataException
+	{
+		if ( args.length < 1 )
+		{
+			System.err.println( "usage: ProposeMipmapsBenchmark <dataset.xml> [deflate=true|false]" );
+			return;
+		}
+		final boolean deflate = args.length < 2 || Boolean.parseBoolean( args[ 1 ] );
+		final SpimDataMinimal spimData = new XmlIoSpimDataMinimal().load( args[ 0 ] );
+		final SequenceDescriptionMinimal seq = spimData.getSequenceDescription();
+		final Map< Integer, ExportMipmapInfo > proposed = proposeMipmaps( seq, deflate, new ProgressWriterConsole() );
+		final List< ? extends BasicViewSetup > setups = seq.getViewSetupsOrdered();
+		for ( final BasicViewSetup setup : setups )
+		{
+			final ExportMipmapInfo info = proposed.get( setup.getId() );
+			System.out.println( "setup " + setup.getId() );
+			System.out.println( "    resolutions:  " + ProposeMipmaps.getArrayString( info.getExportResolutions() ) );
+			System.out.println( "    subdivisions: " + ProposeMipmaps.getArrayString( info.getSubdivisions() ) );
+		}
+	}
+}
@@ -13,16 +13,26 @@ import static ch.systemsx.cisd.hdf5.hdf5lib.HDF5Constants.H5S_SELECT_SET;
 import static ch.systemsx.cisd.hdf5.hdf5lib.HDF5Constants.H5T_NATIVE_INT16;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import mpicbg.spim.data.XmlHelpers;
 import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
@@ -45,10 +55,14 @@ import net.imglib2.img.cell.CellImg;
 import net.imglib2.iterator.LocalizingZeroMinIntervalIterator;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.util.IntervalIndexer;
+import net.imglib2.util.Intervals;
 import net.imglib2.view.Views;
+import bdv.export.ExportThroughput.Stage;
 import bdv.img.hdf5.Hdf5ImageLoader;
 import bdv.img.hdf5.Partition;
 import bdv.img.hdf5.Util;
+import bdv.img.hdf5.ViewLevelId;
 import ch.systemsx.cisd.base.mdarray.MDShortArray;
 import ch.systemsx.cisd.hdf5.HDF5Factory;
 import ch.systemsx.cisd.hdf5.HDF5IntStorageFeatures;
@@ -74,9 +88,18 @@ import ch.systemsx.cisd.hdf5.IHDF5Writer;
  * (3D) int[] subdivions array for every mipmap level, so the full chunking of
  * the full pyramid is specfied by a nested int[][] array.
  *
+ * Next to the cells of each resolution, a "constantcells" int[] array records
+ * for every chunk whether all its pixels have the same value (the unsigned
+ * short value) or not (-1). Loaders use this to provide empty background
+ * chunks without reading them.
+ *
  * A data-set can be stored in a single hdf5 file or split across several hdf5
  * "partitions" with one master hdf5 linking into the partitions.
  *
+ * Every file (partitions and master) contains a "dimensions" table listing the
+ * dimensions of all datasets it contains or links to, such that a loader can
+ * open the data-set without probing every dataset.
+ *
  * @author Tobias Pietzsch <tobias.pietzsch@gmail.com>
  */
 public class WriteSequenceToHdf5
@@ -226,8 +249,13 @@ public class WriteSequenceToHdf5
 
 		// link Cells for all views in the partition
 		final File basePath = hdf5File.getParentFile();
+		final ArrayList< ViewLevelId > linkedIds = new ArrayList< ViewLevelId >();
 		for ( final Partition partition : partitions )
 		{
+			// Only list datasets of completely written partitions in the
+			// dimensions table. Datasets that are not (yet) in an incomplete
+			// partition would otherwise be recorded as non-existing for good.
+			final boolean partitionComplete = new File( partition.getPath() ).exists() && !ExportCheckpoint.getCheckpointFile( partition ).exists();
 			final Map< Integer, Integer > timepointIdSequenceToPartition = partition.getTimepointIdSequenceToPartition();
 			final Map< Integer, Integer > setupIdSequenceToPartition = partition.getSetupIdSequenceToPartition();
 
@@ -248,10 +276,14 @@ public class WriteSequenceToHdf5
 					{
 						final String relativePath = XmlHelpers.getRelativePath( new File( partition.getPath() ), basePath ).getPath();
 						hdf5Writer.object().createOrUpdateExternalLink( relativePath, Util.getCellsPath( idPartition, level ), Util.getCellsPath( idSequence, level ) );
+						hdf5Writer.object().createOrUpdateExternalLink( relativePath, Util.getConstantCellsPath( idPartition, level ), Util.getConstantCellsPath( idSequence, level ) );
+						if ( partitionComplete )
+							linkedIds.add( new ViewLevelId( idSequence, level ) );
 					}
 				}
 			}
 		}
+		writeDimensionsTable( hdf5Writer, linkedIds );
 		hdf5Writer.close();
 	}
 
@@ -282,10 +314,181 @@ public class WriteSequenceToHdf5
 	 * @param progressWriter
 	 *            completion ratio and status output will be directed here.
 	 */
-	public static void writeHdf5PartitionFile( final AbstractSequenceDescription< ?, ?, ? > seq, final Map< Integer, ExportMipmapInfo > perSetupMipmapInfo, final boolean deflate, final Partition partition, ProgressWriter progressWriter )
+	public static void writeHdf5PartitionFile( final AbstractSequenceDescription< ?, ?, ? > seq, final Map< Integer, ExportMipmapInfo > perSetupMipmapInfo, final boolean deflate, final Partition partition, final ProgressWriter progressWriter )
+	{
+		writeHdf5PartitionFile( seq, perSetupMipmapInfo, deflate, partition, false, progressWriter );
+	}
+
+	/**
+	 * Create a hdf5 partition file containing image data for a subset of views
+	 * and timepoints in a chunked, mipmaped representation.
+	 *
+	 * Completed (timepoint, setup, level) datasets are recorded in an
+	 * {@link ExportCheckpoint} manifest next to the partition file. If
+	 * {@code resume} is true and the partition file and manifest exist, the
+	 * datasets listed in the manifest are kept and only the remaining datasets
+	 * are (re-)written. Otherwise, the partition file is written from scratch.
+	 * The manifest is deleted when the partition file has been written
+	 * completely.
+	 *
+	 * Per-stage throughput (read, downsample, compress+write) is printed to
+	 * {@link ProgressWriter#out()} after each timepoint.
+	 *
+	 * @param seq
+	 *            description of the sequence to be stored as hdf5. (The
+	 *            {@link AbstractSequenceDescription} contains the number of
+	 *            setups and timepoints as well as an {@link BasicImgLoader} that
+	 *            provides the image data, Registration information is not
+	 *            needed here, that will go into the accompanying xml).
+	 * @param perSetupMipmapInfo
+	 *            this maps from setup {@link BasicViewSetup#getId() id} to
+	 *            {@link ExportMipmapInfo} for that setup. The
+	 *            {@link ExportMipmapInfo} contains for each mipmap level, the
+	 *            subsampling factors and subdivision block sizes.
+	 * @param deflate
+	 *            whether to compress the data with the HDF5 DEFLATE filter.
+	 * @param partition
+	 *            which part of the dataset to write, and to which file.
+	 * @param resume
+	 *            whether to continue a previously interrupted export of the
+	 *            partition.
+	 * @param progressWriter
+	 *            completion ratio and status output will be directed here.
+	 */
+	public static void writeHdf5PartitionFile( final AbstractSequenceDescription< ?, ?, ? > seq, final Map< Integer, ExportMipmapInfo > perSetupMipmapInfo, final boolean deflate, final Partition partition, final boolean resume, final ProgressWriter progressWriter )
 	{
-		final HDF5IntStorageFeatures storage = deflate ? HDF5IntStorageFeatures.INT_AUTO_SCALING_DEFLATE : HDF5IntStorageFeatures.INT_AUTO_SCALING;
 		final int numThreads = Math.max( 1, Runtime.getRuntime().availableProcessors() - 2 );
+		final ExecutorService cellCreatorPool = Executors.newFixedThreadPool( numThreads, new CellCreatorThreadFactory() );
+		try
+		{
+			writeHdf5PartitionFile( seq, perSetupMipmapInfo, deflate, partition, resume, progressWriter, cellCreatorPool, numThreads, new MemoryBudget( 0 ) );
+		}
+		finally
+		{
+			cellCreatorPool.shutdown();
+		}
+	}
+
+	/**
+	 * Create hdf5 partition files for all given partitions concurrently. Each
+	 * partition is written by its own hdf5 writer thread. Cells for all
+	 * partitions are created (read from the source and downsampled) by one
+	 * shared pool of threads. The total size of cells that have been created
+	 * but not yet written is limited by {@code memoryBudgetBytes}.
+	 *
+	 * Note that the master file linking the partitions needs to be written
+	 * separately with
+	 * {@link #writeHdf5PartitionLinkFile(AbstractSequenceDescription, Map, ArrayList, File)}.
+	 *
+	 * @param seq
+	 *            description of the sequence to be stored as hdf5. (The
+	 *            {@link AbstractSequenceDescription} contains the number of
+	 *            setups and timepoints as well as an {@link BasicImgLoader} that
+	 *            provides the image data, Registration information is not
+	 *            needed here, that will go into the accompanying xml).
+	 * @param perSetupMipmapInfo
+	 *            this maps from setup {@link BasicViewSetup#getId() id} to
+	 *            {@link ExportMipmapInfo} for that setup. The
+	 *            {@link ExportMipmapInfo} contains for each mipmap level, the
+	 *            subsampling factors and subdivision block sizes.
+	 * @param deflate
+	 *            whether to compress the data with the HDF5 DEFLATE filter.
+	 * @param partitions
+	 *            which parts of the dataset to write, and to which files.
+	 * @param resume
+	 *            whether to continue previously interrupted exports of the
+	 *            partitions (see {@link ExportCheckpoint}).
+	 * @param numCellCreatorThreads
+	 *            number of threads in the shared pool that reads and
+	 *            downsamples cells. If this is &leq;0, the number of available
+	 *            processors (minus 2) is used.
+	 * @param memoryBudgetBytes
+	 *            maximum number of bytes of cell data that may be held in
+	 *            writer queues across all partitions. If this is &leq;0, only
+	 *            the length of the writer queues limits memory usage.
+	 * @param progressWriter
+	 *            completion ratio and status output will be directed here. The
+	 *            completion ratio is the average over all partitions.
+	 */
+	public static void writeHdf5PartitionFiles(
+			final AbstractSequenceDescription< ?, ?, ? > seq,
+			final Map< Integer, ExportMipmapInfo > perSetupMipmapInfo,
+			final boolean deflate,
+			final List< Partition > partitions,
+			final boolean resume,
+			final int numCellCreatorThreads,
+			final long memoryBudgetBytes,
+			ProgressWriter progressWriter )
+	{
+		if ( progressWriter == null )
+			progressWriter = new ProgressWriterConsole();
+
+		final int numThreads = numCellCreatorThreads > 0 ? numCellCreatorThreads : Math.max( 1, Runtime.getRuntime().availableProcessors() - 2 );
+		final ExecutorService cellCreatorPool = Executors.newFixedThreadPool( numThreads, new CellCreatorThreadFactory() );
+		final MemoryBudget budget = new MemoryBudget( memoryBudgetBytes );
+
+		final int numPartitions = partitions.size();
+		final double[] partitionProgress = new double[ numPartitions ];
+		final ArrayList< Throwable > failures = new ArrayList< Throwable >();
+		final ArrayList< Thread > partitionThreads = new ArrayList< Thread >();
+		for ( int i = 0; i < numPartitions; ++i )
+		{
+			final Partition partition = partitions.get( i );
+			final ProgressWriter partitionProgressWriter = new PartitionProgressWriter( progressWriter, partitionProgress, i );
+			final Thread thread = new Thread( new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						writeHdf5PartitionFile( seq, perSetupMipmapInfo, deflate, partition, resume, partitionProgressWriter, cellCreatorPool, numThreads, budget );
+					}
+					catch ( final Throwable t )
+					{
+						t.printStackTrace();
+						synchronized ( failures )
+						{
+							failures.add( t );
+						}
+					}
+				}
+			} );
+			thread.setName( "PartitionWriter " + i );
+			partitionThreads.add( thread );
+			thread.start();
+		}
+
+		try
+		{
+			for ( final Thread thread : partitionThreads )
+				thread.join();
+		}
+		catch ( final InterruptedException e )
+		{
+			e.printStackTrace();
+		}
+		finally
+		{
+			cellCreatorPool.shutdown();
+		}
+
+		if ( !failures.isEmpty() )
+			throw new RuntimeException( failures.size() + " of " + numPartitions + " partitions could not be written", failures.get( 0 ) );
+	}
+
+	private static void writeHdf5PartitionFile(
+			final AbstractSequenceDescription< ?, ?, ? > seq,
+			final Map< Integer, ExportMipmapInfo > perSetupMipmapInfo,
+			final boolean deflate,
+			final Partition partition,
+			final boolean resume,
+			ProgressWriter progressWriter,
+			final ExecutorService cellCreatorPool,
+			final int numCellCreatorTasks,
+			final MemoryBudget budget )
+	{
+		final HDF5IntStorageFeatures storage = deflate ? HDF5IntStorageFeatures.INT_AUTO_SCALING_DEFLATE : HDF5IntStorageFeatures.INT_AUTO_SCALING;
 		final int blockWriterQueueLength = 100;
 
 		if ( progressWriter == null )
@@ -317,9 +520,28 @@ public class WriteSequenceToHdf5
 		int numCompletedTasks = 0;
 		progressWriter.setProgress( ( double ) numCompletedTasks++ / numTasks );
 
-		// open HDF5 output file
+		// load checkpoint manifest if resuming
 		final File hdf5File = new File( partition.getPath() );
-		if ( hdf5File.exists() )
+		final ExportCheckpoint checkpoint = new ExportCheckpoint( ExportCheckpoint.getCheckpointFile( partition ) );
+		boolean resuming = false;
+		if ( resume && hdf5File.exists() )
+		{
+			try
+			{
+				checkpoint.load();
+				resuming = true;
+				progressWriter.out().printf( "resuming export, %d datasets already completed\n", checkpoint.numCompleted() );
+			}
+			catch ( final IOException e )
+			{
+				e.printStackTrace();
+			}
+		}
+		if ( !resuming )
+			checkpoint.clear();
+
+		// open HDF5 output file
+		if ( !resuming && hdf5File.exists() )
 			hdf5File.delete();
 		final IHDF5Writer hdf5Writer = HDF5Factory.open( hdf5File );
 		IHDF5Access hdf5Access;
@@ -332,7 +554,8 @@ public class WriteSequenceToHdf5
 			e.printStackTrace();
 			hdf5Access = new HDF5Access( hdf5Writer );
 		}
-		final HDF5BlockWriterThread writerQueue = new HDF5BlockWriterThread( hdf5Access, blockWriterQueueLength );
+		final ExportThroughput throughput = new ExportThroughput();
+		final HDF5BlockWriterThread writerQueue = new HDF5BlockWriterThread( hdf5Access, blockWriterQueueLength, throughput, checkpoint, budget );
 		writerQueue.start();
 
 		// write Mipmap descriptions
@@ -347,17 +570,12 @@ public class WriteSequenceToHdf5
 		progressWriter.setProgress( ( double ) numCompletedTasks++ / numTasks );
 
 		// write image data for all views to the HDF5 file
-		final CellCreatorThread[] cellCreatorThreads = new CellCreatorThread[ numThreads ];
-		for ( int threadNum = 0; threadNum < numThreads; ++threadNum )
-		{
-			cellCreatorThreads[ threadNum ] = new CellCreatorThread();
-			cellCreatorThreads[ threadNum ].setName( "CellCreatorThread " + threadNum );
-			cellCreatorThreads[ threadNum ].start();
-		}
-
 		final int n = 3;
 		final long[] dimensions = new long[ n ];
 		int timepointIndex = 0;
+		// the first failure of a cell creator task, or interruption
+		Throwable failure = null;
+		timepoints:
 		for ( final int timepointIdSequence : timepointIdsSequence )
 		{
 			final int timepointIdPartition = partition.getTimepointIdSequenceToPartition().get( timepointIdSequence );
@@ -384,11 +602,31 @@ public class WriteSequenceToHdf5
 				final int numLevels = mipmapInfo.getNumLevels();
 
 				final ViewId viewIdSequence = new ViewId( timepointIdSequence, setupIdSequence );
+				final ViewId viewIdPartition = new ViewId( timepointIdPartition, setupIdPartition );
+
+				boolean allLevelsCompleted = true;
+				for ( int level = 0; level < numLevels; ++level )
+					allLevelsCompleted &= checkpoint.isCompleted( new ViewLevelId( viewIdPartition, level ) );
+				if ( allLevelsCompleted )
+				{
+					progressWriter.out().println( "already completed, skipping" );
+					numCompletedTasks += numLevels + 1;
+					progressWriter.setProgress( ( double ) numCompletedTasks / numTasks );
+					continue;
+				}
+
 				final RandomAccessibleInterval< UnsignedShortType > img = imgLoader.getImage( viewIdSequence );
 				progressWriter.setProgress( ( double ) numCompletedTasks++ / numTasks );
 
 				for ( int level = 0; level < numLevels; ++level )
 				{
+					final ViewLevelId viewLevelIdPartition = new ViewLevelId( viewIdPartition, level );
+					if ( checkpoint.isCompleted( viewLevelIdPartition ) )
+					{
+						progressWriter.out().println( "level " + level + " already completed, skipping" );
+						progressWriter.setProgress( ( double ) numCompletedTasks++ / numTasks );
+						continue;
+					}
 					progressWriter.out().println( "writing level " + level );
 					img.dimensions( dimensions );
 					final int[] factor = resolutions[ level ];
@@ -422,9 +660,16 @@ public class WriteSequenceToHdf5
 					final NeighborhoodsAccessible< UnsignedShortType > extendedNeighborhoods = new NeighborhoodsAccessible< UnsignedShortType >( extendedImg, spanInterval, f );
 
 					final int[] cellDimensions = subdivisions[ level ];
-					final ViewId viewIdPartition = new ViewId( timepointIdPartition, setupIdPartition );
-					hdf5Writer.object().createGroup( Util.getGroupPath( viewIdPartition, level ) );
+					final String groupPath = Util.getGroupPath( viewIdPartition, level );
 					final String path = Util.getCellsPath( viewIdPartition, level );
+					final String constantCellsPath = Util.getConstantCellsPath( viewIdPartition, level );
+					if ( resuming && hdf5Writer.object().exists( path ) )
+						// partially written by an interrupted export
+						hdf5Writer.object().delete( path );
+					if ( resuming && hdf5Writer.object().exists( constantCellsPath ) )
+						hdf5Writer.object().delete( constantCellsPath );
+					if ( !resuming || !hdf5Writer.object().exists( groupPath ) )
+						hdf5Writer.object().createGroup( groupPath );
 					writerQueue.createAndOpenDataset( path, dimensions.clone(), cellDimensions.clone(), storage );
 
 					final long[] numCells = new long[ n ];
@@ -436,13 +681,38 @@ public class WriteSequenceToHdf5
 					}
 					final LocalizingZeroMinIntervalIterator i = new LocalizingZeroMinIntervalIterator( numCells );
 
-					final CountDownLatch doneSignal = new CountDownLatch( numThreads );
-					for ( int threadNum = 0; threadNum < numThreads; ++threadNum )
+					// for each cell, the value of all its pixels if it is constant, or -1
+					final int[] constantCells = new int[ ( int ) Intervals.numElements( numCells ) ];
+					Arrays.fill( constantCells, -1 );
+
+					// if a task fails, the others stop and the dataset is not
+					// marked completed in the checkpoint
+					final AtomicReference< Throwable > taskFailure = new AtomicReference< Throwable >();
+					final AtomicBoolean cancelled = new AtomicBoolean( false );
+					final CountDownLatch doneSignal = new CountDownLatch( numCellCreatorTasks );
+					for ( int taskNum = 0; taskNum < numCellCreatorTasks; ++taskNum )
 					{
-						cellCreatorThreads[ threadNum ].run( new Runnable()
+						cellCreatorPool.execute( new Runnable()
 						{
 							@Override
 							public void run()
+							{
+								try
+								{
+									createCells();
+								}
+								catch ( final Throwable t )
+								{
+									taskFailure.compareAndSet( null, t );
+									cancelled.set( true );
+								}
+								finally
+								{
+									doneSignal.countDown();
+								}
+							}
+
+							private void createCells()
 							{
 								final long[] currentCellMin = new long[ n ];
 								final long[] currentCellMax = new long[ n ];
@@ -452,7 +722,7 @@ public class WriteSequenceToHdf5
 								final RandomAccess< Neighborhood< UnsignedShortType > > block = neighborhoods.randomAccess();
 								final RandomAccess< Neighborhood< UnsignedShortType > > extendedBlock = extendedNeighborhoods.randomAccess();
 								final RandomAccess< UnsignedShortType > in = img.randomAccess();
-								while ( true )
+								while ( !cancelled.get() )
 								{
 									synchronized ( i )
 									{
@@ -472,81 +742,217 @@ public class WriteSequenceToHdf5
 										isBorderCell |= isBorderCellInThisDim;
 									}
 
-									final ArrayImg< UnsignedShortType, ? > cell = ArrayImgs.unsignedShorts( currentCellDim );
-									final RandomAccess< UnsignedShortType > out = cell.randomAccess();
-									if ( fullResolution )
+									long cellBytes = 2;
+									for ( int d = 0; d < n; ++d )
+										cellBytes *= currentCellDim[ d ];
+									budget.acquire( cellBytes );
+									// once queued, the bytes are released by the writer thread
+									boolean queued = false;
+									try
 									{
-										copyBlock( out, currentCellDim, in, blockMin );
+										final ArrayImg< UnsignedShortType, ? > cell = ArrayImgs.unsignedShorts( currentCellDim );
+										final RandomAccess< UnsignedShortType > out = cell.randomAccess();
+										final long t0 = System.nanoTime();
+										if ( fullResolution )
+										{
+											copyBlock( out, currentCellDim, in, blockMin );
+											throughput.add( Stage.READ, 2 * cell.size(), System.nanoTime() - t0 );
+										}
+										else
+										{
+											boolean requiresExtension = false;
+											if ( isBorderCell )
+												for ( int d = 0; d < n; ++d )
+													if ( ( currentCellMax[ d ] + 1 ) * factor[ d ] > img.dimension( d ) )
+														requiresExtension = true;
+											downsampleBlock( out, currentCellDim, requiresExtension ? extendedBlock : block, blockMin, factor, scale );
+											throughput.add( Stage.DOWNSAMPLE, 2 * cell.size(), System.nanoTime() - t0 );
+										}
+
+										final short[] data = ( ( ShortArray ) cell.update( null ) ).getCurrentStorageArray();
+										final int constantValue = getConstantValue( data );
+										queued = writerQueue.queueBlockWithOffset( data, currentCellDim.clone(), currentCellMin.clone() );
+										// cells that were never queued must not be served from the table
+										if ( queued )
+											constantCells[ ( int ) IntervalIndexer.positionToIndex( currentCellPos, numCells ) ] = constantValue;
 									}
-									else
+									finally
 									{
-										boolean requiresExtension = false;
-										if ( isBorderCell )
-											for ( int d = 0; d < n; ++d )
-												if ( ( currentCellMax[ d ] + 1 ) * factor[ d ] > img.dimension( d ) )
-													requiresExtension = true;
-										downsampleBlock( out, currentCellDim, requiresExtension ? extendedBlock : block, blockMin, factor, scale );
+										if ( !queued )
+											budget.release( cellBytes );
 									}
-
-									writerQueue.writeBlockWithOffset( ( ( ShortArray ) cell.update( null ) ).getCurrentStorageArray(), currentCellDim.clone(), currentCellMin.clone() );
 								}
-								doneSignal.countDown();
 							}
 						} );
 					}
-					try
+					boolean interrupted = false;
+					while ( true )
 					{
-						doneSignal.await();
+						try
+						{
+							// tasks must be finished before the dataset is
+							// closed, also if we are interrupted
+							doneSignal.await();
+							break;
+						}
+						catch ( final InterruptedException e )
+						{
+							interrupted = true;
+							cancelled.set( true );
+						}
+					}
+					if ( interrupted )
+					{
+						Thread.currentThread().interrupt();
+						taskFailure.compareAndSet( null, new InterruptedException( "export interrupted" ) );
 					}
-					catch ( final InterruptedException e )
+					if ( taskFailure.get() != null )
 					{
-						e.printStackTrace();
+						// close without marking completed, and stop
+						writerQueue.closeDataset();
+						failure = taskFailure.get();
+						break timepoints;
 					}
-					writerQueue.closeDataset();
+					writerQueue.writeConstantCells( constantCellsPath, constantCells );
+					writerQueue.closeDataset( viewLevelIdPartition );
 					progressWriter.setProgress( ( double ) numCompletedTasks++ / numTasks );
 				}
 			}
+			progressWriter.out().println( "throughput:" );
+			throughput.print( progressWriter.out() );
 		}
-		for ( int threadNum = 0; threadNum < numThreads; ++threadNum )
-			cellCreatorThreads[ threadNum ].interrupt();
 		writerQueue.shutdown();
+
+		if ( failure == null )
+			failure = writerQueue.getFailure();
+		if ( failure != null )
+		{
+			// keep the checkpoint, such that completed datasets are skipped
+			// when the export is resumed
+			hdf5Writer.close();
+			throw new RuntimeException( "failed writing " + partition.getPath(), failure );
+		}
+
+		final ArrayList< ViewLevelId > writtenIds = new ArrayList< ViewLevelId >();
+		for ( final Entry< Integer, Integer > tEntry : partition.getTimepointIdSequenceToPartition().entrySet() )
+			for ( final Entry< Integer, Integer > sEntry : partition.getSetupIdSequenceToPartition().entrySet() )
+			{
+				final int numLevels = perSetupMipmapInfo.get( sEntry.getKey() ).getNumLevels();
+				for ( int level = 0; level < numLevels; ++level )
+					writtenIds.add( new ViewLevelId( tEntry.getValue(), sEntry.getValue(), level ) );
+			}
+		writeDimensionsTable( hdf5Writer, writtenIds );
+
 		hdf5Writer.close();
+		checkpoint.clear();
 	}
 
-	private static class CellCreatorThread extends Thread
+	private static class CellCreatorThreadFactory implements ThreadFactory
 	{
-		private Runnable currentTask = null;
+		private final AtomicInteger threadNumber = new AtomicInteger( 0 );
 
-		public synchronized void run( final Runnable task )
+		@Override
+		public Thread newThread( final Runnable r )
 		{
-			currentTask = task;
-			notify();
+			final Thread thread = new Thread( r, "CellCreatorThread " + threadNumber.getAndIncrement() );
+			thread.setDaemon( true );
+			return thread;
 		}
+	}
 
-		@Override
-		public void run()
+	/**
+	 * Limits the number of bytes of cell data that have been created but not
+	 * yet written. {@link #acquire(long)} blocks until enough bytes have been
+	 * {@link #release(long) released}. A budget of &leq;0 bytes is unlimited.
+	 * Requests larger than the whole budget are clamped to the budget, such
+	 * that they can always be satisfied eventually.
+	 */
+	private static class MemoryBudget
+	{
+		private final long maxBytes;
+
+		private long usedBytes;
+
+		public MemoryBudget( final long maxBytes )
 		{
-			while ( !isInterrupted() )
+			this.maxBytes = maxBytes;
+			usedBytes = 0;
+		}
+
+		public synchronized void acquire( final long bytes )
+		{
+			if ( maxBytes <= 0 )
+				return;
+			final long b = Math.min( bytes, maxBytes );
+			boolean interrupted = false;
+			while ( usedBytes + b > maxBytes )
 			{
-				synchronized ( this )
+				try
 				{
-					try
-					{
-						if ( currentTask == null )
-							wait();
-						else
-						{
-							currentTask.run();
-							currentTask = null;
-						}
-					}
-					catch ( final InterruptedException e )
-					{
-						break;
-					}
+					wait();
+				}
+				catch ( final InterruptedException e )
+				{
+					interrupted = true;
 				}
 			}
+			usedBytes += b;
+			if ( interrupted )
+				Thread.currentThread().interrupt();
+		}
+
+		public synchronized void release( final long bytes )
+		{
+			if ( maxBytes <= 0 )
+				return;
+			usedBytes -= Math.min( bytes, maxBytes );
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Reports the progress of one of several concurrently written partitions.
+	 * The completion ratio passed on to the wrapped {@link ProgressWriter} is
+	 * the average over all partitions.
+	 */
+	private static class PartitionProgressWriter implements ProgressWriter
+	{
+		private final ProgressWriter progressWriter;
+
+		private final double[] partitionProgress;
+
+		private final int partitionIndex;
+
+		public PartitionProgressWriter( final ProgressWriter progressWriter, final double[] partitionProgress, final int partitionIndex )
+		{
+			this.progressWriter = progressWriter;
+			this.partitionProgress = partitionProgress;
+			this.partitionIndex = partitionIndex;
+		}
+
+		@Override
+		public PrintStream out()
+		{
+			return progressWriter.out();
+		}
 
+		@Override
+		public PrintStream err()
+		{
+			return progressWriter.err();
+		}
+
+		@Override
+		public void setProgress( final double completionRatio )
+		{
+			double sum = 0;
+			synchronized ( partitionProgress )
+			{
+				partitionProgress[ partitionIndex ] = completionRatio;
+				for ( final double p : partitionProgress )
+					sum += p;
+			}
+			progressWriter.setProgress( sum / partitionProgress.length );
 		}
 	}
 
@@ -556,7 +962,15 @@ public class WriteSequenceToHdf5
 
 		public void writeBlockWithOffset( final short[] data, final long[] blockDimensions, final long[] offset );
 
+		/**
+		 * Write the constant cells index of the current dataset to a separate
+		 * dataset at {@code path}.
+		 */
+		public void writeConstantCells( final String path, int[] constantCells );
+
 		public void closeDataset();
+
+		public void flush();
 	}
 
 	private static class HDF5BlockWriterThread extends Thread implements IHDF5Access
@@ -572,9 +986,30 @@ public class WriteSequenceToHdf5
 
 		private volatile boolean shutdown;
 
-		public HDF5BlockWriterThread( final IHDF5Access hdf5Access, final int queueLength )
+		private final ExportThroughput throughput;
+
+		private final ExportCheckpoint checkpoint;
+
+		private final MemoryBudget budget;
+
+		/**
+		 * Whether a task failed since the current dataset was created. If so,
+		 * the dataset is not marked as completed in the {@link #checkpoint}.
+		 * Only accessed by the writer thread.
+		 */
+		private boolean datasetFailed;
+
+		/**
+		 * The first exception thrown by any task, or null.
+		 */
+		private volatile RuntimeException failure;
+
+		public HDF5BlockWriterThread( final IHDF5Access hdf5Access, final int queueLength, final ExportThroughput throughput, final ExportCheckpoint checkpoint, final MemoryBudget budget )
 		{
 			this.hdf5Access = hdf5Access;
+			this.throughput = throughput;
+			this.checkpoint = checkpoint;
+			this.budget = budget;
 			queue = new ArrayBlockingQueue< Hdf5Task >( queueLength );
 			shutdown = false;
 			setName( "HDF5BlockWriterQueue" );
@@ -593,9 +1028,29 @@ public class WriteSequenceToHdf5
 				}
 				catch ( final InterruptedException e )
 				{}
+				catch ( final RuntimeException e )
+				{
+					// Remember the failure, such that the current dataset is
+					// not marked completed and the export reports it. But keep
+					// processing the queue, such that blocked producers
+					// continue and the budget of queued blocks is released.
+					e.printStackTrace();
+					datasetFailed = true;
+					if ( failure == null )
+						failure = e;
+				}
 			}
 		}
 
+		/**
+		 * Get the first exception thrown by a task, or null if all tasks
+		 * succeeded so far.
+		 */
+		public RuntimeException getFailure()
+		{
+			return failure;
+		}
+
 		public void shutdown()
 		{
 			shutdown = true;
@@ -618,13 +1073,46 @@ public class WriteSequenceToHdf5
 		@Override
 		public void writeBlockWithOffset( final short[] data, final long[] blockDimensions, final long[] offset )
 		{
-			put( new WriteBlockWithOffsetTask( data, blockDimensions, offset ) );
+			queueBlockWithOffset( data, blockDimensions, offset );
+		}
+
+		/**
+		 * Queue a block for writing. The {@link MemoryBudget} bytes of the
+		 * block are released after it was written, also if writing fails.
+		 *
+		 * @return whether the block was queued. If not (because the calling
+		 *         thread was interrupted), the caller must release the bytes.
+		 */
+		public boolean queueBlockWithOffset( final short[] data, final long[] blockDimensions, final long[] offset )
+		{
+			return put( new WriteBlockWithOffsetTask( data, blockDimensions, offset, throughput, budget ) );
+		}
+
+		@Override
+		public void writeConstantCells( final String path, final int[] constantCells )
+		{
+			put( new WriteConstantCellsTask( path, constantCells ) );
 		}
 
 		@Override
 		public void closeDataset()
 		{
-			put( new CloseDatasetTask() );
+			put( new CloseDatasetTask( null, null ) );
+		}
+
+		/**
+		 * Close the current dataset and, after it has been flushed to disk,
+		 * record it as completed in the {@link ExportCheckpoint}.
+		 */
+		public void closeDataset( final ViewLevelId completed )
+		{
+			put( new CloseDatasetTask( checkpoint, completed ) );
+		}
+
+		@Override
+		public void flush()
+		{
+			put( new FlushTask() );
 		}
 
 		private boolean put( final Hdf5Task task )
@@ -640,7 +1128,7 @@ public class WriteSequenceToHdf5
 			}
 		}
 
-		private static class CreateAndOpenDatasetTask implements Hdf5Task
+		private class CreateAndOpenDatasetTask implements Hdf5Task
 		{
 			private final String path;
 
@@ -661,6 +1149,7 @@ public class WriteSequenceToHdf5
 			@Override
 			public void run( final IHDF5Access hdf5Access )
 			{
+				datasetFailed = false;
 				hdf5Access.createAndOpenDataset( path, dimensions, cellDimensions, features );
 			}
 		}
@@ -673,26 +1162,84 @@ public class WriteSequenceToHdf5
 
 			private final long[] offset;
 
-			public WriteBlockWithOffsetTask( final short[] data, final long[] blockDimensions, final long[] offset )
+			private final ExportThroughput throughput;
+
+			private final MemoryBudget budget;
+
+			public WriteBlockWithOffsetTask( final short[] data, final long[] blockDimensions, final long[] offset, final ExportThroughput throughput, final MemoryBudget budget )
 			{
 				this.data = data;
 				this.blockDimensions = blockDimensions;
 				this.offset = offset;
+				this.throughput = throughput;
+				this.budget = budget;
 			}
 
 			@Override
 			public void run( final IHDF5Access hdf5Access )
 			{
-				hdf5Access.writeBlockWithOffset( data, blockDimensions, offset );
+				try
+				{
+					final long t0 = System.nanoTime();
+					hdf5Access.writeBlockWithOffset( data, blockDimensions, offset );
+					throughput.add( Stage.WRITE, 2 * data.length, System.nanoTime() - t0 );
+				}
+				finally
+				{
+					budget.release( 2 * data.length );
+				}
 			}
 		}
 
-		private static class CloseDatasetTask implements Hdf5Task
+		private static class WriteConstantCellsTask implements Hdf5Task
 		{
+			private final String path;
+
+			private final int[] constantCells;
+
+			public WriteConstantCellsTask( final String path, final int[] constantCells )
+			{
+				this.path = path;
+				this.constantCells = constantCells;
+			}
+
+			@Override
+			public void run( final IHDF5Access hdf5Access )
+			{
+				hdf5Access.writeConstantCells( path, constantCells );
+			}
+		}
+
+		private class CloseDatasetTask implements Hdf5Task
+		{
+			private final ExportCheckpoint checkpoint;
+
+			private final ViewLevelId completed;
+
+			public CloseDatasetTask( final ExportCheckpoint checkpoint, final ViewLevelId completed )
+			{
+				this.checkpoint = checkpoint;
+				this.completed = completed;
+			}
+
 			@Override
 			public void run( final IHDF5Access hdf5Access )
 			{
 				hdf5Access.closeDataset();
+				if ( checkpoint != null && completed != null && !datasetFailed )
+				{
+					hdf5Access.flush();
+					checkpoint.markCompleted( completed );
+				}
+			}
+		}
+
+		private static class FlushTask implements Hdf5Task
+		{
+			@Override
+			public void run( final IHDF5Access hdf5Access )
+			{
+				hdf5Access.flush();
 			}
 		}
 	}
@@ -728,9 +1275,21 @@ public class WriteSequenceToHdf5
 			hdf5Writer.int16().writeMDArrayBlockWithOffset( datasetPath, array, reorderedOffset );
 		}
 
+		@Override
+		public void writeConstantCells( final String path, final int[] constantCells )
+		{
+			hdf5Writer.int32().writeArray( path, constantCells, HDF5IntStorageFeatures.INT_DEFLATE );
+		}
+
 		@Override
 		public void closeDataset()
 		{}
+
+		@Override
+		public void flush()
+		{
+			hdf5Writer.file().flush();
+		}
 	}
 
 	private static class HDF5AccessHack implements IHDF5Access
@@ -787,6 +1346,66 @@ public class WriteSequenceToHdf5
 			H5Dwrite( dataSetId, H5T_NATIVE_INT16, memorySpaceId, fileSpaceId, H5P_DEFAULT, data );
 			H5Sclose( memorySpaceId );
 		}
+
+		@Override
+		public void writeConstantCells( final String path, final int[] constantCells )
+		{
+			hdf5Writer.int32().writeArray( path, constantCells, HDF5IntStorageFeatures.INT_DEFLATE );
+		}
+
+		@Override
+		public void flush()
+		{
+			hdf5Writer.file().flush();
+		}
+	}
+
+	/**
+	 * Write the {@link Util#getDimensionsTablePath() dimensions table} for the
+	 * given datasets. Datasets that do not exist in (and are not linked from)
+	 * the file are listed with dimensions {1, 1, 1} and existence flag 0, so
+	 * that the loader does not need to probe them. The dimensions are read
+	 * from the dataset headers, so this also covers datasets written by an
+	 * earlier, resumed export.
+	 */
+	private static void writeDimensionsTable( final IHDF5Writer hdf5Writer, final List< ViewLevelId > ids )
+	{
+		final ArrayList< long[] > rows = new ArrayList< long[] >();
+		for ( final ViewLevelId id : ids )
+		{
+			try
+			{
+				final String path = Util.getCellsPath( id );
+				final boolean exists = hdf5Writer.object().exists( path );
+				final long[] dims = exists
+						? reorder( hdf5Writer.object().getDataSetInformation( path ).getDimensions() )
+						: new long[] { 1, 1, 1 };
+				rows.add( new long[] { id.getTimePointId(), id.getViewSetupId(), id.getLevel(), dims[ 0 ], dims[ 1 ], dims[ 2 ], exists ? 1 : 0 } );
+			}
+			catch ( final Exception e )
+			{
+				// existence unknown (e.g., unreadable partition file): leave
+				// it out, the loader will find out by itself.
+			}
+		}
+		final String tablePath = Util.getDimensionsTablePath();
+		if ( hdf5Writer.object().exists( tablePath ) )
+			hdf5Writer.object().delete( tablePath );
+		if ( !rows.isEmpty() )
+			hdf5Writer.writeLongMatrix( tablePath, rows.toArray( new long[ rows.size() ][] ) );
+	}
+
+	/**
+	 * Get the value of all elements of {@code data} as an unsigned short, or
+	 * -1 if not all elements are the same.
+	 */
+	private static int getConstantValue( final short[] data )
+	{
+		final short value = data[ 0 ];
+		for ( int i = 1; i < data.length; ++i )
+			if ( data[ i ] != value )
+				return -1;
+		return value & 0xffff;
 	}
 
 	private static < T extends RealType< T > > void copyBlock( final RandomAccess< T > out, final long[] outDim, final RandomAccess< T > in, final long[] blockMin )
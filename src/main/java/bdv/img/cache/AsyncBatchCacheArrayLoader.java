@@ -0,0 +1,20 @@
+package bdv.img.cache;
+
+import java.util.List;
+
+/**
+ * An {@link AsyncCacheArrayLoader} that can request several cells of the same
+ * (timepoint, setup, level) at once.
+ *
+ * @param <A>
+ *            access type.
+ */
+public interface AsyncBatchCacheArrayLoader< A > extends AsyncCacheArrayLoader< A >, BatchCacheArrayLoader< A >
+{
+	/**
+	 * Start loading several cells of the same (timepoint, setup, level). For
+	 * each cell, the respective callback is called (from any thread) when the
+	 * cell has been loaded or loading failed.
+	 */
+	public void loadArraysAsync( final int timepoint, final int setup, final int level, List< int[] > dimensions, List< long[] > min, List< LoadCallback< A > > callbacks ) throws InterruptedException;
+}
@@ -0,0 +1,28 @@
+package bdv.img.cache;
+
+/**
+ * A {@link CacheArrayLoader} that can load cells asynchronously.
+ * {@link VolatileGlobalCellCache} fetcher threads only issue requests through
+ * {@link #loadArrayAsync(int, int, int, int[], long[], LoadCallback)}, and the
+ * cache entries are filled in when the {@link LoadCallback} is called. This
+ * allows many more cells to be in flight than there are fetcher threads.
+ *
+ * @param <A>
+ *            access type.
+ */
+public interface AsyncCacheArrayLoader< A > extends CacheArrayLoader< A >
+{
+	public interface LoadCallback< A >
+	{
+		public void loaded( A data );
+
+		public void failed( Exception e );
+	}
+
+	/**
+	 * Start loading a cell. The callback may be called from any thread,
+	 * possibly before this method returns. Implementations may block if too
+	 * many requests are in flight.
+	 */
+	public void loadArrayAsync( final int timepoint, final int setup, final int level, int[] dimensions, long[] min, LoadCallback< A > callback ) throws InterruptedException;
+}
@@ -0,0 +1,34 @@
+package bdv.img.cache;
+
+import java.util.List;
+
+/**
+ * A {@link CacheArrayLoader} that can load several cells of the same
+ * (timepoint, setup, level) at once. {@link VolatileGlobalCellCache} fetcher
+ * threads use this to load batches of queued cells that belong to the same
+ * dataset, which allows the loader to combine the cells into fewer, larger
+ * reads.
+ *
+ * @param <A>
+ *            access type.
+ */
+public interface BatchCacheArrayLoader< A > extends CacheArrayLoader< A >
+{
+	/**
+	 * Maximum number of cells that should be passed to one
+	 * {@link #loadArrays(int, int, int, List, List)} call.
+	 */
+	public int getMaxBatchSize();
+
+	/**
+	 * Load the data for several cells of the same (timepoint, setup, level).
+	 *
+	 * @param dimensions
+	 *            dimensions of each cell.
+	 * @param min
+	 *            minimum coordinates of each cell.
+	 * @return loaded data for each cell, in the same order as
+	 *         {@code dimensions} and {@code min}.
+	 */
+	public List< A > loadArrays( final int timepoint, final int setup, final int level, List< int[] > dimensions, List< long[] > min ) throws InterruptedException;
+}
@@ -1,6 +1,8 @@
 package bdv.img.cache;
 
 import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
@@ -13,6 +15,8 @@ import java.util.concurrent.locks.ReentrantLock;
  * non-empty queue. Furthermore, there is a prefetch deque of bounded size to
  * provides elements when all the queues are exhausted. {@link #clear()} empties
  * all queues, and moves the removed elements to the prefetch queue.
+ * {@link #drainMatching(Filter, Collection, int, int)} removes elements that
+ * can be processed together with a previously taken element.
  *
  * Locking is adapted from {@link ArrayBlockingQueue}.
  *
@@ -114,6 +118,62 @@ public class BlockingFetchQueues< E >
 		}
 	}
 
+	/**
+	 * Decides which elements may be removed by
+	 * {@link BlockingFetchQueues#drainMatching(Filter, Collection, int, int)}.
+	 */
+	public interface Filter< E >
+	{
+		public boolean accept( E element );
+	}
+
+	/**
+	 * Remove elements accepted by {@code filter} and add them to
+	 * {@code batch}. Does not block. The queues are examined in priority order,
+	 * followed by the prefetch deque. To bound the time spent holding the lock,
+	 * only the first {@code maxScan} elements of each deque are examined.
+	 *
+	 * @param filter
+	 *            which elements to remove.
+	 * @param batch
+	 *            removed elements are added here.
+	 * @param maxElements
+	 *            maximum number of elements to remove.
+	 * @param maxScan
+	 *            maximum number of elements to examine per deque.
+	 * @return the number of elements removed.
+	 */
+	public int drainMatching( final Filter< ? super E > filter, final Collection< ? super E > batch, final int maxElements, final int maxScan )
+	{
+		final ReentrantLock lock = this.lock;
+		lock.lock();
+		try
+		{
+			int n = 0;
+			for ( int i = 0; i <= queues.length && n < maxElements && count > 0; ++i )
+			{
+				final ArrayDeque< E > q = ( i < queues.length ) ? queues[ i ] : prefetch;
+				final Iterator< E > it = q.iterator();
+				for ( int j = 0; j < maxScan && n < maxElements && it.hasNext(); ++j )
+				{
+					final E e = it.next();
+					if ( filter.accept( e ) )
+					{
+						it.remove();
+						batch.add( e );
+						--count;
+						++n;
+					}
+				}
+			}
+			return n;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
 	/**
 	 * Atomically removes all of the elements from this queue. The queue will be
 	 * empty after this call returns. Removed elements are moved to the
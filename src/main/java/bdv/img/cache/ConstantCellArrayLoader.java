@@ -0,0 +1,35 @@
+package bdv.img.cache;
+
+/**
+ * A {@link CacheArrayLoader} that knows which cells have the same value in
+ * every pixel (e.g., empty background), without loading them.
+ * {@link VolatileGlobalCellCache} fills in such cells immediately with the
+ * constant array provided by the loader, instead of enqueueing them for
+ * loading.
+ *
+ * @param <A>
+ *            access type.
+ */
+public interface ConstantCellArrayLoader< A > extends CacheArrayLoader< A >
+{
+	/**
+	 * Whether the cell at the given index is known to be constant.
+	 *
+	 * @param index
+	 *            index of the cell (flattened spatial coordinate of the cell)
+	 */
+	public boolean isConstant( final int timepoint, final int setup, final int level, final int index );
+
+	/**
+	 * Get the data for a constant cell. The returned array is valid and may
+	 * be shared between cells, so it must not be modified.
+	 *
+	 * @param index
+	 *            index of the cell (flattened spatial coordinate of the cell)
+	 * @param dimensions
+	 *            dimensions of the cell.
+	 * @return data for the cell, or null if the cell is not known to be
+	 *         constant.
+	 */
+	public A getConstantArray( final int timepoint, final int setup, final int level, final int index, int[] dimensions );
+}
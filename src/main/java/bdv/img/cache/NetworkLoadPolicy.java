@@ -0,0 +1,485 @@
+package bdv.img.cache;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Failure handling shared by {@link CacheArrayLoader}s that fetch cells over
+ * the network (Catmaid, OpenConnectome, remote BigDataServer).
+ *
+ * <ul>
+ * <li>Blocking requests are run through {@link #call(URL, Request)} which
+ * limits the number of concurrent requests per host, and retries failed
+ * requests with exponential backoff.
+ * <li>Requests that still fail are remembered for a time-to-live that doubles
+ * with every consecutive failure of the same request (negative caching). Until
+ * it expires, the request is not repeated and {@link #call(URL, Request)}
+ * returns {@code null} immediately.
+ * <li>A host that fails a number of consecutive requests is considered down
+ * (circuit breaker). No requests are sent to it for a while. After that, a
+ * single successful request closes the circuit again.
+ * <li>Requests that fail with a client error (404 and other 4xx, except 408
+ * and 429, see {@link #isMissingResponse(IOException)}) are not retried and do
+ * not count towards the circuit breaker. The server has answered that there is
+ * nothing to load, so the request is remembered as {@link #isMissing(URL)
+ * missing} for good.
+ * </ul>
+ *
+ * Loaders should return an invalid array for a failed cell. The
+ * {@link VolatileGlobalCellCache} then keeps the cell invalid and requests it
+ * again in a later frame, instead of caching a block of zeros permanently. For
+ * a missing cell, loaders should return a valid empty array instead, such that
+ * it is not requested again.
+ *
+ * <p>
+ * Asynchronous loaders that cannot block for retries use
+ * {@link #isBlocked(URL)}, {@link #succeeded(URL)}, and {@link #failed(URL)}
+ * directly. A failed cell is then retried when it is enqueued again after its
+ * failure time-to-live expired.
+ *
+ * <p>
+ * Settings are read from system properties (see {@link #getDefault()}).
+ */
+public class NetworkLoadPolicy
+{
+	public static final String MAX_RETRIES_PROPERTY = "bdv.net.maxRetries";
+
+	public static final String INITIAL_BACKOFF_PROPERTY = "bdv.net.initialBackoffMillis";
+
+	public static final String MAX_BACKOFF_PROPERTY = "bdv.net.maxBackoffMillis";
+
+	public static final String FAILURE_TTL_PROPERTY = "bdv.net.failureTtlMillis";
+
+	public static final String MAX_FAILURE_TTL_PROPERTY = "bdv.net.maxFailureTtlMillis";
+
+	public static final String MAX_REQUESTS_PER_HOST_PROPERTY = "bdv.net.maxRequestsPerHost";
+
+	public static final String CIRCUIT_BREAKER_THRESHOLD_PROPERTY = "bdv.net.circuitBreakerThreshold";
+
+	public static final String CIRCUIT_BREAKER_OPEN_PROPERTY = "bdv.net.circuitBreakerOpenMillis";
+
+	public static final int DEFAULT_MAX_RETRIES = 2;
+
+	public static final long DEFAULT_INITIAL_BACKOFF = 100;
+
+	public static final long DEFAULT_MAX_BACKOFF = 5000;
+
+	public static final long DEFAULT_FAILURE_TTL = 5000;
+
+	public static final long DEFAULT_MAX_FAILURE_TTL = 5 * 60 * 1000;
+
+	public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 16;
+
+	public static final int DEFAULT_CIRCUIT_BREAKER_THRESHOLD = 20;
+
+	public static final long DEFAULT_CIRCUIT_BREAKER_OPEN = 10000;
+
+	/**
+	 * When the number of remembered failures exceeds this, failures that
+	 * expired more than {@code maxFailureTtl} ago are purged.
+	 */
+	private static final int MAX_FAILURES_BEFORE_PURGE = 10000;
+
+	/**
+	 * Thrown by {@link NetworkLoadPolicy#openStream(URL)} (and
+	 * {@link bdv.img.remote.AsyncHttpClient}) if the server responds with an
+	 * HTTP error status.
+	 */
+	public static class HttpStatusException extends IOException
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final int status;
+
+		public HttpStatusException( final int status, final URL url )
+		{
+			super( "HTTP status " + status + " for " + url );
+			this.status = status;
+		}
+
+		public int getStatus()
+		{
+			return status;
+		}
+	}
+
+	/**
+	 * A blocking request, e.g., fetching and decoding a cell.
+	 */
+	public interface Request< T >
+	{
+		public T run( URL url ) throws IOException;
+	}
+
+	private static class Failure
+	{
+		final int count;
+
+		final long expires;
+
+		Failure( final int count, final long expires )
+		{
+			this.count = count;
+			this.expires = expires;
+		}
+	}
+
+	private static class HostState
+	{
+		final Semaphore permits;
+
+		int consecutiveFailures;
+
+		long openUntil;
+
+		HostState( final int maxRequests )
+		{
+			permits = new Semaphore( maxRequests, true );
+			consecutiveFailures = 0;
+			openUntil = 0;
+		}
+	}
+
+	private final int maxRetries;
+
+	private final long initialBackoff;
+
+	private final long maxBackoff;
+
+	private final long failureTtl;
+
+	private final long maxFailureTtl;
+
+	private final int maxRequestsPerHost;
+
+	private final int circuitBreakerThreshold;
+
+	private final long circuitBreakerOpen;
+
+	private final ConcurrentHashMap< String, Failure > failures;
+
+	private final ConcurrentHashMap< String, HostState > hosts;
+
+	/**
+	 * Requests that the server answered with a client error.
+	 */
+	private final ConcurrentHashMap< String, Boolean > missing;
+
+	private final Random random;
+
+	private static NetworkLoadPolicy defaultPolicy;
+
+	/**
+	 * Get the policy shared by all network loaders. It is configured through
+	 * the system properties {@value #MAX_RETRIES_PROPERTY},
+	 * {@value #INITIAL_BACKOFF_PROPERTY}, {@value #MAX_BACKOFF_PROPERTY},
+	 * {@value #FAILURE_TTL_PROPERTY}, {@value #MAX_FAILURE_TTL_PROPERTY},
+	 * {@value #MAX_REQUESTS_PER_HOST_PROPERTY},
+	 * {@value #CIRCUIT_BREAKER_THRESHOLD_PROPERTY}, and
+	 * {@value #CIRCUIT_BREAKER_OPEN_PROPERTY}.
+	 */
+	public static synchronized NetworkLoadPolicy getDefault()
+	{
+		if ( defaultPolicy == null )
+			defaultPolicy = new NetworkLoadPolicy(
+					Integer.getInteger( MAX_RETRIES_PROPERTY, DEFAULT_MAX_RETRIES ),
+					Long.getLong( INITIAL_BACKOFF_PROPERTY, DEFAULT_INITIAL_BACKOFF ),
+					Long.getLong( MAX_BACKOFF_PROPERTY, DEFAULT_MAX_BACKOFF ),
+					Long.getLong( FAILURE_TTL_PROPERTY, DEFAULT_FAILURE_TTL ),
+					Long.getLong( MAX_FAILURE_TTL_PROPERTY, DEFAULT_MAX_FAILURE_TTL ),
+					Integer.getInteger( MAX_REQUESTS_PER_HOST_PROPERTY, DEFAULT_MAX_REQUESTS_PER_HOST ),
+					Integer.getInteger( CIRCUIT_BREAKER_THRESHOLD_PROPERTY, DEFAULT_CIRCUIT_BREAKER_THRESHOLD ),
+					Long.getLong( CIRCUIT_BREAKER_OPEN_PROPERTY, DEFAULT_CIRCUIT_BREAKER_OPEN ) );
+		return defaultPolicy;
+	}
+
+	/**
+	 * @param maxRetries
+	 *            how often a failed blocking request is repeated.
+	 * @param initialBackoff
+	 *            milliseconds to wait before the first retry. The wait
+	 *            doubles for every further retry.
+	 * @param maxBackoff
+	 *            maximum milliseconds to wait before a retry.
+	 * @param failureTtl
+	 *            milliseconds for which a failed request is not repeated. This
+	 *            doubles for every consecutive failure of the same request.
+	 * @param maxFailureTtl
+	 *            maximum milliseconds for which a failed request is not
+	 *            repeated.
+	 * @param maxRequestsPerHost
+	 *            maximum number of concurrent blocking requests per host.
+	 * @param circuitBreakerThreshold
+	 *            number of consecutive failed requests after which a host is
+	 *            considered down.
+	 * @param circuitBreakerOpen
+	 *            milliseconds for which no requests are sent to a host that
+	 *            is considered down.
+	 */
+	public NetworkLoadPolicy(
+			final int maxRetries,
+			final long initialBackoff,
+			final long maxBackoff,
+			final long failureTtl,
+			final long maxFailureTtl,
+			final int maxRequestsPerHost,
+			final int circuitBreakerThreshold,
+			final long circuitBreakerOpen )
+	{
+		this.maxRetries = Math.max( 0, maxRetries );
+		this.initialBackoff = Math.max( 0, initialBackoff );
+		this.maxBackoff = Math.max( this.initialBackoff, maxBackoff );
+		this.failureTtl = Math.max( 0, failureTtl );
+		this.maxFailureTtl = Math.max( this.failureTtl, maxFailureTtl );
+		this.maxRequestsPerHost = Math.max( 1, maxRequestsPerHost );
+		this.circuitBreakerThreshold = Math.max( 1, circuitBreakerThreshold );
+		this.circuitBreakerOpen = Math.max( 0, circuitBreakerOpen );
+		failures = new ConcurrentHashMap< String, Failure >();
+		hosts = new ConcurrentHashMap< String, HostState >();
+		missing = new ConcurrentHashMap< String, Boolean >();
+		random = new Random();
+	}
+
+	/**
+	 * The current time in milliseconds. Tests override this to control
+	 * failure time-to-live and circuit breaker timing.
+	 */
+	protected long currentTimeMillis()
+	{
+		return System.currentTimeMillis();
+	}
+
+	/**
+	 * Wait {@code millis} milliseconds before retrying a request. Tests
+	 * override this to record the backoff.
+	 */
+	protected void sleep( final long millis ) throws InterruptedException
+	{
+		Thread.sleep( millis );
+	}
+
+	/**
+	 * Whether {@code e} means that the server answered, but that there is
+	 * nothing to load, i.e., repeating the request would give the same answer.
+	 * This is the case for {@link FileNotFoundException} (404 and 410 from
+	 * {@link URL#openStream()}) and for {@link HttpStatusException}s with a
+	 * 4xx status other than 408 (request timeout) and 429 (too many requests).
+	 */
+	public static boolean isMissingResponse( final IOException e )
+	{
+		if ( e instanceof FileNotFoundException )
+			return true;
+		if ( e instanceof HttpStatusException )
+		{
+			final int status = ( ( HttpStatusException ) e ).getStatus();
+			return status >= 400 && status < 500 && status != 408 && status != 429;
+		}
+		return false;
+	}
+
+	/**
+	 * Like {@link URL#openStream()}, but an HTTP error status is reported as
+	 * {@link HttpStatusException}, such that {@link #isMissingResponse(IOException)}
+	 * can tell client errors from server errors.
+	 */
+	public static InputStream openStream( final URL url ) throws IOException
+	{
+		final URLConnection connection = url.openConnection();
+		if ( connection instanceof HttpURLConnection )
+		{
+			final HttpURLConnection http = ( HttpURLConnection ) connection;
+			final int status = http.getResponseCode();
+			if ( status >= 400 )
+			{
+				final InputStream error = http.getErrorStream();
+				if ( error != null )
+					error.close();
+				throw new HttpStatusException( status, url );
+			}
+		}
+		return connection.getInputStream();
+	}
+
+	private HostState getHostState( final URL url )
+	{
+		final String host = url.getHost() + ":" + url.getPort();
+		HostState state = hosts.get( host );
+		if ( state == null )
+		{
+			final HostState newState = new HostState( maxRequestsPerHost );
+			state = hosts.putIfAbsent( host, newState );
+			if ( state == null )
+				state = newState;
+		}
+		return state;
+	}
+
+	/**
+	 * Whether a request for {@code url} should not be sent now, because it
+	 * failed recently or because its host is considered down.
+	 */
+	public boolean isBlocked( final URL url )
+	{
+		final long now = currentTimeMillis();
+		final Failure failure = failures.get( url.toString() );
+		if ( failure != null && failure.expires > now )
+			return true;
+		final HostState host = getHostState( url );
+		synchronized ( host )
+		{
+			return host.openUntil > now;
+		}
+	}
+
+	/**
+	 * Record that a request for {@code url} succeeded.
+	 */
+	public void succeeded( final URL url )
+	{
+		failures.remove( url.toString() );
+		final HostState host = getHostState( url );
+		synchronized ( host )
+		{
+			host.consecutiveFailures = 0;
+			host.openUntil = 0;
+		}
+	}
+
+	/**
+	 * Record that a request for {@code url} failed (after retries, if any).
+	 * The request is blocked for the failure time-to-live, and the host is
+	 * considered down if it failed too often in a row.
+	 */
+	public void failed( final URL url )
+	{
+		final long now = currentTimeMillis();
+		final String key = url.toString();
+		final Failure previous = failures.get( key );
+		final int count = previous == null ? 1 : previous.count + 1;
+		final long ttl = Math.min( maxFailureTtl, failureTtl << Math.min( count - 1, 30 ) );
+		failures.put( key, new Failure( count, now + ttl ) );
+		if ( failures.size() > MAX_FAILURES_BEFORE_PURGE )
+			purgeExpiredFailures( now );
+
+		final HostState host = getHostState( url );
+		synchronized ( host )
+		{
+			if ( ++host.consecutiveFailures >= circuitBreakerThreshold )
+			{
+				if ( host.openUntil <= now )
+					System.err.println( "too many failed requests to " + url.getHost() + ", pausing for " + circuitBreakerOpen + " ms" );
+				host.openUntil = now + circuitBreakerOpen;
+			}
+		}
+	}
+
+	/**
+	 * Record that the server answered the request for {@code url} with a
+	 * client error (see {@link #isMissingResponse(IOException)}). The request
+	 * is not repeated by {@link #call(URL, Request)}. The host did answer, so
+	 * this counts as success for the circuit breaker.
+	 */
+	public void missing( final URL url )
+	{
+		missing.put( url.toString(), Boolean.TRUE );
+		succeeded( url );
+	}
+
+	/**
+	 * Whether the server answered the request for {@code url} with a client
+	 * error. Loaders should return a valid empty array for such a cell.
+	 */
+	public boolean isMissing( final URL url )
+	{
+		return missing.containsKey( url.toString() );
+	}
+
+	/**
+	 * Number of remembered failures (for testing).
+	 */
+	int getNumFailures()
+	{
+		return failures.size();
+	}
+
+	private void purgeExpiredFailures( final long now )
+	{
+		final Iterator< Map.Entry< String, Failure > > it = failures.entrySet().iterator();
+		while ( it.hasNext() )
+			if ( it.next().getValue().expires + maxFailureTtl <= now )
+				it.remove();
+	}
+
+	/**
+	 * Run a blocking {@link Request} for {@code url}. If the request fails
+	 * with an {@link IOException}, it is retried up to {@code maxRetries}
+	 * times with exponential backoff, unless the server answered with a
+	 * client error. The number of concurrent requests per host is limited.
+	 *
+	 * @return the result of the request, or {@code null} if the request
+	 *         failed, is {@link #isMissing(URL) missing}, or was not sent
+	 *         because it is {@link #isBlocked(URL) blocked}.
+	 * @throws InterruptedException
+	 */
+	public < T > T call( final URL url, final Request< T > request ) throws InterruptedException
+	{
+		if ( isMissing( url ) || isBlocked( url ) )
+			return null;
+
+		final HostState host = getHostState( url );
+		long backoff = initialBackoff;
+		for ( int attempt = 0;; ++attempt )
+		{
+			host.permits.acquire();
+			try
+			{
+				final T result = request.run( url );
+				succeeded( url );
+				return result;
+			}
+			catch ( final IOException e )
+			{
+				if ( isMissingResponse( e ) )
+				{
+					missing( url );
+					return null;
+				}
+				if ( attempt >= maxRetries )
+				{
+					System.err.println( "failed loading " + url + ": " + e );
+					failed( url );
+					return null;
+				}
+			}
+			finally
+			{
+				host.permits.release();
+			}
+
+			if ( Thread.interrupted() )
+				throw new InterruptedException();
+			// wait a random time in [backoff/2, backoff) to avoid synchronized retries
+			final long wait;
+			synchronized ( random )
+			{
+				wait = backoff / 2 + ( long ) ( random.nextDouble() * ( backoff / 2 ) );
+			}
+			sleep( wait );
+			backoff = Math.min( maxBackoff, 2 * backoff );
+			synchronized ( host )
+			{
+				if ( host.openUntil > currentTimeMillis() )
+					return null;
+			}
+		}
+	}
+}
@@ -78,11 +78,19 @@ public class VolatileGlobalCellCache< A extends VolatileAccess > implements Cach
 		 */
 		private long enqueueFrame;
 
+		/**
+		 * Whether an asynchronous load request for this entry is in flight
+		 * (see {@link AsyncCacheArrayLoader}). Guarded by synchronizing on the
+		 * entry.
+		 */
+		private boolean loading;
+
 		public Entry( final Key key, final VolatileCell< A > data )
 		{
 			this.key = key;
 			this.data = data;
 			enqueueFrame = -1;
+			loading = false;
 		}
 	}
 
@@ -165,17 +173,27 @@ public class VolatileGlobalCellCache< A extends VolatileAccess > implements Cach
 		public final void run()
 		{
 			Key key = null;
-			while ( true )
+			final ArrayList< Key > batch = new ArrayList< Key >();
+			while ( !shutdown )
 			{
 				while ( key == null )
+				{
+					if ( shutdown )
+						return;
 					try
 					{
 						key = queue.take();
 					}
 					catch ( final InterruptedException e )
 					{}
+				}
+				if ( batchLoader != null && batch.isEmpty() )
+				{
+					batch.add( key );
+					queue.drainMatching( new SameDataset( key ), batch, batchLoader.getMaxBatchSize() - 1, MAX_BATCH_SCAN );
+				}
 				long waitMillis = pauseUntilTimeMillis - System.currentTimeMillis();
-				while ( waitMillis > 0 )
+				while ( waitMillis > 0 && !shutdown )
 				{
 					try
 					{
@@ -188,10 +206,18 @@ public class VolatileGlobalCellCache< A extends VolatileAccess > implements Cach
 					{}
 					waitMillis = pauseUntilTimeMillis - System.currentTimeMillis();
 				}
+				if ( shutdown )
+					return;
 				try
 				{
-					loadIfNotValid( key );
+					if ( asyncLoader != null )
+						loadAsyncIfNotValid( batch.isEmpty() ? Collections.singletonList( key ) : batch );
+					else if ( batch.isEmpty() )
+						loadIfNotValid( key );
+					else
+						loadBatchIfNotValid( batch );
 					key = null;
+					batch.clear();
 				}
 				catch ( final InterruptedException e )
 				{}
@@ -218,6 +244,31 @@ public class VolatileGlobalCellCache< A extends VolatileAccess > implements Cach
 		}
 	}
 
+	/**
+	 * Accepts keys with the same (timepoint, setup, level) as a given key.
+	 */
+	class SameDataset implements BlockingFetchQueues.Filter< Key >
+	{
+		private final Key key;
+
+		public SameDataset( final Key key )
+		{
+			this.key = key;
+		}
+
+		@Override
+		public boolean accept( final Key other )
+		{
+			return other.timepoint == key.timepoint && other.setup == key.setup && other.level == key.level;
+		}
+	}
+
+	/**
+	 * How many queued keys per priority level to examine when looking for
+	 * cells to batch with a taken key.
+	 */
+	protected static final int MAX_BATCH_SCAN = 256;
+
 	/**
 	 * pause all {@link Fetcher} threads for the specified number of milliseconds.
 	 */
@@ -247,10 +298,61 @@ public class VolatileGlobalCellCache< A extends VolatileAccess > implements Cach
 			f.wakeUp();
 	}
 
+	/**
+	 * Stop all {@link Fetcher} threads, wait for them to finish the cells
+	 * they are loading, and clear the cache. The cache must not be used after
+	 * this.
+	 */
+	public void shutdown()
+	{
+		shutdown = true;
+		for ( final Fetcher f : fetchers )
+			f.interrupt();
+		for ( final Fetcher f : fetchers )
+		{
+			try
+			{
+				f.join();
+			}
+			catch ( final InterruptedException e )
+			{
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		clearCache();
+	}
+
+	private volatile boolean shutdown = false;
+
 	private final ArrayList< Fetcher > fetchers;
 
 	private final CacheArrayLoader< A > loader;
 
+	/**
+	 * {@link #loader} if it is a {@link BatchCacheArrayLoader}, otherwise
+	 * {@code null}.
+	 */
+	private final BatchCacheArrayLoader< A > batchLoader;
+
+	/**
+	 * {@link #loader} if it is an {@link AsyncCacheArrayLoader}, otherwise
+	 * {@code null}.
+	 */
+	private final AsyncCacheArrayLoader< A > asyncLoader;
+
+	/**
+	 * {@link #loader} if it is an {@link AsyncBatchCacheArrayLoader},
+	 * otherwise {@code null}.
+	 */
+	private final AsyncBatchCacheArrayLoader< A > asyncBatchLoader;
+
+	/**
+	 * {@link #loader} if it is a {@link ConstantCellArrayLoader}, otherwise
+	 * {@code null}.
+	 */
+	private final ConstantCellArrayLoader< A > constantLoader;
+
 	/**
 	 *
 	 * @param loader
@@ -266,9 +368,14 @@ public class VolatileGlobalCellCache< A extends VolatileAccess > implements Cach
 	 *            the highest occurring mipmap level plus 1.
 	 * @param numFetcherThreads
 	 */
+	@SuppressWarnings( "unchecked" )
 	public VolatileGlobalCellCache( final CacheArrayLoader< A > loader, final int maxNumTimepoints, final int maxNumSetups, final int maxNumLevels, final int numFetcherThreads )
 	{
 		this.loader = loader;
+		this.batchLoader = ( loader instanceof BatchCacheArrayLoader ) ? ( BatchCacheArrayLoader< A > ) loader : null;
+		this.asyncLoader = ( loader instanceof AsyncCacheArrayLoader ) ? ( AsyncCacheArrayLoader< A > ) loader : null;
+		this.asyncBatchLoader = ( loader instanceof AsyncBatchCacheArrayLoader ) ? ( AsyncBatchCacheArrayLoader< A > ) loader : null;
+		this.constantLoader = ( loader instanceof ConstantCellArrayLoader ) ? ( ConstantCellArrayLoader< A > ) loader : null;
 		this.maxNumTimepoints = maxNumTimepoints;
 		this.maxNumSetups = maxNumSetups;
 		this.maxNumLevels = maxNumLevels;
@@ -324,15 +431,195 @@ public class VolatileGlobalCellCache< A extends VolatileAccess > implements Cach
 			synchronized ( entry )
 			{
 				if ( !entry.data.getData().isValid() )
+					setLoadedData( entry, cellDims, cellMin, loader.loadArray( timepoint, setup, level, cellDims, cellMin ) );
+			}
+		}
+	}
+
+	/**
+	 * Put loaded data into the {@link Entry} and wake up threads waiting for
+	 * it. A loader signals a failed load by returning an invalid array. In
+	 * that case, the entry is left invalid (and is requested again when it is
+	 * enqueued in a later frame), instead of caching the array permanently.
+	 * Must be called while holding the entry's lock.
+	 */
+	private void setLoadedData( final Entry entry, final int[] cellDims, final long[] cellMin, final A data )
+	{
+		if ( data.isValid() )
+		{
+			entry.data = new VolatileCell< A >( cellDims, cellMin, data );
+			entry.enqueueFrame = Long.MAX_VALUE;
+			softReferenceCache.put( entry.key, new MySoftReference( entry, finalizeQueue ) );
+		}
+		entry.notifyAll();
+	}
+
+	/**
+	 * Fills in an {@link Entry} when an asynchronous load completes.
+	 */
+	class EntryLoadCallback implements AsyncCacheArrayLoader.LoadCallback< A >
+	{
+		private final Entry entry;
+
+		private final int[] cellDims;
+
+		private final long[] cellMin;
+
+		public EntryLoadCallback( final Entry entry )
+		{
+			this.entry = entry;
+			cellDims = entry.data.getDimensions();
+			cellMin = entry.data.getMin();
+		}
+
+		@Override
+		public void loaded( final A data )
+		{
+			synchronized ( entry )
+			{
+				entry.loading = false;
+				if ( !entry.data.getData().isValid() )
+					setLoadedData( entry, cellDims, cellMin, data );
+			}
+		}
+
+		@Override
+		public void failed( final Exception e )
+		{
+			synchronized ( entry )
+			{
+				entry.loading = false;
+				entry.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Start loading the data for the {@link VolatileCell}s referenced by the
+	 * given keys through the {@link AsyncCacheArrayLoader}, if the cells are
+	 * in the cache, not yet loaded (valid), and not already being loaded. The
+	 * entries are filled in when the loader calls back. If loading fails, an
+	 * entry remains invalid and will be requested again when it is enqueued
+	 * in a later frame. If there is more than one key (all keys then refer to
+	 * the same (timepoint, setup, level)) and the loader is an
+	 * {@link AsyncBatchCacheArrayLoader}, the cells are requested in one
+	 * call.
+	 *
+	 * @throws InterruptedException
+	 */
+	protected void loadAsyncIfNotValid( final List< Key > keys ) throws InterruptedException
+	{
+		final ArrayList< Entry > entries = new ArrayList< Entry >( keys.size() );
+		for ( final Key k : keys )
+		{
+			final Reference< Entry > ref = softReferenceCache.get( k );
+			if ( ref == null )
+				continue;
+			final Entry entry = ref.get();
+			if ( entry == null )
+				continue;
+			synchronized ( entry )
+			{
+				if ( entry.loading || entry.data.getData().isValid() )
+					continue;
+				entry.loading = true;
+			}
+			entries.add( entry );
+		}
+		if ( entries.isEmpty() )
+			return;
+
+		int numStarted = 0;
+		try
+		{
+			if ( entries.size() > 1 && asyncBatchLoader != null )
+			{
+				final ArrayList< int[] > cellDims = new ArrayList< int[] >( entries.size() );
+				final ArrayList< long[] > cellMin = new ArrayList< long[] >( entries.size() );
+				final ArrayList< AsyncCacheArrayLoader.LoadCallback< A > > callbacks = new ArrayList< AsyncCacheArrayLoader.LoadCallback< A > >( entries.size() );
+				for ( final Entry entry : entries )
 				{
-					final VolatileCell< A > cell = new VolatileCell< A >( cellDims, cellMin, loader.loadArray( timepoint, setup, level, cellDims, cellMin ) );
-					entry.data = cell;
-					entry.enqueueFrame = Long.MAX_VALUE;
-					softReferenceCache.put( entry.key, new MySoftReference( entry, finalizeQueue ) );
-					entry.notifyAll();
+					cellDims.add( entry.data.getDimensions() );
+					cellMin.add( entry.data.getMin() );
+					callbacks.add( new EntryLoadCallback( entry ) );
+				}
+				final Key k = entries.get( 0 ).key;
+				asyncBatchLoader.loadArraysAsync( k.timepoint, k.setup, k.level, cellDims, cellMin, callbacks );
+				numStarted = entries.size();
+			}
+			else
+			{
+				for ( final Entry entry : entries )
+				{
+					final Key k = entry.key;
+					asyncLoader.loadArrayAsync( k.timepoint, k.setup, k.level, entry.data.getDimensions(), entry.data.getMin(), new EntryLoadCallback( entry ) );
+					++numStarted;
 				}
 			}
 		}
+		catch ( final InterruptedException e )
+		{
+			for ( int i = numStarted; i < entries.size(); ++i )
+			{
+				final Entry entry = entries.get( i );
+				synchronized ( entry )
+				{
+					entry.loading = false;
+				}
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Load the data for all cells referenced by the given keys, if they are in
+	 * the cache and not yet loaded (valid). All keys must refer to the same
+	 * (timepoint, setup, level). Cells that need loading are passed to the
+	 * {@link BatchCacheArrayLoader} in one call.
+	 *
+	 * @throws InterruptedException
+	 */
+	protected void loadBatchIfNotValid( final List< Key > keys ) throws InterruptedException
+	{
+		final ArrayList< Entry > entries = new ArrayList< Entry >( keys.size() );
+		for ( final Key k : keys )
+		{
+			final Reference< Entry > ref = softReferenceCache.get( k );
+			if ( ref != null )
+			{
+				final Entry entry = ref.get();
+				if ( entry != null && !entry.data.getData().isValid() )
+					entries.add( entry );
+			}
+		}
+
+		if ( entries.isEmpty() )
+			return;
+		else if ( entries.size() == 1 )
+		{
+			loadEntryIfNotValid( entries.get( 0 ) );
+			return;
+		}
+
+		final ArrayList< int[] > cellDims = new ArrayList< int[] >( entries.size() );
+		final ArrayList< long[] > cellMin = new ArrayList< long[] >( entries.size() );
+		for ( final Entry entry : entries )
+		{
+			cellDims.add( entry.data.getDimensions() );
+			cellMin.add( entry.data.getMin() );
+		}
+		final Key k = entries.get( 0 ).key;
+		final List< A > arrays = batchLoader.loadArrays( k.timepoint, k.setup, k.level, cellDims, cellMin );
+
+		for ( int i = 0; i < entries.size(); ++i )
+		{
+			final Entry entry = entries.get( i );
+			synchronized ( entry )
+			{
+				if ( !entry.data.getData().isValid() )
+					setLoadedData( entry, cellDims.get( i ), cellMin.get( i ), arrays.get( i ) );
+			}
+		}
 	}
 
 	/**
@@ -458,7 +745,9 @@ public class VolatileGlobalCellCache< A extends VolatileAccess > implements Cach
 
 	/**
 	 * Create a new cell with the specified coordinates, if it isn't in the
-	 * cache already. Depending on the {@link LoadingStrategy}, do the
+	 * cache already. If the loader is a {@link ConstantCellArrayLoader} that
+	 * knows the cell to be constant, the cell is filled in immediately without
+	 * loading. Otherwise, depending on the {@link LoadingStrategy}, do the
 	 * following:
 	 * <ul>
 	 *   <li> {@link LoadingStrategy#VOLATILE}:
@@ -499,12 +788,34 @@ public class VolatileGlobalCellCache< A extends VolatileAccess > implements Cach
 			final Reference< Entry > ref = softReferenceCache.get( k );
 			if ( ref != null )
 				entry = ref.get();
+		}
 
-			if ( entry == null )
+		if ( entry == null )
+		{
+			// Looking up constant cells may do I/O (reading the constant
+			// cells index of the dataset). Do that without holding the
+			// global lock, then check again whether someone else was faster.
+			final A constant = ( constantLoader == null ) ? null : constantLoader.getConstantArray( timepoint, setup, level, index, cellDims );
+
+			synchronized ( softReferenceCache )
 			{
-				final VolatileCell< A > cell = new VolatileCell< A >( cellDims, cellMin, loader.emptyArray( cellDims ) );
-				entry = new Entry( k, cell );
-				softReferenceCache.put( k, new MyWeakReference( entry, finalizeQueue ) );
+				final Reference< Entry > ref = softReferenceCache.get( k );
+				if ( ref != null )
+					entry = ref.get();
+
+				if ( entry == null )
+				{
+					if ( constant != null )
+					{
+						entry = new Entry( k, new VolatileCell< A >( cellDims, cellMin, constant ) );
+						entry.enqueueFrame = Long.MAX_VALUE;
+						softReferenceCache.put( k, new MySoftReference( entry, finalizeQueue ) );
+						return entry.data;
+					}
+					final VolatileCell< A > cell = new VolatileCell< A >( cellDims, cellMin, loader.emptyArray( cellDims ) );
+					entry = new Entry( k, cell );
+					softReferenceCache.put( k, new MyWeakReference( entry, finalizeQueue ) );
+				}
 			}
 		}
 
@@ -534,6 +845,98 @@ public class VolatileGlobalCellCache< A extends VolatileAccess > implements Cach
 		return entry.data;
 	}
 
+	/**
+	 * Coordinates, dimensions, and offset of a cell. Used to record which cells
+	 * are loaded (see {@link VolatileGlobalCellCache#getLoadedCells(int)}) and
+	 * to request them again later (see
+	 * {@link VolatileGlobalCellCache#prefetch(List)}).
+	 */
+	public static class CellDescription
+	{
+		public final int timepoint;
+
+		public final int setup;
+
+		public final int level;
+
+		public final int index;
+
+		public final int[] dimensions;
+
+		public final long[] min;
+
+		public CellDescription( final int timepoint, final int setup, final int level, final int index, final int[] dimensions, final long[] min )
+		{
+			this.timepoint = timepoint;
+			this.setup = setup;
+			this.level = level;
+			this.index = index;
+			this.dimensions = dimensions;
+			this.min = min;
+		}
+	}
+
+	/**
+	 * Get descriptions of (at most {@code maxNumCells}) cells with valid data
+	 * that are currently in the cache. Constant cells (see
+	 * {@link ConstantCellArrayLoader}) are not included, because they are
+	 * available without loading anyway.
+	 */
+	public ArrayList< CellDescription > getLoadedCells( final int maxNumCells )
+	{
+		// copy the entries under the lock, but check for constant cells (which
+		// may read the constant cells index) without holding it
+		final ArrayList< Reference< Entry > > refs;
+		synchronized ( softReferenceCache )
+		{
+			refs = new ArrayList< Reference< Entry > >( softReferenceCache.values() );
+		}
+		final ArrayList< CellDescription > cells = new ArrayList< CellDescription >();
+		for ( final Reference< Entry > ref : refs )
+		{
+			if ( cells.size() >= maxNumCells )
+				break;
+			final Entry entry = ref.get();
+			if ( entry == null )
+				continue;
+			final VolatileCell< A > cell = entry.data;
+			if ( !cell.getData().isValid() )
+				continue;
+			final Key k = entry.key;
+			if ( isConstant( k.timepoint, k.setup, k.level, k.index ) )
+				continue;
+			cells.add( new CellDescription( k.timepoint, k.setup, k.level, k.index, cell.getDimensions(), cell.getMin() ) );
+		}
+		return cells;
+	}
+
+	/**
+	 * Enqueue the given cells for asynchronous loading by the fetcher threads,
+	 * if they are not in the cache already. As for images of the loaders,
+	 * cells of coarser mipmap levels are enqueued with higher priority.
+	 *
+	 * @param cells
+	 *            cells to load.
+	 */
+	public void prefetch( final List< CellDescription > cells )
+	{
+		for ( final CellDescription c : cells )
+		{
+			final int priority = Math.max( 0, maxNumLevels - 1 - c.level );
+			createGlobal( c.dimensions, c.min, c.timepoint, c.setup, c.level, c.index, new CacheHints( LoadingStrategy.VOLATILE, priority, false ) );
+		}
+	}
+
+	/**
+	 * Whether the cell with the specified coordinates is known to be constant
+	 * (see {@link ConstantCellArrayLoader}). Such cells never need to be
+	 * loaded or prefetched.
+	 */
+	public boolean isConstant( final int timepoint, final int setup, final int level, final int index )
+	{
+		return constantLoader != null && constantLoader.isConstant( timepoint, setup, level, index );
+	}
+
 	/**
 	 * Prepare the cache for providing data for the "next frame":
 	 * <ul>
@@ -613,6 +1016,12 @@ public class VolatileGlobalCellCache< A extends VolatileAccess > implements Cach
 			return createGlobal( cellDims, cellMin, timepoint, setup, level, index, cacheHints );
 		}
 
+		@Override
+		public boolean isConstant( final int index )
+		{
+			return VolatileGlobalCellCache.this.isConstant( timepoint, setup, level, index );
+		}
+
 		@Override
 		public void setCacheHints( final CacheHints cacheHints )
 		{
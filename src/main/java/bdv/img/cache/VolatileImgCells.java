@@ -34,6 +34,15 @@ public class VolatileImgCells< A extends VolatileAccess > extends AbstractCells<
 		 */
 		public VolatileCell< A > load( final int index, final int[] cellDims, final long[] cellMin );
 
+		/**
+		 * Whether the cell at a specified index is known to have the same
+		 * value in every pixel. Such a cell is available without loading.
+		 *
+		 * @param index
+		 *            index of the cell.
+		 */
+		public boolean isConstant( final int index );
+
 		/**
 		 * Set {@link CacheHints hints} on how to handle cell requests for this
 		 * cache.
@@ -55,6 +64,15 @@ public class VolatileImgCells< A extends VolatileAccess > extends AbstractCells<
 		cells = new CachedCells( numCells );
 	}
 
+	/**
+	 * Whether the cell at the given cell grid position is known to have the
+	 * same value in every pixel (see {@link CellCache#isConstant(int)}).
+	 */
+	public boolean isConstantCell( final long[] cellGridPosition )
+	{
+		return cache.isConstant( ( int ) IntervalIndexer.positionToIndex( cellGridPosition, numCells ) );
+	}
+
 	@Override
 	protected CachedCells cells()
 	{
@@ -1,14 +1,34 @@
 package bdv.img.catmaid;
 
+import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
-import java.awt.image.PixelGrabber;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
 
 import net.imglib2.img.basictypeaccess.volatiles.array.VolatileIntArray;
 import bdv.img.cache.CacheArrayLoader;
+import bdv.img.cache.NetworkLoadPolicy;
 
 public class CatmaidVolatileIntArrayLoader implements CacheArrayLoader< VolatileIntArray >
 {
@@ -22,6 +42,39 @@ public class CatmaidVolatileIntArrayLoader implements CacheArrayLoader< Volatile
 	
 	final private int[] zScales;
 
+	/**
+	 * Downloads tiles. This is I/O bound, so it has more threads than
+	 * {@link #decodeExecutor}.
+	 */
+	private final ExecutorService fetchExecutor;
+
+	/**
+	 * Decodes tiles. This is CPU bound, so it has one thread per core.
+	 */
+	private final ExecutorService decodeExecutor;
+
+	private static final int NUM_FETCH_THREADS = 16;
+
+	private static class NamedDaemonThreadFactory implements ThreadFactory
+	{
+		private final String name;
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		public NamedDaemonThreadFactory( final String name )
+		{
+			this.name = name;
+		}
+
+		@Override
+		public Thread newThread( final Runnable r )
+		{
+			final Thread t = new Thread( r, name + "-" + count.getAndIncrement() );
+			t.setDaemon( true );
+			return t;
+		}
+	}
+
 	/**
 	 * <p>Create a {@link CacheArrayLoader} for a CATMAID source.  Tiles are
 	 * addressed, in this order, by their</p>
@@ -59,6 +112,8 @@ public class CatmaidVolatileIntArrayLoader implements CacheArrayLoader< Volatile
 		this.tileWidth = tileWidth;
 		this.tileHeight = tileHeight;
 		this.zScales = zScales;
+		fetchExecutor = Executors.newFixedThreadPool( NUM_FETCH_THREADS, new NamedDaemonThreadFactory( "CatmaidFetch" ) );
+		decodeExecutor = Executors.newFixedThreadPool( Runtime.getRuntime().availableProcessors(), new NamedDaemonThreadFactory( "CatmaidDecode" ) );
 	}
 	
 	@Override
@@ -67,6 +122,258 @@ public class CatmaidVolatileIntArrayLoader implements CacheArrayLoader< Volatile
 		return 4;
 	}
 
+	/**
+	 * Fetch the tile with the given URL and decode it into {@code data} (if
+	 * {@code acc == null}) or add its r, g, b components to the accumulators
+	 * {@code acc}. The download runs on the {@link #fetchExecutor}. Only when
+	 * it has completed, decoding is submitted to the {@link #decodeExecutor},
+	 * such that decoder threads never wait for network I/O.
+	 *
+	 * @return a future that completes when the tile has been decoded.
+	 */
+	private Future< Void > fetchAndDecode( final String urlString, final int w, final int h, final int[] data, final int[][] acc )
+	{
+		final TileTask task = new TileTask( urlString, w, h, data, acc );
+		fetchExecutor.execute( task );
+		return task.decoded;
+	}
+
+	/**
+	 * Fetches ({@link #run()}) and then decodes ({@link #call()}) one tile.
+	 */
+	private class TileTask implements Runnable, Callable< Void >
+	{
+		private final String urlString;
+
+		private final int w;
+
+		private final int h;
+
+		private final int[] data;
+
+		private final int[][] acc;
+
+		/**
+		 * Completes after decoding, or with the exception that made fetching
+		 * or decoding fail.
+		 */
+		final FutureTask< Void > decoded;
+
+		private byte[] bytes;
+
+		private Exception fetchFailure;
+
+		TileTask( final String urlString, final int w, final int h, final int[] data, final int[][] acc )
+		{
+			this.urlString = urlString;
+			this.w = w;
+			this.h = h;
+			this.data = data;
+			this.acc = acc;
+			decoded = new FutureTask< Void >( this );
+		}
+
+		/**
+		 * Fetch the tile, then submit decoding.
+		 */
+		@Override
+		public void run()
+		{
+			if ( decoded.isCancelled() )
+				return;
+			try
+			{
+				bytes = fetch( urlString );
+			}
+			catch ( final Exception e )
+			{
+				// nothing to decode, complete the future with the failure right away
+				fetchFailure = e;
+				decoded.run();
+				return;
+			}
+			if ( bytes == null )
+				// missing tile, nothing to decode
+				decoded.run();
+			else
+				decodeExecutor.execute( decoded );
+		}
+
+		/**
+		 * Decode the fetched tile.
+		 */
+		@Override
+		public Void call() throws Exception
+		{
+			if ( fetchFailure != null )
+				throw fetchFailure;
+			if ( bytes == null )
+				// a missing tile stays black
+				return null;
+			final int[] pixels;
+			try
+			{
+				pixels = decode( bytes, w, h );
+			}
+			catch ( final IOException e )
+			{
+				// don't fetch a corrupt tile again right away
+				NetworkLoadPolicy.getDefault().failed( new URL( urlString ) );
+				throw e;
+			}
+			final int n = w * h;
+			if ( acc == null )
+			{
+				for ( int i = 0; i < n; ++i )
+					data[ i ] = pixels[ i ] | 0xff000000;
+			}
+			else
+			{
+				synchronized ( acc )
+				{
+					final int[] rs = acc[ 0 ], gs = acc[ 1 ], bs = acc[ 2 ];
+					for ( int i = 0; i < n; ++i )
+					{
+						final int v = pixels[ i ];
+						rs[ i ] += ( v >> 16 ) & 0xff;
+						gs[ i ] += ( v >> 8 ) & 0xff;
+						bs[ i ] += v & 0xff;
+					}
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Fetch a tile through the {@link NetworkLoadPolicy}, i.e., with retries,
+	 * a per-host request limit, and failure caching.
+	 *
+	 * @return the tile, or {@code null} if the server does not have it (see
+	 *         {@link NetworkLoadPolicy#isMissing(URL)}).
+	 * @throws IOException
+	 *             if the tile could not be fetched.
+	 */
+	private static byte[] fetch( final String urlString ) throws IOException, InterruptedException
+	{
+		final URL tileUrl = new URL( urlString );
+		final NetworkLoadPolicy policy = NetworkLoadPolicy.getDefault();
+		final byte[] bytes = policy.call( tileUrl, new NetworkLoadPolicy.Request< byte[] >()
+		{
+			@Override
+			public byte[] run( final URL url ) throws IOException
+			{
+				final InputStream in = NetworkLoadPolicy.openStream( url );
+				try
+				{
+					final ByteArrayOutputStream bytes = new ByteArrayOutputStream( 64 * 1024 );
+					final byte[] buf = new byte[ 16 * 1024 ];
+					for ( int l = in.read( buf ); l >= 0; l = in.read( buf ) )
+						bytes.write( buf, 0, l );
+					return bytes.toByteArray();
+				}
+				finally
+				{
+					in.close();
+				}
+			}
+		} );
+		if ( bytes == null && !policy.isMissing( tileUrl ) )
+			throw new IOException( "failed fetching " + urlString );
+		return bytes;
+	}
+
+	/**
+	 * Per decoder thread {@link BufferedImage#TYPE_INT_RGB} image that tiles
+	 * are decoded into.
+	 */
+	private static final ThreadLocal< BufferedImage > decodeBuffers = new ThreadLocal< BufferedImage >();
+
+	/**
+	 * Decode an image into the current thread's w x h
+	 * {@link BufferedImage#TYPE_INT_RGB} scratch image, and return its pixel
+	 * array (which is valid until the next call on this thread).
+	 *
+	 * Decoding into a TYPE_INT_RGB image (as opposed to just opening a JPG or
+	 * PNG and grabbing its pixels) is necessary to get reproducible gray
+	 * values. If the reader can produce TYPE_INT_RGB directly, the image is
+	 * decoded straight into the scratch raster. Otherwise (e.g. for gray
+	 * images) it is decoded and drawn into the scratch image, which applies
+	 * the same color conversion as before.
+	 */
+	private static int[] decode( final byte[] bytes, final int w, final int h ) throws IOException
+	{
+		BufferedImage image = decodeBuffers.get();
+		if ( image == null || image.getWidth() != w || image.getHeight() != h )
+		{
+			image = new BufferedImage( w, h, BufferedImage.TYPE_INT_RGB );
+			decodeBuffers.set( image );
+		}
+		final int[] pixels = ( ( DataBufferInt ) image.getRaster().getDataBuffer() ).getData();
+		Arrays.fill( pixels, 0 );
+
+		final ImageInputStream iis = ImageIO.createImageInputStream( new ByteArrayInputStream( bytes ) );
+		try
+		{
+			final Iterator< ImageReader > readers = ImageIO.getImageReaders( iis );
+			if ( !readers.hasNext() )
+				throw new IOException( "no image reader for tile" );
+			final ImageReader reader = readers.next();
+			try
+			{
+				reader.setInput( iis, true, true );
+				boolean direct = false;
+				for ( final Iterator< ImageTypeSpecifier > it = reader.getImageTypes( 0 ); it.hasNext(); )
+					if ( it.next().getBufferedImageType() == BufferedImage.TYPE_INT_RGB )
+					{
+						direct = true;
+						break;
+					}
+				if ( direct )
+				{
+					final ImageReadParam param = reader.getDefaultReadParam();
+					param.setDestination( image );
+					reader.read( 0, param );
+				}
+				else
+				{
+					final BufferedImage decoded = reader.read( 0 );
+					final Graphics2D g = image.createGraphics();
+					g.drawImage( decoded, 0, 0, null );
+					g.dispose();
+				}
+			}
+			finally
+			{
+				reader.dispose();
+			}
+		}
+		finally
+		{
+			iis.close();
+		}
+		return pixels;
+	}
+
+	/**
+	 * Per fetcher thread r, g, b accumulators for averaging z-slices.
+	 */
+	private static final ThreadLocal< int[][] > accumulators = new ThreadLocal< int[][] >();
+
+	private static int[][] getAccumulators( final int n )
+	{
+		int[][] acc = accumulators.get();
+		if ( acc == null || acc[ 0 ].length < n )
+		{
+			acc = new int[ 3 ][ n ];
+			accumulators.set( acc );
+		}
+		else
+			for ( final int[] a : acc )
+				Arrays.fill( a, 0, n, 0 );
+		return acc;
+	}
+
 	@Override
 	public VolatileIntArray loadArray(
 			final int timepoint,
@@ -78,74 +385,60 @@ public class CatmaidVolatileIntArrayLoader implements CacheArrayLoader< Volatile
 		final int c = ( int ) min[ 0 ] / tileWidth;
 		final int r = ( int ) min[ 1 ] / tileHeight;
 		final double scale = 1.0 / Math.pow(2.0, level);
-		
+
 		final int w = dimensions[ 0 ];
 		final int h = dimensions[ 1 ];
 		final int[] data = new int[ w * h ];
-		
+
+		final ArrayList< Future< Void > > futures = new ArrayList< Future< Void > >();
 		try
 		{
 			if ( zScales[ level ] > 1 )
 			{
-				final long[] rs = new long[ data.length ], gs = new long[ data.length ], bs = new long[ data.length ];
+				final int n = data.length;
+				final int[][] acc = getAccumulators( n );
 				for ( int z = ( int )min[ 2 ] * zScales[ level ], dz = 0; dz < zScales[ level ]; ++dz )
 				{
 					final String urlString = String.format( urlFormat, level, scale, min[ 0 ], min[ 1 ], z + dz, tileWidth, tileHeight, r, c );
-					final URL url = new URL( urlString );
-					final BufferedImage jpg = ImageIO.read( url );
-					/* This gymnastic is necessary to get reproducible gray
-					* values, just opening a JPG or PNG, even when saved by
-					* ImageIO, and grabbing its pixels results in gray values
-					* with a non-matching gamma transfer function, I cannot tell
-					* why... */
-					final BufferedImage image = new BufferedImage( w, h, BufferedImage.TYPE_INT_RGB );
-					image.createGraphics().drawImage( jpg, 0, 0, null );
-					final PixelGrabber pg = new PixelGrabber( image, 0, 0, w, h, data, 0, w );
-					pg.grabPixels();
-					for ( int i = 0; i < data.length; ++i )
-					{
-						rs[ i ] += ( data[ i ] >> 16 ) & 0xff;
-						gs[ i ] += ( data[ i ] >> 8 ) & 0xff;
-						bs[ i ] += data[ i ] & 0xff;
-					}
+					futures.add( fetchAndDecode( urlString, w, h, null, acc ) );
 				}
-				for ( int i = 0; i < data.length; ++i )
+				for ( final Future< Void > f : futures )
+					f.get();
+				final int[] rs = acc[ 0 ], gs = acc[ 1 ], bs = acc[ 2 ];
+				for ( int i = 0; i < n; ++i )
 				{
-					final int red = ( int )( rs[ i ] / zScales[ level ] );
-					final int green = ( int )( gs[ i ] / zScales[ level ] );
-					final int blue = ( int )( bs[ i ] / zScales[ level ] );
+					final int red = rs[ i ] / zScales[ level ];
+					final int green = gs[ i ] / zScales[ level ];
+					final int blue = bs[ i ] / zScales[ level ];
 					data[ i ] = ( ( ( ( red << 8 ) | green ) << 8 ) | blue ) | 0xff000000;
 				}
 			}
 			else
 			{
 				final String urlString = String.format( urlFormat, level, scale, min[ 0 ], min[ 1 ], min[ 2 ], tileWidth, tileHeight, r, c );
-			
-				final URL url = new URL( urlString );
-//				final Image image = toolkit.createImage( url );
-				final BufferedImage jpg = ImageIO.read( url );
-
-				/* This gymnastic is necessary to get reproducible gray
-				 * values, just opening a JPG or PNG, even when saved by
-				 * ImageIO, and grabbing its pixels results in gray values
-				 * with a non-matching gamma transfer function, I cannot tell
-				 * why... */
-			    final BufferedImage image = new BufferedImage( w, h, BufferedImage.TYPE_INT_RGB );
-				image.createGraphics().drawImage( jpg, 0, 0, null );
-				final PixelGrabber pg = new PixelGrabber( image, 0, 0, w, h, data, 0, w );
-				pg.grabPixels();
-
-//				System.out.println( "success loading r=" + entry.key.r + " c=" + entry.key.c + " url(" + urlString + ")" );
+				futures.add( fetchAndDecode( urlString, w, h, data, null ) );
+				futures.get( 0 ).get();
 			}
-
 		}
-		catch (final IOException e)
+		catch ( final ExecutionException e )
 		{
+			// Other decode tasks of this tile may still be running and write
+			// to this thread's accumulators, so don't reuse them.
+			for ( final Future< Void > f : futures )
+				f.cancel( false );
+			accumulators.remove();
+			// return an invalid array, such that the tile is requested again later
 			System.out.println( "failed loading r=" + r + " c=" + c );
+			return new VolatileIntArray( data, false );
 		}
-		catch (final InterruptedException e)
+		catch ( final InterruptedException e )
 		{
-			e.printStackTrace();
+			// pending decode tasks may still write to this thread's
+			// accumulators, so don't reuse them.
+			for ( final Future< Void > f : futures )
+				f.cancel( false );
+			accumulators.remove();
+			throw e;
 		}
 		return new VolatileIntArray( data, true );
 	}
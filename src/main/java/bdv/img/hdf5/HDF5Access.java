@@ -1,6 +1,10 @@
 package bdv.img.hdf5;
 
 import static bdv.img.hdf5.Util.reorder;
+
+import java.util.ArrayList;
+import java.util.List;
+
 import ch.systemsx.cisd.base.mdarray.MDFloatArray;
 import ch.systemsx.cisd.base.mdarray.MDShortArray;
 import ch.systemsx.cisd.hdf5.HDF5DataSetInformation;
@@ -19,6 +23,14 @@ public class HDF5Access implements IHDF5Access
 		this.hdf5Reader = hdf5Reader;
 	}
 
+	/**
+	 * Close the underlying {@link IHDF5Reader}.
+	 */
+	public synchronized void close()
+	{
+		hdf5Reader.close();
+	}
+
 	@Override
 	public synchronized DimsAndExistence getDimsAndExistence( final ViewLevelId id )
 	{
@@ -54,6 +66,19 @@ public class HDF5Access implements IHDF5Access
 		return dataBlock;
 	}
 
+	@Override
+	public synchronized List< short[] > readShortMDArrayBlocksWithOffset( final int timepoint, final int setup, final int level, final List< int[] > dimensions, final List< long[] > min ) throws InterruptedException
+	{
+		final int n = dimensions.size();
+		final short[][] blocks = new short[ n ][];
+		for ( final int i : Util.fileOrder( min ) )
+			blocks[ i ] = readShortMDArrayBlockWithOffset( timepoint, setup, level, dimensions.get( i ), min.get( i ) );
+		final ArrayList< short[] > list = new ArrayList< short[] >( n );
+		for ( final short[] block : blocks )
+			list.add( block );
+		return list;
+	}
+
 	@Override
 	public float[] readShortMDArrayBlockWithOffsetAsFloat( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min ) throws InterruptedException
 	{
@@ -71,4 +96,18 @@ public class HDF5Access implements IHDF5Access
 		System.arraycopy( readShortMDArrayBlockWithOffsetAsFloat( timepoint, setup, level, dimensions, min ), 0, dataBlock, 0, dataBlock.length );
 		return dataBlock;
 	}
+
+	@Override
+	public synchronized int[] readConstantCells( final ViewLevelId id )
+	{
+		final String path = Util.getConstantCellsPath( id );
+		try
+		{
+			if ( hdf5Reader.object().exists( path ) )
+				return hdf5Reader.int32().readArray( path );
+		}
+		catch ( final Exception e )
+		{}
+		return null;
+	}
 }
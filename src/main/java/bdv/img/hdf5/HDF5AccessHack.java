@@ -16,7 +16,10 @@ import static ch.systemsx.cisd.hdf5.hdf5lib.HDF5Constants.H5T_NATIVE_FLOAT;
 import static ch.systemsx.cisd.hdf5.hdf5lib.HDF5Constants.H5T_NATIVE_INT16;
 
 import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map.Entry;
 
 import ch.systemsx.cisd.hdf5.IHDF5Reader;
@@ -29,6 +32,11 @@ import ch.systemsx.cisd.hdf5.IHDF5Reader;
  * The HDF5 fileId is extracted from a jhdf5 HDF5Reader using reflection to
  * avoid having to do everything ourselves.
  *
+ * The number of open datasets and the HDF5 chunk cache size of each dataset
+ * are configured by {@link Hdf5CacheSettings}. Dataset open/close counts and
+ * (estimated) chunk cache hits are available through
+ * {@link #getCacheStatistics()}.
+ *
  * @author Tobias Pietzsch <tobias.pietzsch@gmail.com>
  */
 public class HDF5AccessHack implements IHDF5Access
@@ -43,7 +51,40 @@ public class HDF5AccessHack implements IHDF5Access
 
 	private final long[] reorderedMin = new long[ 3 ];
 
-	private static final int MAX_OPEN_DATASETS = 48;
+	private final Hdf5CacheSettings settings;
+
+	/**
+	 * Dataset access property list with the configured chunk cache, or
+	 * {@code H5P_DEFAULT}.
+	 */
+	private final int datasetAccessPropertyListId;
+
+	/**
+	 * Size of the chunk cache that is actually used for each dataset. This is
+	 * the HDF5 default, if the configured size could not be set.
+	 */
+	private final long effectiveChunkCacheBytes;
+
+	private final long startNanos;
+
+	private long numDatasetOpens = 0;
+
+	private long numDatasetCloses = 0;
+
+	private long numChunkCacheHits = 0;
+
+	private long numChunkCacheMisses = 0;
+
+	/**
+	 * A batch of blocks is read with a single hyperslab selection of its
+	 * bounding box if the bounding box has at most this many elements...
+	 */
+	private static final long MAX_COMBINED_READ_ELEMENTS = 4 * 1024 * 1024;
+
+	/**
+	 * ... and the blocks cover at least this fraction of the bounding box.
+	 */
+	private static final double MIN_COMBINED_READ_FILL = 0.75;
 
 	private class OpenDataSet
 	{
@@ -51,16 +92,169 @@ public class HDF5AccessHack implements IHDF5Access
 
 		final int fileSpaceId;
 
+		final ChunkCacheModel chunkCacheModel;
+
+		/**
+		 * Chunk size of the dataset (in imglib2 order), or null if the dataset
+		 * is not chunked.
+		 */
+		final int[] chunkDimensions;
+
 		public OpenDataSet( final String cellsPath )
 		{
-			dataSetId = H5Dopen( fileId, cellsPath, H5P_DEFAULT );
+			dataSetId = H5Dopen( fileId, cellsPath, datasetAccessPropertyListId );
 			fileSpaceId = H5Dget_space( dataSetId );
+			chunkCacheModel = new ChunkCacheModel( effectiveChunkCacheBytes );
+			chunkDimensions = getChunkDimensions( cellsPath );
+			++numDatasetOpens;
 		}
 
 		public void close()
 		{
 			H5Sclose( fileSpaceId );
 			H5Dclose( dataSetId );
+			++numDatasetCloses;
+		}
+
+		/**
+		 * Record a read of the block at {@code min} for chunk cache
+		 * statistics. This records an access for every chunk that the block
+		 * overlaps. If the dataset is not chunked, the block is recorded as a
+		 * single access.
+		 */
+		public void recordRead( final long[] min, final int[] dimensions )
+		{
+			if ( chunkDimensions == null )
+			{
+				final long key = ( min[ 2 ] << 42 ) ^ ( min[ 1 ] << 21 ) ^ min[ 0 ];
+				recordAccess( key, 2l * dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ] );
+				return;
+			}
+			final long chunkBytes = 2l * chunkDimensions[ 0 ] * chunkDimensions[ 1 ] * chunkDimensions[ 2 ];
+			final long[] c0 = new long[ 3 ];
+			final long[] c1 = new long[ 3 ];
+			for ( int d = 0; d < 3; ++d )
+			{
+				c0[ d ] = min[ d ] / chunkDimensions[ d ];
+				c1[ d ] = ( min[ d ] + dimensions[ d ] - 1 ) / chunkDimensions[ d ];
+			}
+			for ( long z = c0[ 2 ]; z <= c1[ 2 ]; ++z )
+				for ( long y = c0[ 1 ]; y <= c1[ 1 ]; ++y )
+					for ( long x = c0[ 0 ]; x <= c1[ 0 ]; ++x )
+						recordAccess( ( z << 42 ) ^ ( y << 21 ) ^ x, chunkBytes );
+		}
+
+		private void recordAccess( final long key, final long numBytes )
+		{
+			if ( chunkCacheModel.access( key, numBytes ) )
+				++numChunkCacheHits;
+			else
+				++numChunkCacheMisses;
+		}
+	}
+
+	/**
+	 * Get the chunk size of a dataset in imglib2 order, or null if the dataset
+	 * is not chunked (or its layout cannot be read).
+	 */
+	private int[] getChunkDimensions( final String cellsPath )
+	{
+		try
+		{
+			final int[] chunkSizes = hdf5Reader.object().getDataSetInformation( cellsPath ).tryGetChunkSizes();
+			if ( chunkSizes == null || chunkSizes.length != 3 )
+				return null;
+			return new int[] { chunkSizes[ 2 ], chunkSizes[ 1 ], chunkSizes[ 0 ] };
+		}
+		catch ( final Exception e )
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * The HDF5 library does not report chunk cache hits. Instead, this models
+	 * the chunk cache of one dataset as a LRU cache of the given byte size,
+	 * with one entry per chunk (see {@link OpenDataSet#recordRead(long[], int[])}).
+	 * A read of several chunks (e.g., the bounding box of a batch of cells)
+	 * counts as one access per chunk.
+	 */
+	private static class ChunkCacheModel extends LinkedHashMap< Long, Long >
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final long capacity;
+
+		private long size;
+
+		public ChunkCacheModel( final long capacity )
+		{
+			super( 16, 0.75f, true );
+			this.capacity = capacity;
+			size = 0;
+		}
+
+		/**
+		 * @return whether the block was in the cache.
+		 */
+		public boolean access( final long key, final long numBytes )
+		{
+			if ( get( key ) != null )
+				return true;
+			if ( numBytes <= capacity )
+			{
+				put( key, numBytes );
+				size += numBytes;
+				final Iterator< Long > it = values().iterator();
+				while ( size > capacity && it.hasNext() )
+				{
+					size -= it.next();
+					it.remove();
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Snapshot of dataset open/close counts and chunk cache hit statistics.
+	 */
+	public static class CacheStatistics
+	{
+		public final long numDatasetOpens;
+
+		public final long numDatasetCloses;
+
+		public final long numChunkCacheHits;
+
+		public final long numChunkCacheMisses;
+
+		public final double seconds;
+
+		public CacheStatistics( final long numDatasetOpens, final long numDatasetCloses, final long numChunkCacheHits, final long numChunkCacheMisses, final double seconds )
+		{
+			this.numDatasetOpens = numDatasetOpens;
+			this.numDatasetCloses = numDatasetCloses;
+			this.numChunkCacheHits = numChunkCacheHits;
+			this.numChunkCacheMisses = numChunkCacheMisses;
+			this.seconds = seconds;
+		}
+
+		public double getChunkCacheHitRatio()
+		{
+			final long n = numChunkCacheHits + numChunkCacheMisses;
+			return n == 0 ? 0 : ( double ) numChunkCacheHits / n;
+		}
+
+		@Override
+		public String toString()
+		{
+			final double s = Math.max( seconds, 1e-9 );
+			return String.format( "dataset opens: %d (%.2f/s), closes: %d (%.2f/s), chunk cache hits (estimated): %d of %d (%.1f%%)",
+					numDatasetOpens, numDatasetOpens / s,
+					numDatasetCloses, numDatasetCloses / s,
+					numChunkCacheHits, numChunkCacheHits + numChunkCacheMisses,
+					100 * getChunkCacheHitRatio() );
 		}
 	}
 
@@ -70,13 +264,13 @@ public class HDF5AccessHack implements IHDF5Access
 
 		public OpenDataSetCache()
 		{
-			super( MAX_OPEN_DATASETS, 0.75f, true );
+			super( settings.getMaxOpenDatasets(), 0.75f, true );
 		}
 
 		@Override
 		protected boolean removeEldestEntry( final Entry< ViewLevelId, OpenDataSet > eldest )
 		{
-			if ( size() > MAX_OPEN_DATASETS )
+			if ( size() > settings.getMaxOpenDatasets() )
 			{
 				eldest.getValue().close();
 				return true;
@@ -100,8 +294,14 @@ public class HDF5AccessHack implements IHDF5Access
 	private final OpenDataSetCache openDataSetCache;
 
 	public HDF5AccessHack( final IHDF5Reader hdf5Reader ) throws ClassNotFoundException, SecurityException, NoSuchFieldException, IllegalArgumentException, IllegalAccessException
+	{
+		this( hdf5Reader, Hdf5CacheSettings.fromSystemProperties() );
+	}
+
+	public HDF5AccessHack( final IHDF5Reader hdf5Reader, final Hdf5CacheSettings settings ) throws ClassNotFoundException, SecurityException, NoSuchFieldException, IllegalArgumentException, IllegalAccessException
 	{
 		this.hdf5Reader = hdf5Reader;
+		this.settings = settings;
 
 		final Class< ? > k = Class.forName( "ch.systemsx.cisd.hdf5.HDF5Reader" );
 		final Field f = k.getDeclaredField( "baseReader" );
@@ -122,9 +322,70 @@ public class HDF5AccessHack implements IHDF5Access
 		f4.setAccessible( true );
 		numericConversionXferPropertyListID = ( ( Integer ) f4.get( h5 ) ).intValue();
 
+		datasetAccessPropertyListId = createDatasetAccessPropertyList( settings );
+		effectiveChunkCacheBytes = ( datasetAccessPropertyListId == H5P_DEFAULT ) ? Hdf5CacheSettings.DEFAULT_CHUNK_CACHE_BYTES : settings.getChunkCacheBytes();
+		startNanos = System.nanoTime();
 		openDataSetCache = new OpenDataSetCache();
 	}
 
+	/**
+	 * Create a dataset access property list with the chunk cache configured
+	 * according to {@code settings}. {@code H5Pset_chunk_cache} is not
+	 * available in all jhdf5 versions, so it is called by reflection. If this
+	 * fails (or the settings are the library defaults) {@code H5P_DEFAULT} is
+	 * returned.
+	 */
+	private static int createDatasetAccessPropertyList( final Hdf5CacheSettings settings )
+	{
+		if ( !settings.hasNonDefaultChunkCache() )
+			return H5P_DEFAULT;
+		try
+		{
+			final Class< ? > h5p = Class.forName( "ch.systemsx.cisd.hdf5.hdf5lib.H5P" );
+			final Class< ? > constants = Class.forName( "ch.systemsx.cisd.hdf5.hdf5lib.HDF5Constants" );
+			final int datasetAccess = constants.getField( "H5P_DATASET_ACCESS" ).getInt( null );
+			final int dapl = ( ( Number ) h5p.getMethod( "H5Pcreate", int.class ).invoke( null, datasetAccess ) ).intValue();
+			h5p.getMethod( "H5Pset_chunk_cache", int.class, long.class, long.class, double.class ).invoke( null,
+					dapl, settings.getChunkCacheSlots(), settings.getChunkCacheBytes(), settings.getChunkCachePreemption() );
+			return dapl;
+		}
+		catch ( final Exception e )
+		{
+			System.err.println( "Could not configure hdf5 chunk cache (" + e + "). Using library defaults." );
+			return H5P_DEFAULT;
+		}
+	}
+
+	private void closeDatasetAccessPropertyList()
+	{
+		if ( datasetAccessPropertyListId == H5P_DEFAULT )
+			return;
+		try
+		{
+			final Class< ? > h5p = Class.forName( "ch.systemsx.cisd.hdf5.hdf5lib.H5P" );
+			h5p.getMethod( "H5Pclose", int.class ).invoke( null, datasetAccessPropertyListId );
+		}
+		catch ( final Exception e )
+		{
+			e.printStackTrace();
+		}
+	}
+
+	public Hdf5CacheSettings getCacheSettings()
+	{
+		return settings;
+	}
+
+	/**
+	 * Get dataset open/close counts and chunk cache hit statistics since this
+	 * {@link HDF5AccessHack} was created. Chunk cache hits are estimated, see
+	 * {@link ChunkCacheModel}.
+	 */
+	public synchronized CacheStatistics getCacheStatistics()
+	{
+		return new CacheStatistics( numDatasetOpens, numDatasetCloses, numChunkCacheHits, numChunkCacheMisses, ( System.nanoTime() - startNanos ) / 1e9 );
+	}
+
 	@Override
 	public synchronized DimsAndExistence getDimsAndExistence( final ViewLevelId id )
 	{
@@ -168,10 +429,76 @@ public class HDF5AccessHack implements IHDF5Access
 		H5Sselect_hyperslab( dataset.fileSpaceId, H5S_SELECT_SET, reorderedMin, null, reorderedDimensions, null );
 		H5Dread( dataset.dataSetId, H5T_NATIVE_INT16, memorySpaceId, dataset.fileSpaceId, numericConversionXferPropertyListID, dataBlock );
 		H5Sclose( memorySpaceId );
+		dataset.recordRead( min, dimensions );
 
 		return dataBlock;
 	}
 
+	/**
+	 * If the blocks (mostly) fill their bounding box, read the bounding box
+	 * with one {@code H5Dread} and copy the blocks out of it. Otherwise, read
+	 * the blocks one by one in file order.
+	 */
+	@Override
+	public synchronized List< short[] > readShortMDArrayBlocksWithOffset( final int timepoint, final int setup, final int level, final List< int[] > dimensions, final List< long[] > min ) throws InterruptedException
+	{
+		final int n = dimensions.size();
+		final short[][] blocks = new short[ n ][];
+
+		final long[] bbMin = new long[ 3 ];
+		final long[] bbMax = new long[ 3 ];
+		long blockElements = 0;
+		for ( int i = 0; i < n; ++i )
+		{
+			final int[] dims = dimensions.get( i );
+			final long[] m = min.get( i );
+			for ( int d = 0; d < 3; ++d )
+			{
+				bbMin[ d ] = ( i == 0 ) ? m[ d ] : Math.min( bbMin[ d ], m[ d ] );
+				bbMax[ d ] = ( i == 0 ) ? m[ d ] + dims[ d ] : Math.max( bbMax[ d ], m[ d ] + dims[ d ] );
+			}
+			blockElements += ( long ) dims[ 0 ] * dims[ 1 ] * dims[ 2 ];
+		}
+		final int[] bbDims = new int[ 3 ];
+		long bbElements = 1;
+		for ( int d = 0; d < 3; ++d )
+		{
+			bbDims[ d ] = ( int ) ( bbMax[ d ] - bbMin[ d ] );
+			bbElements *= bbDims[ d ];
+		}
+
+		if ( n > 1 && bbElements <= MAX_COMBINED_READ_ELEMENTS && blockElements >= MIN_COMBINED_READ_FILL * bbElements )
+		{
+			final short[] bb = readShortMDArrayBlockWithOffset( timepoint, setup, level, bbDims, bbMin );
+			for ( int i = 0; i < n; ++i )
+			{
+				final int[] dims = dimensions.get( i );
+				final long[] m = min.get( i );
+				final short[] block = new short[ dims[ 0 ] * dims[ 1 ] * dims[ 2 ] ];
+				final int ox = ( int ) ( m[ 0 ] - bbMin[ 0 ] );
+				final int oy = ( int ) ( m[ 1 ] - bbMin[ 1 ] );
+				final int oz = ( int ) ( m[ 2 ] - bbMin[ 2 ] );
+				int o = 0;
+				for ( int z = 0; z < dims[ 2 ]; ++z )
+					for ( int y = 0; y < dims[ 1 ]; ++y )
+					{
+						System.arraycopy( bb, ( ( oz + z ) * bbDims[ 1 ] + oy + y ) * bbDims[ 0 ] + ox, block, o, dims[ 0 ] );
+						o += dims[ 0 ];
+					}
+				blocks[ i ] = block;
+			}
+		}
+		else
+		{
+			for ( final int i : Util.fileOrder( min ) )
+				blocks[ i ] = readShortMDArrayBlockWithOffset( timepoint, setup, level, dimensions.get( i ), min.get( i ) );
+		}
+
+		final ArrayList< short[] > list = new ArrayList< short[] >( n );
+		for ( final short[] block : blocks )
+			list.add( block );
+		return list;
+	}
 
 	@Override
 	public float[] readShortMDArrayBlockWithOffsetAsFloat( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min ) throws InterruptedException
@@ -182,7 +509,7 @@ public class HDF5AccessHack implements IHDF5Access
 	}
 
 	@Override
-	public float[] readShortMDArrayBlockWithOffsetAsFloat( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min, final float[] dataBlock ) throws InterruptedException
+	public synchronized float[] readShortMDArrayBlockWithOffsetAsFloat( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min, final float[] dataBlock ) throws InterruptedException
 	{
 		if ( Thread.interrupted() )
 			throw new InterruptedException();
@@ -194,10 +521,37 @@ public class HDF5AccessHack implements IHDF5Access
 		H5Sselect_hyperslab( dataset.fileSpaceId, H5S_SELECT_SET, reorderedMin, null, reorderedDimensions, null );
 		H5Dread( dataset.dataSetId, H5T_NATIVE_FLOAT, memorySpaceId, dataset.fileSpaceId, numericConversionXferPropertyListID, dataBlock );
 		H5Sclose( memorySpaceId );
+		dataset.recordRead( min, dimensions );
 
 		return dataBlock;
 	}
 
+	@Override
+	public synchronized int[] readConstantCells( final ViewLevelId id )
+	{
+		final String path = Util.getConstantCellsPath( id );
+		try
+		{
+			if ( hdf5Reader.object().exists( path ) )
+				return hdf5Reader.int32().readArray( path );
+		}
+		catch ( final Exception e )
+		{}
+		return null;
+	}
+
+	/**
+	 * Close all open datasets and the underlying {@link IHDF5Reader}.
+	 */
+	public synchronized void close()
+	{
+		for ( final OpenDataSet dataset : openDataSetCache.values() )
+			dataset.close();
+		openDataSetCache.clear();
+		closeDatasetAccessPropertyList();
+		hdf5Reader.close();
+	}
+
 	@Override
 	protected void finalize() throws Throwable
 	{
@@ -0,0 +1,185 @@
+package bdv.img.hdf5;
+
+import org.jdom2.Element;
+
+/**
+ * Cache sizes used by {@link HDF5AccessHack}: the number of datasets kept open,
+ * and the parameters of the HDF5 raw data chunk cache of each open dataset.
+ *
+ * <p>
+ * Settings can be specified per loader in the dataset XML (see
+ * {@link #fromXml(Element, Hdf5CacheSettings)}) or globally through system
+ * properties (see {@link #fromSystemProperties()}). Values that are not
+ * specified default to the HDF5 library defaults (1 MB, 521 slots, w0=0.75)
+ * and 48 open datasets.
+ */
+public class Hdf5CacheSettings
+{
+	public static final String XML_ELEMENT_NAME = "hdf5cache";
+
+	public static final String MAX_OPEN_DATASETS_PROPERTY = "bdv.hdf5.maxOpenDatasets";
+
+	public static final String CHUNK_CACHE_BYTES_PROPERTY = "bdv.hdf5.chunkCacheBytes";
+
+	public static final String CHUNK_CACHE_SLOTS_PROPERTY = "bdv.hdf5.chunkCacheSlots";
+
+	public static final String CHUNK_CACHE_PREEMPTION_PROPERTY = "bdv.hdf5.chunkCachePreemption";
+
+	public static final int DEFAULT_MAX_OPEN_DATASETS = 48;
+
+	public static final long DEFAULT_CHUNK_CACHE_BYTES = 1024 * 1024;
+
+	public static final long DEFAULT_CHUNK_CACHE_SLOTS = 521;
+
+	public static final double DEFAULT_CHUNK_CACHE_PREEMPTION = 0.75;
+
+	private final int maxOpenDatasets;
+
+	private final long chunkCacheBytes;
+
+	private final long chunkCacheSlots;
+
+	private final double chunkCachePreemption;
+
+	public Hdf5CacheSettings()
+	{
+		this( DEFAULT_MAX_OPEN_DATASETS, DEFAULT_CHUNK_CACHE_BYTES, DEFAULT_CHUNK_CACHE_SLOTS, DEFAULT_CHUNK_CACHE_PREEMPTION );
+	}
+
+	/**
+	 * @param maxOpenDatasets
+	 *            maximum number of datasets kept open.
+	 * @param chunkCacheBytes
+	 *            size of the raw data chunk cache of each open dataset, in
+	 *            bytes.
+	 * @param chunkCacheSlots
+	 *            number of hash table slots of the chunk cache. Should be a
+	 *            prime about 100 times the number of chunks that fit into
+	 *            {@code chunkCacheBytes}.
+	 * @param chunkCachePreemption
+	 *            chunk preemption policy (HDF5 {@code rdcc_w0}), in [0,1].
+	 */
+	public Hdf5CacheSettings( final int maxOpenDatasets, final long chunkCacheBytes, final long chunkCacheSlots, final double chunkCachePreemption )
+	{
+		this.maxOpenDatasets = Math.max( 1, maxOpenDatasets );
+		this.chunkCacheBytes = Math.max( 0, chunkCacheBytes );
+		this.chunkCacheSlots = Math.max( 1, chunkCacheSlots );
+		this.chunkCachePreemption = Math.max( 0, Math.min( 1, chunkCachePreemption ) );
+	}
+
+	public int getMaxOpenDatasets()
+	{
+		return maxOpenDatasets;
+	}
+
+	public long getChunkCacheBytes()
+	{
+		return chunkCacheBytes;
+	}
+
+	public long getChunkCacheSlots()
+	{
+		return chunkCacheSlots;
+	}
+
+	public double getChunkCachePreemption()
+	{
+		return chunkCachePreemption;
+	}
+
+	/**
+	 * Whether the chunk cache parameters differ from the HDF5 library
+	 * defaults (and therefore need to be set when opening datasets).
+	 */
+	public boolean hasNonDefaultChunkCache()
+	{
+		return chunkCacheBytes != DEFAULT_CHUNK_CACHE_BYTES
+				|| chunkCacheSlots != DEFAULT_CHUNK_CACHE_SLOTS
+				|| chunkCachePreemption != DEFAULT_CHUNK_CACHE_PREEMPTION;
+	}
+
+	/**
+	 * Get settings from the system properties {@value #MAX_OPEN_DATASETS_PROPERTY},
+	 * {@value #CHUNK_CACHE_BYTES_PROPERTY}, {@value #CHUNK_CACHE_SLOTS_PROPERTY},
+	 * and {@value #CHUNK_CACHE_PREEMPTION_PROPERTY}. Missing or malformed
+	 * properties are replaced by defaults.
+	 */
+	public static Hdf5CacheSettings fromSystemProperties()
+	{
+		return new Hdf5CacheSettings(
+				( int ) getLong( System.getProperty( MAX_OPEN_DATASETS_PROPERTY ), DEFAULT_MAX_OPEN_DATASETS ),
+				getLong( System.getProperty( CHUNK_CACHE_BYTES_PROPERTY ), DEFAULT_CHUNK_CACHE_BYTES ),
+				getLong( System.getProperty( CHUNK_CACHE_SLOTS_PROPERTY ), DEFAULT_CHUNK_CACHE_SLOTS ),
+				getDouble( System.getProperty( CHUNK_CACHE_PREEMPTION_PROPERTY ), DEFAULT_CHUNK_CACHE_PREEMPTION ) );
+	}
+
+	/**
+	 * Read settings from a {@value #XML_ELEMENT_NAME} element, e.g.
+	 *
+	 * <pre>
+	 * &lt;hdf5cache&gt;
+	 *   &lt;maxOpenDatasets&gt;256&lt;/maxOpenDatasets&gt;
+	 *   &lt;chunkCacheBytes&gt;16777216&lt;/chunkCacheBytes&gt;
+	 *   &lt;chunkCacheSlots&gt;10007&lt;/chunkCacheSlots&gt;
+	 *   &lt;chunkCachePreemption&gt;0.75&lt;/chunkCachePreemption&gt;
+	 * &lt;/hdf5cache&gt;
+	 * </pre>
+	 *
+	 * Missing values are taken from {@code defaults}.
+	 */
+	public static Hdf5CacheSettings fromXml( final Element elem, final Hdf5CacheSettings defaults )
+	{
+		return new Hdf5CacheSettings(
+				( int ) getLong( elem.getChildText( "maxOpenDatasets" ), defaults.maxOpenDatasets ),
+				getLong( elem.getChildText( "chunkCacheBytes" ), defaults.chunkCacheBytes ),
+				getLong( elem.getChildText( "chunkCacheSlots" ), defaults.chunkCacheSlots ),
+				getDouble( elem.getChildText( "chunkCachePreemption" ), defaults.chunkCachePreemption ) );
+	}
+
+	public Element toXml()
+	{
+		final Element elem = new Element( XML_ELEMENT_NAME );
+		elem.addContent( new Element( "maxOpenDatasets" ).addContent( Integer.toString( maxOpenDatasets ) ) );
+		elem.addContent( new Element( "chunkCacheBytes" ).addContent( Long.toString( chunkCacheBytes ) ) );
+		elem.addContent( new Element( "chunkCacheSlots" ).addContent( Long.toString( chunkCacheSlots ) ) );
+		elem.addContent( new Element( "chunkCachePreemption" ).addContent( Double.toString( chunkCachePreemption ) ) );
+		return elem;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format( "maxOpenDatasets=%d, chunkCacheBytes=%d, chunkCacheSlots=%d, chunkCachePreemption=%.2f",
+				maxOpenDatasets, chunkCacheBytes, chunkCacheSlots, chunkCachePreemption );
+	}
+
+	private static long getLong( final String value, final long defaultValue )
+	{
+		if ( value == null )
+			return defaultValue;
+		try
+		{
+			return Long.parseLong( value.trim() );
+		}
+		catch ( final NumberFormatException e )
+		{
+			System.err.println( "Invalid hdf5 cache setting \"" + value + "\". Using default " + defaultValue + "." );
+			return defaultValue;
+		}
+	}
+
+	private static double getDouble( final String value, final double defaultValue )
+	{
+		if ( value == null )
+			return defaultValue;
+		try
+		{
+			return Double.parseDouble( value.trim() );
+		}
+		catch ( final NumberFormatException e )
+		{
+			System.err.println( "Invalid hdf5 cache setting \"" + value + "\". Using default " + defaultValue + "." );
+			return defaultValue;
+		}
+	}
+}
@@ -7,6 +7,7 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -62,6 +63,8 @@ public class Hdf5ImageLoader extends AbstractViewerImgLoader< UnsignedShortType,
 
 	protected VolatileGlobalCellCache< VolatileShortArray > cache;
 
+	protected Hdf5VolatileShortArrayLoader shortLoader;
+
 	/**
 	 * Description of available mipmap levels for each {@link BasicViewSetup}.
 	 * Contains for each mipmap level, the subsampling factors and subdivision
@@ -79,13 +82,21 @@ public class Hdf5ImageLoader extends AbstractViewerImgLoader< UnsignedShortType,
 	/**
 	 * Maps {@link ViewLevelId} (timepoint, setup, level) to
 	 * {@link DimsAndExistence}. Every entry is either null or the existence and
-	 * dimensions of one image. This is filled in when an image is loaded for
-	 * the first time.
+	 * dimensions of one image. This is filled in from the
+	 * {@link Util#getDimensionsTablePath() dimensions table} when the file is
+	 * opened, and otherwise when an image is loaded for the first time.
+	 * Access is synchronized on the map.
 	 */
 	protected final HashMap< ViewLevelId, DimsAndExistence > cachedDimsAndExistence;
 
 	protected final AbstractSequenceDescription< ?, ?, ? > sequenceDescription;
 
+	/**
+	 * hdf5 cache settings specified for this loader, or null if
+	 * {@link Hdf5CacheSettings#fromSystemProperties()} should be used.
+	 */
+	protected final Hdf5CacheSettings cacheSettings;
+
 	/**
 	 *
 	 * @param hdf5File
@@ -102,9 +113,20 @@ public class Hdf5ImageLoader extends AbstractViewerImgLoader< UnsignedShortType,
 	}
 
 	public Hdf5ImageLoader( final File hdf5File, final ArrayList< Partition > hdf5Partitions, final AbstractSequenceDescription< ?, ?, ? > sequenceDescription, final boolean doOpen )
+	{
+		this( hdf5File, hdf5Partitions, sequenceDescription, null, doOpen );
+	}
+
+	/**
+	 * @param cacheSettings
+	 *            number of open datasets and chunk cache size, or null to use
+	 *            {@link Hdf5CacheSettings#fromSystemProperties()}.
+	 */
+	public Hdf5ImageLoader( final File hdf5File, final ArrayList< Partition > hdf5Partitions, final AbstractSequenceDescription< ?, ?, ? > sequenceDescription, final Hdf5CacheSettings cacheSettings, final boolean doOpen )
 	{
 		super( new UnsignedShortType(), new VolatileUnsignedShortType() );
 		this.hdf5File = hdf5File;
+		this.cacheSettings = cacheSettings;
 		perSetupMipmapInfo = new HashMap< Integer, MipmapInfo >();
 		cachedDimsAndExistence = new HashMap< ViewLevelId, DimsAndExistence >();
 		this.sequenceDescription = sequenceDescription;
@@ -148,25 +170,86 @@ public class Hdf5ImageLoader extends AbstractViewerImgLoader< UnsignedShortType,
 					perSetupMipmapInfo.put( setupId, new MipmapInfo( resolutions, transforms, subdivisions ) );
 				}
 
-				cachedDimsAndExistence.clear();
+				synchronized ( cachedDimsAndExistence )
+				{
+					cachedDimsAndExistence.clear();
+					readDimensionsTable( hdf5Reader );
+				}
 
 				final List< TimePoint > timepoints = sequenceDescription.getTimePoints().getTimePointsOrdered();
 				final int maxNumTimepoints = timepoints.get( timepoints.size() - 1 ).getId() + 1;
 				final int maxNumSetups = setups.get( setups.size() - 1 ).getId() + 1;
 				try
 				{
-					hdf5Access = new HDF5AccessHack( hdf5Reader );
+					hdf5Access = new HDF5AccessHack( hdf5Reader, cacheSettings != null ? cacheSettings : Hdf5CacheSettings.fromSystemProperties() );
 				}
 				catch ( final Exception e )
 				{
 					e.printStackTrace();
 					hdf5Access = new HDF5Access( hdf5Reader );
 				}
-				cache = new VolatileGlobalCellCache< VolatileShortArray >( new Hdf5VolatileShortArrayLoader( hdf5Access ), maxNumTimepoints, maxNumSetups, maxNumLevels, 1 );
+				shortLoader = new Hdf5VolatileShortArrayLoader( hdf5Access );
+				cache = new VolatileGlobalCellCache< VolatileShortArray >( shortLoader, maxNumTimepoints, maxNumSetups, maxNumLevels, 1 );
+			}
+		}
+	}
+
+	/**
+	 * Stop the threads of the cache and loader, and close the hdf5 file. The
+	 * loader must not be used after this.
+	 */
+	public synchronized void close()
+	{
+		if ( !isOpen )
+			return;
+		cache.shutdown();
+		shortLoader.shutdown();
+		if ( hdf5Access instanceof HDF5AccessHack )
+			( ( HDF5AccessHack ) hdf5Access ).close();
+		else if ( hdf5Access instanceof HDF5Access )
+			( ( HDF5Access ) hdf5Access ).close();
+	}
+
+	/**
+	 * Fill {@link #cachedDimsAndExistence} from the
+	 * {@link Util#getDimensionsTablePath() dimensions table}, if the file has
+	 * one. This reads the dimensions and existence of all datasets at once.
+	 * Datasets that are not in the table are probed lazily in
+	 * {@link #getDimsAndExistence(ViewLevelId)}.
+	 */
+	private void readDimensionsTable( final IHDF5Reader hdf5Reader )
+	{
+		final String path = Util.getDimensionsTablePath();
+		try
+		{
+			if ( !hdf5Reader.object().exists( path ) )
+				return;
+			final long[][] table = hdf5Reader.readLongMatrix( path );
+			for ( final long[] row : table )
+			{
+				final ViewLevelId id = new ViewLevelId( ( int ) row[ 0 ], ( int ) row[ 1 ], ( int ) row[ 2 ] );
+				// tables written before the existence flag was added only
+				// list existing datasets
+				final boolean exists = row.length < 7 || row[ 6 ] != 0;
+				cachedDimsAndExistence.put( id, new DimsAndExistence( new long[] { row[ 3 ], row[ 4 ], row[ 5 ] }, exists ) );
 			}
 		}
+		catch ( final Exception e )
+		{
+			e.printStackTrace();
+			cachedDimsAndExistence.clear();
+		}
 	}
 
+	/**
+	 * Make sure that dimensions and existence of all images are known. If the
+	 * file has a dimensions table, this only probes datasets that are missing
+	 * from the table.
+	 *
+	 * @param background
+	 *            whether to leave time for other hdf5 access after each
+	 *            timepoint that needed probing.
+	 */
 	public void initCachedDimensionsFromHdf5( final boolean background )
 	{
 		open();
@@ -176,14 +259,22 @@ public class Hdf5ImageLoader extends AbstractViewerImgLoader< UnsignedShortType,
 		for ( final TimePoint timepoint : timepoints )
 		{
 			final int t = timepoint.getId();
+			boolean probed = false;
 			for ( final BasicViewSetup setup : setups )
 			{
 				final int s = setup.getId();
 				final int numLevels = perSetupMipmapInfo.get( s ).getNumLevels();
 				for ( int l = 0; l < numLevels; ++l )
-					getDimsAndExistence( new ViewLevelId( t, s, l ) );
+				{
+					final ViewLevelId id = new ViewLevelId( t, s, l );
+					if ( !isCachedDimsAndExistence( id ) )
+					{
+						getDimsAndExistence( id );
+						probed = true;
+					}
+				}
 			}
-			if ( background )
+			if ( background && probed )
 				synchronized ( this )
 				{
 					try
@@ -208,6 +299,27 @@ public class Hdf5ImageLoader extends AbstractViewerImgLoader< UnsignedShortType,
 		return partitions;
 	}
 
+	/**
+	 * Get the hdf5 cache settings specified for this loader, or null if
+	 * settings are taken from system properties.
+	 */
+	public Hdf5CacheSettings getCacheSettings()
+	{
+		return cacheSettings;
+	}
+
+	/**
+	 * Get dataset open/close and chunk cache statistics of the underlying
+	 * {@link HDF5AccessHack}, or null if the low-level access is not used.
+	 */
+	public HDF5AccessHack.CacheStatistics getCacheStatistics()
+	{
+		open();
+		if ( hdf5Access instanceof HDF5AccessHack )
+			return ( ( HDF5AccessHack ) hdf5Access ).getCacheStatistics();
+		return null;
+	}
+
 	@Override
 	public RandomAccessibleInterval< UnsignedShortType > getImage( final ViewId view, final int level )
 	{
@@ -298,7 +410,11 @@ public class Hdf5ImageLoader extends AbstractViewerImgLoader< UnsignedShortType,
 	public DimsAndExistence getDimsAndExistence( final ViewLevelId id )
 	{
 		open();
-		DimsAndExistence dims = cachedDimsAndExistence.get( id );
+		DimsAndExistence dims;
+		synchronized ( cachedDimsAndExistence )
+		{
+			dims = cachedDimsAndExistence.get( id );
+		}
 		if ( dims == null )
 		{
 			// pause Fetcher threads for 5 ms. There will be more calls to
@@ -307,11 +423,51 @@ public class Hdf5ImageLoader extends AbstractViewerImgLoader< UnsignedShortType,
 			// don't want to interleave this with block loading operations.
 			cache.pauseFetcherThreadsFor( 5 );
 			dims = hdf5Access.getDimsAndExistence( id );
-			cachedDimsAndExistence.put( id, dims );
+			synchronized ( cachedDimsAndExistence )
+			{
+				cachedDimsAndExistence.put( id, dims );
+			}
 		}
 		return dims;
 	}
 
+	/**
+	 * Get a copy of the dimensions and existence of all images that are known
+	 * so far.
+	 */
+	public HashMap< ViewLevelId, DimsAndExistence > getCachedDimsAndExistence()
+	{
+		open();
+		synchronized ( cachedDimsAndExistence )
+		{
+			return new HashMap< ViewLevelId, DimsAndExistence >( cachedDimsAndExistence );
+		}
+	}
+
+	/**
+	 * Add previously recorded dimensions and existence of images (see
+	 * {@link #getCachedDimsAndExistence()}), such that they need not be probed
+	 * in the hdf5 file. Images that are known already are not changed.
+	 */
+	public void addCachedDimsAndExistence( final Map< ViewLevelId, DimsAndExistence > dims )
+	{
+		open();
+		synchronized ( cachedDimsAndExistence )
+		{
+			for ( final Map.Entry< ViewLevelId, DimsAndExistence > entry : dims.entrySet() )
+				if ( !cachedDimsAndExistence.containsKey( entry.getKey() ) )
+					cachedDimsAndExistence.put( entry.getKey(), entry.getValue() );
+		}
+	}
+
+	private boolean isCachedDimsAndExistence( final ViewLevelId id )
+	{
+		synchronized ( cachedDimsAndExistence )
+		{
+			return cachedDimsAndExistence.containsKey( id );
+		}
+	}
+
 	/**
 	 * (Almost) create a {@link CellImg} backed by the cache.
 	 * The created image needs a {@link NativeImg#setLinkedType(net.imglib2.type.Type) linked type} before it can be used.
@@ -1,18 +1,83 @@
 package bdv.img.hdf5;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
 import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
-import bdv.img.cache.CacheArrayLoader;
+import bdv.img.cache.BatchCacheArrayLoader;
+import bdv.img.cache.ConstantCellArrayLoader;
 
-public class Hdf5VolatileShortArrayLoader implements CacheArrayLoader< VolatileShortArray >
+public class Hdf5VolatileShortArrayLoader implements BatchCacheArrayLoader< VolatileShortArray >, ConstantCellArrayLoader< VolatileShortArray >
 {
 	private final IHDF5Access hdf5Access;
 
 	private VolatileShortArray theEmptyArray;
 
+	private static final int MAX_BATCH_SIZE = 16;
+
+	/**
+	 * Placeholder in {@link #constantCells} for datasets without a constant
+	 * cells index.
+	 */
+	private static final int[] noConstantCells = new int[ 0 ];
+
+	/**
+	 * Placeholder in {@link #constantCells} for datasets whose constant cells
+	 * index is being read.
+	 */
+	private static final int[] pendingConstantCells = new int[ 0 ];
+
+	/**
+	 * Maps {@link ViewLevelId} to the constant cells index of the dataset
+	 * (see {@link IHDF5Access#readConstantCells(ViewLevelId)}). The index is
+	 * read by {@link #constantCellsReader} when a dataset is accessed for the
+	 * first time. Until then, no cell of the dataset is known to be constant.
+	 */
+	private final ConcurrentHashMap< ViewLevelId, int[] > constantCells;
+
+	/**
+	 * Reads constant cells indices, such that threads asking for constant
+	 * cells (e.g. the render thread) never wait for hdf5 I/O.
+	 */
+	private final ExecutorService constantCellsReader;
+
+	/**
+	 * Shared valid arrays for constant cells, by value. Each array is large
+	 * enough for the largest constant cell requested so far.
+	 */
+	private final HashMap< Integer, VolatileShortArray > constantArrays;
+
 	public Hdf5VolatileShortArrayLoader( final IHDF5Access hdf5Access )
 	{
 		this.hdf5Access = hdf5Access;
 		theEmptyArray = new VolatileShortArray( 32 * 32 * 32, false );
+		constantCells = new ConcurrentHashMap< ViewLevelId, int[] >();
+		constantCellsReader = Executors.newSingleThreadExecutor( new ThreadFactory()
+		{
+			@Override
+			public Thread newThread( final Runnable r )
+			{
+				final Thread t = new Thread( r, "Hdf5VolatileShortArrayLoader-constantcells" );
+				t.setDaemon( true );
+				return t;
+			}
+		} );
+		constantArrays = new HashMap< Integer, VolatileShortArray >();
+	}
+
+	/**
+	 * Stop the {@link #constantCellsReader} thread. The loader must not be used
+	 * after this.
+	 */
+	public void shutdown()
+	{
+		constantCellsReader.shutdownNow();
 	}
 
 	@Override
@@ -22,6 +87,22 @@ public class Hdf5VolatileShortArrayLoader implements CacheArrayLoader< VolatileS
 		return new VolatileShortArray( array, true );
 	}
 
+	@Override
+	public List< VolatileShortArray > loadArrays( final int timepoint, final int setup, final int level, final List< int[] > dimensions, final List< long[] > min ) throws InterruptedException
+	{
+		final List< short[] > arrays = hdf5Access.readShortMDArrayBlocksWithOffset( timepoint, setup, level, dimensions, min );
+		final ArrayList< VolatileShortArray > list = new ArrayList< VolatileShortArray >( arrays.size() );
+		for ( final short[] array : arrays )
+			list.add( new VolatileShortArray( array, true ) );
+		return list;
+	}
+
+	@Override
+	public int getMaxBatchSize()
+	{
+		return MAX_BATCH_SIZE;
+	}
+
 	@Override
 	public VolatileShortArray emptyArray( final int[] dimensions )
 	{
@@ -39,6 +120,69 @@ public class Hdf5VolatileShortArrayLoader implements CacheArrayLoader< VolatileS
 		return 2;
 	}
 
+	@Override
+	public boolean isConstant( final int timepoint, final int setup, final int level, final int index )
+	{
+		return getConstantValue( timepoint, setup, level, index ) >= 0;
+	}
+
+	@Override
+	public VolatileShortArray getConstantArray( final int timepoint, final int setup, final int level, final int index, final int[] dimensions )
+	{
+		final int value = getConstantValue( timepoint, setup, level, index );
+		if ( value < 0 )
+			return null;
+		int numEntities = 1;
+		for ( int i = 0; i < dimensions.length; ++i )
+			numEntities *= dimensions[ i ];
+		synchronized ( constantArrays )
+		{
+			VolatileShortArray array = constantArrays.get( value );
+			if ( array == null || array.getCurrentStorageArray().length < numEntities )
+			{
+				final short[] data = new short[ numEntities ];
+				Arrays.fill( data, ( short ) value );
+				array = new VolatileShortArray( data, true );
+				constantArrays.put( value, array );
+			}
+			return array;
+		}
+	}
+
+	/**
+	 * Get the value of a constant cell, or -1 if the cell is not known to be
+	 * constant. If the constant cells index of the dataset was not read yet,
+	 * this submits reading it and returns -1.
+	 */
+	private int getConstantValue( final int timepoint, final int setup, final int level, final int index )
+	{
+		final ViewLevelId id = new ViewLevelId( timepoint, setup, level );
+		final int[] values = constantCells.get( id );
+		if ( values == null )
+		{
+			if ( constantCells.putIfAbsent( id, pendingConstantCells ) == null )
+				constantCellsReader.execute( new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						int[] v = null;
+						try
+						{
+							v = hdf5Access.readConstantCells( id );
+						}
+						catch ( final Exception e )
+						{
+							e.printStackTrace();
+						}
+						constantCells.put( id, v == null ? noConstantCells : v );
+					}
+				} );
+			return -1;
+		}
+		return index < values.length ? values[ index ] : -1;
+	}
+
 //	PrintStream log = System.out;
 //	public static volatile long pStart = System.currentTimeMillis();
 //	public static volatile long pEnd = System.currentTimeMillis();
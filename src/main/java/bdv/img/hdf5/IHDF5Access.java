@@ -1,5 +1,7 @@
 package bdv.img.hdf5;
 
+import java.util.List;
+
 public interface IHDF5Access
 {
 	public DimsAndExistence getDimsAndExistence( final ViewLevelId id );
@@ -10,5 +12,26 @@ public interface IHDF5Access
 
 	public float[] readShortMDArrayBlockWithOffsetAsFloat( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min ) throws InterruptedException;
 
+	/**
+	 * Read several blocks of the same (timepoint, setup, level) dataset.
+	 * Implementations may combine blocks into fewer reads or reorder reads to
+	 * follow the file layout.
+	 *
+	 * @return data for each block, in the same order as {@code dimensions}
+	 *         and {@code min}.
+	 */
+	public List< short[] > readShortMDArrayBlocksWithOffset( final int timepoint, final int setup, final int level, final List< int[] > dimensions, final List< long[] > min ) throws InterruptedException;
+
 	public float[] readShortMDArrayBlockWithOffsetAsFloat( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min, final float[] dataBlock ) throws InterruptedException;
+
+	/**
+	 * Read the constant cells index of a (timepoint, setup, level) dataset.
+	 * The index contains for each cell (in flattened cell grid order) the
+	 * value of all pixels in the cell if the cell is constant, or -1
+	 * otherwise.
+	 *
+	 * @return the index, or null if the dataset has no constant cells index
+	 *         (e.g., because it was written by an older version).
+	 */
+	public int[] readConstantCells( final ViewLevelId id );
 }
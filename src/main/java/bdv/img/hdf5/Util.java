@@ -1,5 +1,9 @@
 package bdv.img.hdf5;
 
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
 import mpicbg.spim.data.sequence.ViewId;
 
 public class Util
@@ -8,10 +12,14 @@ public class Util
 
 	final static private String cellsFormatString = "%s/cells";
 
+	final static private String constantCellsFormatString = "%s/constantcells";
+
 	final static private String resolutionsFormatString = "s%02d/resolutions";
 
 	final static private String subdivisionsFormatString = "s%02d/subdivisions";
 
+	final static private String dimensionsTablePath = "dimensions";
+
 	public static String getGroupPath( final int timepointId, final int setupId, final int level )
 	{
 		return String.format( groupFormatString, timepointId, setupId, level );
@@ -42,6 +50,16 @@ public class Util
 		return String.format( cellsFormatString, getGroupPath( viewLevelId ) );
 	}
 
+	public static String getConstantCellsPath( final ViewId viewId, final int level )
+	{
+		return String.format( constantCellsFormatString, getGroupPath( viewId, level ) );
+	}
+
+	public static String getConstantCellsPath( final ViewLevelId viewLevelId )
+	{
+		return String.format( constantCellsFormatString, getGroupPath( viewLevelId ) );
+	}
+
 	public static String getResolutionsPath( final int setupId )
 	{
 		return String.format( resolutionsFormatString, setupId );
@@ -52,6 +70,19 @@ public class Util
 		return String.format( subdivisionsFormatString, setupId );
 	}
 
+	/**
+	 * Get the path of the table listing the dimensions of all datasets in the
+	 * file. Each row of the table is {timepoint, setup, level, width, height,
+	 * depth, exists} for one {@link #getCellsPath(ViewLevelId) cells} dataset.
+	 * {@code exists} is 1 for existing datasets, and 0 for datasets that do
+	 * not exist (with dimensions {1, 1, 1}). Tables written by older versions
+	 * have no {@code exists} column and list only existing datasets.
+	 */
+	public static String getDimensionsTablePath()
+	{
+		return dimensionsTablePath;
+	}
+
 	/**
 	 * Reorder long array representing column-major coordinate (imglib2) to
 	 * row-major (hdf5). Permuted in is stored in out and out is returned.
@@ -132,6 +163,39 @@ public class Util
 		return out;
 	}
 
+	/**
+	 * Get the order in which blocks with the given (column-major) minimum
+	 * coordinates should be read to follow the row-major layout of the hdf5
+	 * dataset. That is, blocks are sorted by z, then y, then x.
+	 *
+	 * @param min
+	 *            column major minimum coordinates of the blocks
+	 * @return indices into {@code min}, in file order.
+	 */
+	public static int[] fileOrder( final List< long[] > min )
+	{
+		final Integer[] indices = new Integer[ min.size() ];
+		for ( int i = 0; i < indices.length; ++i )
+			indices[ i ] = i;
+		Arrays.sort( indices, new Comparator< Integer >()
+		{
+			@Override
+			public int compare( final Integer i1, final Integer i2 )
+			{
+				final long[] m1 = min.get( i1 );
+				final long[] m2 = min.get( i2 );
+				for ( int d = m1.length - 1; d >= 0; --d )
+					if ( m1[ d ] != m2[ d ] )
+						return m1[ d ] < m2[ d ] ? -1 : 1;
+				return 0;
+			}
+		} );
+		final int[] order = new int[ indices.length ];
+		for ( int i = 0; i < order.length; ++i )
+			order[ i ] = indices[ i ];
+		return order;
+	}
+
 	public static int[] castToInts( final double[] doubles )
 	{
 		final int[] ints = new int[ doubles.length ];
@@ -29,6 +29,8 @@ public class XmlIoHdf5ImageLoader implements XmlIoBasicImgLoader< Hdf5ImageLoade
 		elem.addContent( XmlHelpers.pathElement( "hdf5", imgLoader.getHdf5File(), basePath ) );
 		for ( final Partition partition : imgLoader.getPartitions() )
 			elem.addContent( partitionToXml( partition, basePath ) );
+		if ( imgLoader.getCacheSettings() != null )
+			elem.addContent( imgLoader.getCacheSettings().toXml() );
 		return elem;
 	}
 
@@ -39,7 +41,9 @@ public class XmlIoHdf5ImageLoader implements XmlIoBasicImgLoader< Hdf5ImageLoade
 		final ArrayList< Partition > partitions = new ArrayList< Partition >();
 		for ( final Element p : elem.getChildren( "partition" ) )
 			partitions.add( partitionFromXml( p, basePath ) );
-		return new Hdf5ImageLoader( new File( path ), partitions, sequenceDescription );
+		final Element cacheElem = elem.getChild( Hdf5CacheSettings.XML_ELEMENT_NAME );
+		final Hdf5CacheSettings cacheSettings = ( cacheElem == null ) ? null : Hdf5CacheSettings.fromXml( cacheElem, Hdf5CacheSettings.fromSystemProperties() );
+		return new Hdf5ImageLoader( new File( path ), partitions, sequenceDescription, cacheSettings, true );
 	}
 
 	private Element partitionToXml( final Partition partition, final File basePath )
@@ -1,14 +1,16 @@
 package bdv.img.openconnectome;
 
-import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
 import net.imglib2.img.basictypeaccess.volatiles.array.VolatileByteArray;
 import bdv.img.cache.CacheArrayLoader;
+import bdv.img.cache.NetworkLoadPolicy;
 
 public class OpenConnectomeVolatileArrayLoader implements CacheArrayLoader< VolatileByteArray >
 {
@@ -20,6 +22,30 @@ public class OpenConnectomeVolatileArrayLoader implements CacheArrayLoader< Vola
 
 	final private long zMin;
 
+	/**
+	 * Size of the per-thread buffer for compressed data read from the
+	 * connection.
+	 */
+	private static final int INPUT_BUFFER_SIZE = 64 * 1024;
+
+	private static final ThreadLocal< Inflater > inflaters = new ThreadLocal< Inflater >()
+	{
+		@Override
+		protected Inflater initialValue()
+		{
+			return new Inflater();
+		}
+	};
+
+	private static final ThreadLocal< byte[] > inputBuffers = new ThreadLocal< byte[] >()
+	{
+		@Override
+		protected byte[] initialValue()
+		{
+			return new byte[ INPUT_BUFFER_SIZE ];
+		}
+	};
+
 	/**
 	 * <p>Create a {@link CacheArrayLoader} for a source provided by the
 	 * <a href="http://hssl.cs.jhu.edu/wiki/doku.php?id=randal:hssl:research:brain:data_set_description">Open
@@ -63,15 +89,7 @@ public class OpenConnectomeVolatileArrayLoader implements CacheArrayLoader< Vola
 			final int[] dimensions,
 			final long[] min ) throws InterruptedException
 	{
-		try
-		{
-			return tryLoadArray( timepoint, setup, level, dimensions, min );
-		}
-		catch ( final OutOfMemoryError e )
-		{
-			System.gc();
-			return tryLoadArray( timepoint, setup, level, dimensions, min );
-		}
+		return tryLoadArray( timepoint, setup, level, dimensions, min );
 	}
 
 	public VolatileByteArray tryLoadArray(
@@ -102,33 +120,83 @@ public class OpenConnectomeVolatileArrayLoader implements CacheArrayLoader< Vola
 		url.append( z + dimensions[ 2 ] );
 		url.append( mode );
 
+		final URL file;
 		try
 		{
-			final URL file = new URL( url.toString() );
-			final InputStream in = file.openStream();
-			final ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-			final byte[] chunk = new byte[ 4096 ];
-			int l;
-			for ( l = in.read( chunk ); l > 0; l = in.read( chunk ) )
-			    byteStream.write( chunk, 0, l );
-
-			final byte[] zippedData = byteStream.toByteArray();
-			final Inflater inflater = new Inflater();
-			inflater.setInput( zippedData );
-			inflater.inflate( data );
-			inflater.end();
-			byteStream.close();
+			file = new URL( url.toString() );
 		}
-		catch ( final IOException e )
+		catch ( final MalformedURLException e )
 		{
-			System.out.println( "failed loading x=" + min[ 0 ] + " y=" + min[ 1 ] + " z=" + min[ 2 ] + " url(" + url.toString() + ")" );
+			e.printStackTrace();
+			return new VolatileByteArray( data, false );
 		}
-		catch( final DataFormatException e )
+
+		final byte[] loaded = NetworkLoadPolicy.getDefault().call( file, new NetworkLoadPolicy.Request< byte[] >()
 		{
-			System.out.println( "failed unpacking x=" + min[ 0 ] + " y=" + min[ 1 ] + " z=" + min[ 2 ] + " url(" + url.toString() + ")" );
-		}
+			@Override
+			public byte[] run( final URL u ) throws IOException
+			{
+				final InputStream in = NetworkLoadPolicy.openStream( u );
+				try
+				{
+					inflate( in, data );
+				}
+				catch ( final DataFormatException e )
+				{
+					throw new IOException( "failed unpacking x=" + min[ 0 ] + " y=" + min[ 1 ] + " z=" + min[ 2 ], e );
+				}
+				finally
+				{
+					in.close();
+				}
+				return data;
+			}
+		} );
+
+		// a missing cell is empty
+		if ( loaded == null && NetworkLoadPolicy.getDefault().isMissing( file ) )
+			return new VolatileByteArray( new byte[ data.length ], true );
+		// a failed cell is returned invalid, such that it is requested again later
+		return new VolatileByteArray( data, loaded != null );
+	}
 
-		return new VolatileByteArray( data, true );
+	/**
+	 * Inflate zlib-compressed data from {@code in} directly into {@code data},
+	 * reading through a per-thread buffer and using a per-thread
+	 * {@link Inflater}. Stops when the compressed stream ends or {@code data}
+	 * is full.
+	 *
+	 * @throws EOFException
+	 *             if {@code in} is exhausted before either happens.
+	 */
+	private static void inflate( final InputStream in, final byte[] data ) throws IOException, DataFormatException
+	{
+		final Inflater inflater = inflaters.get();
+		final byte[] buf = inputBuffers.get();
+		inflater.reset();
+		try
+		{
+			int off = 0;
+			while ( off < data.length && !inflater.finished() )
+			{
+				if ( inflater.needsInput() )
+				{
+					final int l = in.read( buf );
+					if ( l < 0 )
+						// truncated response, must not become a valid cell
+						throw new EOFException( "compressed stream ended after " + off + " of " + data.length + " bytes" );
+					inflater.setInput( buf, 0, l );
+				}
+				else if ( inflater.needsDictionary() )
+					throw new DataFormatException( "preset dictionary not supported" );
+				off += inflater.inflate( data, off, data.length - off );
+			}
+		}
+		finally
+		{
+			// release the input buffer and native stream state for the next cell
+			inflater.reset();
+		}
 	}
 
 	@Override
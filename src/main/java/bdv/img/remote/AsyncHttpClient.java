@@ -0,0 +1,710 @@
+package bdv.img.remote;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import bdv.img.cache.NetworkLoadPolicy.HttpStatusException;
+
+/**
+ * Minimal non-blocking HTTP/1.1 client for GET requests. All connections are
+ * served by a single selector thread. For each host, up to
+ * {@code maxConnectionsPerHost} persistent (keep-alive) connections are
+ * opened and reused. Requests beyond that are queued until a connection
+ * becomes idle. Responses are delivered to a {@link Callback}. Both
+ * {@code Content-Length} and {@code chunked} transfer encoding are supported.
+ *
+ * <p>
+ * A request fails with a {@link SocketTimeoutException} if no data is sent or
+ * received on its connection for {@code timeoutMillis} (for example, if the
+ * server accepts the connection but never responds).
+ *
+ * <p>
+ * Callbacks are run on a pool of callback threads, such that decoding
+ * responses does not block the selector thread.
+ */
+public class AsyncHttpClient
+{
+	public interface Callback
+	{
+		/**
+		 * Called with the response body of a successful (status 200) request.
+		 */
+		public void completed( byte[] body );
+
+		/**
+		 * Called if the request failed, or the response status was not 200.
+		 */
+		public void failed( Exception e );
+	}
+
+	private static final Charset ASCII = Charset.forName( "US-ASCII" );
+
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * How often a request is retried on a fresh connection if a reused
+	 * keep-alive connection turns out to be closed by the server.
+	 */
+	private static final int MAX_ATTEMPTS = 2;
+
+	/**
+	 * Default for {@code timeoutMillis}.
+	 */
+	public static final int DEFAULT_TIMEOUT_MILLIS = 30000;
+
+	private final int maxConnectionsPerHost;
+
+	private final int timeoutMillis;
+
+	private final ExecutorService callbackExecutor;
+
+	private final Selector selector;
+
+	private final ConcurrentLinkedQueue< Request > submitted;
+
+	private final HashMap< String, HostPool > pools;
+
+	private final AtomicInteger numPending;
+
+	private final Thread selectorThread;
+
+	private volatile boolean running;
+
+	public AsyncHttpClient( final int maxConnectionsPerHost ) throws IOException
+	{
+		this( maxConnectionsPerHost, DEFAULT_TIMEOUT_MILLIS, Runtime.getRuntime().availableProcessors() );
+	}
+
+	/**
+	 * @param maxConnectionsPerHost
+	 *            maximum number of concurrent connections to each host.
+	 * @param timeoutMillis
+	 *            a request fails if its connection is idle (nothing could be
+	 *            sent or received) for this long.
+	 * @param numCallbackThreads
+	 *            number of threads on which {@link Callback}s are run.
+	 */
+	public AsyncHttpClient( final int maxConnectionsPerHost, final int timeoutMillis, final int numCallbackThreads ) throws IOException
+	{
+		this.maxConnectionsPerHost = Math.max( 1, maxConnectionsPerHost );
+		this.timeoutMillis = Math.max( 1, timeoutMillis );
+		final AtomicInteger threadNumber = new AtomicInteger( 1 );
+		callbackExecutor = Executors.newFixedThreadPool( Math.max( 1, numCallbackThreads ), new ThreadFactory()
+		{
+			@Override
+			public Thread newThread( final Runnable r )
+			{
+				final Thread t = new Thread( r, "AsyncHttpClient-callback-" + threadNumber.getAndIncrement() );
+				t.setDaemon( true );
+				return t;
+			}
+		} );
+		selector = Selector.open();
+		submitted = new ConcurrentLinkedQueue< Request >();
+		pools = new HashMap< String, HostPool >();
+		numPending = new AtomicInteger();
+		running = true;
+		selectorThread = new Thread( new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				selectLoop();
+			}
+		}, "AsyncHttpClient" );
+		selectorThread.setDaemon( true );
+		selectorThread.start();
+	}
+
+	/**
+	 * Enqueue a GET request. The callback is called (on a callback thread)
+	 * when the response has been received or the request failed.
+	 */
+	public void get( final URL url, final Callback callback )
+	{
+		if ( !running )
+		{
+			callback.failed( new IOException( "client is shut down" ) );
+			return;
+		}
+		numPending.incrementAndGet();
+		submitted.add( new Request( url, callback ) );
+		selector.wakeup();
+	}
+
+	/**
+	 * Number of requests that have been submitted but not completed yet.
+	 */
+	public int getNumPending()
+	{
+		return numPending.get();
+	}
+
+	public int getMaxConnectionsPerHost()
+	{
+		return maxConnectionsPerHost;
+	}
+
+	public int getTimeoutMillis()
+	{
+		return timeoutMillis;
+	}
+
+	/**
+	 * Close all connections. Pending requests fail.
+	 */
+	public void shutdown()
+	{
+		running = false;
+		selector.wakeup();
+	}
+
+	private static class Request
+	{
+		final URL url;
+
+		final Callback callback;
+
+		final String hostKey;
+
+		int attempts = 0;
+
+		Request( final URL url, final Callback callback )
+		{
+			this.url = url;
+			this.callback = callback;
+			final int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+			hostKey = url.getHost() + ":" + port;
+		}
+
+		ByteBuffer encode()
+		{
+			String path = url.getPath();
+			if ( path.isEmpty() )
+				path = "/";
+			if ( url.getQuery() != null )
+				path += "?" + url.getQuery();
+			final String req = "GET " + path + " HTTP/1.1\r\n"
+					+ "Host: " + url.getHost() + ( url.getPort() < 0 ? "" : ":" + url.getPort() ) + "\r\n"
+					+ "Connection: keep-alive\r\n"
+					+ "\r\n";
+			return ByteBuffer.wrap( req.getBytes( ASCII ) );
+		}
+	}
+
+	private class HostPool
+	{
+		final InetSocketAddress address;
+
+		final ArrayDeque< Request > waiting = new ArrayDeque< Request >();
+
+		final ArrayDeque< Connection > idle = new ArrayDeque< Connection >();
+
+		int numConnections = 0;
+
+		HostPool( final URL url )
+		{
+			final int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+			address = new InetSocketAddress( url.getHost(), port );
+		}
+
+		/**
+		 * Assign waiting requests to idle connections, opening new connections
+		 * as allowed.
+		 */
+		void dispatch()
+		{
+			while ( !waiting.isEmpty() )
+			{
+				Connection c = idle.poll();
+				if ( c == null )
+				{
+					if ( numConnections >= maxConnectionsPerHost )
+						return;
+					try
+					{
+						c = new Connection( this );
+						++numConnections;
+					}
+					catch ( final IOException e )
+					{
+						complete( waiting.poll(), null, e );
+						continue;
+					}
+				}
+				c.start( waiting.poll() );
+			}
+		}
+	}
+
+	private enum ParseState
+	{
+		STATUS_LINE, HEADER, BODY, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILER, UNTIL_CLOSE, DONE
+	}
+
+	private class Connection
+	{
+		final HostPool pool;
+
+		final SocketChannel channel;
+
+		final SelectionKey key;
+
+		final ByteBuffer readBuffer = ByteBuffer.allocate( READ_BUFFER_SIZE );
+
+		boolean reused = false;
+
+		Request request;
+
+		ByteBuffer writeBuffer;
+
+		ParseState state;
+
+		final StringBuilder line = new StringBuilder();
+
+		int status;
+
+		long contentLength;
+
+		boolean chunked;
+
+		boolean keepAlive;
+
+		boolean receivedAny;
+
+		byte[] body;
+
+		int bodySize;
+
+		long remaining;
+
+		/**
+		 * {@link System#nanoTime()} after which the current request fails,
+		 * unless more data is sent or received.
+		 */
+		long deadline;
+
+		Connection( final HostPool pool ) throws IOException
+		{
+			this.pool = pool;
+			channel = SocketChannel.open();
+			channel.configureBlocking( false );
+			channel.socket().setTcpNoDelay( true );
+			final boolean connected = channel.connect( pool.address );
+			key = channel.register( selector, connected ? 0 : SelectionKey.OP_CONNECT, this );
+		}
+
+		void start( final Request r )
+		{
+			request = r;
+			++r.attempts;
+			extendDeadline();
+			writeBuffer = r.encode();
+			state = ParseState.STATUS_LINE;
+			line.setLength( 0 );
+			status = 0;
+			contentLength = -1;
+			chunked = false;
+			keepAlive = true;
+			receivedAny = false;
+			body = null;
+			bodySize = 0;
+			readBuffer.clear();
+			if ( channel.isConnected() )
+				key.interestOps( SelectionKey.OP_WRITE );
+		}
+
+		void extendDeadline()
+		{
+			deadline = System.nanoTime() + timeoutMillis * 1000000l;
+		}
+
+		boolean isExpired( final long now )
+		{
+			return request != null && now - deadline > 0;
+		}
+
+		void handle() throws IOException
+		{
+			extendDeadline();
+			if ( key.isConnectable() )
+			{
+				if ( channel.finishConnect() )
+					key.interestOps( request != null ? SelectionKey.OP_WRITE : 0 );
+				return;
+			}
+			if ( key.isWritable() )
+			{
+				channel.write( writeBuffer );
+				if ( !writeBuffer.hasRemaining() )
+					key.interestOps( SelectionKey.OP_READ );
+				return;
+			}
+			if ( key.isReadable() )
+			{
+				final int n = channel.read( readBuffer );
+				if ( n < 0 )
+				{
+					if ( state == ParseState.UNTIL_CLOSE )
+					{
+						keepAlive = false;
+						finish();
+						return;
+					}
+					throw new EOFException( "connection closed by server" );
+				}
+				receivedAny = true;
+				readBuffer.flip();
+				final boolean done = parse( readBuffer );
+				readBuffer.compact();
+				if ( done )
+					finish();
+			}
+		}
+
+		/**
+		 * Parse response bytes.
+		 *
+		 * @return true if the response is complete.
+		 */
+		boolean parse( final ByteBuffer buf ) throws IOException
+		{
+			while ( buf.hasRemaining() && state != ParseState.DONE )
+			{
+				switch ( state )
+				{
+				case BODY:
+				case CHUNK_DATA:
+				case UNTIL_CLOSE:
+				{
+					final int n = ( state == ParseState.UNTIL_CLOSE ) ? buf.remaining() : ( int ) Math.min( buf.remaining(), remaining );
+					ensureBodyCapacity( bodySize + n );
+					buf.get( body, bodySize, n );
+					bodySize += n;
+					remaining -= n;
+					if ( state == ParseState.BODY && remaining == 0 )
+						state = ParseState.DONE;
+					else if ( state == ParseState.CHUNK_DATA && remaining == 0 )
+						state = ParseState.CHUNK_END;
+					break;
+				}
+				default:
+				{
+					final String l = readLine( buf );
+					if ( l == null )
+						return false;
+					handleLine( l );
+				}
+				}
+			}
+			return state == ParseState.DONE;
+		}
+
+		String readLine( final ByteBuffer buf )
+		{
+			while ( buf.hasRemaining() )
+			{
+				final char c = ( char ) ( buf.get() & 0xff );
+				if ( c == '\n' )
+				{
+					final int len = line.length();
+					final String l = ( len > 0 && line.charAt( len - 1 ) == '\r' ) ? line.substring( 0, len - 1 ) : line.toString();
+					line.setLength( 0 );
+					return l;
+				}
+				line.append( c );
+			}
+			return null;
+		}
+
+		void handleLine( final String l ) throws IOException
+		{
+			switch ( state )
+			{
+			case STATUS_LINE:
+			{
+				final String[] parts = l.split( " ", 3 );
+				if ( parts.length < 2 || !parts[ 0 ].startsWith( "HTTP/" ) )
+					throw new IOException( "malformed status line: " + l );
+				status = Integer.parseInt( parts[ 1 ] );
+				if ( parts[ 0 ].equals( "HTTP/1.0" ) )
+					keepAlive = false;
+				state = ParseState.HEADER;
+				break;
+			}
+			case HEADER:
+				if ( l.isEmpty() )
+				{
+					if ( status / 100 == 1 )
+						state = ParseState.STATUS_LINE;
+					else if ( chunked )
+					{
+						body = new byte[ 16 * 1024 ];
+						state = ParseState.CHUNK_SIZE;
+					}
+					else if ( contentLength >= 0 )
+					{
+						body = new byte[ ( int ) contentLength ];
+						remaining = contentLength;
+						state = contentLength == 0 ? ParseState.DONE : ParseState.BODY;
+					}
+					else
+					{
+						body = new byte[ 16 * 1024 ];
+						keepAlive = false;
+						state = ParseState.UNTIL_CLOSE;
+					}
+				}
+				else
+				{
+					final int colon = l.indexOf( ':' );
+					if ( colon > 0 )
+					{
+						final String name = l.substring( 0, colon ).trim().toLowerCase();
+						final String value = l.substring( colon + 1 ).trim();
+						if ( name.equals( "content-length" ) )
+							contentLength = Long.parseLong( value );
+						else if ( name.equals( "transfer-encoding" ) )
+							chunked = value.toLowerCase().contains( "chunked" );
+						else if ( name.equals( "connection" ) )
+							keepAlive = !value.equalsIgnoreCase( "close" );
+					}
+				}
+				break;
+			case CHUNK_SIZE:
+			{
+				final int semi = l.indexOf( ';' );
+				remaining = Long.parseLong( ( semi < 0 ? l : l.substring( 0, semi ) ).trim(), 16 );
+				state = remaining == 0 ? ParseState.TRAILER : ParseState.CHUNK_DATA;
+				break;
+			}
+			case CHUNK_END:
+				state = ParseState.CHUNK_SIZE;
+				break;
+			case TRAILER:
+				if ( l.isEmpty() )
+					state = ParseState.DONE;
+				break;
+			default:
+				break;
+			}
+		}
+
+		void ensureBodyCapacity( final int capacity )
+		{
+			if ( body.length < capacity )
+			{
+				final byte[] b = new byte[ Math.max( capacity, 2 * body.length ) ];
+				System.arraycopy( body, 0, b, 0, bodySize );
+				body = b;
+			}
+		}
+
+		/**
+		 * Response complete: notify the callback and recycle or close the
+		 * connection.
+		 */
+		void finish()
+		{
+			final Request r = request;
+			request = null;
+			byte[] data = body;
+			if ( data.length != bodySize )
+			{
+				data = new byte[ bodySize ];
+				System.arraycopy( body, 0, data, 0, bodySize );
+			}
+			body = null;
+			if ( status == 200 )
+				complete( r, data, null );
+			else
+				complete( r, null, new HttpStatusException( status, r.url ) );
+
+			if ( keepAlive )
+			{
+				reused = true;
+				key.interestOps( 0 );
+				pool.idle.add( this );
+			}
+			else
+				close();
+			pool.dispatch();
+		}
+
+		/**
+		 * The connection failed: close it, and retry or fail the current
+		 * request.
+		 */
+		void fail( final Exception e )
+		{
+			final Request r = request;
+			request = null;
+			close();
+			if ( r != null )
+			{
+				// a closed keep-alive connection is retried, a timeout is not
+				final boolean retry = reused && !receivedAny && r.attempts < MAX_ATTEMPTS && !( e instanceof SocketTimeoutException );
+				if ( retry )
+					pool.waiting.addFirst( r );
+				else
+					complete( r, null, e );
+			}
+			pool.dispatch();
+		}
+
+		void close()
+		{
+			--pool.numConnections;
+			pool.idle.remove( this );
+			key.cancel();
+			try
+			{
+				channel.close();
+			}
+			catch ( final IOException e )
+			{}
+		}
+	}
+
+	private void complete( final Request r, final byte[] body, final Exception e )
+	{
+		numPending.decrementAndGet();
+		final Runnable notify = new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					if ( e == null )
+						r.callback.completed( body );
+					else
+						r.callback.failed( e );
+				}
+				catch ( final RuntimeException ex )
+				{
+					ex.printStackTrace();
+				}
+			}
+		};
+		try
+		{
+			callbackExecutor.execute( notify );
+		}
+		catch ( final RejectedExecutionException ex )
+		{
+			notify.run();
+		}
+	}
+
+	/**
+	 * Fail requests whose connection was idle for longer than
+	 * {@link #timeoutMillis}.
+	 */
+	private void failExpired()
+	{
+		final long now = System.nanoTime();
+		final ArrayList< Connection > expired = new ArrayList< Connection >();
+		for ( final SelectionKey key : selector.keys() )
+		{
+			final Connection c = ( Connection ) key.attachment();
+			if ( key.isValid() && c.isExpired( now ) )
+				expired.add( c );
+		}
+		for ( final Connection c : expired )
+			c.fail( new SocketTimeoutException( "no response within " + timeoutMillis + " ms for " + c.request.url ) );
+	}
+
+	private void selectLoop()
+	{
+		final long selectTimeoutMillis = Math.max( 1, Math.min( timeoutMillis / 4, 1000 ) );
+		while ( running )
+		{
+			try
+			{
+				selector.select( selectTimeoutMillis );
+			}
+			catch ( final IOException e )
+			{
+				e.printStackTrace();
+				continue;
+			}
+
+			for ( Request r = submitted.poll(); r != null; r = submitted.poll() )
+			{
+				HostPool pool = pools.get( r.hostKey );
+				if ( pool == null )
+				{
+					pool = new HostPool( r.url );
+					pools.put( r.hostKey, pool );
+				}
+				pool.waiting.add( r );
+				pool.dispatch();
+			}
+
+			final Iterator< SelectionKey > it = selector.selectedKeys().iterator();
+			while ( it.hasNext() )
+			{
+				final SelectionKey key = it.next();
+				it.remove();
+				final Connection c = ( Connection ) key.attachment();
+				if ( !key.isValid() )
+					continue;
+				try
+				{
+					c.handle();
+				}
+				catch ( final Exception e )
+				{
+					c.fail( e );
+				}
+			}
+
+			failExpired();
+		}
+
+		// shut down: fail all waiting and in-flight requests
+		for ( final SelectionKey key : selector.keys() )
+		{
+			final Connection c = ( Connection ) key.attachment();
+			if ( c.request != null )
+				complete( c.request, null, new IOException( "client is shut down" ) );
+			try
+			{
+				c.channel.close();
+			}
+			catch ( final IOException e )
+			{}
+		}
+		for ( final HostPool pool : pools.values() )
+			for ( final Request r : pool.waiting )
+				complete( r, null, new IOException( "client is shut down" ) );
+		for ( Request r = submitted.poll(); r != null; r = submitted.poll() )
+			complete( r, null, new IOException( "client is shut down" ) );
+		try
+		{
+			selector.close();
+		}
+		catch ( final IOException e )
+		{}
+		callbackExecutor.shutdown();
+	}
+}
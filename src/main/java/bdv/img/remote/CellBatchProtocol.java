@@ -0,0 +1,301 @@
+package bdv.img.remote;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Request and response format for fetching several cells with one request.
+ *
+ * <p>
+ * Request: {@code <baseUrl>?p=cells/<timepoint>/<setup>/<level>/<index>,<index>,...}
+ * where each {@code index} is the flattened index of a cell in the cell grid
+ * of the (timepoint, setup, level) image. Servers that support this announce
+ * {@link #FEATURE} in the {@code features} field of their
+ * {@link RemoteImageLoaderMetaData}.
+ *
+ * <p>
+ * Response: one frame per requested cell, in request order. A frame consists
+ * of the payload size in bytes (int32, big-endian), an encoding byte, and the
+ * payload. Encoding {@link #ENCODING_RAW} is the cell data as big-endian
+ * shorts (same as the single cell {@code ?p=cell/...} response).
+ *
+ * <p>
+ * Compressed encodings: if the server announces {@link #FEATURE_DEFLATE}
+ * and/or {@link #FEATURE_DELTA_DEFLATE}, the client may append
+ * {@code &e=<feature>} to cell and cells requests. The server then answers
+ * with frames (also for single cell requests) in the requested encoding, or
+ * {@link #ENCODING_RAW} for cells that do not compress. Compressed payloads
+ * are DEFLATE streams of little-endian shorts, for
+ * {@link #ENCODING_DELTA_DEFLATE} each value replaced by its difference to
+ * the previous value (in flattened x,y,z order).
+ */
+public class CellBatchProtocol
+{
+	public static final String FEATURE = "cells";
+
+	public static final String FEATURE_DEFLATE = "deflate";
+
+	public static final String FEATURE_DELTA_DEFLATE = "delta-deflate";
+
+	public static final byte ENCODING_RAW = 0;
+
+	public static final byte ENCODING_DEFLATE = 1;
+
+	public static final byte ENCODING_DELTA_DEFLATE = 2;
+
+	/**
+	 * Get the encoding for a {@code e} request parameter. Unknown or null
+	 * names map to {@link #ENCODING_RAW}.
+	 */
+	public static byte getEncoding( final String name )
+	{
+		if ( FEATURE_DEFLATE.equals( name ) )
+			return ENCODING_DEFLATE;
+		else if ( FEATURE_DELTA_DEFLATE.equals( name ) )
+			return ENCODING_DELTA_DEFLATE;
+		else
+			return ENCODING_RAW;
+	}
+
+	/**
+	 * Get the request parameter to append to cell and cells requests for the
+	 * given encoding name (empty if {@code name} is null).
+	 */
+	public static String getEncodingParameter( final String name )
+	{
+		return name == null ? "" : "&e=" + name;
+	}
+
+	public static String getRequestUrl( final String baseUrl, final int timepoint, final int setup, final int level, final int[] indices )
+	{
+		final StringBuilder sb = new StringBuilder( baseUrl );
+		sb.append( "?p=cells/" ).append( timepoint ).append( '/' ).append( setup ).append( '/' ).append( level ).append( '/' );
+		for ( int i = 0; i < indices.length; ++i )
+		{
+			if ( i > 0 )
+				sb.append( ',' );
+			sb.append( indices[ i ] );
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Parse the part of a request after {@code p=cells/}.
+	 *
+	 * @return { timepoint, setup, level, index, index, ... }
+	 */
+	public static int[] parseRequest( final String parts )
+	{
+		final String[] fields = parts.split( "/" );
+		if ( fields.length != 4 )
+			throw new IllegalArgumentException( "malformed cells request: " + parts );
+		final String[] indices = fields[ 3 ].split( "," );
+		final int[] values = new int[ 3 + indices.length ];
+		for ( int d = 0; d < 3; ++d )
+			values[ d ] = Integer.parseInt( fields[ d ] );
+		for ( int i = 0; i < indices.length; ++i )
+			values[ 3 + i ] = Integer.parseInt( indices[ i ] );
+		return values;
+	}
+
+	public static void writeFrame( final DataOutputStream out, final short[] data ) throws IOException
+	{
+		out.writeInt( 2 * data.length );
+		out.writeByte( ENCODING_RAW );
+		final byte[] buf = new byte[ 2 * data.length ];
+		ByteBuffer.wrap( buf ).asShortBuffer().put( data );
+		out.write( buf );
+	}
+
+	/**
+	 * Write a frame with the first {@code n} elements of {@code data} in the
+	 * given encoding. Falls back to {@link #ENCODING_RAW} if compression does
+	 * not reduce the size.
+	 *
+	 * @param deflater
+	 *            used for compressed encodings (reset before use).
+	 */
+	public static void writeFrame( final DataOutputStream out, final short[] data, final int n, final byte encoding, final Deflater deflater ) throws IOException
+	{
+		if ( encoding == ENCODING_RAW )
+		{
+			if ( n == data.length )
+				writeFrame( out, data );
+			else
+			{
+				final short[] trimmed = new short[ n ];
+				System.arraycopy( data, 0, trimmed, 0, n );
+				writeFrame( out, trimmed );
+			}
+			return;
+		}
+
+		final byte[] input = new byte[ 2 * n ];
+		final ShortBuffer sb = ByteBuffer.wrap( input ).order( ByteOrder.LITTLE_ENDIAN ).asShortBuffer();
+		if ( encoding == ENCODING_DELTA_DEFLATE )
+		{
+			short previous = 0;
+			for ( int i = 0; i < n; ++i )
+			{
+				sb.put( ( short ) ( data[ i ] - previous ) );
+				previous = data[ i ];
+			}
+		}
+		else
+			sb.put( data, 0, n );
+
+		deflater.reset();
+		deflater.setInput( input );
+		deflater.finish();
+		final byte[] output = new byte[ input.length ];
+		int size = 0;
+		while ( !deflater.finished() && size < output.length )
+			size += deflater.deflate( output, size, output.length - size );
+
+		if ( !deflater.finished() )
+		{
+			// compressed is not smaller than raw
+			final short[] trimmed = new short[ n ];
+			System.arraycopy( data, 0, trimmed, 0, n );
+			writeFrame( out, trimmed );
+			return;
+		}
+		out.writeInt( size );
+		out.writeByte( encoding );
+		out.write( output, 0, size );
+	}
+
+	/**
+	 * Maximum payload size of a frame with {@code numElements} elements. This
+	 * is the raw size plus the worst case overhead of deflate (zlib's
+	 * {@code compressBound()}), such that a corrupt length field is detected
+	 * before allocating a buffer for it.
+	 */
+	static long maxPayloadBytes( final int numElements )
+	{
+		final long n = 2l * numElements;
+		return n + ( n >> 12 ) + ( n >> 14 ) + ( n >> 25 ) + 13;
+	}
+
+	private static void checkPayloadBytes( final int numBytes, final short[] data ) throws IOException
+	{
+		if ( numBytes < 0 || numBytes > maxPayloadBytes( data.length ) )
+			throw new IOException( "invalid cell frame size " + numBytes + " for " + data.length + " elements" );
+	}
+
+	/**
+	 * Read a frame into {@code data}.
+	 *
+	 * @throws IOException
+	 *             if the stream ends before the frame, or the frame size does
+	 *             not fit {@code data}.
+	 */
+	public static void readFrame( final DataInputStream in, final short[] data ) throws IOException
+	{
+		final int numBytes = in.readInt();
+		final byte encoding = in.readByte();
+		checkPayloadBytes( numBytes, data );
+		final byte[] buf = new byte[ numBytes ];
+		in.readFully( buf );
+		decode( ByteBuffer.wrap( buf ), encoding, data );
+	}
+
+	/**
+	 * Read a frame starting at the current position of {@code buf} into
+	 * {@code data}. The position of {@code buf} is advanced to the next frame.
+	 */
+	public static void readFrame( final ByteBuffer buf, final short[] data ) throws IOException
+	{
+		if ( buf.remaining() < 5 )
+			throw new IOException( "truncated cell frame" );
+		final int numBytes = buf.getInt();
+		final byte encoding = buf.get();
+		checkPayloadBytes( numBytes, data );
+		if ( numBytes > buf.remaining() )
+			throw new IOException( "truncated cell frame" );
+		final ByteBuffer payload = buf.slice();
+		payload.limit( numBytes );
+		buf.position( buf.position() + numBytes );
+		decode( payload, encoding, data );
+	}
+
+	/**
+	 * Per-thread {@link Inflater} and scratch buffer for decoding compressed
+	 * payloads.
+	 */
+	private static class Decoder
+	{
+		final Inflater inflater = new Inflater();
+
+		byte[] buffer = new byte[ 0 ];
+	}
+
+	private static final ThreadLocal< Decoder > decoders = new ThreadLocal< Decoder >()
+	{
+		@Override
+		protected Decoder initialValue()
+		{
+			return new Decoder();
+		}
+	};
+
+	/**
+	 * Decode a payload with the given encoding into {@code data}.
+	 */
+	public static void decode( final ByteBuffer payload, final byte encoding, final short[] data ) throws IOException
+	{
+		final int numBytes = 2 * data.length;
+		if ( encoding == ENCODING_RAW )
+		{
+			if ( payload.remaining() != numBytes )
+				throw new IOException( "expected " + numBytes + " bytes, received " + payload.remaining() );
+			payload.asShortBuffer().get( data );
+			return;
+		}
+		if ( encoding != ENCODING_DEFLATE && encoding != ENCODING_DELTA_DEFLATE )
+			throw new IOException( "unsupported cell encoding " + encoding );
+
+		final Decoder decoder = decoders.get();
+		if ( decoder.buffer.length < numBytes )
+			decoder.buffer = new byte[ numBytes ];
+		final Inflater inflater = decoder.inflater;
+		inflater.reset();
+		if ( payload.hasArray() )
+			inflater.setInput( payload.array(), payload.arrayOffset() + payload.position(), payload.remaining() );
+		else
+		{
+			final byte[] input = new byte[ payload.remaining() ];
+			payload.duplicate().get( input );
+			inflater.setInput( input );
+		}
+		try
+		{
+			int size = 0;
+			while ( size < numBytes && !inflater.finished() )
+			{
+				final int n = inflater.inflate( decoder.buffer, size, numBytes - size );
+				if ( n == 0 && ( inflater.needsInput() || inflater.needsDictionary() ) )
+					break;
+				size += n;
+			}
+			if ( size != numBytes )
+				throw new IOException( "expected " + numBytes + " bytes, inflated " + size );
+		}
+		catch ( final DataFormatException e )
+		{
+			throw new IOException( e );
+		}
+
+		ByteBuffer.wrap( decoder.buffer, 0, numBytes ).order( ByteOrder.LITTLE_ENDIAN ).asShortBuffer().get( data );
+		if ( encoding == ENCODING_DELTA_DEFLATE )
+			for ( int i = 1; i < data.length; ++i )
+				data[ i ] += data[ i - 1 ];
+	}
+}
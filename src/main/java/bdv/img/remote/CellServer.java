@@ -0,0 +1,472 @@
+package bdv.img.remote;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+import mpicbg.spim.data.SpimDataException;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.util.IntervalIndexer;
+import bdv.img.cache.CacheHints;
+import bdv.img.cache.LoadingStrategy;
+import bdv.img.cache.VolatileCell;
+import bdv.img.cache.VolatileGlobalCellCache;
+import bdv.img.hdf5.HDF5AccessHack;
+import bdv.img.hdf5.Hdf5ImageLoader;
+import bdv.img.hdf5.ViewLevelId;
+import bdv.spimdata.SequenceDescriptionMinimal;
+import bdv.spimdata.SpimDataMinimal;
+import bdv.spimdata.XmlIoSpimDataMinimal;
+
+import com.google.gson.GsonBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process reference server for the remote protocol used by
+ * {@link RemoteImageLoader}. Serves one {@link Hdf5ImageLoader} dataset at
+ * {@link #getBaseUrl()}, answering
+ * <ul>
+ * <li>{@code ?p=init}: {@link RemoteImageLoaderMetaData} as JSON,
+ * <li>{@code ?p=cell/index/t/s/l/dx/dy/dz/x/y/z}: one cell as big-endian
+ * shorts,
+ * <li>{@code ?p=cells/t/s/l/index,index,...}: several cells, framed as
+ * described in {@link CellBatchProtocol},
+ * <li>{@code ?p=metrics}: {@link Metrics} as JSON.
+ * </ul>
+ * Cell responses are compressed if the client asks for one of the encodings
+ * defined in {@link CellBatchProtocol}.
+ *
+ * <p>
+ * Requests are handled concurrently by a pool of threads. Cells are read
+ * through the image loader's {@link VolatileGlobalCellCache}, and the most
+ * recently served cells are kept in a {@link CellServerCache} with a fixed
+ * byte budget, such that many viewers can share one warm cache. The server
+ * uses the http server built into the JDK. It can be embedded (e.g., on
+ * localhost for tests) or run standalone through {@link #main(String[])}.
+ */
+public class CellServer
+{
+	public static final String CACHE_BYTES_PROPERTY = "bdv.server.cacheBytes";
+
+	public static final long DEFAULT_CACHE_BYTES = 256l * 1024 * 1024;
+
+	private final Hdf5ImageLoader imgLoader;
+
+	private final VolatileGlobalCellCache< VolatileShortArray > cache;
+
+	private final RemoteImageLoaderMetaData metadata;
+
+	private final HashMap< ViewLevelId, int[] > cellsDimensions;
+
+	private final String metadataJson;
+
+	private final HttpServer server;
+
+	private final ExecutorService executor;
+
+	private final CacheHints cacheHints;
+
+	private final CellServerCache blockCache;
+
+	private final AtomicLong numRequests = new AtomicLong();
+
+	private final AtomicLong numCellRequests = new AtomicLong();
+
+	private final AtomicLong numCellsServed = new AtomicLong();
+
+	private final AtomicLong numErrors = new AtomicLong();
+
+	private final AtomicLong bytesSent = new AtomicLong();
+
+	private final AtomicLong requestNanos = new AtomicLong();
+
+	private final AtomicLong maxRequestNanos = new AtomicLong();
+
+	private final AtomicLong activeRequests = new AtomicLong();
+
+	private static final ThreadLocal< Deflater > deflaters = new ThreadLocal< Deflater >()
+	{
+		@Override
+		protected Deflater initialValue()
+		{
+			return new Deflater( Deflater.BEST_SPEED );
+		}
+	};
+
+	/**
+	 * Create a server with a cell cache budget given by the system property
+	 * {@value #CACHE_BYTES_PROPERTY} (default {@value #DEFAULT_CACHE_BYTES}
+	 * bytes).
+	 *
+	 * @param seq
+	 *            sequence description whose image loader is a
+	 *            {@link Hdf5ImageLoader}.
+	 * @param port
+	 *            port to listen on, or 0 to pick a free port.
+	 * @param numThreads
+	 *            number of request handler threads.
+	 */
+	public CellServer( final SequenceDescriptionMinimal seq, final int port, final int numThreads ) throws IOException
+	{
+		this( seq, port, numThreads, Long.getLong( CACHE_BYTES_PROPERTY, DEFAULT_CACHE_BYTES ) );
+	}
+
+	/**
+	 * @param seq
+	 *            sequence description whose image loader is a
+	 *            {@link Hdf5ImageLoader}.
+	 * @param port
+	 *            port to listen on, or 0 to pick a free port.
+	 * @param numThreads
+	 *            number of request handler threads.
+	 * @param cacheBytes
+	 *            byte budget for keeping served cells in memory.
+	 */
+	public CellServer( final SequenceDescriptionMinimal seq, final int port, final int numThreads, final long cacheBytes ) throws IOException
+	{
+		imgLoader = ( Hdf5ImageLoader ) seq.getImgLoader();
+		cache = imgLoader.getCache();
+		metadata = new RemoteImageLoaderMetaData( imgLoader, seq );
+		metadata.setFeatures( CellBatchProtocol.FEATURE, CellBatchProtocol.FEATURE_DEFLATE, CellBatchProtocol.FEATURE_DELTA_DEFLATE );
+		cellsDimensions = metadata.createCellsDimensions();
+
+		final GsonBuilder gsonBuilder = new GsonBuilder();
+		gsonBuilder.registerTypeAdapter( AffineTransform3D.class, new AffineTransform3DJsonSerializer() );
+		gsonBuilder.enableComplexMapKeySerialization();
+		metadataJson = gsonBuilder.create().toJson( metadata );
+
+		cacheHints = new CacheHints( LoadingStrategy.BLOCKING, 0, false );
+		blockCache = new CellServerCache( cacheBytes );
+
+		server = HttpServer.create( new InetSocketAddress( port ), 0 );
+		server.createContext( "/", new Handler() );
+		executor = Executors.newFixedThreadPool( numThreads );
+		server.setExecutor( executor );
+	}
+
+	public void start()
+	{
+		server.start();
+	}
+
+	public void stop()
+	{
+		server.stop( 0 );
+		executor.shutdown();
+	}
+
+	public int getPort()
+	{
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Get the URL to pass to {@link RemoteImageLoader#RemoteImageLoader(String)}.
+	 */
+	public String getBaseUrl()
+	{
+		return "http://localhost:" + getPort() + "/";
+	}
+
+	public CellServerCache getCellServerCache()
+	{
+		return blockCache;
+	}
+
+	private short[] getCellData( final ViewLevelId id, final int index, final int[] cellDims, final long[] cellMin ) throws IOException
+	{
+		numCellsServed.incrementAndGet();
+		short[] data = blockCache.get( id, index );
+		if ( data != null )
+			return data;
+
+		final int timepoint = id.getTimePointId();
+		final int setup = id.getViewSetupId();
+		final int level = id.getLevel();
+		VolatileCell< VolatileShortArray > cell = cache.getGlobalIfCached( timepoint, setup, level, index, cacheHints );
+		if ( cell == null )
+			cell = cache.createGlobal( cellDims, cellMin, timepoint, setup, level, index, cacheHints );
+		if ( !cell.getData().isValid() )
+			throw new IOException( "failed to load cell " + index + " of timepoint " + timepoint + " setup " + setup + " level " + level );
+		data = cell.getData().getCurrentStorageArray();
+		blockCache.put( id, index, data );
+		return data;
+	}
+
+	/**
+	 * Compute dimensions and min of the cell with the given index.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if there is no such cell.
+	 */
+	private void getCellDimsAndMin( final ViewLevelId id, final int index, final int[] cellDims, final long[] cellMin )
+	{
+		final int[] numCells = cellsDimensions.get( id );
+		if ( numCells == null || index < 0 || index >= ( long ) numCells[ 0 ] * numCells[ 1 ] * numCells[ 2 ] )
+			throw new IllegalArgumentException( "no cell " + index + " of timepoint " + id.getTimePointId() + " setup " + id.getViewSetupId() + " level " + id.getLevel() );
+		final int[] cellSize = metadata.perSetupMipmapInfo.get( id.getViewSetupId() ).getSubdivisions()[ id.getLevel() ];
+		final long[] imgDims = metadata.dimsAndExistence.get( id ).getDimensions();
+		final int[] cellPos = new int[ 3 ];
+		IntervalIndexer.indexToPosition( index, numCells, cellPos );
+		for ( int d = 0; d < 3; ++d )
+		{
+			cellMin[ d ] = ( long ) cellPos[ d ] * cellSize[ d ];
+			cellDims[ d ] = ( int ) Math.min( cellSize[ d ], imgDims[ d ] - cellMin[ d ] );
+		}
+	}
+
+	private byte[] handleCell( final String parts, final byte encoding ) throws IOException
+	{
+		final String[] fields = parts.split( "/" );
+		if ( fields.length < 10 )
+			throw new IllegalArgumentException( "malformed cell request " + parts );
+		final int index = Integer.parseInt( fields[ 0 ] );
+		final int timepoint = Integer.parseInt( fields[ 1 ] );
+		final int setup = Integer.parseInt( fields[ 2 ] );
+		final int level = Integer.parseInt( fields[ 3 ] );
+		final ViewLevelId id = new ViewLevelId( timepoint, setup, level );
+
+		// The cell is cached and shared with all clients, so its dimensions
+		// are computed here. Dimensions and min sent by the client must
+		// match.
+		final int[] cellDims = new int[ 3 ];
+		final long[] cellMin = new long[ 3 ];
+		getCellDimsAndMin( id, index, cellDims, cellMin );
+		for ( int d = 0; d < 3; ++d )
+			if ( Integer.parseInt( fields[ 4 + d ] ) != cellDims[ d ] || Long.parseLong( fields[ 7 + d ] ) != cellMin[ d ] )
+				throw new IllegalArgumentException( "wrong dimensions or min for cell " + index );
+		final short[] data = getCellData( id, index, cellDims, cellMin );
+		final int n = cellDims[ 0 ] * cellDims[ 1 ] * cellDims[ 2 ];
+		if ( encoding != CellBatchProtocol.ENCODING_RAW )
+		{
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			final DataOutputStream out = new DataOutputStream( bytes );
+			CellBatchProtocol.writeFrame( out, data, n, encoding, deflaters.get() );
+			out.flush();
+			return bytes.toByteArray();
+		}
+		final byte[] buf = new byte[ 2 * n ];
+		for ( int i = 0, j = 0; i < n; ++i )
+		{
+			buf[ j++ ] = ( byte ) ( data[ i ] >> 8 );
+			buf[ j++ ] = ( byte ) data[ i ];
+		}
+		return buf;
+	}
+
+	private byte[] handleCells( final String parts, final byte encoding ) throws IOException
+	{
+		final int[] values = CellBatchProtocol.parseRequest( parts );
+		final int timepoint = values[ 0 ];
+		final int setup = values[ 1 ];
+		final int level = values[ 2 ];
+		final ViewLevelId id = new ViewLevelId( timepoint, setup, level );
+		final int[] cellDims = new int[ 3 ];
+		final long[] cellMin = new long[ 3 ];
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream( bytes );
+		for ( int i = 3; i < values.length; ++i )
+		{
+			final int index = values[ i ];
+			getCellDimsAndMin( id, index, cellDims, cellMin );
+			final short[] data = getCellData( id, index, cellDims, cellMin );
+			final int n = cellDims[ 0 ] * cellDims[ 1 ] * cellDims[ 2 ];
+			CellBatchProtocol.writeFrame( out, data, n, encoding, deflaters.get() );
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private class Handler implements HttpHandler
+	{
+		@Override
+		public void handle( final HttpExchange exchange ) throws IOException
+		{
+			final long t0 = System.nanoTime();
+			numRequests.incrementAndGet();
+			activeRequests.incrementAndGet();
+			try
+			{
+				final String query = exchange.getRequestURI().getRawQuery();
+				final byte[] response;
+				String contentType = "application/octet-stream";
+				if ( query == null || !query.startsWith( "p=" ) )
+				{
+					sendError( exchange, 400, "missing parameter p" );
+					return;
+				}
+				String p = query.substring( 2 );
+				byte encoding = CellBatchProtocol.ENCODING_RAW;
+				final int amp = p.indexOf( '&' );
+				if ( amp >= 0 )
+				{
+					for ( final String param : p.substring( amp + 1 ).split( "&" ) )
+						if ( param.startsWith( "e=" ) )
+							encoding = CellBatchProtocol.getEncoding( param.substring( 2 ) );
+					p = p.substring( 0, amp );
+				}
+				if ( p.equals( "init" ) )
+				{
+					response = metadataJson.getBytes( "UTF-8" );
+					contentType = "application/json";
+				}
+				else if ( p.equals( "metrics" ) )
+				{
+					response = new GsonBuilder().setPrettyPrinting().create().toJson( getMetrics() ).getBytes( "UTF-8" );
+					contentType = "application/json";
+				}
+				else if ( p.startsWith( "cell/" ) )
+				{
+					numCellRequests.incrementAndGet();
+					response = handleCell( p.substring( 5 ), encoding );
+				}
+				else if ( p.startsWith( "cells/" ) )
+				{
+					numCellRequests.incrementAndGet();
+					response = handleCells( p.substring( 6 ), encoding );
+				}
+				else
+				{
+					sendError( exchange, 400, "unknown request " + p );
+					return;
+				}
+				exchange.getResponseHeaders().set( "Content-Type", contentType );
+				exchange.sendResponseHeaders( 200, response.length );
+				final OutputStream os = exchange.getResponseBody();
+				os.write( response );
+				os.close();
+				bytesSent.addAndGet( response.length );
+			}
+			catch ( final IllegalArgumentException e )
+			{
+				// malformed request, or no such cell
+				sendError( exchange, 400, e.getMessage() == null ? e.toString() : e.getMessage() );
+			}
+			catch ( final RuntimeException e )
+			{
+				e.printStackTrace();
+				sendError( exchange, 500, e.toString() );
+			}
+			catch ( final IOException e )
+			{
+				// e.g., a cell failed to load. If the client went away,
+				// sending the error fails as well, which is ignored.
+				try
+				{
+					sendError( exchange, 503, e.toString() );
+				}
+				catch ( final IOException e2 )
+				{}
+			}
+			finally
+			{
+				exchange.close();
+				activeRequests.decrementAndGet();
+				final long t = System.nanoTime() - t0;
+				requestNanos.addAndGet( t );
+				for ( long max = maxRequestNanos.get(); t > max && !maxRequestNanos.compareAndSet( max, t ); max = maxRequestNanos.get() )
+					;
+			}
+		}
+
+		private void sendError( final HttpExchange exchange, final int status, final String message ) throws IOException
+		{
+			numErrors.incrementAndGet();
+			final byte[] bytes = message.getBytes( "UTF-8" );
+			exchange.sendResponseHeaders( status, bytes.length );
+			final OutputStream os = exchange.getResponseBody();
+			os.write( bytes );
+			os.close();
+		}
+	}
+
+	/**
+	 * Snapshot of server statistics, see {@link CellServer#getMetrics()}.
+	 * Times are in milliseconds.
+	 */
+	public static class Metrics
+	{
+		public long numRequests;
+
+		public long numCellRequests;
+
+		public long numCellsServed;
+
+		public long numErrors;
+
+		public long numActiveRequests;
+
+		public long bytesSent;
+
+		public double meanRequestMillis;
+
+		public double maxRequestMillis;
+
+		public long cacheHits;
+
+		public long cacheMisses;
+
+		public long cacheEvictions;
+
+		public long cachedCells;
+
+		public long cachedBytes;
+
+		public long cacheBudgetBytes;
+
+		/**
+		 * Statistics of the underlying hdf5 access, or null if not available.
+		 */
+		public HDF5AccessHack.CacheStatistics hdf5;
+	}
+
+	/**
+	 * Get a snapshot of request, cache, and hdf5 statistics. These are also
+	 * served as JSON at {@code ?p=metrics}.
+	 */
+	public Metrics getMetrics()
+	{
+		final Metrics m = new Metrics();
+		m.numRequests = numRequests.get();
+		m.numCellRequests = numCellRequests.get();
+		m.numCellsServed = numCellsServed.get();
+		m.numErrors = numErrors.get();
+		m.numActiveRequests = activeRequests.get();
+		m.bytesSent = bytesSent.get();
+		m.meanRequestMillis = m.numRequests == 0 ? 0 : requestNanos.get() / 1e6 / m.numRequests;
+		m.maxRequestMillis = maxRequestNanos.get() / 1e6;
+		m.cacheHits = blockCache.getHits();
+		m.cacheMisses = blockCache.getMisses();
+		m.cacheEvictions = blockCache.getEvictions();
+		m.cachedCells = blockCache.getNumCells();
+		m.cachedBytes = blockCache.getBytes();
+		m.cacheBudgetBytes = blockCache.getMaxBytes();
+		m.hdf5 = imgLoader.getCacheStatistics();
+		return m;
+	}
+
+	public static void main( final String[] args ) throws SpimDataException, IOException
+	{
+		if ( args.length < 1 )
+		{
+			System.err.println( "usage: CellServer <dataset.xml> [port [cacheMB]]" );
+			return;
+		}
+		final int port = args.length > 1 ? Integer.parseInt( args[ 1 ] ) : 8080;
+		final long cacheBytes = args.length > 2 ? Long.parseLong( args[ 2 ] ) * 1024 * 1024 : Long.getLong( CACHE_BYTES_PROPERTY, DEFAULT_CACHE_BYTES );
+		final SpimDataMinimal spimData = new XmlIoSpimDataMinimal().load( args[ 0 ] );
+		final CellServer server = new CellServer( spimData.getSequenceDescription(), port, Runtime.getRuntime().availableProcessors(), cacheBytes );
+		server.start();
+		System.out.println( "serving " + args[ 0 ] + " at " + server.getBaseUrl() );
+	}
+}
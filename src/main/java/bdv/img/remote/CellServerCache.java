@@ -0,0 +1,154 @@
+package bdv.img.remote;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import bdv.img.cache.VolatileGlobalCellCache;
+import bdv.img.hdf5.ViewLevelId;
+
+/**
+ * Least-recently-used cache of cell data served by {@link CellServer}, bounded
+ * by a byte budget.
+ *
+ * <p>
+ * The {@link VolatileGlobalCellCache} of the served image loader only holds
+ * cells through soft references, i.e., how many cells stay loaded depends on
+ * the heap of the server JVM rather than on a configured size. This cache
+ * keeps the most recently served cells strongly referenced up to a fixed
+ * number of bytes, such that many viewers can share one warm cache.
+ * It is safe to use from several threads.
+ */
+public class CellServerCache
+{
+	private static class CellKey
+	{
+		private final ViewLevelId id;
+
+		private final int index;
+
+		private final int hashcode;
+
+		public CellKey( final ViewLevelId id, final int index )
+		{
+			this.id = id;
+			this.index = index;
+			hashcode = 31 * id.hashCode() + index;
+		}
+
+		@Override
+		public boolean equals( final Object other )
+		{
+			if ( this == other )
+				return true;
+			if ( !( other instanceof CellKey ) )
+				return false;
+			final CellKey that = ( CellKey ) other;
+			return this.index == that.index && this.id.equals( that.id );
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hashcode;
+		}
+	}
+
+	private final LinkedHashMap< CellKey, short[] > cells;
+
+	private final long maxBytes;
+
+	private long bytes;
+
+	private long hits;
+
+	private long misses;
+
+	private long evictions;
+
+	/**
+	 * @param maxBytes
+	 *            maximum total size of cached cell data in bytes. If 0, nothing
+	 *            is cached.
+	 */
+	public CellServerCache( final long maxBytes )
+	{
+		this.maxBytes = Math.max( 0, maxBytes );
+		cells = new LinkedHashMap< CellKey, short[] >( 1024, 0.75f, true );
+		bytes = 0;
+		hits = 0;
+		misses = 0;
+		evictions = 0;
+	}
+
+	/**
+	 * Get cached data for the given cell, or null.
+	 */
+	public synchronized short[] get( final ViewLevelId id, final int index )
+	{
+		final short[] data = cells.get( new CellKey( id, index ) );
+		if ( data == null )
+			++misses;
+		else
+			++hits;
+		return data;
+	}
+
+	/**
+	 * Add data for the given cell, evicting least recently used cells if the
+	 * byte budget is exceeded. Data larger than the budget is not cached.
+	 */
+	public synchronized void put( final ViewLevelId id, final int index, final short[] data )
+	{
+		final long size = 2l * data.length;
+		if ( size > maxBytes )
+			return;
+		final short[] previous = cells.put( new CellKey( id, index ), data );
+		if ( previous != null )
+			bytes -= 2l * previous.length;
+		bytes += size;
+		final Iterator< Map.Entry< CellKey, short[] > > it = cells.entrySet().iterator();
+		while ( bytes > maxBytes && it.hasNext() )
+		{
+			bytes -= 2l * it.next().getValue().length;
+			it.remove();
+			++evictions;
+		}
+	}
+
+	public synchronized void clear()
+	{
+		cells.clear();
+		bytes = 0;
+	}
+
+	public long getMaxBytes()
+	{
+		return maxBytes;
+	}
+
+	public synchronized long getBytes()
+	{
+		return bytes;
+	}
+
+	public synchronized int getNumCells()
+	{
+		return cells.size();
+	}
+
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+
+	public synchronized long getEvictions()
+	{
+		return evictions;
+	}
+}
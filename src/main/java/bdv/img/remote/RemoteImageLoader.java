@@ -41,7 +41,52 @@ public class RemoteImageLoader extends AbstractViewerImgLoader< UnsignedShortTyp
 
 	protected VolatileGlobalCellCache< VolatileShortArray > cache;
 
+	/**
+	 * Client for asynchronous cell requests, or null if cells are loaded
+	 * synchronously by fetcher threads.
+	 */
+	protected AsyncHttpClient client;
+
+	/**
+	 * System property for the maximum number of concurrent cell requests
+	 * (persistent connections) per server. If this is 0, cells are loaded
+	 * synchronously by {@value #NUM_SYNC_FETCHER_THREADS} fetcher threads.
+	 */
+	public static final String MAX_CONCURRENT_REQUESTS_PROPERTY = "bdv.remote.maxConcurrentRequests";
+
+	public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 128;
+
+	/**
+	 * System property selecting the cell transfer encoding: "raw", or one of
+	 * the compressed encodings of {@link CellBatchProtocol}. By default, the
+	 * best encoding supported by the server is used.
+	 */
+	public static final String CELL_ENCODING_PROPERTY = "bdv.remote.cellEncoding";
+
+	/**
+	 * Compressed cell encoding negotiated with the server (appended to cell
+	 * requests), or null for raw cells.
+	 */
+	protected String cellEncoding;
+
+	private static final int NUM_SYNC_FETCHER_THREADS = 10;
+
+	private static final int NUM_ASYNC_FETCHER_THREADS = 2;
+
 	public RemoteImageLoader( final String baseUrl ) throws IOException
+	{
+		this( baseUrl, Integer.getInteger( MAX_CONCURRENT_REQUESTS_PROPERTY, DEFAULT_MAX_CONCURRENT_REQUESTS ) );
+	}
+
+	/**
+	 * @param baseUrl
+	 *            server URL.
+	 * @param maxConcurrentRequests
+	 *            maximum number of concurrent asynchronous cell requests
+	 *            (persistent connections) to the server. If this is
+	 *            {@code <= 0}, cells are loaded synchronously.
+	 */
+	public RemoteImageLoader( final String baseUrl, final int maxConcurrentRequests ) throws IOException
 	{
 		super( new UnsignedShortType(), new VolatileUnsignedShortType() );
 
@@ -52,15 +97,59 @@ public class RemoteImageLoader extends AbstractViewerImgLoader< UnsignedShortTyp
 		metadata = gsonBuilder.create().fromJson(
 				new InputStreamReader( url.openStream() ),
 				RemoteImageLoaderMetaData.class );
+		cellEncoding = negotiateCellEncoding( metadata, System.getProperty( CELL_ENCODING_PROPERTY ) );
+		final RemoteVolatileShortArrayLoader loader;
+		final int numFetcherThreads;
+		if ( maxConcurrentRequests > 0 )
+		{
+			client = new AsyncHttpClient( maxConcurrentRequests );
+			loader = new RemoteVolatileShortArrayLoader( this, client, maxConcurrentRequests );
+			numFetcherThreads = NUM_ASYNC_FETCHER_THREADS;
+		}
+		else
+		{
+			client = null;
+			loader = new RemoteVolatileShortArrayLoader( this );
+			numFetcherThreads = NUM_SYNC_FETCHER_THREADS;
+		}
 		cache = new VolatileGlobalCellCache< VolatileShortArray >(
-				new RemoteVolatileShortArrayLoader( this ),
+				loader,
 				metadata.maxNumTimepoints,
 				metadata.maxNumSetups,
 				metadata.maxNumLevels,
-				10 );
+				numFetcherThreads );
 		cellsDimensions = metadata.createCellsDimensions();
 	}
 
+	/**
+	 * Stop the fetcher threads of the cache and the asynchronous client. The
+	 * loader must not be used after this.
+	 */
+	public void close()
+	{
+		cache.shutdown();
+		if ( client != null )
+			client.shutdown();
+	}
+
+	/**
+	 * Choose the cell encoding: the requested one if the server supports it,
+	 * otherwise the best one supported by the server. "raw" disables
+	 * compression.
+	 */
+	private static String negotiateCellEncoding( final RemoteImageLoaderMetaData metadata, final String requested )
+	{
+		if ( "raw".equals( requested ) )
+			return null;
+		if ( requested != null && metadata.hasFeature( requested ) )
+			return requested;
+		if ( metadata.hasFeature( CellBatchProtocol.FEATURE_DELTA_DEFLATE ) )
+			return CellBatchProtocol.FEATURE_DELTA_DEFLATE;
+		if ( metadata.hasFeature( CellBatchProtocol.FEATURE_DEFLATE ) )
+			return CellBatchProtocol.FEATURE_DEFLATE;
+		return null;
+	}
+
 	@Override
 	public RandomAccessibleInterval< UnsignedShortType > getImage( final ViewId view, final int level )
 	{
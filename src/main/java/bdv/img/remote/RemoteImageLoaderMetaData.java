@@ -45,6 +45,13 @@ public class RemoteImageLoaderMetaData
 	 */
 	protected final HashMap< ViewLevelId, DimsAndExistence > dimsAndExistence;
 
+	/**
+	 * Optional protocol features supported by the server, e.g.
+	 * {@link CellBatchProtocol#FEATURE}. This is null for servers that
+	 * only support the basic protocol.
+	 */
+	protected String[] features;
+
 	public RemoteImageLoaderMetaData( final Hdf5ImageLoader imgLoader, final AbstractSequenceDescription< ?, ?, ? > sequenceDescription )
 	{
 		perSetupMipmapInfo = new HashMap< Integer, MipmapInfo >();
@@ -79,6 +86,20 @@ public class RemoteImageLoaderMetaData
 		}
 	}
 
+	public void setFeatures( final String... features )
+	{
+		this.features = features;
+	}
+
+	public boolean hasFeature( final String feature )
+	{
+		if ( features != null )
+			for ( final String f : features )
+				if ( feature.equals( f ) )
+					return true;
+		return false;
+	}
+
 	/**
 	 * Create an map from {@link ViewLevelId} (timepoint, setup, level) to
 	 * int[]. Every entry is the dimensions in cells (instead of pixels) of one
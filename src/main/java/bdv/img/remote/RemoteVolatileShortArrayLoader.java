@@ -1,60 +1,388 @@
 package bdv.img.remote;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
 
 import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
-import bdv.img.cache.CacheArrayLoader;
+import bdv.img.cache.AsyncBatchCacheArrayLoader;
+import bdv.img.cache.NetworkLoadPolicy;
 
-public class RemoteVolatileShortArrayLoader implements CacheArrayLoader< VolatileShortArray >
+public class RemoteVolatileShortArrayLoader implements AsyncBatchCacheArrayLoader< VolatileShortArray >
 {
+	/**
+	 * Maximum number of cells requested at once, if the server supports
+	 * {@link CellBatchProtocol batch requests}.
+	 */
+	public static final int DEFAULT_MAX_BATCH_SIZE = 32;
+
 	private VolatileShortArray theEmptyArray;
 
 	private final RemoteImageLoader imgLoader;
 
+	/**
+	 * Used for asynchronous loading. If null,
+	 * {@link #loadArrayAsync(int, int, int, int[], long[], LoadCallback)}
+	 * loads synchronously.
+	 */
+	private final AsyncHttpClient client;
+
+	/**
+	 * Limits the number of asynchronous requests in flight.
+	 */
+	private final Semaphore inFlight;
+
+	private final int maxBatchSize;
+
+	/**
+	 * Retries, failure caching, and per-host limits for requests.
+	 */
+	private final NetworkLoadPolicy policy;
+
 	public RemoteVolatileShortArrayLoader( final RemoteImageLoader imgLoader )
+	{
+		this( imgLoader, null, 1 );
+	}
+
+	/**
+	 * @param client
+	 *            client for asynchronous requests, or null.
+	 * @param maxRequestsInFlight
+	 *            maximum number of asynchronous requests in flight.
+	 */
+	public RemoteVolatileShortArrayLoader( final RemoteImageLoader imgLoader, final AsyncHttpClient client, final int maxRequestsInFlight )
 	{
 		theEmptyArray = new VolatileShortArray( 32 * 32 * 32, false );
 		this.imgLoader = imgLoader;
+		this.client = client;
+		inFlight = new Semaphore( Math.max( 1, maxRequestsInFlight ) );
+		maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+		policy = NetworkLoadPolicy.getDefault();
+	}
+
+	private URL getCellUrl( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min ) throws MalformedURLException
+	{
+		final int index = imgLoader.getCellIndex( timepoint, setup, level, min );
+		return new URL( String.format( "%s?p=cell/%d/%d/%d/%d/%d/%d/%d/%d/%d/%d%s",
+				imgLoader.baseUrl,
+				index,
+				timepoint,
+				setup,
+				level,
+				dimensions[ 0 ],
+				dimensions[ 1 ],
+				dimensions[ 2 ],
+				min[ 0 ],
+				min[ 1 ],
+				min[ 2 ],
+				CellBatchProtocol.getEncodingParameter( imgLoader.cellEncoding ) ) );
+	}
+
+	private URL getBatchUrl( final int timepoint, final int setup, final int level, final List< long[] > min ) throws MalformedURLException
+	{
+		final int[] indices = new int[ min.size() ];
+		for ( int i = 0; i < indices.length; ++i )
+			indices[ i ] = imgLoader.getCellIndex( timepoint, setup, level, min.get( i ) );
+		return new URL( CellBatchProtocol.getRequestUrl( imgLoader.baseUrl, timepoint, setup, level, indices )
+				+ CellBatchProtocol.getEncodingParameter( imgLoader.cellEncoding ) );
+	}
+
+	private static short[] newData( final int[] dimensions )
+	{
+		return new short[ dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ] ];
+	}
+
+	/**
+	 * Decode a single cell response into {@code data}. Without negotiated
+	 * encoding, this is raw big-endian shorts. Otherwise the response is a
+	 * {@link CellBatchProtocol} frame.
+	 */
+	private void decode( final ByteBuffer response, final short[] data ) throws IOException
+	{
+		if ( imgLoader.cellEncoding == null )
+			CellBatchProtocol.decode( response, CellBatchProtocol.ENCODING_RAW, data );
+		else
+			CellBatchProtocol.readFrame( response, data );
+	}
+
+	private static byte[] readFully( final InputStream s ) throws IOException
+	{
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream( 64 * 1024 );
+		final byte[] buf = new byte[ 16 * 1024 ];
+		for ( int l = s.read( buf ); l >= 0; l = s.read( buf ) )
+			bytes.write( buf, 0, l );
+		return bytes.toByteArray();
 	}
 
 	@Override
 	public VolatileShortArray loadArray( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min ) throws InterruptedException
 	{
-		final int index = imgLoader.getCellIndex( timepoint, setup, level, min );
 		final short[] data = new short[ dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ] ];
+		final URL url;
+		try
+		{
+			url = getCellUrl( timepoint, setup, level, dimensions, min );
+		}
+		catch ( final MalformedURLException e )
+		{
+			e.printStackTrace();
+			return new VolatileShortArray( data, false );
+		}
+		final short[] loaded = policy.call( url, new NetworkLoadPolicy.Request< short[] >()
+		{
+			@Override
+			public short[] run( final URL u ) throws IOException
+			{
+				final InputStream s = NetworkLoadPolicy.openStream( u );
+				try
+				{
+					decode( ByteBuffer.wrap( readFully( s ) ), data );
+				}
+				finally
+				{
+					s.close();
+				}
+				return data;
+			}
+		} );
+		// a missing cell is empty
+		if ( loaded == null && policy.isMissing( url ) )
+			return new VolatileShortArray( newData( dimensions ), true );
+		// a failed cell is returned invalid, such that it is requested again later
+		return new VolatileShortArray( data, loaded != null );
+	}
+
+	@Override
+	public void loadArrayAsync( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min, final LoadCallback< VolatileShortArray > callback ) throws InterruptedException
+	{
+		if ( client == null )
+		{
+			callback.loaded( loadArray( timepoint, setup, level, dimensions, min ) );
+			return;
+		}
+
+		final URL url;
+		try
+		{
+			url = getCellUrl( timepoint, setup, level, dimensions, min );
+		}
+		catch ( final MalformedURLException e )
+		{
+			e.printStackTrace();
+			callback.failed( e );
+			return;
+		}
+
+		if ( policy.isMissing( url ) )
+		{
+			callback.loaded( new VolatileShortArray( newData( dimensions ), true ) );
+			return;
+		}
+
+		if ( policy.isBlocked( url ) )
+		{
+			callback.failed( new IOException( "recently failed: " + url ) );
+			return;
+		}
+
+		inFlight.acquire();
+		client.get( url, new AsyncHttpClient.Callback()
+		{
+			@Override
+			public void completed( final byte[] body )
+			{
+				inFlight.release();
+				final short[] data = newData( dimensions );
+				try
+				{
+					decode( ByteBuffer.wrap( body ), data );
+				}
+				catch ( final Exception e )
+				{
+					System.err.println( e.getMessage() + " for " + url );
+					policy.failed( url );
+					callback.failed( e );
+					return;
+				}
+				policy.succeeded( url );
+				callback.loaded( new VolatileShortArray( data, true ) );
+			}
+
+			@Override
+			public void failed( final Exception e )
+			{
+				inFlight.release();
+				if ( e instanceof IOException && NetworkLoadPolicy.isMissingResponse( ( IOException ) e ) )
+				{
+					policy.missing( url );
+					callback.loaded( new VolatileShortArray( newData( dimensions ), true ) );
+					return;
+				}
+				System.err.println( e.getMessage() );
+				policy.failed( url );
+				callback.failed( e );
+			}
+		} );
+	}
+
+	/**
+	 * Batches are only requested if the server supports them. Otherwise this
+	 * returns 1.
+	 */
+	@Override
+	public int getMaxBatchSize()
+	{
+		return imgLoader.metadata.hasFeature( CellBatchProtocol.FEATURE ) ? maxBatchSize : 1;
+	}
+
+	@Override
+	public List< VolatileShortArray > loadArrays( final int timepoint, final int setup, final int level, final List< int[] > dimensions, final List< long[] > min ) throws InterruptedException
+	{
+		final ArrayList< VolatileShortArray > arrays = new ArrayList< VolatileShortArray >( dimensions.size() );
+		if ( getMaxBatchSize() <= 1 )
+		{
+			for ( int i = 0; i < dimensions.size(); ++i )
+				arrays.add( loadArray( timepoint, setup, level, dimensions.get( i ), min.get( i ) ) );
+			return arrays;
+		}
+
+		final ArrayList< short[] > data = new ArrayList< short[] >( dimensions.size() );
+		for ( final int[] dims : dimensions )
+			data.add( newData( dims ) );
+		final URL url;
 		try
 		{
-			final URL url = new URL( String.format( "%s?p=cell/%d/%d/%d/%d/%d/%d/%d/%d/%d/%d",
-					imgLoader.baseUrl,
-					index,
-					timepoint,
-					setup,
-					level,
-					dimensions[ 0 ],
-					dimensions[ 1 ],
-					dimensions[ 2 ],
-					min[ 0 ],
-					min[ 1 ],
-					min[ 2 ] ) );
-			final InputStream s = url.openStream();
-			final byte[] buf = new byte[ data.length * 2 ];
-			for ( int i = 0, l = s.read( buf, 0, buf.length ); l > 0; i += l, l = s.read( buf, i, buf.length - i ) );
-			for ( int i = 0, j = 0; i < data.length; ++i, j += 2 )
-				data[ i ] = ( short ) ( ( ( buf[ j ] & 0xff ) << 8 ) | ( buf[ j + 1 ] & 0xff ) );
-			s.close();
+			url = getBatchUrl( timepoint, setup, level, min );
 		}
 		catch ( final MalformedURLException e )
 		{
 			e.printStackTrace();
+			for ( final short[] d : data )
+				arrays.add( new VolatileShortArray( d, false ) );
+			return arrays;
 		}
-		catch ( final IOException e )
+		final Object loaded = policy.call( url, new NetworkLoadPolicy.Request< Object >()
+		{
+			@Override
+			public Object run( final URL u ) throws IOException
+			{
+				final DataInputStream in = new DataInputStream( new BufferedInputStream( NetworkLoadPolicy.openStream( u ) ) );
+				try
+				{
+					for ( final short[] d : data )
+						CellBatchProtocol.readFrame( in, d );
+				}
+				finally
+				{
+					in.close();
+				}
+				return data;
+			}
+		} );
+		if ( loaded == null && policy.isMissing( url ) )
+		{
+			// missing cells are empty
+			for ( final int[] dims : dimensions )
+				arrays.add( new VolatileShortArray( newData( dims ), true ) );
+			return arrays;
+		}
+		// failed cells are returned invalid, such that they are requested again later
+		for ( final short[] d : data )
+			arrays.add( new VolatileShortArray( d, loaded != null ) );
+		return arrays;
+	}
+
+	@Override
+	public void loadArraysAsync( final int timepoint, final int setup, final int level, final List< int[] > dimensions, final List< long[] > min, final List< LoadCallback< VolatileShortArray > > callbacks ) throws InterruptedException
+	{
+		if ( client == null || getMaxBatchSize() <= 1 )
+		{
+			for ( int i = 0; i < dimensions.size(); ++i )
+				loadArrayAsync( timepoint, setup, level, dimensions.get( i ), min.get( i ), callbacks.get( i ) );
+			return;
+		}
+
+		final URL url;
+		try
+		{
+			url = getBatchUrl( timepoint, setup, level, min );
+		}
+		catch ( final MalformedURLException e )
 		{
 			e.printStackTrace();
+			for ( final LoadCallback< VolatileShortArray > callback : callbacks )
+				callback.failed( e );
+			return;
+		}
+
+		if ( policy.isMissing( url ) )
+		{
+			for ( int i = 0; i < dimensions.size(); ++i )
+				callbacks.get( i ).loaded( new VolatileShortArray( newData( dimensions.get( i ) ), true ) );
+			return;
 		}
-		return new VolatileShortArray( data, true );
+
+		if ( policy.isBlocked( url ) )
+		{
+			final IOException e = new IOException( "recently failed: " + url );
+			for ( final LoadCallback< VolatileShortArray > callback : callbacks )
+				callback.failed( e );
+			return;
+		}
+
+		inFlight.acquire();
+		client.get( url, new AsyncHttpClient.Callback()
+		{
+			@Override
+			public void completed( final byte[] body )
+			{
+				inFlight.release();
+				final ByteBuffer buf = ByteBuffer.wrap( body );
+				int i = 0;
+				try
+				{
+					for ( ; i < dimensions.size(); ++i )
+					{
+						final short[] data = newData( dimensions.get( i ) );
+						CellBatchProtocol.readFrame( buf, data );
+						callbacks.get( i ).loaded( new VolatileShortArray( data, true ) );
+					}
+					policy.succeeded( url );
+				}
+				catch ( final Exception e )
+				{
+					System.err.println( e.getMessage() + " for " + url );
+					policy.failed( url );
+					for ( ; i < dimensions.size(); ++i )
+						callbacks.get( i ).failed( e );
+				}
+			}
+
+			@Override
+			public void failed( final Exception e )
+			{
+				inFlight.release();
+				if ( e instanceof IOException && NetworkLoadPolicy.isMissingResponse( ( IOException ) e ) )
+				{
+					policy.missing( url );
+					for ( int i = 0; i < dimensions.size(); ++i )
+						callbacks.get( i ).loaded( new VolatileShortArray( newData( dimensions.get( i ) ), true ) );
+					return;
+				}
+				System.err.println( e.getMessage() );
+				policy.failed( url );
+				for ( final LoadCallback< VolatileShortArray > callback : callbacks )
+					callback.failed( e );
+			}
+		} );
 	}
 
 	@Override
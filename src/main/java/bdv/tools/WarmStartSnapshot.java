@@ -0,0 +1,446 @@
+package bdv.tools;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
+import net.imglib2.realtransform.AffineTransform3D;
+
+import org.jdom2.Element;
+import org.jdom2.JDOMException;
+import org.jdom2.input.SAXBuilder;
+import org.jdom2.output.XMLOutputter;
+
+import bdv.ViewerImgLoader;
+import bdv.img.cache.Cache;
+import bdv.img.cache.VolatileGlobalCellCache;
+import bdv.img.cache.VolatileGlobalCellCache.CellDescription;
+import bdv.img.hdf5.DimsAndExistence;
+import bdv.img.hdf5.Hdf5ImageLoader;
+import bdv.img.hdf5.Partition;
+import bdv.img.hdf5.ViewLevelId;
+import bdv.viewer.ViewerPanel;
+import bdv.viewer.state.ViewerState;
+
+/**
+ * State of a viewer that is saved when the viewer is closed and restored when
+ * the same dataset is opened again, to reduce the time until the first
+ * complete frame is shown.
+ *
+ * <p>
+ * The snapshot comprises
+ * <ul>
+ * <li>resolved image metadata (dimensions and existence of all images of an
+ * {@link Hdf5ImageLoader}), such that they need not be probed again,
+ * <li>the {@link ViewerState} and viewer transform,
+ * <li>the cells that were in the cache, which are prefetched in the
+ * background before the first frame is rendered.
+ * </ul>
+ * The snapshot is stored next to the dataset XML in a
+ * {@link #getSnapshotFile(String) .warmstart} file. It is ignored if the
+ * dataset XML, or the length or modification time of one of the hdf5 files
+ * of the dataset changed after the snapshot was written.
+ *
+ * <p>
+ * Warm start is enabled by setting the system property
+ * {@value #WARM_START_PROPERTY} to {@code true}.
+ */
+public class WarmStartSnapshot
+{
+	public static final String WARM_START_PROPERTY = "bdv.warmStart";
+
+	/**
+	 * Maximum number of cells recorded in a snapshot.
+	 */
+	public static final int MAX_NUM_CELLS = 20000;
+
+	private static final int MAGIC = 0x42445657;
+
+	private static final int VERSION = 2;
+
+	private final long xmlLastModified;
+
+	/**
+	 * The hdf5 files of the dataset (for an {@link Hdf5ImageLoader}, the
+	 * master file and all partition files) with their length and modification
+	 * time when the snapshot was created.
+	 */
+	private final ArrayList< FileStamp > dataFiles;
+
+	private final String viewerStateXml;
+
+	private final double[] viewerTransform;
+
+	private final HashMap< ViewLevelId, DimsAndExistence > dims;
+
+	private final ArrayList< CellDescription > cells;
+
+	/**
+	 * Path, length, and modification time of a file.
+	 */
+	private static class FileStamp
+	{
+		final String path;
+
+		final long length;
+
+		final long lastModified;
+
+		FileStamp( final String path, final long length, final long lastModified )
+		{
+			this.path = path;
+			this.length = length;
+			this.lastModified = lastModified;
+		}
+
+		FileStamp( final File file )
+		{
+			this( file.getAbsolutePath(), file.length(), file.lastModified() );
+		}
+
+		/**
+		 * Whether the file still exists with the same length and
+		 * modification time.
+		 */
+		boolean isCurrent()
+		{
+			final File file = new File( path );
+			return file.isFile() && file.length() == length && file.lastModified() == lastModified;
+		}
+	}
+
+	private WarmStartSnapshot(
+			final long xmlLastModified,
+			final ArrayList< FileStamp > dataFiles,
+			final String viewerStateXml,
+			final double[] viewerTransform,
+			final HashMap< ViewLevelId, DimsAndExistence > dims,
+			final ArrayList< CellDescription > cells )
+	{
+		this.xmlLastModified = xmlLastModified;
+		this.dataFiles = dataFiles;
+		this.viewerStateXml = viewerStateXml;
+		this.viewerTransform = viewerTransform;
+		this.dims = dims;
+		this.cells = cells;
+	}
+
+	public static boolean isEnabled()
+	{
+		return Boolean.getBoolean( WARM_START_PROPERTY );
+	}
+
+	public static File getSnapshotFile( final String xmlFilename )
+	{
+		final String basename = xmlFilename.endsWith( ".xml" ) ? xmlFilename.substring( 0, xmlFilename.length() - ".xml".length() ) : xmlFilename;
+		return new File( basename + ".warmstart" );
+	}
+
+	/**
+	 * Record the current state of a viewer showing the dataset
+	 * {@code xmlFilename}.
+	 */
+	public static WarmStartSnapshot create( final String xmlFilename, final ViewerPanel viewer, final AbstractSequenceDescription< ?, ?, ? > seq )
+	{
+		final Element parent = new Element( "WarmStart" );
+		parent.addContent( viewer.stateToXml() );
+		final String viewerStateXml = new XMLOutputter().outputString( parent );
+
+		final AffineTransform3D transform = new AffineTransform3D();
+		viewer.getState().getViewerTransform( transform );
+
+		final Object imgLoader = seq.getImgLoader();
+		final HashMap< ViewLevelId, DimsAndExistence > dims = ( imgLoader instanceof Hdf5ImageLoader )
+				? ( ( Hdf5ImageLoader ) imgLoader ).getCachedDimsAndExistence()
+				: new HashMap< ViewLevelId, DimsAndExistence >();
+
+		final ArrayList< FileStamp > dataFiles = new ArrayList< FileStamp >();
+		if ( imgLoader instanceof Hdf5ImageLoader )
+		{
+			final Hdf5ImageLoader hdf5Loader = ( Hdf5ImageLoader ) imgLoader;
+			dataFiles.add( new FileStamp( hdf5Loader.getHdf5File() ) );
+			for ( final Partition partition : hdf5Loader.getPartitions() )
+				dataFiles.add( new FileStamp( new File( partition.getPath() ) ) );
+		}
+
+		final VolatileGlobalCellCache< ? > cache = getCache( seq );
+		final ArrayList< CellDescription > cells = ( cache != null )
+				? cache.getLoadedCells( MAX_NUM_CELLS )
+				: new ArrayList< CellDescription >();
+
+		return new WarmStartSnapshot( new File( xmlFilename ).lastModified(), dataFiles, viewerStateXml, transform.getRowPackedCopy(), dims, cells );
+	}
+
+	/**
+	 * Load the snapshot for the dataset {@code xmlFilename}.
+	 *
+	 * @return the snapshot, or null if there is no valid snapshot for the
+	 *         current version of the dataset XML and hdf5 files.
+	 */
+	public static WarmStartSnapshot load( final String xmlFilename )
+	{
+		final File file = getSnapshotFile( xmlFilename );
+		if ( !file.isFile() )
+			return null;
+		try
+		{
+			// Read the whole snapshot into memory, such that length fields can
+			// be checked against the number of remaining bytes before
+			// allocating anything (see readLength()).
+			final long fileLength = file.length();
+			if ( fileLength > Integer.MAX_VALUE )
+				return null;
+			final byte[] bytes = new byte[ ( int ) fileLength ];
+			final DataInputStream fileIn = new DataInputStream( new FileInputStream( file ) );
+			try
+			{
+				fileIn.readFully( bytes );
+			}
+			finally
+			{
+				fileIn.close();
+			}
+
+			final DataInputStream in = new DataInputStream( new ByteArrayInputStream( bytes ) );
+			try
+			{
+				if ( in.readInt() != MAGIC || in.readInt() != VERSION )
+					return null;
+				final long xmlLastModified = in.readLong();
+				if ( xmlLastModified != new File( xmlFilename ).lastModified() )
+					return null;
+
+				// path (at least 2 bytes), length, and modification time
+				final int numDataFiles = readLength( in, 2 + 8 + 8 );
+				final ArrayList< FileStamp > dataFiles = new ArrayList< FileStamp >();
+				for ( int i = 0; i < numDataFiles; ++i )
+				{
+					final FileStamp f = new FileStamp( in.readUTF(), in.readLong(), in.readLong() );
+					if ( !f.isCurrent() )
+						return null;
+					dataFiles.add( f );
+				}
+
+				final byte[] viewerStateBytes = new byte[ readLength( in, 1 ) ];
+				in.readFully( viewerStateBytes );
+				final String viewerStateXml = new String( viewerStateBytes, "UTF-8" );
+				final double[] viewerTransform = new double[ 12 ];
+				for ( int i = 0; i < 12; ++i )
+					viewerTransform[ i ] = in.readDouble();
+
+				// id, existence, and dimensions (at least the length field)
+				final int numDims = readLength( in, 12 + 1 + 4 );
+				final HashMap< ViewLevelId, DimsAndExistence > dims = new HashMap< ViewLevelId, DimsAndExistence >( numDims * 2 );
+				for ( int i = 0; i < numDims; ++i )
+				{
+					final ViewLevelId id = new ViewLevelId( in.readInt(), in.readInt(), in.readInt() );
+					final boolean exists = in.readBoolean();
+					final long[] dimensions = readLongs( in );
+					dims.put( id, new DimsAndExistence( dimensions, exists ) );
+				}
+
+				// timepoint, setup, level, index, dimensions, and min (at least
+				// the length fields)
+				final int numCells = readLength( in, 16 + 4 + 4 );
+				final ArrayList< CellDescription > cells = new ArrayList< CellDescription >( numCells );
+				for ( int i = 0; i < numCells; ++i )
+				{
+					final int timepoint = in.readInt();
+					final int setup = in.readInt();
+					final int level = in.readInt();
+					final int index = in.readInt();
+					final int[] dimensions = readInts( in );
+					final long[] min = readLongs( in );
+					cells.add( new CellDescription( timepoint, setup, level, index, dimensions, min ) );
+				}
+
+				return new WarmStartSnapshot( xmlLastModified, dataFiles, viewerStateXml, viewerTransform, dims, cells );
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		catch ( final IOException e )
+		{
+			e.printStackTrace();
+			return null;
+		}
+		// a corrupt snapshot must not prevent the dataset from being opened
+		catch ( final RuntimeException e )
+		{
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	public void save( final File file ) throws IOException
+	{
+		final DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file ) ) );
+		try
+		{
+			out.writeInt( MAGIC );
+			out.writeInt( VERSION );
+			out.writeLong( xmlLastModified );
+
+			out.writeInt( dataFiles.size() );
+			for ( final FileStamp f : dataFiles )
+			{
+				out.writeUTF( f.path );
+				out.writeLong( f.length );
+				out.writeLong( f.lastModified );
+			}
+
+			final byte[] viewerStateBytes = viewerStateXml.getBytes( "UTF-8" );
+			out.writeInt( viewerStateBytes.length );
+			out.write( viewerStateBytes );
+			for ( int i = 0; i < 12; ++i )
+				out.writeDouble( viewerTransform[ i ] );
+
+			out.writeInt( dims.size() );
+			for ( final Map.Entry< ViewLevelId, DimsAndExistence > entry : dims.entrySet() )
+			{
+				final ViewLevelId id = entry.getKey();
+				out.writeInt( id.getTimePointId() );
+				out.writeInt( id.getViewSetupId() );
+				out.writeInt( id.getLevel() );
+				out.writeBoolean( entry.getValue().exists() );
+				writeLongs( out, entry.getValue().getDimensions() );
+			}
+
+			out.writeInt( cells.size() );
+			for ( final CellDescription c : cells )
+			{
+				out.writeInt( c.timepoint );
+				out.writeInt( c.setup );
+				out.writeInt( c.level );
+				out.writeInt( c.index );
+				writeInts( out, c.dimensions );
+				writeLongs( out, c.min );
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * Add the recorded image metadata to the image loader of {@code seq}.
+	 * This should be done before sources are created for the dataset.
+	 */
+	public void restoreMetadata( final AbstractSequenceDescription< ?, ?, ? > seq )
+	{
+		final Object imgLoader = seq.getImgLoader();
+		if ( imgLoader instanceof Hdf5ImageLoader && !dims.isEmpty() )
+			( ( Hdf5ImageLoader ) imgLoader ).addCachedDimsAndExistence( dims );
+	}
+
+	/**
+	 * Enqueue the recorded cells for loading by the fetcher threads of the
+	 * cache of {@code seq}. This returns immediately, cells are loaded in the
+	 * background.
+	 */
+	public void prefetchCells( final AbstractSequenceDescription< ?, ?, ? > seq )
+	{
+		final VolatileGlobalCellCache< ? > cache = getCache( seq );
+		if ( cache != null && !cells.isEmpty() )
+			cache.prefetch( cells );
+	}
+
+	/**
+	 * Restore the recorded {@link ViewerState} and viewer transform.
+	 */
+	public void restoreViewerState( final ViewerPanel viewer )
+	{
+		try
+		{
+			final Element parent = new SAXBuilder().build( new StringReader( viewerStateXml ) ).getRootElement();
+			viewer.stateFromXml( parent );
+		}
+		catch ( final JDOMException e )
+		{
+			e.printStackTrace();
+		}
+		catch ( final IOException e )
+		{
+			e.printStackTrace();
+		}
+		final AffineTransform3D transform = new AffineTransform3D();
+		transform.set( viewerTransform );
+		viewer.setCurrentViewerTransform( transform );
+	}
+
+	public int numCells()
+	{
+		return cells.size();
+	}
+
+	private static VolatileGlobalCellCache< ? > getCache( final AbstractSequenceDescription< ?, ?, ? > seq )
+	{
+		final Object imgLoader = seq.getImgLoader();
+		if ( !( imgLoader instanceof ViewerImgLoader ) )
+			return null;
+		final Cache cache = ( ( ViewerImgLoader< ?, ? > ) imgLoader ).getCache();
+		return ( cache instanceof VolatileGlobalCellCache ) ? ( VolatileGlobalCellCache< ? > ) cache : null;
+	}
+
+	private static void writeInts( final DataOutputStream out, final int[] values ) throws IOException
+	{
+		out.writeInt( values.length );
+		for ( final int v : values )
+			out.writeInt( v );
+	}
+
+	private static void writeLongs( final DataOutputStream out, final long[] values ) throws IOException
+	{
+		out.writeInt( values.length );
+		for ( final long v : values )
+			out.writeLong( v );
+	}
+
+	/**
+	 * Read a length field, and check that the remaining bytes of the snapshot
+	 * can hold that many elements of at least {@code minBytesPerElement}
+	 * bytes each. {@code in} must read from a {@link ByteArrayInputStream}, for
+	 * which {@link DataInputStream#available()} is the exact number of
+	 * remaining bytes.
+	 *
+	 * @throws IOException
+	 *             if the length is negative or too large, i.e., the snapshot
+	 *             is corrupt.
+	 */
+	private static int readLength( final DataInputStream in, final int minBytesPerElement ) throws IOException
+	{
+		final int length = in.readInt();
+		if ( length < 0 || ( long ) length * minBytesPerElement > in.available() )
+			throw new IOException( "corrupt snapshot: invalid length " + length );
+		return length;
+	}
+
+	private static int[] readInts( final DataInputStream in ) throws IOException
+	{
+		final int[] values = new int[ readLength( in, 4 ) ];
+		for ( int i = 0; i < values.length; ++i )
+			values[ i ] = in.readInt();
+		return values;
+	}
+
+	private static long[] readLongs( final DataInputStream in ) throws IOException
+	{
+		final long[] values = new long[ readLength( in, 8 ) ];
+		for ( int i = 0; i < values.length; ++i )
+			values[ i ] = in.readLong();
+		return values;
+	}
+}
@@ -9,6 +9,7 @@ import bdv.viewer.Interpolation;
 import bdv.viewer.Source;
 import bdv.viewer.render.DefaultMipmapOrdering;
 import bdv.viewer.render.MipmapOrdering;
+import bdv.viewer.render.PrepareTimepoint;
 import bdv.viewer.render.SetCacheHints;
 
 /**
@@ -23,7 +24,7 @@ import bdv.viewer.render.SetCacheHints;
  * @param <T>
  *            the type of the original source.
  */
-public class TransformedSource< T > implements Source< T >, MipmapOrdering, SetCacheHints
+public class TransformedSource< T > implements Source< T >, MipmapOrdering, SetCacheHints, PrepareTimepoint
 {
 	protected final Source< T > source;
 
@@ -255,6 +256,21 @@ public class TransformedSource< T > implements Source< T >, MipmapOrdering, SetC
 		return sourceMipmapOrdering.getMipmapHints( composed, timepoint, previousTimepoint );
 	}
 
+	@Override
+	public boolean isTimepointPrepared( final int t )
+	{
+		return !PrepareTimepoint.class.isInstance( source ) || ( ( PrepareTimepoint ) source ).isTimepointPrepared( t );
+	}
+
+	@Override
+	public void prepareTimepoint( final int t, final Runnable whenPrepared )
+	{
+		if ( PrepareTimepoint.class.isInstance( source ) )
+			( ( PrepareTimepoint ) source ).prepareTimepoint( t, whenPrepared );
+		else
+			whenPrepared.run();
+	}
+
 	public Source< T > getWrappedSource()
 	{
 		return source;
@@ -13,6 +13,8 @@ import java.awt.Color;
 import java.awt.Font;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
 import java.awt.event.MouseEvent;
@@ -26,6 +28,7 @@ import java.util.concurrent.Executors;
 
 import javax.swing.JPanel;
 import javax.swing.JSlider;
+import javax.swing.Timer;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 
@@ -56,6 +59,7 @@ import bdv.viewer.overlay.MultiBoxOverlayRenderer;
 import bdv.viewer.overlay.ScaleBarOverlayRenderer;
 import bdv.viewer.overlay.SourceInfoOverlayRenderer;
 import bdv.viewer.render.MultiResolutionRenderer;
+import bdv.viewer.render.ScreenScaleController;
 import bdv.viewer.render.TransformAwareBufferedImageOverlayRenderer;
 import bdv.viewer.state.SourceGroup;
 import bdv.viewer.state.SourceState;
@@ -180,6 +184,21 @@ public class ViewerPanel extends JPanel implements OverlayRenderer, TransformLis
 	 */
 	protected final MessageOverlayAnimator msgOverlay;
 
+	/**
+	 * Interval in milliseconds between repaints while overlays are animated
+	 * (about 60 fps).
+	 */
+	public static final int OVERLAY_ANIMATION_INTERVAL_MILLIS = 16;
+
+	/**
+	 * Repaints the {@link #display} while {@link #overlayAnimators} or the
+	 * {@link #multiBoxOverlayRenderer} highlight are in progress. Such
+	 * repaints only redraw the overlays on top of the cached image of the
+	 * {@link #renderTarget}. They do not trigger rendering, which is only done
+	 * by the {@link #painterThread} on {@link #requestRepaint()}.
+	 */
+	protected final Timer overlayAnimationTimer;
+
 	/**
 	 * Optional parameters for {@link ViewerPanel}.
 	 */
@@ -199,6 +218,8 @@ public class ViewerPanel extends JPanel implements OverlayRenderer, TransformLis
 
 		private boolean useVolatileIfAvailable = true;
 
+		private boolean dynamicScreenScale = true;
+
 		private MessageOverlayAnimator msgOverlay = new MessageOverlayAnimator( 800 );
 
 		public Options width( final int w )
@@ -243,6 +264,12 @@ public class ViewerPanel extends JPanel implements OverlayRenderer, TransformLis
 			return this;
 		}
 
+		public Options dynamicScreenScale( final boolean d )
+		{
+			dynamicScreenScale = d;
+			return this;
+		}
+
 		public Options msgOverlay( final MessageOverlayAnimator o )
 		{
 			msgOverlay = o;
@@ -311,7 +338,8 @@ public class ViewerPanel extends JPanel implements OverlayRenderer, TransformLis
 		imageRenderer = new MultiResolutionRenderer(
 				renderTarget, painterThread,
 				optional.screenScales, optional.targetRenderNanos, optional.doubleBuffered,
-				optional.numRenderingThreads, renderingExecutorService, optional.useVolatileIfAvailable, cache );
+				optional.numRenderingThreads, renderingExecutorService, optional.useVolatileIfAvailable,
+				optional.dynamicScreenScale, cache );
 
 		mouseCoordinates = new MouseCoordinateListener();
 		display.addHandler( mouseCoordinates );
@@ -346,6 +374,16 @@ public class ViewerPanel extends JPanel implements OverlayRenderer, TransformLis
 		overlayAnimators.add( msgOverlay );
 		overlayAnimators.add( new TextOverlayAnimator( "Press <F1> for help.", 3000, TextPosition.CENTER ) );
 
+		overlayAnimationTimer = new Timer( OVERLAY_ANIMATION_INTERVAL_MILLIS, new ActionListener()
+		{
+			@Override
+			public void actionPerformed( final ActionEvent e )
+			{
+				display.repaint();
+			}
+		} );
+		overlayAnimationTimer.setCoalesce( true );
+
 		display.addComponentListener( new ComponentAdapter()
 		{
 			@Override
@@ -461,7 +499,7 @@ public class ViewerPanel extends JPanel implements OverlayRenderer, TransformLis
 
 		g.setFont( new Font( "Monospaced", Font.PLAIN, 12 ) );
 		g.setColor( Color.white );
-		g.drawString( mousePosGlobalString, ( int ) g.getClipBounds().getWidth() - 170, 25 );
+		g.drawString( mousePosGlobalString, display.getWidth() - 170, 25 );
 
 		boolean requiresRepaint = multiBoxOverlayRenderer.isHighlightInProgress();
 
@@ -476,8 +514,14 @@ public class ViewerPanel extends JPanel implements OverlayRenderer, TransformLis
 		}
 		overlayAnimators.removeAll( overlayAnimatorsToRemove );
 
+		// schedule the next animation frame, instead of repainting immediately
 		if ( requiresRepaint )
-			display.repaint();
+		{
+			if ( !overlayAnimationTimer.isRunning() )
+				overlayAnimationTimer.start();
+		}
+		else
+			overlayAnimationTimer.stop();
 	}
 
 	@Override
@@ -687,6 +731,18 @@ public class ViewerPanel extends JPanel implements OverlayRenderer, TransformLis
 		return state.copy();
 	}
 
+	/**
+	 * Get the controller that adapts the screen scale of the renderer. It
+	 * provides render latency statistics per screen scale and number of
+	 * visible sources, and allows to change the frame deadline.
+	 *
+	 * @return the screen scale controller of the renderer.
+	 */
+	public ScreenScaleController getScreenScaleController()
+	{
+		return imageRenderer.getScreenScaleController();
+	}
+
 	/**
 	 * Get the viewer canvas.
 	 *
@@ -908,6 +964,7 @@ public class ViewerPanel extends JPanel implements OverlayRenderer, TransformLis
 	 */
 	public void stop()
 	{
+		overlayAnimationTimer.stop();
 		painterThread.interrupt();
 		renderingExecutorService.shutdown();
 	}
@@ -152,6 +152,7 @@ public class VisibilityAndGrouping
 			return;
 
 		state.getSources().get( sourceIndex ).setActive( isActive );
+		state.modified();
 		update( SOURCE_ACTVITY_CHANGED );
 		checkVisibilityChange();
 	}
@@ -202,6 +203,7 @@ public class VisibilityAndGrouping
 			return;
 
 		state.getSourceGroups().get( groupIndex ).setActive( isActive );
+		state.modified();
 		update( GROUP_ACTIVITY_CHANGED );
 		checkVisibilityChange();
 	}
@@ -212,6 +214,7 @@ public class VisibilityAndGrouping
 			return;
 
 		state.getSourceGroups().get( groupIndex ).setName( name );
+		state.modified();
 		update( GROUP_NAME_CHANGED );
 	}
 
@@ -221,6 +224,7 @@ public class VisibilityAndGrouping
 			return;
 
 		state.getSourceGroups().get( groupIndex ).addSource( sourceIndex );
+		state.modified();
 		update( SOURCE_TO_GROUP_ASSIGNMENT_CHANGED );
 		checkVisibilityChange();
 	}
@@ -231,6 +235,7 @@ public class VisibilityAndGrouping
 			return;
 
 		state.getSourceGroups().get( groupIndex ).removeSource( sourceIndex );
+		state.modified();
 		update( SOURCE_TO_GROUP_ASSIGNMENT_CHANGED );
 		checkVisibilityChange();
 	}
@@ -84,89 +84,97 @@ public class ScaleBarOverlayRenderer
 
 	private static final String[] lengthUnits = { "nm", "µm", "mm", "m", "km" };
 
+	/**
+	 * The {@link ViewerState#snapshot() snapshot} from which the overlay was
+	 * last updated. Nothing needs to be recomputed if it is unchanged.
+	 */
+	private ViewerState previousViewerState = null;
+
 	/**
 	 * Update data to show in the overlay.
 	 */
 	public synchronized void setViewerState( final ViewerState state )
 	{
-		synchronized ( state )
+		final ViewerState snapshot = state.snapshot();
+		if ( snapshot == previousViewerState )
+			return;
+		previousViewerState = snapshot;
+
+		final List< SourceState< ? > > sources = snapshot.getSources();
+		if ( ! sources.isEmpty() )
 		{
-			final List< SourceState< ? > > sources = state.getSources();
-			if ( ! sources.isEmpty() )
+			final Source< ? > spimSource = sources.get( snapshot.getCurrentSource() ).getSpimSource();
+			final VoxelDimensions voxelDimensions = spimSource.getVoxelDimensions();
+			if ( voxelDimensions == null )
 			{
-				final Source< ? > spimSource = sources.get( state.getCurrentSource() ).getSpimSource();
-				final VoxelDimensions voxelDimensions = spimSource.getVoxelDimensions();
-				if ( voxelDimensions == null )
-				{
-					drawScaleBar = false;
-					return;
-				}
-				drawScaleBar = true;
+				drawScaleBar = false;
+				return;
+			}
+			drawScaleBar = true;
 
-				state.getViewerTransform( transform );
+			snapshot.getViewerTransform( transform );
 
-				final int t = state.getCurrentTimepoint();
-				spimSource.getSourceTransform( t, 0, sourceTransform );
-				transform.concatenate( sourceTransform );
-				final double sizeOfOnePixel = voxelDimensions.dimension( 0 ) / Affine3DHelpers.extractScale( transform, 0 );
+			final int t = snapshot.getCurrentTimepoint();
+			spimSource.getSourceTransform( t, 0, sourceTransform );
+			transform.concatenate( sourceTransform );
+			final double sizeOfOnePixel = voxelDimensions.dimension( 0 ) / Affine3DHelpers.extractScale( transform, 0 );
 
-				// find good scaleBarLength and corresponding scale value
-				final double sT = targetScaleBarLength * sizeOfOnePixel;
-				final double pot = Math.floor( Math.log10( sT ) );
-				final double l2 =  sT / Math.pow( 10, pot );
-				final int fracs = ( int ) ( 0.1 * l2 * subdivPerPowerOfTen );
-				final double scale1 = ( fracs > 0 ) ? Math.pow( 10, pot + 1 ) * fracs / subdivPerPowerOfTen : Math.pow( 10, pot );
-				final double scale2 = ( fracs == 3 ) ? Math.pow( 10, pot + 1 ) : Math.pow( 10, pot + 1 ) * ( fracs + 1 ) / subdivPerPowerOfTen;
+			// find good scaleBarLength and corresponding scale value
+			final double sT = targetScaleBarLength * sizeOfOnePixel;
+			final double pot = Math.floor( Math.log10( sT ) );
+			final double l2 =  sT / Math.pow( 10, pot );
+			final int fracs = ( int ) ( 0.1 * l2 * subdivPerPowerOfTen );
+			final double scale1 = ( fracs > 0 ) ? Math.pow( 10, pot + 1 ) * fracs / subdivPerPowerOfTen : Math.pow( 10, pot );
+			final double scale2 = ( fracs == 3 ) ? Math.pow( 10, pot + 1 ) : Math.pow( 10, pot + 1 ) * ( fracs + 1 ) / subdivPerPowerOfTen;
 
-				final double lB1 = scale1 / sizeOfOnePixel;
-				final double lB2 = scale2 / sizeOfOnePixel;
+			final double lB1 = scale1 / sizeOfOnePixel;
+			final double lB2 = scale2 / sizeOfOnePixel;
 
-				if ( Math.abs( lB1 - targetScaleBarLength ) < Math.abs( lB2 - targetScaleBarLength ) )
-				{
-					scale = scale1;
-					scaleBarLength = lB1;
-				}
-				else
+			if ( Math.abs( lB1 - targetScaleBarLength ) < Math.abs( lB2 - targetScaleBarLength ) )
+			{
+				scale = scale1;
+				scaleBarLength = lB1;
+			}
+			else
+			{
+				scale = scale2;
+				scaleBarLength = lB2;
+			}
+
+			// If unit is a known unit (such as nm) then try to modify scale
+			// and unit such that the displayed string is short.
+			// For example, replace "0.021 µm" by "21 nm".
+			String scaleUnit = voxelDimensions.unit();
+			if ( "um".equals( scaleUnit ) )
+				scaleUnit = "µm";
+			int scaleUnitIndex = -1;
+			for ( int i = 0; i < lengthUnits.length; ++i )
+				if ( lengthUnits[ i ].equals( scaleUnit ) )
 				{
-					scale = scale2;
-					scaleBarLength = lB2;
+					scaleUnitIndex = i;
+					break;
 				}
-
-				// If unit is a known unit (such as nm) then try to modify scale
-				// and unit such that the displayed string is short.
-				// For example, replace "0.021 µm" by "21 nm".
-				String scaleUnit = voxelDimensions.unit();
-				if ( "um".equals( scaleUnit ) )
-					scaleUnit = "µm";
-				int scaleUnitIndex = -1;
-				for ( int i = 0; i < lengthUnits.length; ++i )
-					if ( lengthUnits[ i ].equals( scaleUnit ) )
-					{
-						scaleUnitIndex = i;
-						break;
-					}
-				if ( scaleUnitIndex >= 0 )
+			if ( scaleUnitIndex >= 0 )
+			{
+				int shifts = ( int ) Math.floor( ( Math.log10( scale ) + 1 ) / 3 );
+				int shiftedIndex = scaleUnitIndex + shifts;
+				if ( shiftedIndex < 0 )
 				{
-					int shifts = ( int ) Math.floor( ( Math.log10( scale ) + 1 ) / 3 );
-					int shiftedIndex = scaleUnitIndex + shifts;
-					if ( shiftedIndex < 0 )
-					{
-						shifts = -scaleUnitIndex;
-						shiftedIndex = 0;
-					}
-					else if ( shiftedIndex >= lengthUnits.length )
-					{
-						shifts = lengthUnits.length - 1 - scaleUnitIndex;
-						shiftedIndex = lengthUnits.length - 1;
-					}
-
-					scale = scale / Math.pow( 1000, shifts );
-					unit = lengthUnits[ shiftedIndex ];
+					shifts = -scaleUnitIndex;
+					shiftedIndex = 0;
 				}
-				else
+				else if ( shiftedIndex >= lengthUnits.length )
 				{
-					unit = scaleUnit;
+					shifts = lengthUnits.length - 1 - scaleUnitIndex;
+					shiftedIndex = lengthUnits.length - 1;
 				}
+
+				scale = scale / Math.pow( 1000, shifts );
+				unit = lengthUnits[ shiftedIndex ];
+			}
+			else
+			{
+				unit = scaleUnit;
 			}
 		}
 	}
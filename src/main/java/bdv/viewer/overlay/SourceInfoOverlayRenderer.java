@@ -34,27 +34,35 @@ public class SourceInfoOverlayRenderer
 		g.drawString( timepointString, ( int ) g.getClipBounds().getWidth() - 170, 12 );
 	}
 
+	/**
+	 * The {@link ViewerState#snapshot() snapshot} from which the overlay was
+	 * last updated. Nothing needs to be recomputed if it is unchanged.
+	 */
+	private ViewerState previousViewerState = null;
+
 	/**
 	 * Update data to show in the overlay.
 	 */
 	public synchronized void setViewerState( final ViewerState state )
 	{
-		synchronized ( state )
-		{
-			final List< SourceState< ? > > sources = state.getSources();
-			if ( ! sources.isEmpty() )
-				sourceName = sources.get( state.getCurrentSource() ).getSpimSource().getName();
-			else
-				sourceName = "";
-
-			final List< SourceGroup > groups = state.getSourceGroups();
-			final DisplayMode mode = state.getDisplayMode();
-			if ( ( mode == GROUP || mode == FUSEDGROUP ) && ! groups.isEmpty() )
-				groupName = groups.get( state.getCurrentGroup() ).getName();
-			else
-				groupName = "";
-
-			timepointString = String.format( "t = %d", state.getCurrentTimepoint() );
-		}
+		final ViewerState snapshot = state.snapshot();
+		if ( snapshot == previousViewerState )
+			return;
+		previousViewerState = snapshot;
+
+		final List< SourceState< ? > > sources = snapshot.getSources();
+		if ( ! sources.isEmpty() )
+			sourceName = sources.get( snapshot.getCurrentSource() ).getSpimSource().getName();
+		else
+			sourceName = "";
+
+		final List< SourceGroup > groups = snapshot.getSourceGroups();
+		final DisplayMode mode = snapshot.getDisplayMode();
+		if ( ( mode == GROUP || mode == FUSEDGROUP ) && ! groups.isEmpty() )
+			groupName = groups.get( snapshot.getCurrentGroup() ).getName();
+		else
+			groupName = "";
+
+		timepointString = String.format( "t = %d", snapshot.getCurrentTimepoint() );
 	}
 }
@@ -6,19 +6,20 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 
 import net.imglib2.Dimensions;
-import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessible;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.RealRandomAccessible;
 import net.imglib2.Volatile;
 import net.imglib2.converter.Converter;
 import net.imglib2.display.screenimage.awt.ARGBScreenImage;
+import net.imglib2.realtransform.AffineGet;
+import net.imglib2.realtransform.AffineRandomAccessible;
 import net.imglib2.realtransform.AffineTransform3D;
-import net.imglib2.realtransform.RealViews;
 import net.imglib2.type.numeric.ARGBType;
 import net.imglib2.ui.PainterThread;
 import net.imglib2.ui.RenderTarget;
@@ -29,6 +30,7 @@ import net.imglib2.ui.util.GuiUtil;
 import bdv.img.cache.Cache;
 import bdv.img.cache.CachedCellImg;
 import bdv.img.cache.LoadingStrategy;
+import bdv.img.cache.VolatileImgCells;
 import bdv.viewer.Interpolation;
 import bdv.viewer.Source;
 import bdv.viewer.render.MipmapOrdering.Level;
@@ -134,6 +136,14 @@ public class MultiResolutionRenderer
 	 */
 	protected final HashMap< BufferedImage, Integer > bufferedImageToRenderId;
 
+	/**
+	 * The {@link BufferedImage}s that were handed to the {@link #display} and
+	 * not yet returned by it. These must stay in
+	 * {@link #bufferedImageToRenderId}, such that their double-buffer index is
+	 * recycled when they are returned.
+	 */
+	protected final HashSet< BufferedImage > displayedBufferedImages;
+
 	/**
 	 * Used to render an individual source. One image per screen resolution and
 	 * visible source. First index is screen scale, second index is index in
@@ -167,9 +177,24 @@ public class MultiResolutionRenderer
 	 * A scale factor of 1 means 1 pixel in the screen image is displayed as 1
 	 * pixel on the canvas, a scale factor of 0.5 means 1 pixel in the screen
 	 * image is displayed as 2 pixel on the canvas, etc.
+	 * <p>
+	 * If {@link #dynamicScreenScale} is enabled, the last entry is the
+	 * dynamic screen scale, which changes at runtime.
 	 */
 	protected final double[] screenScales;
 
+	/**
+	 * Whether a dynamic screen scale is used. If enabled, the renderer starts
+	 * new frames at an arbitrary scale factor, which is chosen by the
+	 * {@link #screenScaleController} such that rendering is predicted to just
+	 * meet the frame deadline. From there, rendering proceeds to the next
+	 * finer of the fixed screen scales, until full resolution is reached.
+	 * The dynamic screen scale is the last entry of {@link #screenScales}. Its
+	 * images share storage with the full resolution images, like all other
+	 * screen scales.
+	 */
+	protected final boolean dynamicScreenScale;
+
 	/**
 	 * The scale transformation from viewer to {@link #screenImages screen
 	 * image}. Each transformations corresponds to a {@link #screenScales screen
@@ -178,22 +203,25 @@ public class MultiResolutionRenderer
 	protected AffineTransform3D[] screenScaleTransforms;
 
 	/**
-	 * If the rendering time (in nanoseconds) for the (currently) highest scaled
-	 * screen image is above this threshold, increase the
-	 * {@link #maxScreenScaleIndex index} of the highest screen scale to use.
-	 * Similarly, if the rendering time for the (currently) second-highest
-	 * scaled screen image is below this threshold, decrease the
-	 * {@link #maxScreenScaleIndex index} of the highest screen scale to use.
+	 * Target rendering time (in nanoseconds) for the first frame after a
+	 * change. This is the initial frame deadline of the
+	 * {@link #screenScaleController}.
 	 */
 	protected final long targetRenderNanos;
 
+	/**
+	 * Records render times per screen scale and number of visible sources,
+	 * and chooses {@link #maxScreenScaleIndex}.
+	 */
+	protected final ScreenScaleController screenScaleController;
+
 	/**
 	 * The index of the (coarsest) screen scale with which to start rendering.
 	 * Once this level is painted, rendering proceeds to lower screen scales
 	 * until index 0 (full resolution) has been reached. While rendering, the
-	 * maxScreenScaleIndex is adapted such that it is the highest index for
-	 * which rendering in {@link #targetRenderNanos} nanoseconds is still
-	 * possible.
+	 * maxScreenScaleIndex is adapted by the {@link #screenScaleController}
+	 * such that it is the lowest index for which rendering is predicted to
+	 * meet the frame deadline.
 	 */
 	protected int maxScreenScaleIndex;
 
@@ -241,6 +269,43 @@ public class MultiResolutionRenderer
 	 */
 	protected int previousTimepoint;
 
+	/**
+	 * Whether new timepoints are {@link PrepareTimepoint prepared} in the
+	 * background before they are rendered.
+	 */
+	protected volatile boolean prepareTimepointsInBackground = true;
+
+	/**
+	 * Requests a repaint when a timepoint is {@link PrepareTimepoint
+	 * prepared}.
+	 */
+	private final Runnable repaintWhenPrepared = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			requestRepaint();
+		}
+	};
+
+	/**
+	 * The last projector created for each {@link #screenImages screen image}.
+	 * If only the viewer transform changed since, it is reused (see
+	 * {@link #createProjector(ViewerState, int, ARGBScreenImage)}).
+	 */
+	protected final HashMap< ARGBScreenImage, FrameProjector > frameProjectors = new HashMap< ARGBScreenImage, FrameProjector >();
+
+	/**
+	 * The {@link FrameProjector} that was last created or reused, and the
+	 * screen image it renders to. The mask arrays and {@link #renderImages}
+	 * contain what this projector rendered, so if the next frame is a pure
+	 * translation of it, its pixels can be shifted instead of rendered again
+	 * (see {@link #getShift(ViewerState)}).
+	 */
+	protected FrameProjector lastFrameProjector;
+
+	protected ARGBScreenImage lastScreenImage;
+
 	// TODO: should be settable
 	protected long[] iobudget = new long[] { 100l * 1000000l,  10l * 1000000l };
 
@@ -287,22 +352,82 @@ public class MultiResolutionRenderer
 			final ExecutorService renderingExecutorService,
 			final boolean useVolatileIfAvailable,
 			final Cache cache )
+	{
+		this( display, painterThread, screenScales, targetRenderNanos, doubleBuffered, numRenderingThreads, renderingExecutorService, useVolatileIfAvailable, false, cache );
+	}
+
+	/**
+	 * @param display
+	 *            The canvas that will display the images we render.
+	 * @param painterThread
+	 *            Thread that triggers repainting of the display. Requests for
+	 *            repainting are send there.
+	 * @param screenScales
+	 *            Scale factors from the viewer canvas to screen images of
+	 *            different resolutions, from finest to coarsest. A scale
+	 *            factor of 1 means 1 pixel in the screen image is displayed as
+	 *            1 pixel on the canvas, a scale factor of 0.5 means 1 pixel in
+	 *            the screen image is displayed as 2 pixel on the canvas, etc.
+	 * @param targetRenderNanos
+	 *            Target rendering time in nanoseconds. The rendering time for
+	 *            the coarsest rendered scale should be below this threshold.
+	 * @param doubleBuffered
+	 *            Whether to use double buffered rendering.
+	 * @param numRenderingThreads
+	 *            How many threads to use for rendering.
+	 * @param renderingExecutorService
+	 *            if non-null, this is used for rendering. Note, that it is
+	 *            still important to supply the numRenderingThreads parameter,
+	 *            because that is used to determine into how many sub-tasks
+	 *            rendering is split.
+	 * @param useVolatileIfAvailable
+	 *            whether volatile versions of sources should be used if
+	 *            available.
+	 * @param dynamicScreenScale
+	 *            whether to start rendering at a dynamically chosen scale
+	 *            factor between the given screen scales (see
+	 *            {@link #dynamicScreenScale}).
+	 * @param cache
+	 *            the cache controls IO budgeting and fetcher queue.
+	 */
+	public MultiResolutionRenderer(
+			final RenderTarget display,
+			final PainterThread painterThread,
+			final double[] screenScales,
+			final long targetRenderNanos,
+			final boolean doubleBuffered,
+			final int numRenderingThreads,
+			final ExecutorService renderingExecutorService,
+			final boolean useVolatileIfAvailable,
+			final boolean dynamicScreenScale,
+			final Cache cache )
 	{
 		this.display = wrapTransformAwareRenderTarget( display );
 		this.painterThread = painterThread;
 		projector = null;
 		currentScreenScaleIndex = -1;
-		this.screenScales = screenScales.clone();
+		this.dynamicScreenScale = dynamicScreenScale;
+		if ( dynamicScreenScale )
+		{
+			// the dynamic screen scale initially is the coarsest screen scale
+			this.screenScales = Arrays.copyOf( screenScales, screenScales.length + 1 );
+			this.screenScales[ screenScales.length ] = screenScales[ screenScales.length - 1 ];
+		}
+		else
+			this.screenScales = screenScales.clone();
+		final int numScreenScales = this.screenScales.length;
 		this.doubleBuffered = doubleBuffered;
 		renderIdQueue = new ArrayDeque< Integer >();
 		bufferedImageToRenderId = new HashMap< BufferedImage, Integer >();
-		renderImages = new ARGBScreenImage[ screenScales.length ][ 0 ];
+		displayedBufferedImages = new HashSet< BufferedImage >();
+		renderImages = new ARGBScreenImage[ numScreenScales ][ 0 ];
 		renderMaskArrays = new byte[ 0 ][];
-		screenImages = new ARGBScreenImage[ screenScales.length ][ 3 ];
-		bufferedImages = new BufferedImage[ screenScales.length ][ 3 ];
-		screenScaleTransforms = new AffineTransform3D[ screenScales.length ];
+		screenImages = new ARGBScreenImage[ numScreenScales ][ 3 ];
+		bufferedImages = new BufferedImage[ numScreenScales ][ 3 ];
+		screenScaleTransforms = new AffineTransform3D[ numScreenScales ];
 
 		this.targetRenderNanos = targetRenderNanos;
+		screenScaleController = new ScreenScaleController( screenScales, targetRenderNanos );
 
 		maxScreenScaleIndex = screenScales.length - 1;
 		requestedScreenScaleIndex = maxScreenScaleIndex;
@@ -331,43 +456,123 @@ public class MultiResolutionRenderer
 			renderIdQueue.addAll( Arrays.asList( 0, 1, 2 ) );
 			bufferedImageToRenderId.clear();
 			for ( int i = 0; i < screenScales.length; ++i )
-			{
-				final double screenToViewerScale = screenScales[ i ];
-				final int w = ( int ) ( screenToViewerScale * componentW );
-				final int h = ( int ) ( screenToViewerScale * componentH );
-				if ( doubleBuffered )
-				{
-					for ( int b = 0; b < 3; ++b )
-					{
-						// reuse storage arrays of level 0 (highest resolution)
-						screenImages[ i ][ b ] = ( i == 0 ) ?
-								new ARGBScreenImage( w, h ) :
-								new ARGBScreenImage( w, h, screenImages[ 0 ][ b ].getData() );
-						final BufferedImage bi = GuiUtil.getBufferedImage( screenImages[ i ][ b ] );
-						bufferedImages[ i ][ b ] = bi;
-						bufferedImageToRenderId.put( bi, b );
-					}
-				}
-				else
-				{
-					screenImages[ i ][ 0 ] = new ARGBScreenImage( w, h );
-					bufferedImages[ i ][ 0 ] = GuiUtil.getBufferedImage( screenImages[ i ][ 0 ] );
-				}
-				final AffineTransform3D scale = new AffineTransform3D();
-				final double xScale = ( double ) w / componentW;
-				final double yScale = ( double ) h / componentH;
-				scale.set( xScale, 0, 0 );
-				scale.set( yScale, 1, 1 );
-				scale.set( 0.5 * xScale - 0.5, 0, 3 );
-				scale.set( 0.5 * yScale - 0.5, 1, 3 );
-				screenScaleTransforms[ i ] = scale;
-			}
+				createScreenImages( i, componentW, componentH );
 
 			return true;
 		}
 		return false;
 	}
 
+	/**
+	 * (Re-)create the {@link #screenImages}, {@link #bufferedImages}, and
+	 * {@link #screenScaleTransforms} for screen scale {@code i}.
+	 */
+	private void createScreenImages( final int i, final int componentW, final int componentH )
+	{
+		final double screenToViewerScale = screenScales[ i ];
+		final int w = Math.max( 1, ( int ) ( screenToViewerScale * componentW ) );
+		final int h = Math.max( 1, ( int ) ( screenToViewerScale * componentH ) );
+		if ( doubleBuffered )
+		{
+			for ( int b = 0; b < 3; ++b )
+			{
+				// reuse storage arrays of level 0 (highest resolution)
+				screenImages[ i ][ b ] = ( i == 0 ) ?
+						new ARGBScreenImage( w, h ) :
+						new ARGBScreenImage( w, h, screenImages[ 0 ][ b ].getData() );
+				final BufferedImage bi = GuiUtil.getBufferedImage( screenImages[ i ][ b ] );
+				bufferedImages[ i ][ b ] = bi;
+				bufferedImageToRenderId.put( bi, b );
+			}
+		}
+		else
+		{
+			screenImages[ i ][ 0 ] = new ARGBScreenImage( w, h );
+			bufferedImages[ i ][ 0 ] = GuiUtil.getBufferedImage( screenImages[ i ][ 0 ] );
+		}
+		final AffineTransform3D scale = new AffineTransform3D();
+		final double xScale = ( double ) w / componentW;
+		final double yScale = ( double ) h / componentH;
+		scale.set( xScale, 0, 0 );
+		scale.set( yScale, 1, 1 );
+		scale.set( 0.5 * xScale - 0.5, 0, 3 );
+		scale.set( 0.5 * yScale - 0.5, 1, 3 );
+		screenScaleTransforms[ i ] = scale;
+	}
+
+	/**
+	 * Set the scale factor of the {@link #dynamicScreenScale dynamic screen
+	 * scale}, and recreate its images (which share storage with the full
+	 * resolution images). Small changes are ignored, to avoid recreating
+	 * images for every frame.
+	 *
+	 * @return whether the dynamic screen scale was changed.
+	 */
+	protected synchronized boolean setDynamicScreenScale( final double scale )
+	{
+		final int i = screenScales.length - 1;
+		if ( !dynamicScreenScale || Math.abs( scale - screenScales[ i ] ) < 0.05 * screenScales[ i ] )
+			return false;
+		screenScales[ i ] = scale;
+		if ( screenImages[ 0 ][ 0 ] != null )
+		{
+			// Forget the images of the previous dynamic screen scale, except
+			// those held by the display. These are forgotten when they are
+			// returned.
+			if ( doubleBuffered )
+				for ( final BufferedImage bi : bufferedImages[ i ] )
+					if ( !displayedBufferedImages.contains( bi ) )
+						bufferedImageToRenderId.remove( bi );
+			final int componentW = ( int ) Math.round( screenImages[ 0 ][ 0 ].dimension( 0 ) / screenScales[ 0 ] );
+			final int componentH = ( int ) Math.round( screenImages[ 0 ][ 0 ].dimension( 1 ) / screenScales[ 0 ] );
+			createScreenImages( i, componentW, componentH );
+			final int n = renderImages[ i ].length;
+			final int w = ( int ) screenImages[ i ][ 0 ].dimension( 0 );
+			final int h = ( int ) screenImages[ i ][ 0 ].dimension( 1 );
+			for ( int j = 0; j < n; ++j )
+				renderImages[ i ][ j ] = new ARGBScreenImage( w, h, renderImages[ 0 ][ j ].getData() );
+		}
+		clearFrameProjectors();
+		return true;
+	}
+
+	/**
+	 * Choose the screen scale with which to start rendering the next frame.
+	 * If {@link #dynamicScreenScale} is enabled, and the predicted finest
+	 * scale factor that meets the frame deadline lies between two fixed screen
+	 * scales, this sets the dynamic screen scale to it and returns its index.
+	 */
+	protected int chooseMaxScreenScaleIndex( final int numVisibleSources )
+	{
+		final int index = screenScaleController.chooseScreenScaleIndex( numVisibleSources );
+		if ( !dynamicScreenScale || index == 0 )
+			return index;
+		final double scale = screenScaleController.chooseScreenScale( numVisibleSources );
+		if ( scale <= screenScales[ index ] * 1.05 || scale >= screenScales[ index - 1 ] )
+			return index;
+		setDynamicScreenScale( scale );
+		return screenScales.length - 1;
+	}
+
+	/**
+	 * Get the index of the screen scale to render after
+	 * {@code screenScaleIndex}. This is the next finer fixed screen scale.
+	 *
+	 * @return index of the next finer screen scale, or -1 if
+	 *         {@code screenScaleIndex} is the finest.
+	 */
+	protected int getNextFinerScreenScaleIndex( final int screenScaleIndex )
+	{
+		if ( dynamicScreenScale && screenScaleIndex == screenScales.length - 1 )
+		{
+			for ( int i = screenScaleIndex - 1; i >= 0; --i )
+				if ( screenScales[ i ] > screenScales[ screenScaleIndex ] )
+					return i;
+			return -1;
+		}
+		return screenScaleIndex - 1;
+	}
+
 	protected synchronized boolean checkRenewRenderImages( final int numVisibleSources )
 	{
 		final int n = numVisibleSources > 1 ? numVisibleSources : 0;
@@ -413,16 +618,26 @@ public class MultiResolutionRenderer
 	 * Render image at the {@link #requestedScreenScaleIndex requested screen
 	 * scale} and the {@link #requestedMipmapLevel requested mipmap level}.
 	 */
-	public boolean paint( final ViewerState state )
+	public boolean paint( final ViewerState viewerState )
 	{
 		if ( display.getWidth() <= 0 || display.getHeight() <= 0 )
 			return false;
 
+		// immutable, consistent copy that is read without locking viewerState
+		final ViewerState state = viewerState.snapshot();
+
+		// Keep showing the previous frame until the images of a new
+		// timepoint are set up in the background.
+		if ( prepareTimepointsInBackground && !isTimepointPrepared( state ) )
+			return false;
+
 		final boolean resized = checkResize();
 
 		final int numVisibleSources = state.getVisibleSourceIndices().size();
-		checkRenewRenderImages( numVisibleSources );
-		checkRenewMaskArrays( numVisibleSources );
+		final boolean renewedRenderImages = checkRenewRenderImages( numVisibleSources );
+		final boolean renewedMaskArrays = checkRenewMaskArrays( numVisibleSources );
+		if ( resized || renewedRenderImages || renewedMaskArrays )
+			clearFrameProjectors();
 
 		// the BufferedImage that is rendered to (to paint to the canvas)
 		final BufferedImage bufferedImage;
@@ -434,8 +649,17 @@ public class MultiResolutionRenderer
 
 		final boolean createProjector;
 
+		// whether the previous frame was shifted instead of rendered again
+		boolean shifted = false;
+
 		synchronized ( this )
 		{
+			// If the previous frame can be shifted to the new viewer
+			// transform, stay at its screen scale.
+			final int[] shift = ( newFrameRequest && !resized ) ? getShift( state ) : null;
+			if ( shift != null )
+				requestedScreenScaleIndex = currentScreenScaleIndex;
+
 			// Rendering may be cancelled unless we are rendering at coarsest
 			// screen scale and coarsest mipmap level.
 			renderingMayBeCancelled = ( requestedScreenScaleIndex < maxScreenScaleIndex );
@@ -452,8 +676,14 @@ public class MultiResolutionRenderer
 				currentScreenScaleIndex = requestedScreenScaleIndex;
 				bufferedImage = bufferedImages[ currentScreenScaleIndex ][ renderId ];
 				final ARGBScreenImage screenImage = screenImages[ currentScreenScaleIndex ][ renderId ];
+				final ARGBScreenImage previousScreenImage = lastScreenImage;
+				final FrameProjector previousFrameProjector = lastFrameProjector;
 				p = createProjector( state, currentScreenScaleIndex, screenImage );
 				projector = p;
+				if ( shift != null )
+					shifted = shiftPreviousFrame( previousFrameProjector, previousScreenImage, screenImage, shift[ 0 ], shift[ 1 ] );
+				if ( !shifted && lastFrameProjector.reusedAll )
+					lastFrameProjector.invalidate();
 			}
 			else
 			{
@@ -478,31 +708,44 @@ public class MultiResolutionRenderer
 					final BufferedImage bi = display.setBufferedImageAndTransform( bufferedImage, currentProjectorTransform );
 					if ( doubleBuffered )
 					{
+						displayedBufferedImages.add( bufferedImage );
+						displayedBufferedImages.remove( bi );
 						renderIdQueue.pop();
 						final Integer id = bufferedImageToRenderId.get( bi );
 						if ( id != null )
+						{
 							renderIdQueue.add( id );
+							// forget images of a previous dynamic screen scale
+							if ( dynamicScreenScale && !isCurrentBufferedImage( bi ) )
+								bufferedImageToRenderId.remove( bi );
+						}
 					}
 
-					if ( currentScreenScaleIndex == maxScreenScaleIndex )
-					{
-						if ( rendertime > targetRenderNanos && maxScreenScaleIndex < screenScales.length - 1 )
-							maxScreenScaleIndex++;
-						else if ( rendertime < targetRenderNanos / 3 && maxScreenScaleIndex > 0 )
-							maxScreenScaleIndex--;
-					}
-					else if ( currentScreenScaleIndex == maxScreenScaleIndex - 1 )
+					// Render time of a shifted frame says nothing about the
+					// time needed to render a complete frame.
+					if ( !shifted )
 					{
-						if ( rendertime < targetRenderNanos && maxScreenScaleIndex > 0 )
-							maxScreenScaleIndex--;
+						// frames at the dynamic screen scale are not recorded,
+						// because its scale factor changes
+						if ( !dynamicScreenScale || currentScreenScaleIndex < screenScales.length - 1 )
+						{
+							screenScaleController.addFrame( currentScreenScaleIndex, numVisibleSources, rendertime );
+							maxScreenScaleIndex = chooseMaxScreenScaleIndex( numVisibleSources );
+						}
 					}
 //					System.out.println( String.format( "rendering:%4d ms", rendertime / 1000000 ) );
 //					System.out.println( "scale = " + currentScreenScaleIndex );
 //					System.out.println( "maxScreenScaleIndex = " + maxScreenScaleIndex + "  (" + screenImages[ maxScreenScaleIndex ][ 0 ].dimension( 0 ) + " x " + screenImages[ maxScreenScaleIndex ][ 0 ].dimension( 1 ) + ")" );
 				}
+				else if ( display instanceof TransformAwareBufferedImageOverlayRenderer )
+				{
+					// the displayed image was refined in place
+					( ( TransformAwareBufferedImageOverlayRenderer ) display ).bufferedImageModified();
+				}
 
-				if ( currentScreenScaleIndex > 0 )
-					requestRepaint( currentScreenScaleIndex - 1 );
+				final int nextScreenScaleIndex = getNextFinerScreenScaleIndex( currentScreenScaleIndex );
+				if ( nextScreenScaleIndex >= 0 )
+					requestRepaint( nextScreenScaleIndex );
 				else if ( !p.isValid() )
 				{
 					try
@@ -519,6 +762,63 @@ public class MultiResolutionRenderer
 		return success;
 	}
 
+	/**
+	 * Check whether all visible sources that implement
+	 * {@link PrepareTimepoint} are prepared for the current timepoint. Start
+	 * preparing those that are not, and request a repaint when they are done.
+	 */
+	private boolean isTimepointPrepared( final ViewerState state )
+	{
+		final int timepoint = state.getCurrentTimepoint();
+		final List< SourceState< ? > > sources = state.getSources();
+		boolean prepared = true;
+		for ( final int i : state.getVisibleSourceIndices() )
+		{
+			final Source< ? > source = sources.get( i ).getSpimSource();
+			if ( PrepareTimepoint.class.isInstance( source ) )
+			{
+				final PrepareTimepoint p = ( PrepareTimepoint ) source;
+				if ( !p.isTimepointPrepared( timepoint ) )
+				{
+					prepared = false;
+					p.prepareTimepoint( timepoint, repaintWhenPrepared );
+				}
+			}
+		}
+		return prepared;
+	}
+
+	/**
+	 * Set whether {@link #paint(ViewerState)} waits for new timepoints to be
+	 * {@link PrepareTimepoint prepared} in the background (the default). If
+	 * {@code false}, their images are created on the painting thread, e.g.,
+	 * for offscreen rendering where every {@link #paint(ViewerState)} must
+	 * produce a frame.
+	 */
+	public synchronized void setPrepareTimepointsInBackground( final boolean prepareTimepointsInBackground )
+	{
+		this.prepareTimepointsInBackground = prepareTimepointsInBackground;
+	}
+
+	private boolean isCurrentBufferedImage( final BufferedImage bi )
+	{
+		for ( final BufferedImage[] images : bufferedImages )
+			for ( final BufferedImage image : images )
+				if ( image == bi )
+					return true;
+		return false;
+	}
+
+	/**
+	 * Get the controller that chooses the screen scale with which rendering
+	 * starts. It can be used to query latency statistics and to set the frame
+	 * deadline.
+	 */
+	public ScreenScaleController getScreenScaleController()
+	{
+		return screenScaleController;
+	}
+
 	/**
 	 * Request a repaint of the display from the painter thread, with maximum
 	 * screen scale index and mipmap level.
@@ -544,46 +844,381 @@ public class MultiResolutionRenderer
 		painterThread.requestRepaint();
 	}
 
+	/**
+	 * Forget all {@link #frameProjectors}. This is necessary when the images
+	 * or mask arrays they render to are replaced.
+	 */
+	protected synchronized void clearFrameProjectors()
+	{
+		frameProjectors.clear();
+		lastFrameProjector = null;
+		lastScreenImage = null;
+	}
+
+	/**
+	 * Check whether the viewer transform of {@code viewerState} is the
+	 * {@link #currentProjectorTransform transform of the last created
+	 * projector}, translated in the screen plane by a non-zero whole number of
+	 * pixels at the {@link #currentScreenScaleIndex current screen scale}.
+	 *
+	 * @return the translation {dx, dy} in screen image pixels, or null if the
+	 *         transform is not such a translation.
+	 */
+	protected int[] getShift( final ViewerState viewerState )
+	{
+		if ( lastFrameProjector == null || currentScreenScaleIndex < 0 )
+			return null;
+
+		// previous screen coordinates to new screen coordinates
+		final AffineTransform3D screenScaleTransform = screenScaleTransforms[ currentScreenScaleIndex ];
+		final AffineTransform3D delta = new AffineTransform3D();
+		viewerState.getViewerTransform( delta );
+		delta.preConcatenate( screenScaleTransform );
+		delta.concatenate( currentProjectorTransform.inverse() );
+		delta.concatenate( screenScaleTransform.inverse() );
+
+		final double eps = 1e-6;
+		for ( int r = 0; r < 3; ++r )
+			for ( int c = 0; c < 3; ++c )
+				if ( Math.abs( delta.get( r, c ) - ( r == c ? 1 : 0 ) ) > eps )
+					return null;
+		if ( Math.abs( delta.get( 2, 3 ) ) > eps )
+			return null;
+		final double tx = delta.get( 0, 3 );
+		final double ty = delta.get( 1, 3 );
+		final int dx = ( int ) Math.round( tx );
+		final int dy = ( int ) Math.round( ty );
+		if ( Math.abs( tx - dx ) > 1e-3 || Math.abs( ty - dy ) > 1e-3 || ( dx == 0 && dy == 0 ) )
+			return null;
+		return new int[] { dx, dy };
+	}
+
+	/**
+	 * After {@link #createProjector(ViewerState, int, ARGBScreenImage)}
+	 * reused all projectors of the previous frame for a translated viewer
+	 * transform, shift what the previous frame rendered (and its masks) by
+	 * ({@code dx}, {@code dy}), so that only the newly exposed strips need to
+	 * be rendered.
+	 *
+	 * @return whether the previous frame was shifted. If not, the projectors
+	 *         render the complete frame.
+	 */
+	private boolean shiftPreviousFrame(
+			final FrameProjector previousFrameProjector,
+			final ARGBScreenImage previousScreenImage,
+			final ARGBScreenImage screenImage,
+			final int dx,
+			final int dy )
+	{
+		final FrameProjector frame = lastFrameProjector;
+		if ( previousFrameProjector == null || frame == null || !frame.hasSameLayout( previousFrameProjector ) || !frame.reusedAll )
+			return false;
+		for ( final SourceProjector sp : frame.sourceProjectors )
+			if ( !( sp.projector instanceof VolatileHierarchyProjector ) )
+				return false;
+
+		final int numSources = frame.sourceProjectors.size();
+		if ( numSources == 1 )
+		{
+			final int w = ( int ) screenImage.dimension( 0 );
+			final int h = ( int ) screenImage.dimension( 1 );
+			shiftPixels( previousScreenImage.getData(), screenImage.getData(), w, h, dx, dy );
+		}
+		else
+		{
+			for ( int j = 0; j < numSources; ++j )
+			{
+				final ARGBScreenImage renderImage = renderImages[ frame.screenScaleIndex ][ j ];
+				final int w = ( int ) renderImage.dimension( 0 );
+				final int h = ( int ) renderImage.dimension( 1 );
+				shiftPixels( renderImage.getData(), renderImage.getData(), w, h, dx, dy );
+			}
+		}
+		for ( final SourceProjector sp : frame.sourceProjectors )
+			( ( VolatileHierarchyProjector< ?, ? > ) sp.projector ).shiftMask( dx, dy );
+		return true;
+	}
+
+	/**
+	 * Copy {@code width} x {@code height} pixels from {@code src} to
+	 * {@code dst}, shifted by ({@code dx}, {@code dy}). Pixels of {@code dst}
+	 * that are not covered by the shifted image are left unchanged.
+	 * {@code src} and {@code dst} may be the same array.
+	 */
+	static void shiftPixels( final int[] src, final int[] dst, final int width, final int height, final int dx, final int dy )
+	{
+		final int w = width - Math.abs( dx );
+		if ( w <= 0 || Math.abs( dy ) >= height )
+			return;
+		final int srcX = Math.max( 0, -dx );
+		final int dstX = Math.max( 0, dx );
+		if ( dy > 0 )
+			for ( int y = height - 1; y >= dy; --y )
+				System.arraycopy( src, ( y - dy ) * width + srcX, dst, y * width + dstX, w );
+		else
+			for ( int y = 0; y < height + dy; ++y )
+				System.arraycopy( src, ( y - dy ) * width + srcX, dst, y * width + dstX, w );
+	}
+
+	/**
+	 * Create a projector that renders {@code viewerState} to
+	 * {@code screenImage}. If the previous projector for {@code screenImage}
+	 * renders the same sources, timepoint, interpolation, and mipmap levels,
+	 * it is re-targeted to the current viewer transform instead. This avoids
+	 * rebuilding the transformed views and projectors for every frame while
+	 * the transform is changed interactively.
+	 */
 	private VolatileProjector createProjector(
 			final ViewerState viewerState,
 			final int screenScaleIndex,
 			final ARGBScreenImage screenImage )
 	{
-		synchronized ( viewerState )
-		{
-			cache.initIoTimeBudget( null ); // clear time budget such that prefetching doesn't wait for loading blocks.
-			final List< SourceState< ? > > sources = viewerState.getSources();
-			final List< Integer > visibleSourceIndices = viewerState.getVisibleSourceIndices();
-			VolatileProjector projector;
-			if ( visibleSourceIndices.isEmpty() )
-				projector = new EmptyProjector< ARGBType >( screenImage );
-			else if ( visibleSourceIndices.size() == 1 )
+		cache.initIoTimeBudget( null ); // clear time budget such that prefetching doesn't wait for loading blocks.
+		final List< SourceState< ? > > sources = viewerState.getSources();
+		final List< Integer > visibleSourceIndices = viewerState.getVisibleSourceIndices();
+		final int timepoint = viewerState.getCurrentTimepoint();
+		final Interpolation interpolation = viewerState.getInterpolation();
+
+		final FrameProjector previous = frameProjectors.get( screenImage );
+		final boolean canReuse = previous != null
+				&& previous.screenScaleIndex == screenScaleIndex
+				&& previous.timepoint == timepoint
+				&& previous.interpolation == interpolation
+				&& previous.visibleSourceIndices.equals( visibleSourceIndices );
+
+		final ArrayList< SourceProjector > sourceProjectors = new ArrayList< SourceProjector >();
+		final ArrayList< SourceProjector > reused = new ArrayList< SourceProjector >();
+		boolean reusedAll = canReuse;
+		int j = 0;
+		for ( final int i : visibleSourceIndices )
+		{
+			final SourceProjector reusable = canReuse ? previous.sourceProjectors.get( j ) : null;
+			final ARGBScreenImage renderImage = visibleSourceIndices.size() == 1 ? screenImage : renderImages[ currentScreenScaleIndex ][ j ];
+			final byte[] maskArray = renderMaskArrays[ j ];
+			++j;
+			final SourceProjector p = createSingleSourceProjector( viewerState, sources.get( i ), i, currentScreenScaleIndex, renderImage, maskArray, reusable );
+			if ( p == reusable )
+				reused.add( p );
+			else
+				reusedAll = false;
+			sourceProjectors.add( p );
+		}
+
+		// Reused projectors render the complete frame again. If all
+		// projectors were reused, this is left to the caller, which may shift
+		// the previous frame instead (see shiftPreviousFrame).
+		if ( !reusedAll )
+			for ( final SourceProjector p : reused )
+				p.invalidate();
+
+		final VolatileProjector projector;
+		if ( reusedAll )
+			projector = previous.projector;
+		else if ( sourceProjectors.isEmpty() )
+			projector = new EmptyProjector< ARGBType >( screenImage );
+		else if ( sourceProjectors.size() == 1 )
+			projector = sourceProjectors.get( 0 ).projector;
+		else
+		{
+			final ArrayList< VolatileProjector > projectors = new ArrayList< VolatileProjector >();
+			final ArrayList< ARGBScreenImage > sourceImages = new ArrayList< ARGBScreenImage >();
+			for ( int k = 0; k < sourceProjectors.size(); ++k )
 			{
-				final int i = visibleSourceIndices.get( 0 );
-				projector = createSingleSourceProjector( viewerState, sources.get( i ), i, currentScreenScaleIndex, screenImage, renderMaskArrays[ 0 ] );
+				projectors.add( sourceProjectors.get( k ).projector );
+				sourceImages.add( renderImages[ currentScreenScaleIndex ][ k ] );
 			}
-			else
+			projector = new AccumulateProjectorARGB( projectors, sourceImages, screenImage, numRenderingThreads, renderingExecutorService );
+		}
+
+		final FrameProjector frame;
+		if ( reusedAll )
+		{
+			frame = previous;
+			frame.reusedAll = true;
+		}
+		else
+		{
+			frame = new FrameProjector( projector, sourceProjectors, visibleSourceIndices, timepoint, interpolation, screenScaleIndex );
+			frameProjectors.put( screenImage, frame );
+		}
+		lastFrameProjector = frame;
+		lastScreenImage = screenImage;
+
+		previousTimepoint = timepoint;
+		viewerState.getViewerTransform( currentProjectorTransform );
+		cache.initIoTimeBudget( iobudget );
+		return projector;
+	}
+
+	/**
+	 * The projector for all visible sources of a frame, and the
+	 * {@link SourceProjector}s it combines.
+	 */
+	protected static class FrameProjector
+	{
+		final VolatileProjector projector;
+
+		final ArrayList< SourceProjector > sourceProjectors;
+
+		final List< Integer > visibleSourceIndices;
+
+		final int timepoint;
+
+		final Interpolation interpolation;
+
+		final int screenScaleIndex;
+
+		/**
+		 * Whether all projectors were reused when this was last used for a
+		 * frame.
+		 */
+		boolean reusedAll;
+
+		FrameProjector(
+				final VolatileProjector projector,
+				final ArrayList< SourceProjector > sourceProjectors,
+				final List< Integer > visibleSourceIndices,
+				final int timepoint,
+				final Interpolation interpolation,
+				final int screenScaleIndex )
+		{
+			this.projector = projector;
+			this.sourceProjectors = sourceProjectors;
+			this.visibleSourceIndices = new ArrayList< Integer >( visibleSourceIndices );
+			this.timepoint = timepoint;
+			this.interpolation = interpolation;
+			this.screenScaleIndex = screenScaleIndex;
+			reusedAll = false;
+		}
+
+		/**
+		 * Invalidate the previously rendered images of all
+		 * {@link #sourceProjectors}.
+		 */
+		void invalidate()
+		{
+			for ( final SourceProjector p : sourceProjectors )
+				p.invalidate();
+		}
+
+		/**
+		 * Whether {@code other} renders the same sources, timepoint,
+		 * interpolation, and mipmap levels at the same screen scale.
+		 */
+		boolean hasSameLayout( final FrameProjector other )
+		{
+			if ( other.screenScaleIndex != screenScaleIndex
+					|| other.timepoint != timepoint
+					|| other.interpolation != interpolation
+					|| !other.visibleSourceIndices.equals( visibleSourceIndices ) )
+				return false;
+			for ( int j = 0; j < sourceProjectors.size(); ++j )
 			{
-				final ArrayList< VolatileProjector > sourceProjectors = new ArrayList< VolatileProjector >();
-				final ArrayList< ARGBScreenImage > sourceImages = new ArrayList< ARGBScreenImage >();
-				int j = 0;
-				for ( final int i : visibleSourceIndices )
-				{
-					final ARGBScreenImage renderImage = renderImages[ currentScreenScaleIndex ][ j ];
-					final byte[] maskArray = renderMaskArrays[ j ];
-					++j;
-					final VolatileProjector p = createSingleSourceProjector(
-							viewerState, sources.get( i ), i, currentScreenScaleIndex,
-							renderImage, maskArray );
-					sourceProjectors.add( p );
-					sourceImages.add( renderImage );
-				}
-				projector = new AccumulateProjectorARGB( sourceProjectors, sourceImages, screenImage, numRenderingThreads, renderingExecutorService );
+				final SourceProjector p = other.sourceProjectors.get( j );
+				if ( !sourceProjectors.get( j ).matches( p.spimSource, p.levels ) )
+					return false;
 			}
-			previousTimepoint = viewerState.getCurrentTimepoint();
-			viewerState.getViewerTransform( currentProjectorTransform );
-			cache.initIoTimeBudget( iobudget );
-			return projector;
+			return true;
+		}
+	}
+
+	/**
+	 * The projector for one source, and the {@link TransformedView}s (one per
+	 * rendered mipmap level) it renders from.
+	 */
+	protected static class SourceProjector
+	{
+		final VolatileProjector projector;
+
+		final Source< ? > spimSource;
+
+		/**
+		 * Mipmap levels of {@link #views}, in render order.
+		 */
+		final int[] levels;
+
+		final ArrayList< TransformedView< ? > > views;
+
+		SourceProjector( final VolatileProjector projector, final Source< ? > spimSource, final int[] levels, final ArrayList< TransformedView< ? > > views )
+		{
+			this.projector = projector;
+			this.spimSource = spimSource;
+			this.levels = levels;
+			this.views = views;
+		}
+
+		/**
+		 * Whether this renders {@code spimSource} from the given mipmap
+		 * levels.
+		 */
+		boolean matches( final Source< ? > spimSource, final int[] levels )
+		{
+			return this.spimSource == spimSource && Arrays.equals( this.levels, levels );
+		}
+
+		/**
+		 * Update the transforms of the {@link #views} to the current viewer
+		 * transform.
+		 */
+		void retarget( final ViewerState viewerState, final AffineTransform3D screenScaleTransform )
+		{
+			for ( final TransformedView< ? > view : views )
+				view.setTransform( viewerState, screenScaleTransform );
+		}
+
+		/**
+		 * Invalidate the previously rendered image, such that the projector
+		 * renders everything again.
+		 */
+		void invalidate()
+		{
+			if ( projector instanceof VolatileHierarchyProjector )
+				( ( VolatileHierarchyProjector< ?, ? > ) projector ).clearMask();
+			else if ( projector instanceof SimpleVolatileProjector )
+				( ( SimpleVolatileProjector< ?, ? > ) projector ).invalidate();
+		}
+	}
+
+	/**
+	 * A mipmap level of a source, transformed to screen coordinates. The
+	 * transform is updated in place, so the view can be rendered again with a
+	 * new viewer transform.
+	 */
+	protected static class TransformedView< T >
+	{
+		final Source< T > source;
+
+		final int timepoint;
+
+		final int mipmapIndex;
+
+		/**
+		 * Transforms screen coordinates to source coordinates.
+		 */
+		final AffineTransform3D screenToSource;
+
+		final RandomAccessible< T > view;
+
+		TransformedView( final ViewerState viewerState, final Source< T > source, final AffineTransform3D screenScaleTransform, final int mipmapIndex )
+		{
+			this.source = source;
+			this.timepoint = viewerState.getCurrentTimepoint();
+			this.mipmapIndex = mipmapIndex;
+			screenToSource = new AffineTransform3D();
+			setTransform( viewerState, screenScaleTransform );
+			final RealRandomAccessible< T > img = source.getInterpolatedSource( timepoint, mipmapIndex, viewerState.getInterpolation() );
+			view = new AffineRandomAccessible< T, AffineGet >( img, screenToSource );
+		}
+
+		void setTransform( final ViewerState viewerState, final AffineTransform3D screenScaleTransform )
+		{
+			final AffineTransform3D sourceToScreen = new AffineTransform3D();
+			viewerState.getViewerTransform( sourceToScreen );
+			final AffineTransform3D sourceTransform = new AffineTransform3D();
+			source.getSourceTransform( timepoint, mipmapIndex, sourceTransform );
+			sourceToScreen.concatenate( sourceTransform );
+			sourceToScreen.preConcatenate( screenScaleTransform );
+			screenToSource.set( sourceToScreen.inverse() );
 		}
 	}
 
@@ -613,40 +1248,58 @@ public class MultiResolutionRenderer
 		{
 			return valid;
 		}
+
+		public void invalidate()
+		{
+			valid = false;
+		}
 	}
 
-	private < T > VolatileProjector createSingleSourceProjector(
+	private < T > SourceProjector createSingleSourceProjector(
 			final ViewerState viewerState,
 			final SourceState< T > source,
 			final int sourceIndex,
 			final int screenScaleIndex,
 			final ARGBScreenImage screenImage,
-			final byte[] maskArray )
+			final byte[] maskArray,
+			final SourceProjector reusable )
 	{
 		if ( useVolatileIfAvailable && source.asVolatile() != null )
 		{
-			return createSingleSourceVolatileProjector( viewerState, source.asVolatile(), sourceIndex, screenScaleIndex, screenImage, maskArray );
+			return createSingleSourceVolatileProjector( viewerState, source.asVolatile(), sourceIndex, screenScaleIndex, screenImage, maskArray, reusable );
 		}
 		else
 		{
 			final AffineTransform3D screenScaleTransform = screenScaleTransforms[ currentScreenScaleIndex ];
 			final int bestLevel = viewerState.getBestMipMapLevel( screenScaleTransform, sourceIndex );
-			return new SimpleVolatileProjector< T, ARGBType >(
-					getTransformedSource( viewerState, source.getSpimSource(), screenScaleTransform, bestLevel ),
-					source.getConverter(), screenImage, numRenderingThreads );
+			final Source< T > spimSource = source.getSpimSource();
+			final int[] levels = new int[] { bestLevel };
+			if ( reusable != null && reusable.matches( spimSource, levels ) )
+			{
+				reusable.retarget( viewerState, screenScaleTransform );
+				return reusable;
+			}
+			final TransformedView< T > view = new TransformedView< T >( viewerState, spimSource, screenScaleTransform, bestLevel );
+			final ArrayList< TransformedView< ? > > views = new ArrayList< TransformedView< ? > >();
+			views.add( view );
+			final VolatileProjector projector = new SimpleVolatileProjector< T, ARGBType >(
+					view.view, source.getConverter(), screenImage, numRenderingThreads );
+			return new SourceProjector( projector, spimSource, levels, views );
 		}
 	}
 
-	private < T extends Volatile< ? > > VolatileProjector createSingleSourceVolatileProjector(
+	private < T extends Volatile< ? > > SourceProjector createSingleSourceVolatileProjector(
 			final ViewerState viewerState,
 			final SourceState< T > source,
 			final int sourceIndex,
 			final int screenScaleIndex,
 			final ARGBScreenImage screenImage,
-			final byte[] maskArray )
+			final byte[] maskArray,
+			final SourceProjector reusable )
 	{
 		final AffineTransform3D screenScaleTransform = screenScaleTransforms[ currentScreenScaleIndex ];
 		final ArrayList< RandomAccessible< T > > renderList = new ArrayList< RandomAccessible< T > >();
+		final ArrayList< TransformedView< ? > > views = new ArrayList< TransformedView< ? > >();
 		final Source< T > spimSource = source.getSpimSource();
 		final int t = viewerState.getCurrentTimepoint();
 
@@ -656,6 +1309,7 @@ public class MultiResolutionRenderer
 		final SetCacheHints sls = SetCacheHints.class.isInstance( spimSource ) ?
 				( SetCacheHints ) spimSource : SetCacheHints.empty;
 
+		int[] renderLevels = new int[ 0 ];
 		if ( ordering != null )
 		{
 			final AffineTransform3D screenTransform = new AffineTransform3D();
@@ -678,32 +1332,32 @@ public class MultiResolutionRenderer
 			}
 
 			Collections.sort( levels, MipmapOrdering.renderOrderComparator );
-			for ( final Level l : levels )
+			renderLevels = new int[ levels.size() ];
+			for ( int i = 0; i < renderLevels.length; ++i )
 			{
+				final Level l = levels.get( i );
 				sls.setCacheHints( l.getMipmapLevel(), l.getRenderCacheHints() );
-				renderList.add( getTransformedSource( viewerState, spimSource, screenScaleTransform, l.getMipmapLevel() ) );
+				renderLevels[ i ] = l.getMipmapLevel();
 			}
 
 			if ( hints.renewHintsAfterPaintingOnce() )
 				newFrameRequest = true;
 		}
-		return new VolatileHierarchyProjector< T, ARGBType >( renderList, source.getConverter(), screenImage, maskArray, numRenderingThreads, renderingExecutorService );
-	}
 
-	private static < T > RandomAccessible< T > getTransformedSource( final ViewerState viewerState, final Source< T > source, final AffineTransform3D screenScaleTransform, final int mipmapIndex )
-	{
-		final int timepoint = viewerState.getCurrentTimepoint();
-		final Interpolation interpolation = viewerState.getInterpolation();
-		final RealRandomAccessible< T > img = source.getInterpolatedSource( timepoint, mipmapIndex, interpolation );
-
-		final AffineTransform3D sourceToScreen = new AffineTransform3D();
-		viewerState.getViewerTransform( sourceToScreen );
-		final AffineTransform3D sourceTransform = new AffineTransform3D();
-		source.getSourceTransform( timepoint, mipmapIndex, sourceTransform );
-		sourceToScreen.concatenate( sourceTransform );
-		sourceToScreen.preConcatenate( screenScaleTransform );
+		if ( reusable != null && reusable.matches( spimSource, renderLevels ) )
+		{
+			reusable.retarget( viewerState, screenScaleTransform );
+			return reusable;
+		}
 
-		return RealViews.affine( img, sourceToScreen );
+		for ( final int level : renderLevels )
+		{
+			final TransformedView< T > view = new TransformedView< T >( viewerState, spimSource, screenScaleTransform, level );
+			views.add( view );
+			renderList.add( view.view );
+		}
+		final VolatileProjector projector = new VolatileHierarchyProjector< T, ARGBType >( renderList, source.getConverter(), screenImage, maskArray, numRenderingThreads, renderingExecutorService );
+		return new SourceProjector( projector, spimSource, renderLevels, views );
 	}
 
 	private static < T > void prefetch(
@@ -722,7 +1376,6 @@ public class MultiResolutionRenderer
 			cellImg.getCells().cellDimensions( cellDimensions );
 			final long[] dimensions = new long[ 3 ];
 			cellImg.dimensions( dimensions );
-			final RandomAccess< ? > cellsRandomAccess = cellImg.getCells().randomAccess();
 
 			final Interpolation interpolation = viewerState.getInterpolation();
 
@@ -733,7 +1386,7 @@ public class MultiResolutionRenderer
 			sourceToScreen.concatenate( sourceTransform );
 			sourceToScreen.preConcatenate( screenScaleTransform );
 
-			Prefetcher.fetchCells( sourceToScreen, cellDimensions, dimensions, screenInterval, interpolation, cellsRandomAccess );
+			Prefetcher.fetchCells( sourceToScreen, cellDimensions, dimensions, screenInterval, interpolation, ( VolatileImgCells< ? > ) cellImg.getCells() );
 		}
 	}
 
@@ -5,6 +5,7 @@ import net.imglib2.RandomAccess;
 import net.imglib2.RealPoint;
 import net.imglib2.img.cell.CellImg;
 import net.imglib2.realtransform.AffineTransform3D;
+import bdv.img.cache.VolatileImgCells;
 import bdv.viewer.Interpolation;
 
 public class Prefetcher
@@ -27,11 +28,47 @@ public class Prefetcher
 	 */
 	public static void fetchCells( final AffineTransform3D sourceToScreen, final int[] cellDimensions, final long[] dimensions, final Dimensions screenInterval,  final Interpolation interpolation, final RandomAccess< ? > cellsRandomAccess )
 	{
-		new Prefetcher().scan( sourceToScreen, cellDimensions, dimensions, screenInterval, interpolation, cellsRandomAccess );
+		new Prefetcher( null ).scan( sourceToScreen, cellDimensions, dimensions, screenInterval, interpolation, cellsRandomAccess );
 	}
 
-	private Prefetcher()
-	{}
+	/**
+	 * Access cells that will be needed for rendering to the screen, skipping
+	 * cells that are {@link VolatileImgCells#isConstantCell(long[]) known to
+	 * be constant}. Constant cells are available without loading, so there is
+	 * no need to touch them.
+	 *
+	 * @param sourceToScreen
+	 *            source-to-screen transform
+	 * @param cellDimensions
+	 *            standard size of a source cell
+	 * @param dimensions
+	 *            dimensions of the source {@link CellImg}
+	 * @param screenInterval
+	 *            the interval of the screen that will be rendered
+	 * @param interpolation
+	 *            the interpolation method
+	 * @param cells
+	 *            the source cells
+	 */
+	public static void fetchCells( final AffineTransform3D sourceToScreen, final int[] cellDimensions, final long[] dimensions, final Dimensions screenInterval,  final Interpolation interpolation, final VolatileImgCells< ? > cells )
+	{
+		new Prefetcher( cells ).scan( sourceToScreen, cellDimensions, dimensions, screenInterval, interpolation, cells.randomAccess() );
+	}
+
+	private Prefetcher( final VolatileImgCells< ? > cells )
+	{
+		this.cells = cells;
+	}
+
+	/**
+	 * The source cells, used to skip constant cells. May be null.
+	 */
+	private final VolatileImgCells< ? > cells;
+
+	/**
+	 * Cell grid position of the current cell, if {@link #cells} is not null.
+	 */
+	private final long[] cellGridPosition = new long[ 3 ];
 
 	/**
 	 * The transformed vector in screen coordinate when moving by by one cell in
@@ -163,7 +200,14 @@ public class Prefetcher
 							( y + offsetPos[ 1 ] >= 0 ) &&
 							( y + offsetNeg[ 1 ] < h ) )
 					{
-						cellsRandomAccess.get();
+						if ( cells == null )
+							cellsRandomAccess.get();
+						else
+						{
+							cellsRandomAccess.localize( cellGridPosition );
+							if ( !cells.isConstantCell( cellGridPosition ) )
+								cellsRandomAccess.get();
+						}
 					}
 					pSource.move( cellDimensions[ 0 ], 0 );
 				}
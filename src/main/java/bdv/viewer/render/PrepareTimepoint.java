@@ -0,0 +1,25 @@
+package bdv.viewer.render;
+
+import bdv.viewer.Source;
+
+/**
+ * Implemented by {@link Source}s whose images for a timepoint are set up
+ * lazily, which may involve I/O (e.g., reading image dimensions).
+ * {@link MultiResolutionRenderer} does not render a timepoint for which a
+ * visible source is not prepared. Instead, it starts preparing the timepoint
+ * and keeps showing the previous frame until that is done.
+ */
+public interface PrepareTimepoint
+{
+	/**
+	 * Whether the images of timepoint {@code t} are set up, i.e., getting them
+	 * does not block for I/O.
+	 */
+	public boolean isTimepointPrepared( int t );
+
+	/**
+	 * Set up the images of timepoint {@code t} in the background, and run
+	 * {@code whenPrepared} (on a background thread) when done.
+	 */
+	public void prepareTimepoint( int t, Runnable whenPrepared );
+}
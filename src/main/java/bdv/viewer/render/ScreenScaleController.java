@@ -0,0 +1,373 @@
+package bdv.viewer.render;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Chooses the coarsest screen scale with which {@link MultiResolutionRenderer}
+ * starts rendering a new frame.
+ *
+ * <p>
+ * For each (screen scale, number of visible sources) the controller keeps the
+ * render times of the most recent frames. The cost of the next frame at a
+ * given screen scale is predicted as the median of these times. If there are
+ * no measurements for a screen scale yet, the cost is extrapolated from the
+ * nearest measured screen scale, proportional to the number of pixels. The
+ * controller then chooses the finest screen scale whose predicted cost meets
+ * the {@link #setFrameDeadlineNanos(long) frame deadline}. Using the median
+ * over a window, instead of the last frame only, makes the choice robust
+ * against single slow frames (e.g., due to I/O or garbage collection), so the
+ * screen scale does not oscillate.
+ *
+ * <p>
+ * All recorded render times are also accumulated in
+ * {@link Statistics latency histograms}, which can be queried with
+ * {@link #getStatistics()}.
+ */
+public class ScreenScaleController
+{
+	/**
+	 * Number of recent frames per (screen scale, number of visible sources)
+	 * used to predict the cost of the next frame.
+	 */
+	public static final int WINDOW_SIZE = 16;
+
+	/**
+	 * Number of histogram bins. Bin 0 counts frames rendered in less than 1
+	 * ms, bin {@code k > 0} counts frames rendered in [2<sup>k-1</sup>,
+	 * 2<sup>k</sup>) ms, and the last bin counts all slower frames.
+	 */
+	public static final int NUM_HISTOGRAM_BINS = 12;
+
+	/**
+	 * Latency statistics for one (screen scale, number of visible sources).
+	 */
+	public static class Statistics
+	{
+		private final int screenScaleIndex;
+
+		private final int numVisibleSources;
+
+		/**
+		 * Ring buffer of the most recent render times.
+		 */
+		private final long[] window = new long[ WINDOW_SIZE ];
+
+		private int windowSize = 0;
+
+		private int windowNext = 0;
+
+		private long count = 0;
+
+		private long minNanos = Long.MAX_VALUE;
+
+		private long maxNanos = 0;
+
+		private long sumNanos = 0;
+
+		private final long[] histogram = new long[ NUM_HISTOGRAM_BINS ];
+
+		Statistics( final int screenScaleIndex, final int numVisibleSources )
+		{
+			this.screenScaleIndex = screenScaleIndex;
+			this.numVisibleSources = numVisibleSources;
+		}
+
+		Statistics( final Statistics s )
+		{
+			screenScaleIndex = s.screenScaleIndex;
+			numVisibleSources = s.numVisibleSources;
+			System.arraycopy( s.window, 0, window, 0, WINDOW_SIZE );
+			windowSize = s.windowSize;
+			windowNext = s.windowNext;
+			count = s.count;
+			minNanos = s.minNanos;
+			maxNanos = s.maxNanos;
+			sumNanos = s.sumNanos;
+			System.arraycopy( s.histogram, 0, histogram, 0, NUM_HISTOGRAM_BINS );
+		}
+
+		void add( final long nanos )
+		{
+			window[ windowNext ] = nanos;
+			windowNext = ( windowNext + 1 ) % WINDOW_SIZE;
+			if ( windowSize < WINDOW_SIZE )
+				++windowSize;
+
+			++count;
+			minNanos = Math.min( minNanos, nanos );
+			maxNanos = Math.max( maxNanos, nanos );
+			sumNanos += nanos;
+			++histogram[ histogramBin( nanos ) ];
+		}
+
+		public int getScreenScaleIndex()
+		{
+			return screenScaleIndex;
+		}
+
+		public int getNumVisibleSources()
+		{
+			return numVisibleSources;
+		}
+
+		/**
+		 * Number of frames recorded since the controller was created or
+		 * {@link ScreenScaleController#reset() reset}.
+		 */
+		public long getCount()
+		{
+			return count;
+		}
+
+		public long getMinNanos()
+		{
+			return count == 0 ? 0 : minNanos;
+		}
+
+		public long getMaxNanos()
+		{
+			return maxNanos;
+		}
+
+		public long getMeanNanos()
+		{
+			return count == 0 ? 0 : sumNanos / count;
+		}
+
+		/**
+		 * Get the given quantile of the render times of the most recent
+		 * {@link ScreenScaleController#WINDOW_SIZE} frames.
+		 *
+		 * @param q
+		 *            quantile in [0, 1].
+		 */
+		public long getRecentQuantileNanos( final double q )
+		{
+			if ( windowSize == 0 )
+				return 0;
+			final long[] sorted = Arrays.copyOf( window, windowSize );
+			Arrays.sort( sorted );
+			final int i = ( int ) Math.round( q * ( windowSize - 1 ) );
+			return sorted[ Math.max( 0, Math.min( windowSize - 1, i ) ) ];
+		}
+
+		/**
+		 * Median render time of the most recent frames. This is the predicted
+		 * cost of the next frame.
+		 */
+		public long getRecentMedianNanos()
+		{
+			return getRecentQuantileNanos( 0.5 );
+		}
+
+		/**
+		 * Get the histogram of all recorded render times. See
+		 * {@link ScreenScaleController#NUM_HISTOGRAM_BINS} for the bins.
+		 */
+		public long[] getHistogram()
+		{
+			return histogram.clone();
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format( "scale %d, %d sources: n = %d, min = %.1f ms, median(recent) = %.1f ms, p90(recent) = %.1f ms, max = %.1f ms, histogram = %s",
+					screenScaleIndex, numVisibleSources, count,
+					getMinNanos() / 1e6, getRecentMedianNanos() / 1e6, getRecentQuantileNanos( 0.9 ) / 1e6, getMaxNanos() / 1e6,
+					Arrays.toString( histogram ) );
+		}
+	}
+
+	/**
+	 * Scale factors from the viewer canvas to screen images, as given to the
+	 * {@link MultiResolutionRenderer}.
+	 */
+	private final double[] screenScales;
+
+	private long frameDeadlineNanos;
+
+	/**
+	 * Statistics by number of visible sources, then by screen scale index.
+	 */
+	private final HashMap< Integer, Statistics[] > statistics;
+
+	/**
+	 * @param screenScales
+	 *            Scale factors from the viewer canvas to screen images of
+	 *            different resolutions, ordered from finest to coarsest.
+	 * @param frameDeadlineNanos
+	 *            Target rendering time in nanoseconds for the first frame
+	 *            after a change.
+	 */
+	public ScreenScaleController( final double[] screenScales, final long frameDeadlineNanos )
+	{
+		this.screenScales = screenScales.clone();
+		this.frameDeadlineNanos = frameDeadlineNanos;
+		statistics = new HashMap< Integer, Statistics[] >();
+	}
+
+	public synchronized long getFrameDeadlineNanos()
+	{
+		return frameDeadlineNanos;
+	}
+
+	/**
+	 * Set the target rendering time for the first frame after a change.
+	 */
+	public synchronized void setFrameDeadlineNanos( final long frameDeadlineNanos )
+	{
+		this.frameDeadlineNanos = frameDeadlineNanos;
+	}
+
+	/**
+	 * Record the time needed to render a complete frame.
+	 *
+	 * @param screenScaleIndex
+	 *            the screen scale at which the frame was rendered.
+	 * @param numVisibleSources
+	 *            number of sources that were rendered.
+	 * @param renderNanos
+	 *            render time in nanoseconds (excluding blocking I/O).
+	 */
+	public synchronized void addFrame( final int screenScaleIndex, final int numVisibleSources, final long renderNanos )
+	{
+		if ( renderNanos < 0 || screenScaleIndex < 0 || screenScaleIndex >= screenScales.length )
+			return;
+		getStatistics( numVisibleSources, screenScaleIndex ).add( renderNanos );
+	}
+
+	/**
+	 * Predict the time needed to render a frame at the given screen scale.
+	 *
+	 * @return predicted render time in nanoseconds, or -1 if nothing has been
+	 *         recorded for {@code numVisibleSources} yet.
+	 */
+	public synchronized long predictNanos( final int screenScaleIndex, final int numVisibleSources )
+	{
+		final Statistics[] stats = statistics.get( numVisibleSources );
+		if ( stats == null )
+			return -1;
+		if ( stats[ screenScaleIndex ] != null )
+			return stats[ screenScaleIndex ].getRecentMedianNanos();
+
+		// extrapolate from the nearest measured screen scale
+		for ( int d = 1; d < screenScales.length; ++d )
+		{
+			for ( final int i : new int[] { screenScaleIndex + d, screenScaleIndex - d } )
+			{
+				if ( i >= 0 && i < screenScales.length && stats[ i ] != null )
+				{
+					final double ratio = screenScales[ screenScaleIndex ] / screenScales[ i ];
+					return ( long ) ( stats[ i ].getRecentMedianNanos() * ratio * ratio );
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Choose the index of the finest screen scale whose predicted render time
+	 * meets the {@link #getFrameDeadlineNanos() frame deadline}. If nothing is
+	 * known about rendering {@code numVisibleSources} sources, or no screen
+	 * scale meets the deadline, the coarsest screen scale is chosen.
+	 */
+	public synchronized int chooseScreenScaleIndex( final int numVisibleSources )
+	{
+		final int coarsest = screenScales.length - 1;
+		for ( int i = 0; i < coarsest; ++i )
+		{
+			final long predicted = predictNanos( i, numVisibleSources );
+			if ( predicted >= 0 && predicted <= frameDeadlineNanos )
+				return i;
+		}
+		return coarsest;
+	}
+
+	/**
+	 * Choose the finest (continuous) scale factor whose predicted render time
+	 * meets the {@link #getFrameDeadlineNanos() frame deadline}. The cost per
+	 * pixel is taken from the finest screen scale for which frames were
+	 * recorded, and render time is assumed to be proportional to the number
+	 * of pixels. The result is clamped to the range of the screen scales.
+	 *
+	 * @return scale factor, or -1 if nothing is known about rendering
+	 *         {@code numVisibleSources} sources.
+	 */
+	public synchronized double chooseScreenScale( final int numVisibleSources )
+	{
+		final Statistics[] stats = statistics.get( numVisibleSources );
+		if ( stats == null )
+			return -1;
+		for ( int i = 0; i < screenScales.length; ++i )
+		{
+			if ( stats[ i ] != null )
+			{
+				final double s = screenScales[ i ];
+				final double nanosPerPixel = Math.max( 1, stats[ i ].getRecentMedianNanos() ) / ( s * s );
+				final double scale = Math.sqrt( frameDeadlineNanos / nanosPerPixel );
+				return Math.max( screenScales[ screenScales.length - 1 ], Math.min( screenScales[ 0 ], scale ) );
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Get copies of the statistics of all (number of visible sources, screen
+	 * scale) for which frames were recorded, ordered by number of visible
+	 * sources and screen scale.
+	 */
+	public synchronized ArrayList< Statistics > getStatistics()
+	{
+		final ArrayList< Statistics > list = new ArrayList< Statistics >();
+		for ( final Map.Entry< Integer, Statistics[] > entry : new TreeMap< Integer, Statistics[] >( statistics ).entrySet() )
+			for ( final Statistics s : entry.getValue() )
+				if ( s != null )
+					list.add( new Statistics( s ) );
+		return list;
+	}
+
+	/**
+	 * Print the {@link #getStatistics() statistics}.
+	 */
+	public void printStatistics( final PrintStream out )
+	{
+		for ( final Statistics s : getStatistics() )
+			out.println( s );
+	}
+
+	/**
+	 * Forget all recorded render times.
+	 */
+	public synchronized void reset()
+	{
+		statistics.clear();
+	}
+
+	private Statistics getStatistics( final int numVisibleSources, final int screenScaleIndex )
+	{
+		Statistics[] stats = statistics.get( numVisibleSources );
+		if ( stats == null )
+		{
+			stats = new Statistics[ screenScales.length ];
+			statistics.put( numVisibleSources, stats );
+		}
+		if ( stats[ screenScaleIndex ] == null )
+			stats[ screenScaleIndex ] = new Statistics( screenScaleIndex, numVisibleSources );
+		return stats[ screenScaleIndex ];
+	}
+
+	private static int histogramBin( final long nanos )
+	{
+		final long millis = nanos / 1000000;
+		if ( millis < 1 )
+			return 0;
+		final int bin = 64 - Long.numberOfLeadingZeros( millis );
+		return Math.min( bin, NUM_HISTOGRAM_BINS - 1 );
+	}
+}
@@ -1,9 +1,13 @@
 package bdv.viewer.render;
 
+import java.awt.AlphaComposite;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
 import java.awt.RenderingHints;
+import java.awt.Transparency;
 import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import net.imglib2.realtransform.AffineTransform3D;
@@ -25,6 +29,21 @@ public class TransformAwareBufferedImageOverlayRenderer extends BufferedImageOve
 	 */
 	protected final CopyOnWriteArrayList< TransformListener< AffineTransform3D > > paintedTransformListeners;
 
+	/**
+	 * The current {@link #bufferedImage}, scaled to the canvas size, in an
+	 * image that can be kept in video memory. Repaints that do not change the
+	 * image (e.g., overlay animations) just blit this, instead of scaling and
+	 * uploading {@link #bufferedImage} again.
+	 */
+	protected VolatileImage cachedImage;
+
+	/**
+	 * Whether {@link #cachedImage} must be redrawn from {@link #bufferedImage}
+	 * because a new image was set or the current one was
+	 * {@link #bufferedImageModified() modified}.
+	 */
+	protected boolean cachedImageInvalid;
+
 	public TransformAwareBufferedImageOverlayRenderer()
 	{
 		super();
@@ -40,10 +59,20 @@ public class TransformAwareBufferedImageOverlayRenderer extends BufferedImageOve
 		return super.setBufferedImage( img );
 	}
 
+	/**
+	 * Notify that the pixels of the currently displayed image were modified
+	 * in place, such that the next repaint updates the cached scaled copy.
+	 */
+	public synchronized void bufferedImageModified()
+	{
+		cachedImageInvalid = true;
+	}
+
 	@Override
 	public void drawOverlays( final Graphics g )
 	{
 		boolean notifyTransformListeners = false;
+		boolean imageChanged = false;
 		synchronized ( this )
 		{
 			if ( pending )
@@ -54,19 +83,17 @@ public class TransformAwareBufferedImageOverlayRenderer extends BufferedImageOve
 				pendingImage = tmp;
 				pending = false;
 				notifyTransformListeners = true;
+				cachedImageInvalid = true;
 			}
+			imageChanged = cachedImageInvalid;
+			cachedImageInvalid = false;
 		}
 		if ( bufferedImage != null )
 		{
 //			final StopWatch watch = new StopWatch();
 //			watch.start();
-//			( ( Graphics2D ) g ).setRenderingHint( RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR );
-			( ( Graphics2D ) g ).setRenderingHint( RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR );
-			( ( Graphics2D ) g ).setRenderingHint( RenderingHints.KEY_ALPHA_INTERPOLATION, RenderingHints.VALUE_ALPHA_INTERPOLATION_SPEED );
-			( ( Graphics2D ) g ).setRenderingHint( RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF );
-			( ( Graphics2D ) g ).setRenderingHint( RenderingHints.KEY_COLOR_RENDERING, RenderingHints.VALUE_COLOR_RENDER_SPEED );
-			( ( Graphics2D ) g ).setRenderingHint( RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_SPEED );
-			g.drawImage( bufferedImage, 0, 0, getWidth(), getHeight(), null );
+			if ( !drawCachedImage( ( Graphics2D ) g, imageChanged ) )
+				drawScaledImage( ( Graphics2D ) g );
 			if ( notifyTransformListeners )
 				for ( final TransformListener< AffineTransform3D > listener : paintedTransformListeners )
 					listener.transformChanged( paintedTransform );
@@ -74,6 +101,72 @@ public class TransformAwareBufferedImageOverlayRenderer extends BufferedImageOve
 		}
 	}
 
+	/**
+	 * Draw {@link #bufferedImage} via {@link #cachedImage}, which is redrawn
+	 * only if {@code imageChanged}, or if it was resized or its contents were
+	 * lost.
+	 *
+	 * @return false, if no {@link VolatileImage} could be created for
+	 *         {@code g}. Then nothing was drawn.
+	 */
+	protected boolean drawCachedImage( final Graphics2D g, final boolean imageChanged )
+	{
+		final GraphicsConfiguration gc = g.getDeviceConfiguration();
+		final int w = getWidth();
+		final int h = getHeight();
+		if ( gc == null || w <= 0 || h <= 0 )
+			return false;
+
+		boolean redraw = imageChanged;
+		do
+		{
+			final int status = ( cachedImage == null || cachedImage.getWidth() != w || cachedImage.getHeight() != h )
+					? VolatileImage.IMAGE_INCOMPATIBLE
+					: cachedImage.validate( gc );
+			if ( status == VolatileImage.IMAGE_INCOMPATIBLE )
+			{
+				if ( cachedImage != null )
+					cachedImage.flush();
+				cachedImage = gc.createCompatibleVolatileImage( w, h, Transparency.TRANSLUCENT );
+				if ( cachedImage == null )
+					return false;
+				redraw = true;
+			}
+			else if ( status == VolatileImage.IMAGE_RESTORED )
+				redraw = true;
+
+			if ( redraw )
+			{
+				final Graphics2D cg = cachedImage.createGraphics();
+				cg.setComposite( AlphaComposite.Src );
+				drawScaledImage( cg );
+				cg.dispose();
+				redraw = false;
+			}
+			g.drawImage( cachedImage, 0, 0, null );
+			redraw = cachedImage.contentsLost();
+		}
+		while ( redraw );
+		return true;
+	}
+
+	/**
+	 * Draw {@link #bufferedImage} scaled to the canvas size.
+	 */
+	protected void drawScaledImage( final Graphics2D g )
+	{
+		// upscale coarse images smoothly, but show full resolution images pixel-exact
+		final boolean upscale = bufferedImage.getWidth() < getWidth() || bufferedImage.getHeight() < getHeight();
+		g.setRenderingHint( RenderingHints.KEY_INTERPOLATION, upscale
+				? RenderingHints.VALUE_INTERPOLATION_BILINEAR
+				: RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR );
+		g.setRenderingHint( RenderingHints.KEY_ALPHA_INTERPOLATION, RenderingHints.VALUE_ALPHA_INTERPOLATION_SPEED );
+		g.setRenderingHint( RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF );
+		g.setRenderingHint( RenderingHints.KEY_COLOR_RENDERING, RenderingHints.VALUE_COLOR_RENDER_SPEED );
+		g.setRenderingHint( RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_SPEED );
+		g.drawImage( bufferedImage, 0, 0, getWidth(), getHeight(), null );
+	}
+
 	/**
 	 * Add a {@link TransformListener} to notify about viewer transformation
 	 * changes. Listeners will be notified when a new image has been rendered
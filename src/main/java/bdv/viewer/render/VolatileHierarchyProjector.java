@@ -181,6 +181,43 @@ public class VolatileHierarchyProjector< A extends Volatile< ? >, B extends Nume
 		numInvalidLevels = sources.size();
 	}
 
+	/**
+	 * Shift the mask by ({@code dx}, {@code dy}) pixels, after the target
+	 * image has been shifted by the same amount. Pixels that are shifted in
+	 * are marked as never written, such that only they are rendered from
+	 * scratch in the next {@link #map()}.
+	 */
+	public void shiftMask( final int dx, final int dy )
+	{
+		final int w = width - Math.abs( dx );
+		if ( w <= 0 || Math.abs( dy ) >= height )
+		{
+			clearMask();
+			return;
+		}
+
+		final int srcX = Math.max( 0, -dx );
+		final int dstX = Math.max( 0, dx );
+		if ( dy > 0 )
+			for ( int y = height - 1; y >= dy; --y )
+				System.arraycopy( maskArray, ( y - dy ) * width + srcX, maskArray, y * width + dstX, w );
+		else
+			for ( int y = 0; y < height + dy; ++y )
+				System.arraycopy( maskArray, ( y - dy ) * width + srcX, maskArray, y * width + dstX, w );
+
+		for ( int y = 0; y < height; ++y )
+		{
+			final int row = y * width;
+			if ( y < dy || y >= height + dy )
+				Arrays.fill( maskArray, row, row + width, Byte.MAX_VALUE );
+			else if ( dx > 0 )
+				Arrays.fill( maskArray, row, row + dx, Byte.MAX_VALUE );
+			else if ( dx < 0 )
+				Arrays.fill( maskArray, row + width + dx, row + width, Byte.MAX_VALUE );
+		}
+		numInvalidLevels = sources.size();
+	}
+
 	/**
 	 * Clear target pixels that were never written.
 	 */
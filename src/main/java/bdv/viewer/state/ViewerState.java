@@ -22,6 +22,14 @@ import bdv.viewer.SourceAndConverter;
  * current timepoint, the visible and current sources and groups respectively,
  * the viewer transformation, etc.
  *
+ * <p>
+ * Every modification increments the {@link #getVersion() version} of the
+ * state. Renderers should not read the (mutable, shared) state directly, but
+ * take a {@link #snapshot()}: an immutable copy that is created at most once
+ * per version and published atomically. Reading a snapshot does not contend
+ * with threads modifying the state, and an identical snapshot means that
+ * nothing changed since it was last rendered.
+ *
  * @author Tobias Pietzsch <tobias.pietzsch@gmail.com>
  */
 public class ViewerState
@@ -84,6 +92,27 @@ public class ViewerState
 	 */
 	protected int currentTimepoint;
 
+	/**
+	 * Incremented on every modification.
+	 */
+	private long version;
+
+	/**
+	 * Snapshot of the current version, or null if it has not been created
+	 * yet.
+	 */
+	private volatile ViewerState snapshot;
+
+	/**
+	 * Whether this is an immutable {@link #snapshot()}.
+	 */
+	private final boolean isSnapshot;
+
+	/**
+	 * Indices of visible sources, computed once for a {@link #snapshot()}.
+	 */
+	private final List< Integer > snapshotVisibleSourceIndices;
+
 	/**
 	 *
 	 * @param sources
@@ -107,6 +136,9 @@ public class ViewerState
 		currentSource = 0;
 		currentGroup = 0;
 		currentTimepoint = 0;
+		version = 0;
+		isSnapshot = false;
+		snapshotVisibleSourceIndices = null;
 	}
 
 	/**
@@ -114,6 +146,11 @@ public class ViewerState
 	 * @param s
 	 */
 	protected ViewerState( final ViewerState s )
+	{
+		this( s, false );
+	}
+
+	private ViewerState( final ViewerState s, final boolean isSnapshot )
 	{
 		sources = new ArrayList< SourceState< ? > >( s.sources.size() );
 		for ( final SourceState< ? > source : s.sources )
@@ -130,13 +167,84 @@ public class ViewerState
 		currentSource = s.currentSource;
 		currentGroup = s.currentGroup;
 		currentTimepoint = s.currentTimepoint;
+		version = s.version;
+		this.isSnapshot = isSnapshot;
+		snapshotVisibleSourceIndices = isSnapshot
+				? Collections.unmodifiableList( computeVisibleSourceIndices() )
+				: null;
 	}
 
-	public ViewerState copy()
+	/**
+	 * Get a modifiable copy of this state.
+	 */
+	public synchronized ViewerState copy()
 	{
 		return new ViewerState( this );
 	}
 
+	/**
+	 * Get an immutable copy of the current version of this state. Repeated
+	 * calls return the same instance until the state is modified. Calling
+	 * {@code snapshot()} on a snapshot returns the snapshot itself.
+	 *
+	 * <p>
+	 * Setters of the snapshot throw {@link UnsupportedOperationException}. The
+	 * {@link SourceState}s and {@link SourceGroup}s of a snapshot must not be
+	 * modified either.
+	 */
+	public ViewerState snapshot()
+	{
+		if ( isSnapshot )
+			return this;
+		ViewerState s = snapshot;
+		if ( s == null )
+		{
+			synchronized ( this )
+			{
+				s = snapshot;
+				if ( s == null )
+				{
+					s = new ViewerState( this, true );
+					snapshot = s;
+				}
+			}
+		}
+		return s;
+	}
+
+	/**
+	 * Get the version of this state. The version is incremented on every
+	 * modification.
+	 */
+	public synchronized long getVersion()
+	{
+		return version;
+	}
+
+	/**
+	 * Notify that the state was modified. This is called by all setters of
+	 * {@link ViewerState}. It must be called explicitly after modifying
+	 * {@link #getSources() sources} or {@link #getSourceGroups() groups}
+	 * directly.
+	 */
+	public synchronized void modified()
+	{
+		checkMutable();
+		++version;
+		snapshot = null;
+	}
+
+	public boolean isSnapshot()
+	{
+		return isSnapshot;
+	}
+
+	private void checkMutable()
+	{
+		if ( isSnapshot )
+			throw new UnsupportedOperationException( "ViewerState snapshot is immutable" );
+	}
+
 
 	/*
 	 * Renderer state.
@@ -160,7 +268,9 @@ public class ViewerState
 	 */
 	public synchronized void setViewerTransform( final AffineTransform3D t )
 	{
+		checkMutable();
 		viewerTransform.set( t );
+		modified();
 	}
 
 	/**
@@ -178,9 +288,11 @@ public class ViewerState
 	{
 		if ( index >= 0 && index < sources.size() )
 		{
+			checkMutable();
 			sources.get( currentSource ).setCurrent( false );
 			currentSource = index;
 			sources.get( currentSource ).setCurrent( true );
+			modified();
 		}
 	}
 
@@ -199,9 +311,11 @@ public class ViewerState
 	{
 		if ( index >= 0 && index < groups.size() )
 		{
+			checkMutable();
 			groups.get( currentGroup ).setCurrent( false );
 			currentGroup = index;
 			groups.get( currentGroup ).setCurrent( true );
+			modified();
 		}
 	}
 
@@ -222,7 +336,9 @@ public class ViewerState
 	 */
 	public synchronized void setInterpolation( final Interpolation method )
 	{
+		checkMutable();
 		interpolation = method;
+		modified();
 	}
 
 	// TODO: replace by getDisplayMode()
@@ -262,7 +378,9 @@ public class ViewerState
 	 */
 	public synchronized void setDisplayMode( final DisplayMode mode )
 	{
+		checkMutable();
 		displayMode = mode;
+		modified();
 	}
 
 	public synchronized DisplayMode getDisplayMode()
@@ -288,7 +406,9 @@ public class ViewerState
 	 */
 	public synchronized void setCurrentTimepoint( final int timepoint )
 	{
+		checkMutable();
 		currentTimepoint = timepoint;
+		modified();
 	}
 
 	/**
@@ -333,7 +453,9 @@ public class ViewerState
 
 	public synchronized void addSource( final SourceAndConverter< ? > source )
 	{
+		checkMutable();
 		sources.add( SourceState.create( source ) );
+		modified();
 	}
 
 	public synchronized void removeSource( final Source< ? > source )
@@ -350,6 +472,7 @@ public class ViewerState
 
 	protected void removeSource( final int index )
 	{
+		checkMutable();
 		sources.remove( index );
 		if ( currentSource == index )
 			currentSource = 0;
@@ -368,6 +491,7 @@ public class ViewerState
 					ids.add( id - 1 );
 			}
 		}
+		modified();
 	}
 
 	public synchronized boolean isSourceVisible( final int index )
@@ -395,11 +519,20 @@ public class ViewerState
 	}
 
 	/**
-	 * Returns a list of the indices of all currently visible sources.
+	 * Returns a list of the indices of all currently visible sources. For a
+	 * {@link #snapshot()}, this is computed once and the returned list is
+	 * unmodifiable.
 	 *
 	 * @return indices of all currently visible sources.
 	 */
 	public synchronized List< Integer > getVisibleSourceIndices()
+	{
+		if ( isSnapshot )
+			return snapshotVisibleSourceIndices;
+		return computeVisibleSourceIndices();
+	}
+
+	private List< Integer > computeVisibleSourceIndices()
 	{
 		final ArrayList< Integer > visible = new ArrayList< Integer >();
 		switch ( displayMode )
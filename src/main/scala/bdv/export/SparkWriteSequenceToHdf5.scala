@@ -0,0 +1,173 @@
+package bdv.export
+
+import java.io.File
+import java.util.{ArrayList => JArrayList, HashMap => JHashMap, Map => JMap}
+
+import bdv.img.hdf5.{Hdf5ImageLoader, Partition}
+import bdv.spimdata.{SequenceDescriptionMinimal, SpimDataMinimal, XmlIoSpimDataMinimal}
+import org.apache.spark.{SparkConf, SparkContext}
+
+import scala.collection.JavaConversions._
+
+/**
+ * Export a sequence to hdf5 with Spark, for datasets that are too large to
+ * be written by a single JVM.
+ *
+ * The dataset is split into [[Partition]]s. Each partition file is written by
+ * one Spark task, using [[WriteSequenceToHdf5]]`.writeHdf5PartitionFile`, so
+ * reading, downsampling, and compressing the cells of a partition happens on
+ * the executor that writes it. Then the driver writes the master file linking
+ * the partitions with [[WriteSequenceToHdf5]]`.writeHdf5PartitionLinkFile`.
+ *
+ * Executors load the source sequence themselves from its dataset XML. The
+ * source image data and the output directory must therefore be reachable
+ * under the same paths from all executors, e.g. on a shared file system. In
+ * local mode, this is trivially the case.
+ *
+ * Partitions are written with resume enabled (see [[ExportCheckpoint]]), such
+ * that a task that Spark re-runs after a failure only writes the missing
+ * datasets of its partition.
+ */
+object SparkWriteSequenceToHdf5 {
+
+  /**
+   * Serializable description of a [[Partition]].
+   */
+  case class PartitionSpec(path: String, timepoints: Seq[(Int, Int)], setups: Seq[(Int, Int)]) {
+    def toPartition: Partition = new Partition(path, toJavaMap(timepoints), toJavaMap(setups))
+  }
+
+  object PartitionSpec {
+    def apply(partition: Partition): PartitionSpec = PartitionSpec(
+      partition.getPath,
+      partition.getTimepointIdSequenceToPartition.toSeq.map { case (k, v) => (k.intValue, v.intValue) },
+      partition.getSetupIdSequenceToPartition.toSeq.map { case (k, v) => (k.intValue, v.intValue) })
+  }
+
+  /**
+   * Serializable description of the [[ExportMipmapInfo]] of one setup.
+   */
+  case class MipmapSpec(setup: Int, resolutions: Array[Array[Int]], subdivisions: Array[Array[Int]])
+
+  private def toJavaMap(pairs: Seq[(Int, Int)]): JMap[Integer, Integer] = {
+    val map = new JHashMap[Integer, Integer]()
+    for ((k, v) <- pairs)
+      map.put(k, v)
+    map
+  }
+
+  private def toMipmapInfo(specs: Array[MipmapSpec]): JMap[Integer, ExportMipmapInfo] = {
+    val map = new JHashMap[Integer, ExportMipmapInfo]()
+    for (m <- specs)
+      map.put(m.setup, new ExportMipmapInfo(m.resolutions, m.subdivisions))
+    map
+  }
+
+  /**
+   * Source sequences loaded in this JVM, by XML filename. Tasks of the same
+   * export running on one executor share the sequence (and its image loader
+   * cache).
+   */
+  private val sequences = new JHashMap[String, SequenceDescriptionMinimal]()
+
+  private def loadSequence(xmlFilename: String): SequenceDescriptionMinimal = sequences.synchronized {
+    var seq = sequences.get(xmlFilename)
+    if (seq == null) {
+      seq = new XmlIoSpimDataMinimal().load(xmlFilename).getSequenceDescription
+      sequences.put(xmlFilename, seq)
+    }
+    seq
+  }
+
+  /**
+   * Write the given partition files, one Spark task per partition.
+   *
+   * @param xmlFilename dataset XML of the source sequence.
+   * @param perSetupMipmapInfo subsampling factors and subdivision block sizes
+   *                           for each setup (of the full sequence).
+   * @param deflate whether to compress the data with the HDF5 DEFLATE filter.
+   * @param partitions which parts of the dataset to write, and to which files.
+   */
+  def writeHdf5PartitionFiles(sc: SparkContext, xmlFilename: String,
+                              perSetupMipmapInfo: JMap[Integer, ExportMipmapInfo],
+                              deflate: Boolean, partitions: Seq[Partition]) {
+    val specs = partitions.map(PartitionSpec(_))
+    val mipmaps = perSetupMipmapInfo.toSeq.map {
+      case (setup, info) => MipmapSpec(setup.intValue, info.getExportResolutions, info.getSubdivisions)
+    }.toArray
+    val xml = xmlFilename
+
+    val written = sc.parallelize(specs, math.max(1, specs.size)).map {
+      spec =>
+        val seq = loadSequence(xml)
+        val t0 = System.nanoTime()
+        WriteSequenceToHdf5.writeHdf5PartitionFile(seq, toMipmapInfo(mipmaps), deflate, spec.toPartition,
+          true, new ProgressWriterConsole())
+        (spec.path, (System.nanoTime() - t0) / 1e9)
+    }.collect()
+
+    for ((path, seconds) <- written)
+      println("wrote %s in %.1f s".format(path, seconds))
+  }
+
+  /**
+   * Write the partition files with Spark, then write the master file linking
+   * them.
+   *
+   * @param xmlFilename dataset XML of the source sequence.
+   * @param perSetupMipmapInfo subsampling factors and subdivision block sizes
+   *                           for each setup.
+   * @param deflate whether to compress the data with the HDF5 DEFLATE filter.
+   * @param partitions which parts of the dataset to write, and to which files.
+   * @param hdf5File the master file to write.
+   */
+  def writeHdf5File(sc: SparkContext, xmlFilename: String, perSetupMipmapInfo: JMap[Integer, ExportMipmapInfo],
+                    deflate: Boolean, partitions: JArrayList[Partition], hdf5File: File) {
+    writeHdf5PartitionFiles(sc, xmlFilename, perSetupMipmapInfo, deflate, partitions)
+    WriteSequenceToHdf5.writeHdf5PartitionLinkFile(loadSequence(xmlFilename), perSetupMipmapInfo, partitions, hdf5File)
+  }
+
+  /**
+   * Convert a dataset to a partitioned hdf5 dataset with proposed mipmap
+   * settings, and write the XML for it.
+   *
+   * Usage: SparkWriteSequenceToHdf5 input.xml output.xml [timepointsPerPartition [setupsPerPartition]]
+   *
+   * The Spark master is taken from the configuration (e.g. set by spark-submit),
+   * and defaults to local[*].
+   */
+  def main(args: Array[String]) {
+    if (args.length < 2) {
+      System.err.println("usage: SparkWriteSequenceToHdf5 <input.xml> <output.xml> [timepointsPerPartition [setupsPerPartition]]")
+      return
+    }
+    val inputXml = new File(args(0)).getAbsolutePath
+    val outputXml = new File(args(1)).getAbsoluteFile
+    val timepointsPerPartition = if (args.length > 2) args(2).toInt else 1
+    val setupsPerPartition = if (args.length > 3) args(3).toInt else 0
+
+    val conf = new SparkConf().setAppName("BDV hdf5 export")
+    if (!conf.contains("spark.master"))
+      conf.setMaster("local[*]")
+    val sc = new SparkContext(conf)
+    try {
+      val spimData = new XmlIoSpimDataMinimal().load(inputXml)
+      val seq = spimData.getSequenceDescription
+      val perSetupMipmapInfo = ProposeMipmaps.proposeMipmaps(seq)
+
+      val basename = outputXml.getPath.replaceFirst("\\.xml$", "")
+      val hdf5File = new File(basename + ".h5")
+      val partitions = Partition.split(seq.getTimePoints.getTimePointsOrdered, seq.getViewSetupsOrdered,
+        timepointsPerPartition, setupsPerPartition, basename)
+
+      writeHdf5File(sc, inputXml, perSetupMipmapInfo, true, partitions, hdf5File)
+
+      val outputSeq = new SequenceDescriptionMinimal(seq, null)
+      outputSeq.setImgLoader(new Hdf5ImageLoader(hdf5File, partitions, outputSeq, false))
+      val outputSpimData = new SpimDataMinimal(outputXml.getParentFile, outputSeq, spimData.getViewRegistrations)
+      new XmlIoSpimDataMinimal().save(outputSpimData, outputXml.getPath)
+    } finally {
+      sc.stop()
+    }
+  }
+}
@@ -2,7 +2,7 @@ package bdv.img.sil
 
 import bdv.AbstractViewerImgLoader
 import bdv.img.cache._
-import bdv.img.sil.SILVolatileIntArrayLoader
+import bdv.util.MipmapTransforms
 import mpicbg.spim.data.sequence.ViewId
 import net.imglib2.RandomAccessibleInterval
 import net.imglib2.`type`.NativeType
@@ -11,52 +11,117 @@ import net.imglib2.`type`.volatiles.VolatileIntType
 import net.imglib2.img.basictypeaccess.volatiles.array.VolatileIntArray
 import net.imglib2.realtransform.AffineTransform3D
 import net.imglib2.util.Fraction
+import org.apache.spark.rdd.RDD
+import org.apache.spark.storage.StorageLevel
 import tipl.spark.DSImg
+import tipl.util.TImgSlice
 
-class SILImageLoader(baseImg: DSImg[Int]) extends
+/**
+ * Image loader for a single 3D int image (one timepoint, one setup) that is
+ * distributed as an RDD of z-slices, e.g. a [[DSImg]].
+ *
+ * Cells are requested through a [[VolatileGlobalCellCache]] with a single
+ * fetcher thread. The fetcher collects all queued cells of one mipmap level
+ * into a batch, and the [[SILVolatileIntArrayLoader]] computes a batch in one
+ * Spark job. Downsampled levels are computed lazily on the cluster for the
+ * requested cells only. Loaded cells are cached locally.
+ *
+ * @param slices z-slices (z index, row-major slice data) of the full
+ *               resolution image.
+ * @param dimensions width, height, and depth of the full resolution image.
+ */
+class SILImageLoader(slices: RDD[(Int, Array[Int])], val dimensions: Array[Long],
+                     val cellDimensions: Array[Int] = Array(32, 32, 32)) extends
   AbstractViewerImgLoader[IntType, VolatileIntType](new IntType(), new VolatileIntType()) {
 
-  val dimensions = Array[Long](baseImg.getPos().x,
-    baseImg.getPos().y,baseImg.getPos().z)
+  /**
+   * Create a loader for a [[DSImg]]. Its slices are persisted, because every
+   * batch of cells scans them once.
+   */
+  def this(baseImg: DSImg[Int]) = this(SILImageLoader.slicesOf(baseImg), SILImageLoader.dimensionsOf(baseImg))
 
-  val cache = new VolatileGlobalCellCache[VolatileIntArray](
-    new SILVolatileIntArrayLoader(baseImg), 1, 1, 1, 10
-  )
+  val numLevels = SILImageLoader.getNumLevels(dimensions, cellDimensions)
 
-  val tileWidth = 100
-  val tileHeight = 100
+  val mipmapResolutions: Array[Array[Double]] = Array.tabulate(numLevels) {
+    l => Array.fill(3)((1 << l).toDouble)
+  }
 
-  override def getImage(view: ViewId, level: Int): RandomAccessibleInterval[IntType] = ???
+  val mipmapTransforms: Array[AffineTransform3D] =
+    mipmapResolutions.map(MipmapTransforms.getMipmapTransformDefault(_))
 
-  override def numMipmapLevels(setupId: Int): Int = ???
+  val imageDimensions: Array[Array[Long]] = Array.tabulate(numLevels) {
+    l => dimensions.map(d => (d + (1 << l) - 1) >> l)
+  }
 
-  override def getMipmapResolutions(setupId: Int): Array[Array[Double]] = ???
+  val cache = new VolatileGlobalCellCache[VolatileIntArray](
+    new SILVolatileIntArrayLoader(slices, dimensions), 1, 1, numLevels, 1
+  )
+
+  override def getImage(view: ViewId, level: Int): RandomAccessibleInterval[IntType] = {
+    val img = prepareCachedImage[IntType](view, level, LoadingStrategy.BLOCKING)
+    img.setLinkedType(new IntType(img))
+    img
+  }
 
   override def getVolatileImage(view: ViewId, level: Int):
-  RandomAccessibleInterval[VolatileIntType] = ???
+  RandomAccessibleInterval[VolatileIntType] = {
+    val img = prepareCachedImage[VolatileIntType](view, level, LoadingStrategy.VOLATILE)
+    img.setLinkedType(new VolatileIntType(img))
+    img
+  }
+
+  override def numMipmapLevels(setupId: Int): Int = numLevels
+
+  override def getMipmapResolutions(setupId: Int): Array[Array[Double]] = mipmapResolutions
 
-  override def getMipmapTransforms(setupId: Int): Array[AffineTransform3D] = ???
+  override def getMipmapTransforms(setupId: Int): Array[AffineTransform3D] = mipmapTransforms
 
-  override def getCache: Cache = ???
+  override def getCache: VolatileGlobalCellCache[VolatileIntArray] = cache
 
   /**
    * (Almost) create a {@link CachedCellImg} backed by the cache.
    * The created image needs a {@link NativeImg#setLinkedType(net.imglib2.type.Type) linked type}
    * before it can be used.
-   * The type should be either {@link ARGBType} and {@link VolatileARGBType}.
+   * The type should be either {@link IntType} and {@link VolatileIntType}.
    */
   protected def prepareCachedImage[T <: NativeType[T]](view: ViewId, level: Int, loadingStrategy:
   LoadingStrategy): CachedCellImg[T, VolatileIntArray] = {
-
-
-    val cellDimensions: Array[Int] = Array[Int](tileWidth, tileHeight, 1)
-    val priority: Int = 0
+    val priority: Int = numLevels - 1 - level
     val cacheHints: CacheHints = new CacheHints(loadingStrategy, priority, false)
-    val c: VolatileImgCells.CellCache[VolatileIntArray] = new
-        VolatileGlobalCellCache[A]#VolatileCellCache(view.getTimePointId, view.getViewSetupId,
-          level, cacheHints)
+    val c: VolatileImgCells.CellCache[VolatileIntArray] = new cache.VolatileCellCache(
+      view.getTimePointId, view.getViewSetupId, level, cacheHints)
     val cells: VolatileImgCells[VolatileIntArray] = new VolatileImgCells[VolatileIntArray](c, new
-        Fraction, dimensions, cellDimensions)
+        Fraction, imageDimensions(level), cellDimensions)
     new CachedCellImg[T, VolatileIntArray](cells)
   }
-}
\ No newline at end of file
+}
+
+object SILImageLoader {
+  /**
+   * Number of mipmap levels: downsample by 2 until the image fits into one
+   * cell in every dimension.
+   */
+  def getNumLevels(dimensions: Array[Long], cellDimensions: Array[Int]): Int = {
+    var levels = 1
+    while ((0 until 3).exists(d => (dimensions(d) >> (levels - 1)) > cellDimensions(d)))
+      levels += 1
+    levels
+  }
+
+  def dimensionsOf(baseImg: DSImg[Int]): Array[Long] = {
+    val dim = baseImg.getDim()
+    Array[Long](dim.x, dim.y, dim.z)
+  }
+
+  /**
+   * The slices of a [[DSImg]] as (z index, data) pairs, with z relative to
+   * the image position.
+   */
+  def slicesOf(baseImg: DSImg[Int]): RDD[(Int, Array[Int])] = {
+    val z0 = baseImg.getPos().z
+    baseImg.getBaseImg().rdd.map {
+      case (pos, slice) =>
+        (pos.z - z0, slice.asInstanceOf[TImgSlice[_]].get().asInstanceOf[Array[Int]])
+    }.persist(StorageLevel.MEMORY_AND_DISK)
+  }
+}
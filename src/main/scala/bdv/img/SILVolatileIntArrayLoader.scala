@@ -1,33 +1,59 @@
 package bdv.img.sil
 
-import bdv.img.cache.CacheArrayLoader
-import net.imglib2.img.basictypeaccess.volatiles.array.VolatileIntArray
-import tipl.util.TImgTools
+import java.util.{List => JList}
 
-// SIL Imports
-import tipl.spark.DSImg
+import bdv.img.cache.BatchCacheArrayLoader
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileIntArray
+import org.apache.spark.SparkContext._
+import org.apache.spark.rdd.RDD
 
-class SILVolatileIntArrayLoader(baseImg: DSImg[Int])
-  extends CacheArrayLoader[VolatileIntArray] {
+import scala.collection.JavaConversions._
 
-  val basePos = baseImg.getPos()
+/**
+ * Loads cells of a 3D int image that is distributed as an RDD of z-slices
+ * (z index, row-major slice data of width x height).
+ *
+ * Cells of mipmap level l are averages of 2^l^ x 2^l^ x 2^l^ blocks of the
+ * full resolution image, computed on the cluster when the cell is requested.
+ * Requests for several cells (see [[BatchCacheArrayLoader]]) are answered by
+ * a single Spark job.
+ *
+ * @param slices z-slices of the full resolution image. This is scanned once
+ *               per batch, so it should be persisted.
+ * @param dimensions width, height, and depth of the full resolution image.
+ */
+class SILVolatileIntArrayLoader(slices: RDD[(Int, Array[Int])], dimensions: Array[Long],
+                                maxBatchSize: Int = SILVolatileIntArrayLoader.DEFAULT_MAX_BATCH_SIZE)
+  extends BatchCacheArrayLoader[VolatileIntArray] {
 
-  private var theEmptyArray: VolatileIntArray =
-    new VolatileIntArray(tileWidth * tileHeight, false)
-  private final val tileWidth: Int = 0
-  private final val tileHeight: Int = 0
+  private var theEmptyArray: VolatileIntArray = new VolatileIntArray(32 * 32 * 32, false)
 
   def getBytesPerElement: Int = 4
 
+  def getMaxBatchSize: Int = maxBatchSize
+
   @throws(classOf[InterruptedException])
   def loadArray(timepoint: Int, setup: Int, level: Int, dimensions: Array[Int], min: Array[Long])
   : VolatileIntArray = {
+    val request = SILVolatileIntArrayLoader.BlockRequest(level, min.clone(), dimensions.clone())
+    new VolatileIntArray(fetchBlocks(Array(request))(0), true)
+  }
 
-    val data = baseImg.getPolyImage(min(2).toInt,TImgTools.IMAGETYPE_INT).asInstanceOf[Array[Int]]
-
-    return new VolatileIntArray(data, true)
+  @throws(classOf[InterruptedException])
+  def loadArrays(timepoint: Int, setup: Int, level: Int, dimensions: JList[Array[Int]],
+                 min: JList[Array[Long]]): JList[VolatileIntArray] = {
+    val requests = dimensions.zip(min).map {
+      case (d, m) => SILVolatileIntArrayLoader.BlockRequest(level, m.clone(), d.clone())
+    }.toArray
+    seqAsJavaList(fetchBlocks(requests).map(new VolatileIntArray(_, true)))
   }
 
+  /**
+   * Compute the data of the requested cells in one Spark job.
+   */
+  def fetchBlocks(requests: Array[SILVolatileIntArrayLoader.BlockRequest]): Array[Array[Int]] =
+    SILVolatileIntArrayLoader.fetchBlocks(slices, dimensions(0).toInt, dimensions(1).toInt, requests)
+
   def emptyArray(dimensions: Array[Int]): VolatileIntArray = {
     val numEntities: Int = dimensions.fold(1)(_ * _)
 
@@ -35,4 +61,99 @@ class SILVolatileIntArrayLoader(baseImg: DSImg[Int])
       new VolatileIntArray(numEntities, false)
     return theEmptyArray
   }
-}
\ No newline at end of file
+}
+
+object SILVolatileIntArrayLoader {
+  val DEFAULT_MAX_BATCH_SIZE = 256
+
+  /**
+   * A cell of mipmap level `level` with the given min and dimensions (in
+   * coordinates of that level).
+   */
+  case class BlockRequest(level: Int, min: Array[Long], dims: Array[Int])
+
+  /**
+   * Sum and number of full resolution pixels contributing to each pixel of
+   * one z-plane of a requested cell.
+   */
+  private class PartialPlane(val sums: Array[Long], val counts: Array[Int]) extends Serializable {
+    def add(other: PartialPlane): PartialPlane = {
+      var i = 0
+      while (i < sums.length) {
+        sums(i) += other.sums(i)
+        counts(i) += other.counts(i)
+        i += 1
+      }
+      this
+    }
+  }
+
+  /**
+   * Add the contribution of the full resolution slice `data` to the output
+   * plane of request `r` that it falls into.
+   */
+  private def accumulate(r: BlockRequest, data: Array[Int], width: Int, height: Int): PartialPlane = {
+    val f = 1 << r.level
+    val w = r.dims(0)
+    val h = r.dims(1)
+    val plane = new PartialPlane(new Array[Long](w * h), new Array[Int](w * h))
+    var oy = 0
+    while (oy < h) {
+      val y0 = ((r.min(1) + oy) * f).toInt
+      val y1 = math.min(height, y0 + f)
+      var ox = 0
+      while (ox < w) {
+        val x0 = ((r.min(0) + ox) * f).toInt
+        val x1 = math.min(width, x0 + f)
+        var sum = 0L
+        var y = y0
+        while (y < y1) {
+          var x = x0
+          while (x < x1) {
+            sum += data(y * width + x)
+            x += 1
+          }
+          y += 1
+        }
+        val i = oy * w + ox
+        plane.sums(i) = sum
+        plane.counts(i) = math.max(0, y1 - y0) * math.max(0, x1 - x0)
+        ox += 1
+      }
+      oy += 1
+    }
+    plane
+  }
+
+  /**
+   * Compute the data of the requested cells from the full resolution
+   * `slices` in one Spark job. Each slice contributes to the z-plane of
+   * every requested cell that it overlaps. Contributions are summed per
+   * (cell, plane) on the cluster, and only the finished planes are
+   * collected.
+   */
+  def fetchBlocks(slices: RDD[(Int, Array[Int])], width: Int, height: Int,
+                  requests: Array[BlockRequest]): Array[Array[Int]] = {
+    val reqs = requests
+    val planes = slices.flatMap {
+      case (z, data) =>
+        reqs.iterator.zipWithIndex.flatMap {
+          case (r, i) =>
+            val oz = z / (1 << r.level) - r.min(2)
+            if (oz < 0 || oz >= r.dims(2)) Iterator.empty
+            else Iterator(((i, oz.toInt), accumulate(r, data, width, height)))
+        }
+    }.reduceByKey(_ add _).mapValues {
+      p =>
+        val plane = new Array[Int](p.sums.length)
+        for (i <- 0 until plane.length; if p.counts(i) > 0)
+          plane(i) = (p.sums(i) / p.counts(i)).toInt
+        plane
+    }.collect()
+
+    val blocks = requests.map(r => new Array[Int](r.dims.product))
+    for (((i, oz), plane) <- planes)
+      System.arraycopy(plane, 0, blocks(i), oz * plane.length, plane.length)
+    blocks
+  }
+}
@@ -0,0 +1,103 @@
+package bdv.img.remote
+
+import java.net.{InetAddress, InetSocketAddress, ServerSocket, Socket, SocketTimeoutException, URL}
+import java.util.concurrent.{ArrayBlockingQueue, TimeUnit}
+
+import com.sun.net.httpserver.{HttpExchange, HttpHandler, HttpServer}
+import org.scalatest.{BeforeAndAfterAll, FunSuite}
+
+import scala.collection.mutable.ArrayBuffer
+
+class AsyncHttpClientTests extends FunSuite with BeforeAndAfterAll {
+  /**
+   * Stub server: "/ok" responds with "hello", everything else with 404.
+   */
+  lazy val server = {
+    val s = HttpServer.create(new InetSocketAddress(InetAddress.getByName("localhost"), 0), 0)
+    s.createContext("/", new HttpHandler {
+      override def handle(exchange: HttpExchange) {
+        val body = "hello".getBytes("US-ASCII")
+        val status = if (exchange.getRequestURI.getPath == "/ok") 200 else 404
+        exchange.sendResponseHeaders(status, body.length)
+        exchange.getResponseBody.write(body)
+        exchange.close()
+      }
+    })
+    s.start()
+    s
+  }
+
+  /**
+   * Stub server that accepts connections, but never responds.
+   */
+  lazy val stalledServer = {
+    val s = new ServerSocket(0, 50, InetAddress.getByName("localhost"))
+    val t = new Thread(new Runnable {
+      override def run() {
+        val accepted = ArrayBuffer[Socket]()
+        try {
+          while (true)
+            accepted += s.accept()
+        } catch {
+          case e: Exception =>
+        }
+        accepted.foreach(_.close())
+      }
+    })
+    t.setDaemon(true)
+    t.start()
+    s
+  }
+
+  lazy val client = new AsyncHttpClient(2, 500, 2)
+
+  override def afterAll() {
+    client.shutdown()
+    server.stop(0)
+    stalledServer.close()
+  }
+
+  /**
+   * Issue a GET request and wait for the callback.
+   *
+   * @return the response body, or the exception passed to failed().
+   */
+  def get(url: String): Either[Exception, String] = {
+    val result = new ArrayBlockingQueue[Either[Exception, String]](1)
+    client.get(new URL(url), new AsyncHttpClient.Callback {
+      override def completed(body: Array[Byte]) {
+        result.put(Right(new String(body, "US-ASCII")))
+      }
+
+      override def failed(e: Exception) {
+        result.put(Left(e))
+      }
+    })
+    val r = result.poll(10, TimeUnit.SECONDS)
+    assert(r != null, "callback was not called for " + url)
+    r
+  }
+
+  test("successful request") {
+    assert(get("http://localhost:" + server.getAddress.getPort + "/ok") === Right("hello"))
+    // again, on the reused keep-alive connection
+    assert(get("http://localhost:" + server.getAddress.getPort + "/ok") === Right("hello"))
+  }
+
+  test("404 fails the request") {
+    get("http://localhost:" + server.getAddress.getPort + "/missing") match {
+      case Left(e) => assert(e.getMessage.contains("404"))
+      case Right(body) => fail("expected failure, got " + body)
+    }
+  }
+
+  test("stalled server times out") {
+    val t0 = System.currentTimeMillis()
+    get("http://localhost:" + stalledServer.getLocalPort + "/ok") match {
+      case Left(e) => assert(e.isInstanceOf[SocketTimeoutException])
+      case Right(body) => fail("expected timeout, got " + body)
+    }
+    assert(System.currentTimeMillis() - t0 >= 500)
+    assert(client.getNumPending === 0)
+  }
+}
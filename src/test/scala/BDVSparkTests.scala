@@ -1,12 +1,164 @@
 package bdv
 
-import org.scalatest.FunSuite
-import tipl.spark.SparkGlobal
+import java.io.File
+import java.nio.file.Files
+import java.util.{ArrayList => JArrayList, HashMap => JHashMap}
+
+import bdv.export.{ExportMipmapInfo, SparkWriteSequenceToHdf5, WriteSequenceToHdf5}
+import bdv.img.hdf5.{Hdf5ImageLoader, Partition}
+import bdv.img.sil.{SILImageLoader, SILVolatileIntArrayLoader}
+import bdv.spimdata.{SequenceDescriptionMinimal, SpimDataMinimal, XmlIoSpimDataMinimal}
+import mpicbg.spim.data.generic.sequence.{BasicImgLoader, BasicViewSetup}
+import mpicbg.spim.data.registration.{ViewRegistration, ViewRegistrations}
+import mpicbg.spim.data.sequence.{TimePoint, TimePoints, ViewId}
+import net.imglib2.RandomAccessibleInterval
+import net.imglib2.`type`.numeric.integer.UnsignedShortType
+import net.imglib2.img.array.ArrayImgs
+import net.imglib2.realtransform.AffineTransform3D
+import net.imglib2.view.Views
+import org.apache.spark.{SparkConf, SparkContext}
+import org.scalatest.{BeforeAndAfterAll, FunSuite}
+
+import scala.collection.JavaConversions._
+
+class BDVSparkTests extends FunSuite with BeforeAndAfterAll {
+  lazy val sc = new SparkContext(new SparkConf().setMaster("local[*]").setAppName("BDV Tests"))
+
+  override def afterAll() {
+    sc.stop()
+  }
+
+  val width = 40
+  val height = 30
+  val depth = 20
+
+  def value(x: Int, y: Int, z: Int): Int = x + width * (y + height * z)
+
+  lazy val slices = sc.parallelize(0 until depth, 4).map {
+    z => (z, Array.tabulate(width * height)(i => value(i % width, i / width, z)))
+  }.cache()
+
+  lazy val dimensions = Array[Long](width, height, depth)
+
+  /**
+   * Average of the full resolution values in the 2^level^ block of the given
+   * downsampled pixel.
+   */
+  def expected(level: Int, x: Int, y: Int, z: Int): Int = {
+    val f = 1 << level
+    val values = for (
+      zz <- z * f until math.min(depth, (z + 1) * f);
+      yy <- y * f until math.min(height, (y + 1) * f);
+      xx <- x * f until math.min(width, (x + 1) * f)
+    ) yield value(xx, yy, zz).toLong
+    (values.sum / values.size).toInt
+  }
+
+  def checkBlock(level: Int, min: Array[Long], dims: Array[Int], data: Array[Int]) {
+    for (z <- 0 until dims(2); y <- 0 until dims(1); x <- 0 until dims(0))
+      assert(data(x + dims(0) * (y + dims(1) * z)) ===
+        expected(level, min(0).toInt + x, min(1).toInt + y, min(2).toInt + z))
+  }
 
-class BDVSparkTests extends FunSuite {
-  lazy val sc = SparkGlobal.getContext("BDV Tests")
   test("Create numeric RDD") {
+    assert(slices.count() === depth)
+  }
+
+  test("Load full resolution cell") {
+    val loader = new SILVolatileIntArrayLoader(slices, dimensions)
+    val min = Array[Long](8, 4, 2)
+    val dims = Array(16, 10, 5)
+    val array = loader.loadArray(0, 0, 0, dims, min)
+    assert(array.isValid)
+    checkBlock(0, min, dims, array.getCurrentStorageArray)
+  }
+
+  test("Load batch of downsampled cells") {
+    val loader = new SILVolatileIntArrayLoader(slices, dimensions)
+    val mins = Seq(Array[Long](0, 0, 0), Array[Long](4, 0, 0), Array[Long](8, 4, 6), Array[Long](16, 12, 8))
+    val dims = Seq(Array(4, 4, 4), Array(4, 4, 4), Array(4, 4, 4), Array(4, 3, 2))
+    val arrays = loader.loadArrays(0, 0, 1, dims, mins)
+    assert(arrays.size === mins.size)
+    for (i <- 0 until mins.size)
+      checkBlock(1, mins(i), dims(i), arrays(i).getCurrentStorageArray)
+  }
+
+  test("Image loader mipmaps") {
+    val imgLoader = new SILImageLoader(slices, dimensions, Array(16, 16, 16))
+    assert(imgLoader.numMipmapLevels(0) === 3)
+    val view = new ViewId(0, 0)
+    for (level <- 0 until imgLoader.numMipmapLevels(0)) {
+      val img = imgLoader.getImage(view, level)
+      val f = 1 << level
+      assert(img.dimension(0) === (width + f - 1) / f)
+      assert(img.dimension(2) === (depth + f - 1) / f)
+      val access = img.randomAccess()
+      val pos = Array[Long](img.dimension(0) - 1, img.dimension(1) / 2, img.dimension(2) - 1)
+      access.setPosition(pos)
+      assert(access.get().get() === expected(level, pos(0).toInt, pos(1).toInt, pos(2).toInt))
+    }
+  }
+
+  /**
+   * Two timepoints and two setups of synthetic data, kept in memory.
+   */
+  class SyntheticImgLoader extends BasicImgLoader[UnsignedShortType] {
+    override def getImage(view: ViewId): RandomAccessibleInterval[UnsignedShortType] = {
+      val img = ArrayImgs.unsignedShorts(50, 40, 30)
+      val c = img.cursor()
+      while (c.hasNext) {
+        c.fwd()
+        c.get().set((c.getIntPosition(0) * 7 + c.getIntPosition(1) * 3 + c.getIntPosition(2) +
+          100 * view.getTimePointId + 1000 * view.getViewSetupId) & 0xffff)
+      }
+      img
+    }
+
+    override def getImageType: UnsignedShortType = new UnsignedShortType()
+  }
+
+  test("Distributed hdf5 export") {
+    val dir = Files.createTempDirectory("bdv-spark-export").toFile
+
+    // write a source dataset in this JVM
+    val setups = new JHashMap[Integer, BasicViewSetup]()
+    for (s <- 0 until 2)
+      setups.put(s, new BasicViewSetup(s, s.toString, null, null))
+    val timepoints = new TimePoints(seqAsJavaList(Seq(new TimePoint(0), new TimePoint(1))))
+    val seq = new SequenceDescriptionMinimal(timepoints, setups, new SyntheticImgLoader, null)
+    val perSetupMipmapInfo = new JHashMap[Integer, ExportMipmapInfo]()
+    for (s <- 0 until 2)
+      perSetupMipmapInfo.put(s, new ExportMipmapInfo(Array(Array(1, 1, 1), Array(2, 2, 2)), Array(Array(16, 16, 16), Array(16, 16, 16))))
+    val sourceH5 = new File(dir, "source.h5")
+    WriteSequenceToHdf5.writeHdf5File(seq, perSetupMipmapInfo, true, sourceH5, null)
+    seq.setImgLoader(new Hdf5ImageLoader(sourceH5, null, seq, false))
+    val regs = new JArrayList[ViewRegistration]()
+    for (t <- 0 until 2; s <- 0 until 2)
+      regs.add(new ViewRegistration(t, s, new AffineTransform3D()))
+    val sourceXml = new File(dir, "source.xml").getAbsolutePath
+    new XmlIoSpimDataMinimal().save(new SpimDataMinimal(dir, seq, new ViewRegistrations(regs)), sourceXml)
 
+    // export with one partition per (timepoint, setup)
+    val exportH5 = new File(dir, "export.h5")
+    val partitions = Partition.split(timepoints.getTimePointsOrdered, seq.getViewSetupsOrdered, 1, 1,
+      new File(dir, "export").getAbsolutePath)
+    assert(partitions.size === 4)
+    SparkWriteSequenceToHdf5.writeHdf5File(sc, sourceXml, perSetupMipmapInfo, true, partitions, exportH5)
+    for (p <- partitions)
+      assert(new File(p.getPath).exists)
 
+    // the linked export must contain the same data as the source
+    val exportSeq = new SequenceDescriptionMinimal(seq, null)
+    val exportLoader = new Hdf5ImageLoader(exportH5, partitions, exportSeq, true)
+    val sourceLoader = seq.getImgLoader.asInstanceOf[Hdf5ImageLoader]
+    for (t <- 0 until 2; s <- 0 until 2; level <- 0 until 2) {
+      val view = new ViewId(t, s)
+      val expected = Views.flatIterable(sourceLoader.getImage(view, level)).cursor()
+      val actual = Views.flatIterable(exportLoader.getImage(view, level)).cursor()
+      while (expected.hasNext) {
+        assert(actual.hasNext)
+        assert(actual.next().get() === expected.next().get())
+      }
+    }
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,137 @@
+package bdv.img.remote
+
+import java.io.{ByteArrayInputStream, ByteArrayOutputStream, DataInputStream, DataOutputStream, IOException}
+import java.nio.ByteBuffer
+import java.util.zip.Deflater
+
+import org.scalatest.FunSuite
+
+import scala.util.Random
+
+class CellBatchProtocolTests extends FunSuite {
+  val n = 1000
+
+  /**
+   * Slowly changing values, which compress well.
+   */
+  val smooth = Array.tabulate(n)(i => (i * 3 + 7).toShort)
+
+  /**
+   * Random values, which do not compress.
+   */
+  val noise = {
+    val random = new Random(1)
+    Array.fill(n)(random.nextInt().toShort)
+  }
+
+  def frame(data: Array[Short], length: Int, encoding: Byte): Array[Byte] = {
+    val bytes = new ByteArrayOutputStream()
+    val out = new DataOutputStream(bytes)
+    CellBatchProtocol.writeFrame(out, data, length, encoding, new Deflater())
+    out.flush()
+    bytes.toByteArray
+  }
+
+  def payloadSize(frame: Array[Byte]) = ByteBuffer.wrap(frame).getInt(0)
+
+  def frameEncoding(frame: Array[Byte]) = frame(4)
+
+  def readFromBuffer(frame: Array[Byte], length: Int): Array[Short] = {
+    val data = new Array[Short](length)
+    CellBatchProtocol.readFrame(ByteBuffer.wrap(frame), data)
+    data
+  }
+
+  def readFromStream(frame: Array[Byte], length: Int): Array[Short] = {
+    val data = new Array[Short](length)
+    CellBatchProtocol.readFrame(new DataInputStream(new ByteArrayInputStream(frame)), data)
+    data
+  }
+
+  val encodings = Seq(CellBatchProtocol.ENCODING_RAW, CellBatchProtocol.ENCODING_DEFLATE, CellBatchProtocol.ENCODING_DELTA_DEFLATE)
+
+  for (encoding <- encodings) {
+    test("round trip, encoding " + encoding) {
+      val f = frame(smooth, n, encoding)
+      assert(frameEncoding(f) === encoding)
+      if (encoding == CellBatchProtocol.ENCODING_RAW)
+        assert(payloadSize(f) === 2 * n)
+      else
+        assert(payloadSize(f) < 2 * n)
+      assert(f.length === 5 + payloadSize(f))
+      assert(readFromBuffer(f, n) === smooth)
+      assert(readFromStream(f, n) === smooth)
+    }
+
+    test("round trip of the first elements, encoding " + encoding) {
+      val f = frame(smooth, 300, encoding)
+      assert(readFromBuffer(f, 300) === smooth.take(300))
+      assert(readFromStream(f, 300) === smooth.take(300))
+    }
+
+    test("incompressible data falls back to raw, encoding " + encoding) {
+      val f = frame(noise, n, encoding)
+      assert(frameEncoding(f) === CellBatchProtocol.ENCODING_RAW)
+      assert(payloadSize(f) === 2 * n)
+      assert(readFromBuffer(f, n) === noise)
+      assert(readFromStream(f, n) === noise)
+    }
+  }
+
+  test("consecutive frames of a batch") {
+    val frames = encodings.map(frame(smooth, n, _)) :+ frame(noise, n, CellBatchProtocol.ENCODING_DEFLATE)
+    val batch = frames.reduce(_ ++ _)
+    val buf = ByteBuffer.wrap(batch)
+    val in = new DataInputStream(new ByteArrayInputStream(batch))
+    for (expected <- Seq(smooth, smooth, smooth, noise)) {
+      val fromBuffer = new Array[Short](n)
+      CellBatchProtocol.readFrame(buf, fromBuffer)
+      assert(fromBuffer === expected)
+      val fromStream = new Array[Short](n)
+      CellBatchProtocol.readFrame(in, fromStream)
+      assert(fromStream === expected)
+    }
+    assert(!buf.hasRemaining)
+  }
+
+  test("truncated frame fails") {
+    for (encoding <- encodings) {
+      val f = frame(smooth, n, encoding)
+      val truncated = f.take(f.length - 1)
+      intercept[IOException] { readFromBuffer(truncated, n) }
+      intercept[IOException] { readFromStream(truncated, n) }
+    }
+    val header = frame(smooth, n, CellBatchProtocol.ENCODING_RAW).take(3)
+    intercept[IOException] { readFromBuffer(header, n) }
+    intercept[IOException] { readFromStream(header, n) }
+  }
+
+  test("truncated payload fails") {
+    for (encoding <- encodings) {
+      val f = frame(smooth, n, encoding)
+      // cut the payload in half, and fix the size accordingly
+      val truncated = f.take(5 + payloadSize(f) / 2)
+      ByteBuffer.wrap(truncated).putInt(0, truncated.length - 5)
+      intercept[IOException] { readFromBuffer(truncated, n) }
+      intercept[IOException] { readFromStream(truncated, n) }
+    }
+  }
+
+  test("frame size that does not fit the cell fails") {
+    for (size <- Seq(-1, Int.MaxValue, CellBatchProtocol.maxPayloadBytes(n).toInt + 1)) {
+      val f = frame(smooth, n, CellBatchProtocol.ENCODING_DEFLATE)
+      ByteBuffer.wrap(f).putInt(0, size)
+      val e1 = intercept[IOException] { readFromBuffer(f, n) }
+      assert(e1.getMessage.contains("invalid cell frame size"))
+      val e2 = intercept[IOException] { readFromStream(f, n) }
+      assert(e2.getMessage.contains("invalid cell frame size"))
+    }
+  }
+
+  test("unknown encoding fails") {
+    val f = frame(smooth, n, CellBatchProtocol.ENCODING_RAW)
+    f(4) = 42
+    intercept[IOException] { readFromBuffer(f, n) }
+    intercept[IOException] { readFromStream(f, n) }
+  }
+}
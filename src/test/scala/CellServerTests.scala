@@ -0,0 +1,185 @@
+package bdv.img.remote
+
+import java.io.File
+import java.nio.file.Files
+import java.util.{ArrayList => JArrayList, HashMap => JHashMap}
+import java.util.concurrent.{ArrayBlockingQueue, TimeUnit}
+
+import bdv.export.{ExportMipmapInfo, WriteSequenceToHdf5}
+import bdv.img.cache.AsyncCacheArrayLoader.LoadCallback
+import bdv.img.hdf5.{Hdf5ImageLoader, ViewLevelId}
+import bdv.spimdata.SequenceDescriptionMinimal
+import mpicbg.spim.data.generic.sequence.{BasicImgLoader, BasicViewSetup}
+import mpicbg.spim.data.sequence.{TimePoint, TimePoints, ViewId}
+import net.imglib2.RandomAccessibleInterval
+import net.imglib2.`type`.numeric.integer.UnsignedShortType
+import net.imglib2.img.array.ArrayImgs
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray
+import net.imglib2.view.Views
+import org.scalatest.{BeforeAndAfterAll, FunSuite}
+
+import scala.collection.JavaConversions._
+
+class CellServerTests extends FunSuite with BeforeAndAfterAll {
+  val dims = Array(50, 40, 30)
+
+  val cellSize = Array(16, 16, 16)
+
+  val numLevels = 2
+
+  /**
+   * One timepoint and two setups of synthetic data, kept in memory.
+   */
+  class SyntheticImgLoader extends BasicImgLoader[UnsignedShortType] {
+    override def getImage(view: ViewId): RandomAccessibleInterval[UnsignedShortType] = {
+      val img = ArrayImgs.unsignedShorts(dims(0), dims(1), dims(2))
+      val c = img.cursor()
+      while (c.hasNext) {
+        c.fwd()
+        c.get().set((c.getIntPosition(0) * 7 + c.getIntPosition(1) * 300 + c.getIntPosition(2) * 11 +
+          1000 * view.getViewSetupId) & 0xffff)
+      }
+      img
+    }
+
+    override def getImageType: UnsignedShortType = new UnsignedShortType()
+  }
+
+  lazy val dir = Files.createTempDirectory("bdv-cellserver").toFile
+
+  /**
+   * Small hdf5 fixture, served by the CellServer.
+   */
+  lazy val seq = {
+    val setups = new JHashMap[Integer, BasicViewSetup]()
+    for (s <- 0 until 2)
+      setups.put(s, new BasicViewSetup(s, s.toString, null, null))
+    val timepoints = new TimePoints(seqAsJavaList(Seq(new TimePoint(0))))
+    val seq = new SequenceDescriptionMinimal(timepoints, setups, new SyntheticImgLoader, null)
+    val perSetupMipmapInfo = new JHashMap[Integer, ExportMipmapInfo]()
+    for (s <- 0 until 2)
+      perSetupMipmapInfo.put(s, new ExportMipmapInfo(Array(Array(1, 1, 1), Array(2, 2, 2)), Array(cellSize, cellSize)))
+    val h5 = new File(dir, "cellserver.h5")
+    WriteSequenceToHdf5.writeHdf5File(seq, perSetupMipmapInfo, true, h5, null)
+    seq.setImgLoader(new Hdf5ImageLoader(h5, null, seq, false))
+    seq
+  }
+
+  lazy val hdf5Loader = seq.getImgLoader.asInstanceOf[Hdf5ImageLoader]
+
+  lazy val server = {
+    val s = new CellServer(seq, 0, 4)
+    s.start()
+    s
+  }
+
+  override def afterAll() {
+    server.stop()
+  }
+
+  /**
+   * Min and dimensions of all cells of a level, in index order. Cells at the
+   * upper border are truncated.
+   */
+  def cells(level: Int): Seq[(Array[Long], Array[Int])] = {
+    val levelDims = hdf5Loader.getDimsAndExistence(new ViewLevelId(0, 0, level)).getDimensions
+    for (
+      z <- 0L until levelDims(2) by cellSize(2);
+      y <- 0L until levelDims(1) by cellSize(1);
+      x <- 0L until levelDims(0) by cellSize(0)
+    ) yield {
+      val min = Array(x, y, z)
+      (min, Array.tabulate(3)(d => math.min(cellSize(d), levelDims(d) - min(d)).toInt))
+    }
+  }
+
+  /**
+   * The cell as read by the Hdf5ImageLoader.
+   */
+  def expected(setup: Int, level: Int, min: Array[Long], cellDims: Array[Int]): Array[Short] = {
+    val max = Array.tabulate(3)(d => min(d) + cellDims(d) - 1)
+    val img = Views.interval(hdf5Loader.getImage(new ViewId(0, setup), level), min, max)
+    Views.flatIterable(img).map(_.get().toShort).toArray
+  }
+
+  def checkCell(setup: Int, level: Int, min: Array[Long], cellDims: Array[Int], array: VolatileShortArray) {
+    val where = "setup " + setup + " level " + level + " min " + min.mkString(",")
+    assert(array.isValid, where)
+    val data = array.getCurrentStorageArray
+    assert(data.length === cellDims.product, where)
+    assert(data.sameElements(expected(setup, level, min, cellDims)), where)
+  }
+
+  /**
+   * Connect a RemoteImageLoader with the given cell encoding.
+   */
+  def remoteLoader(encoding: String): RemoteImageLoader = {
+    System.setProperty(RemoteImageLoader.CELL_ENCODING_PROPERTY, encoding)
+    try {
+      new RemoteImageLoader(server.getBaseUrl, 0)
+    } finally {
+      System.clearProperty(RemoteImageLoader.CELL_ENCODING_PROPERTY)
+    }
+  }
+
+  test("fixture has truncated edge cells") {
+    assert(cells(0).exists(_._2(0) == 2))
+    assert(cells(1).exists(c => c._2(0) == 9 && c._2(1) == 4 && c._2(2) == 15))
+  }
+
+  for (encoding <- Seq("raw", CellBatchProtocol.FEATURE_DEFLATE, CellBatchProtocol.FEATURE_DELTA_DEFLATE)) {
+    test("single cells equal hdf5, encoding " + encoding) {
+      val loader = new RemoteVolatileShortArrayLoader(remoteLoader(encoding))
+      for (setup <- 0 until 2; level <- 0 until numLevels; (min, cellDims) <- cells(level))
+        checkCell(setup, level, min, cellDims, loader.loadArray(0, setup, level, cellDims, min))
+    }
+
+    test("batches of cells equal hdf5, encoding " + encoding) {
+      val loader = new RemoteVolatileShortArrayLoader(remoteLoader(encoding))
+      assert(loader.getMaxBatchSize > 1)
+      for (setup <- 0 until 2; level <- 0 until numLevels) {
+        val all = cells(level)
+        for (batch <- all.grouped(5)) {
+          val arrays = loader.loadArrays(0, setup, level,
+            seqAsJavaList(batch.map(_._2)), seqAsJavaList(batch.map(_._1)))
+          assert(arrays.size === batch.size)
+          for (((min, cellDims), array) <- batch.zip(arrays))
+            checkCell(setup, level, min, cellDims, array)
+        }
+      }
+    }
+  }
+
+  test("asynchronous batches of cells equal hdf5") {
+    val client = new AsyncHttpClient(4)
+    try {
+      val loader = new RemoteVolatileShortArrayLoader(remoteLoader(CellBatchProtocol.FEATURE_DELTA_DEFLATE), client, 4)
+      for (setup <- 0 until 2; level <- 0 until numLevels) {
+        val batch = cells(level)
+        val results = new ArrayBlockingQueue[Either[Exception, (Int, VolatileShortArray)]](batch.size)
+        val callbacks = new JArrayList[LoadCallback[VolatileShortArray]]()
+        for (i <- batch.indices)
+          callbacks.add(new LoadCallback[VolatileShortArray] {
+            override def loaded(data: VolatileShortArray) {
+              results.put(Right((i, data)))
+            }
+
+            override def failed(e: Exception) {
+              results.put(Left(e))
+            }
+          })
+        loader.loadArraysAsync(0, setup, level, seqAsJavaList(batch.map(_._2)), seqAsJavaList(batch.map(_._1)), callbacks)
+        for (_ <- batch.indices) {
+          val r = results.poll(10, TimeUnit.SECONDS)
+          assert(r != null, "callback was not called")
+          r match {
+            case Right((i, array)) => checkCell(setup, level, batch(i)._1, batch(i)._2, array)
+            case Left(e) => fail(e)
+          }
+        }
+      }
+    } finally {
+      client.shutdown()
+    }
+  }
+}
@@ -0,0 +1,154 @@
+package bdv.img.cache
+
+import java.io.{FileNotFoundException, IOException}
+import java.net.URL
+
+import org.scalatest.FunSuite
+
+import scala.collection.mutable.ArrayBuffer
+
+class NetworkLoadPolicyTests extends FunSuite {
+  /**
+   * Policy with a settable clock, that records backoff instead of sleeping.
+   */
+  class TestPolicy(maxRetries: Int = 2,
+                   initialBackoff: Long = 100,
+                   maxBackoff: Long = 300,
+                   failureTtl: Long = 100,
+                   maxFailureTtl: Long = 350,
+                   circuitBreakerThreshold: Int = 1000000,
+                   circuitBreakerOpen: Long = 1000)
+    extends NetworkLoadPolicy(maxRetries, initialBackoff, maxBackoff, failureTtl, maxFailureTtl, 4, circuitBreakerThreshold, circuitBreakerOpen) {
+    var now = 0L
+
+    val sleeps = ArrayBuffer[Long]()
+
+    override protected def currentTimeMillis(): Long = now
+
+    override protected def sleep(millis: Long) {
+      sleeps += millis
+    }
+  }
+
+  /**
+   * Request that fails with the given exception, and counts its attempts.
+   */
+  class FailingRequest(e: => IOException) extends NetworkLoadPolicy.Request[String] {
+    var attempts = 0
+
+    override def run(url: URL): String = {
+      attempts += 1
+      throw e
+    }
+  }
+
+  val okRequest = new NetworkLoadPolicy.Request[String] {
+    override def run(url: URL): String = "ok"
+  }
+
+  def url(path: String) = new URL("http://localhost:1234/" + path)
+
+  test("failure ttl doubles for consecutive failures, up to the maximum") {
+    val policy = new TestPolicy()
+    val u = url("a")
+    val expectedTtls = Seq(100L, 200L, 350L, 350L)
+    for (ttl <- expectedTtls) {
+      val failedAt = policy.now
+      policy.failed(u)
+      policy.now = failedAt + ttl - 1
+      assert(policy.isBlocked(u))
+      policy.now = failedAt + ttl
+      assert(!policy.isBlocked(u))
+    }
+    assert(!policy.isBlocked(url("b")))
+    policy.succeeded(u)
+    policy.failed(u)
+    policy.now += 100
+    assert(!policy.isBlocked(u), "success resets the ttl")
+  }
+
+  test("retries back off exponentially, up to the maximum") {
+    val policy = new TestPolicy(maxRetries = 4)
+    val u = url("a")
+    val request = new FailingRequest(new IOException("connection reset"))
+    assert(policy.call(u, request) === null)
+    assert(request.attempts === 5)
+    // random wait in [backoff/2, backoff) for backoff 100, 200, 300, 300
+    val backoffs = Seq(100L, 200L, 300L, 300L)
+    assert(policy.sleeps.size === backoffs.size)
+    for ((wait, backoff) <- policy.sleeps.zip(backoffs))
+      assert(wait >= backoff / 2 && wait < backoff)
+    assert(policy.isBlocked(u))
+    assert(policy.call(u, okRequest) === null, "blocked request is not sent")
+  }
+
+  test("circuit breaker opens after consecutive failures and closes on success") {
+    val policy = new TestPolicy(circuitBreakerThreshold = 3)
+    policy.failed(url("a"))
+    policy.failed(url("b"))
+    assert(!policy.isBlocked(url("c")))
+    policy.failed(url("c"))
+    assert(policy.isBlocked(url("d")), "breaker is open for the whole host")
+    assert(!policy.isBlocked(new URL("http://otherhost:1234/d")))
+    policy.now += 999
+    assert(policy.isBlocked(url("d")))
+    policy.now += 1
+    assert(!policy.isBlocked(url("d")), "breaker closes after the open time")
+
+    // one more failure opens it again right away, a success resets the count
+    policy.failed(url("d"))
+    assert(policy.isBlocked(url("e")))
+    policy.now += 1000
+    assert(policy.call(url("e"), okRequest) === "ok")
+    policy.failed(url("f"))
+    policy.failed(url("g"))
+    assert(!policy.isBlocked(url("h")))
+  }
+
+  test("client errors are final and do not count towards the circuit breaker") {
+    val policy = new TestPolicy(circuitBreakerThreshold = 3)
+    for (i <- 0 until 5) {
+      val request = new FailingRequest(new FileNotFoundException("nope"))
+      assert(policy.call(url("missing" + i), request) === null)
+      assert(request.attempts === 1)
+      assert(policy.isMissing(url("missing" + i)))
+    }
+    val forbidden = new FailingRequest(new NetworkLoadPolicy.HttpStatusException(403, url("forbidden")))
+    assert(policy.call(url("forbidden"), forbidden) === null)
+    assert(forbidden.attempts === 1)
+    assert(policy.sleeps.isEmpty)
+    assert(!policy.isBlocked(url("other")))
+
+    // missing for good: not requested again, even after failure ttls expired
+    policy.now += 1000000
+    val again = new FailingRequest(new FileNotFoundException("nope"))
+    assert(policy.call(url("missing0"), again) === null)
+    assert(again.attempts === 0)
+  }
+
+  test("server errors and throttling are retried") {
+    for (status <- Seq(500, 503, 408, 429)) {
+      val policy = new TestPolicy()
+      val request = new FailingRequest(new NetworkLoadPolicy.HttpStatusException(status, url("a")))
+      assert(policy.call(url("a"), request) === null)
+      assert(request.attempts === 3, "status " + status)
+      assert(!policy.isMissing(url("a")))
+      assert(policy.isBlocked(url("a")))
+    }
+  }
+
+  test("expired failures are purged when too many are remembered") {
+    val policy = new TestPolicy(failureTtl = 10, maxFailureTtl = 20)
+    for (i <- 0 until 10000)
+      policy.failed(url("old" + i))
+    assert(policy.getNumFailures === 10000)
+    // not yet expired for maxFailureTtl
+    policy.now = 25
+    policy.failed(url("new0"))
+    assert(policy.getNumFailures === 10001)
+    policy.now = 30
+    policy.failed(url("new1"))
+    assert(policy.getNumFailures === 2)
+    assert(policy.isBlocked(url("new1")))
+  }
+}